@@ -0,0 +1,36 @@
+package casekit.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over an underlying resource, e.g. a file, which has to be closed after use.
+ *
+ * @param <T> element type
+ */
+public interface CloseableIterator<T>
+        extends Iterator<T>, Closeable {
+
+    /**
+     * Returns a sequential stream of the remaining elements. Closing the stream closes this iterator.
+     *
+     * @return
+     */
+    default Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED
+                | Spliterator.NONNULL), false)
+                            .onClose(() -> {
+                                try {
+                                    this.close();
+                                } catch (final IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+    }
+}
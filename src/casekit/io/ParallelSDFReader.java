@@ -0,0 +1,385 @@
+package casekit.io;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.threading.MultiThreading;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Parallel reader of SD files. <br>
+ * The file is split into chunks at record boundaries, i.e. after lines starting with {@code $$$$}, which are
+ * found by scanning memory-mapped windows of the file near the split points only. Each chunk is then parsed by its
+ * own {@link IteratingSDFReader} on a worker thread, and each record is converted there too, e.g. into datasets.
+ * The converted records are passed to the consumer on the calling thread, either in original record order or in
+ * the order in which the chunks were finished. <br>
+ * Compressed files are decompressed as a stream and cut into chunks at record boundaries by the calling thread
+ * instead, see {@link CompressedFiles}.
+ */
+public class ParallelSDFReader {
+
+    private final static byte[] RECORD_DELIMITER = "$$$$".getBytes(StandardCharsets.US_ASCII);
+    private final static long MIN_CHUNK_SIZE = 1L
+            << 20;
+    private final static long MAX_CHUNK_SIZE = 64L
+            << 20;
+    // pages are only loaded when touched, so large windows are cheap near split points too
+    private final static int STREAM_CHUNK_LENGTH = 1
+            << 22;
+    private final static int SCAN_WINDOW_SIZE = 1
+            << 20;
+
+    /**
+     * Converts a parsed record, e.g. into datasets. Called on worker threads, so it has to be thread-safe.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface RecordConverter<T> {
+
+        List<T> convert(IAtomContainer structure) throws CDKException;
+    }
+
+    /**
+     * Reads and converts all records of an SD file in parallel and collects the results.
+     *
+     * @param pathToSDFile path to SD file
+     * @param converter    record converter
+     * @param nThreads     number of threads to use
+     * @param ordered      whether to keep the original record order
+     * @param <T>          result type
+     *
+     * @return
+     *
+     * @throws IOException          if the file could not be read
+     * @throws CDKException         if the conversion of a record failed
+     * @throws InterruptedException if the calling thread was interrupted
+     * @see #read(String, RecordConverter, Consumer, int, boolean)
+     */
+    public static <T> List<T> read(final String pathToSDFile, final RecordConverter<T> converter, final int nThreads,
+                                   final boolean ordered) throws IOException, CDKException, InterruptedException {
+        final List<T> results = new ArrayList<>();
+        read(pathToSDFile, converter, results::add, nThreads, ordered);
+
+        return results;
+    }
+
+    /**
+     * Reads and converts all records of an SD file in parallel. At most two chunks per thread are in flight, i.e.
+     * parsed or waiting to be consumed, also in original record order where a slow chunk holds back the parsing of
+     * further chunks, so the memory use does not depend on the file size.
+     *
+     * @param pathToSDFile path to SD file
+     * @param converter    record converter, called on worker threads
+     * @param consumer     consumer of the converted records, called on the calling thread
+     * @param nThreads     number of threads to use
+     * @param ordered      whether to keep the original record order
+     * @param <T>          result type
+     *
+     * @return number of parsed records
+     *
+     * @throws IOException          if the file could not be read
+     * @throws CDKException         if the conversion of a record failed
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    public static <T> long read(final String pathToSDFile, final RecordConverter<T> converter,
+                                final Consumer<T> consumer, final int nThreads,
+                                final boolean ordered) throws IOException, CDKException, InterruptedException {
+        final ChunkConsumer<T> chunkConsumer = new ChunkConsumer<>(consumer);
+        try {
+            if (CompressedFiles.isCompressed(pathToSDFile)) {
+                // compressed files cannot be mapped, so they are decompressed as a stream and cut into chunks
+                try (final BufferedReader reader = CompressedFiles.newReader(pathToSDFile)) {
+                    MultiThreading.processTasks(buildStreamCallables(reader, converter), chunkConsumer,
+                                                Math.max(1, nThreads), Math.max(1, nThreads)
+                                                        * 2, 5, ordered);
+                }
+                return chunkConsumer.recordCount;
+            }
+            try (final FileChannel fileChannel = FileChannel.open(Paths.get(pathToSDFile),
+                                                                  StandardOpenOption.READ)) {
+                final long size = fileChannel.size();
+                final long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size
+                        / (Math.max(1, nThreads)
+                        * 8L)));
+                final List<long[]> chunks = splitIntoChunks(fileChannel, chunkSize);
+                final Iterator<long[]> chunkIterator = chunks.iterator();
+                final Iterator<Callable<ChunkResult<T>>> callables = new Iterator<Callable<ChunkResult<T>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return chunkIterator.hasNext();
+                    }
+
+                    @Override
+                    public Callable<ChunkResult<T>> next() {
+                        final long[] chunk = chunkIterator.next();
+                        return () -> parseChunk(fileChannel, chunk[0], chunk[1], converter);
+                    }
+                };
+                MultiThreading.processTasks(callables, chunkConsumer, Math.max(1, nThreads), Math.max(1, nThreads)
+                        * 2, 5, ordered);
+            }
+
+            return chunkConsumer.recordCount;
+        } catch (final UncheckedIOException e) {
+            // failed decompression, see buildStreamCallables
+            throw e.getCause();
+        } catch (final IllegalStateException e) {
+            // failed task, see MultiThreading
+            final Throwable cause = e.getCause()
+                                            != null
+                                    ? e.getCause()
+                                       .getCause()
+                                    : null;
+            if (cause instanceof CDKException) {
+                throw (CDKException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Splits the file into chunks of about the given size which start at the beginning of a record and end after
+     * a record delimiter line or at the end of the file.
+     *
+     * @param fileChannel file channel
+     * @param chunkSize   approximate chunk size in bytes
+     *
+     * @return list of start (inclusive) and end (exclusive) positions
+     *
+     * @throws IOException
+     */
+    public static List<long[]> splitIntoChunks(final FileChannel fileChannel,
+                                               final long chunkSize) throws IOException {
+        final long size = fileChannel.size();
+        final List<long[]> chunks = new ArrayList<>();
+        long start = 0;
+        long end;
+        while (start
+                < size) {
+            end = findRecordEnd(fileChannel, Math.min(size, start
+                    + Math.max(1, chunkSize)));
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the first record delimiter line which starts at or after the given position.
+     *
+     * @param fileChannel file channel
+     * @param position    position to start at
+     *
+     * @return position after the delimiter line, or the file size if there is none
+     *
+     * @throws IOException
+     */
+    public static long findRecordEnd(final FileChannel fileChannel, final long position) throws IOException {
+        return findRecordEnd(fileChannel, position, 1);
+    }
+
+    /**
+     * Finds the end of the n-th record delimiter line which starts at or after the given position, e.g. to skip
+     * a number of records starting at a record boundary.
+     *
+     * @param fileChannel file channel
+     * @param position    position to start at
+     * @param recordCount number of delimiter lines to pass
+     *
+     * @return position after the n-th delimiter line, or the file size if there are less
+     *
+     * @throws IOException
+     */
+    public static long findRecordEnd(final FileChannel fileChannel, final long position,
+                                     final long recordCount) throws IOException {
+        final long size = fileChannel.size();
+        if (position
+                >= size) {
+            return size;
+        }
+        // start one byte earlier to know whether the position is a line start
+        long windowStart = Math.max(0, position
+                - 1);
+        boolean lineStart = position
+                == 0;
+        // number of matched delimiter bytes in the current line, or -1 if the line is no delimiter line
+        int matchedCount = -1;
+        long passedCount = 0;
+        MappedByteBuffer window;
+        byte b;
+        while (windowStart
+                < size) {
+            window = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(SCAN_WINDOW_SIZE, size
+                    - windowStart));
+            for (int i = 0; i
+                    < window.limit(); i++) {
+                b = window.get(i);
+                if (windowStart
+                        + i
+                        >= position) {
+                    if (lineStart) {
+                        matchedCount = 0;
+                    }
+                    if (matchedCount
+                            == RECORD_DELIMITER.length) {
+                        if (b
+                                == '\n') {
+                            passedCount++;
+                            if (passedCount
+                                    >= recordCount) {
+                                return windowStart
+                                        + i
+                                        + 1;
+                            }
+                            matchedCount = -1;
+                        }
+                    } else if (matchedCount
+                            >= 0) {
+                        matchedCount = b
+                                               == RECORD_DELIMITER[matchedCount]
+                                       ? matchedCount
+                                               + 1
+                                       : -1;
+                    }
+                }
+                lineStart = b
+                        == '\n';
+            }
+            windowStart += window.limit();
+        }
+
+        return size;
+    }
+
+    /**
+     * Cuts the decompressed input into chunks of about {@link #STREAM_CHUNK_LENGTH} characters which end after a
+     * record delimiter line. The chunks are read lazily by the calling thread.
+     *
+     * @param reader    reader of the decompressed input
+     * @param converter record converter
+     * @param <T>       result type
+     *
+     * @return
+     */
+    private static <T> Iterator<Callable<ChunkResult<T>>> buildStreamCallables(final BufferedReader reader,
+                                                                               final RecordConverter<T> converter) {
+        return new Iterator<Callable<ChunkResult<T>>>() {
+            private String nextChunk = this.readChunk();
+
+            private String readChunk() {
+                final StringBuilder stringBuilder = new StringBuilder();
+                String line;
+                try {
+                    while ((line = reader.readLine())
+                            != null) {
+                        stringBuilder.append(line)
+                                     .append('\n');
+                        if (stringBuilder.length()
+                                >= STREAM_CHUNK_LENGTH
+                                && line.startsWith("$$$$")) {
+                            break;
+                        }
+                    }
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return stringBuilder.length()
+                               == 0
+                       ? null
+                       : stringBuilder.toString();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.nextChunk
+                        != null;
+            }
+
+            @Override
+            public Callable<ChunkResult<T>> next() {
+                final String chunk = this.nextChunk;
+                this.nextChunk = this.readChunk();
+                return () -> parseChunk(chunk, converter);
+            }
+        };
+    }
+
+    private static <T> ChunkResult<T> parseChunk(final FileChannel fileChannel, final long start, final long end,
+                                                 final RecordConverter<T> converter) throws IOException, CDKException {
+        final MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, end
+                - start);
+
+        return parseChunk(StandardCharsets.UTF_8.decode(mappedByteBuffer)
+                                                .toString(), converter);
+    }
+
+    private static <T> ChunkResult<T> parseChunk(final String chunk,
+                                                 final RecordConverter<T> converter) throws IOException, CDKException {
+        final List<T> results = new ArrayList<>();
+        long recordCount = 0;
+        try (final IteratingSDFReader iterator = new IteratingSDFReader(new StringReader(chunk),
+                                                                       SilentChemObjectBuilder.getInstance())) {
+            while (iterator.hasNext()) {
+                results.addAll(converter.convert(iterator.next()));
+                recordCount++;
+            }
+        }
+
+        return new ChunkResult<>(results, recordCount);
+    }
+
+    private static class ChunkResult<T> {
+
+        private final List<T> results;
+        private final long recordCount;
+
+        ChunkResult(final List<T> results, final long recordCount) {
+            this.results = results;
+            this.recordCount = recordCount;
+        }
+    }
+
+    /**
+     * Passes the results of finished chunks to the consumer, which come in chunk order if requested. Runs on the
+     * calling thread.
+     */
+    private static class ChunkConsumer<T>
+            implements Consumer<ChunkResult<T>> {
+
+        private final Consumer<T> consumer;
+        private long recordCount;
+
+        ChunkConsumer(final Consumer<T> consumer) {
+            this.consumer = consumer;
+            this.recordCount = 0;
+        }
+
+        @Override
+        public void accept(final ChunkResult<T> chunkResult) {
+            for (final T result : chunkResult.results) {
+                this.consumer.accept(result);
+            }
+            this.recordCount += chunkResult.recordCount;
+        }
+    }
+}
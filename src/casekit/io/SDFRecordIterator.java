@@ -0,0 +1,66 @@
+package casekit.io;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the converted records of an SD file. Records are parsed and converted on demand only, so
+ * at most the results of a single record are held at a time. <br>
+ * A failed conversion is thrown as {@link IllegalStateException} with the {@link CDKException} as cause.
+ *
+ * @param <T> result type
+ */
+public class SDFRecordIterator<T>
+        implements CloseableIterator<T> {
+
+    private final IteratingSDFReader iterator;
+    private final ParallelSDFReader.RecordConverter<T> converter;
+    private final Deque<T> pendingResults;
+
+    /**
+     * @param reader    reader of the SD file, closed by {@link #close()}
+     * @param converter record converter
+     */
+    public SDFRecordIterator(final Reader reader, final ParallelSDFReader.RecordConverter<T> converter) {
+        this.iterator = new IteratingSDFReader(reader, SilentChemObjectBuilder.getInstance());
+        this.converter = converter;
+        this.pendingResults = new ArrayDeque<>();
+    }
+
+    @Override
+    public boolean hasNext() {
+        // records without any result are skipped
+        while (this.pendingResults.isEmpty()
+                && this.iterator.hasNext()) {
+            try {
+                this.pendingResults.addAll(this.converter.convert(this.iterator.next()));
+            } catch (final CDKException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return !this.pendingResults.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.pendingResults.poll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.pendingResults.clear();
+        this.iterator.close();
+    }
+}
@@ -0,0 +1,181 @@
+package casekit.io;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.threading.MultiThreading;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Splits SD files into shards without parsing the molecules. <br>
+ * The shard boundaries are found by scanning for record delimiter lines ({@code $$$$}), see
+ * {@link ParallelSDFReader#findRecordEnd(FileChannel, long, long)}, and the raw record bytes are copied by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so the records stay
+ * byte-identical. Shards are named like the input file with a running number, e.g. {@code data_1.sdf}, and can be
+ * written in parallel.
+ */
+public class SDFSplitter {
+
+    /**
+     * Splits an SD file into shards of at most the given number of records.
+     *
+     * @param pathToSDFile       path to SD file
+     * @param maxRecordsPerShard maximum number of records per shard
+     * @param nThreads           number of threads to write the shards with
+     *
+     * @return paths of the written shards
+     *
+     * @throws IOException          if the file could not be read or is compressed
+     * @throws InterruptedException
+     */
+    public static List<String> splitByRecordCount(final String pathToSDFile, final long maxRecordsPerShard,
+                                                  final int nThreads) throws IOException, InterruptedException {
+        if (maxRecordsPerShard
+                < 1) {
+            throw new IllegalArgumentException("maxRecordsPerShard must be positive: "
+                                                       + maxRecordsPerShard);
+        }
+        checkUncompressed(pathToSDFile);
+        try (final FileChannel fileChannel = FileChannel.open(Paths.get(pathToSDFile), StandardOpenOption.READ)) {
+            final long size = fileChannel.size();
+            final List<long[]> shards = new ArrayList<>();
+            long start = 0;
+            long end;
+            while (start
+                    < size) {
+                end = ParallelSDFReader.findRecordEnd(fileChannel, start, maxRecordsPerShard);
+                shards.add(new long[]{start, end});
+                start = end;
+            }
+
+            return writeShards(pathToSDFile, fileChannel, shards, nThreads);
+        }
+    }
+
+    /**
+     * Splits an SD file into shards of about the given size. A shard ends at the first record boundary after
+     * the target size, so only shards with a single record larger than the target size exceed it notably.
+     *
+     * @param pathToSDFile    path to SD file
+     * @param targetShardSize target shard size in bytes
+     * @param nThreads        number of threads to write the shards with
+     *
+     * @return paths of the written shards
+     *
+     * @throws IOException          if the file could not be read or is compressed
+     * @throws InterruptedException
+     */
+    public static List<String> splitBySize(final String pathToSDFile, final long targetShardSize,
+                                           final int nThreads) throws IOException, InterruptedException {
+        if (targetShardSize
+                < 1) {
+            throw new IllegalArgumentException("targetShardSize must be positive: "
+                                                       + targetShardSize);
+        }
+        checkUncompressed(pathToSDFile);
+        try (final FileChannel fileChannel = FileChannel.open(Paths.get(pathToSDFile), StandardOpenOption.READ)) {
+            return writeShards(pathToSDFile, fileChannel,
+                               ParallelSDFReader.splitIntoChunks(fileChannel, targetShardSize), nThreads);
+        }
+    }
+
+    /**
+     * Returns the path of a shard, i.e. the path of the SD file with "_" and the shard number inserted before the
+     * file ending.
+     *
+     * @param pathToSDFile path to SD file
+     * @param shardNumber  shard number, starting at 1
+     *
+     * @return
+     */
+    public static String buildShardPath(final String pathToSDFile, final int shardNumber) {
+        final Path path = Paths.get(pathToSDFile);
+        final String fileName = path.getFileName()
+                                    .toString();
+        final int fileEndingIndex = fileName.lastIndexOf('.');
+        final String shardFileName = fileEndingIndex
+                                             > 0
+                                     ? fileName.substring(0, fileEndingIndex)
+                                             + "_"
+                                             + shardNumber
+                                             + fileName.substring(fileEndingIndex)
+                                     : fileName
+                                             + "_"
+                                             + shardNumber;
+
+        return path.resolveSibling(shardFileName)
+                   .toString();
+    }
+
+    private static void checkUncompressed(final String pathToSDFile) throws IOException {
+        if (CompressedFiles.isCompressed(pathToSDFile)) {
+            throw new IOException("Compressed SD files cannot be split at byte level, decompress it first: "
+                                          + pathToSDFile);
+        }
+    }
+
+    private static List<String> writeShards(final String pathToSDFile, final FileChannel fileChannel,
+                                            final List<long[]> shards,
+                                            final int nThreads) throws IOException, InterruptedException {
+        final List<String> shardPaths = new ArrayList<>(shards.size());
+        final List<Callable<Long>> callables = new ArrayList<>(shards.size());
+        for (int i = 0; i
+                < shards.size(); i++) {
+            final String shardPath = buildShardPath(pathToSDFile, i
+                    + 1);
+            final long[] shard = shards.get(i);
+            shardPaths.add(shardPath);
+            // positional transfers do not change the channel position, so the channel can be shared
+            callables.add(() -> copy(fileChannel, shard[0], shard[1], shardPath));
+        }
+        try {
+            MultiThreading.processTasks(callables, bytes -> {
+            }, Math.max(1, nThreads), 5);
+        } catch (final IllegalStateException e) {
+            // failed task, see MultiThreading
+            if (e.getCause()
+                    != null
+                    && e.getCause()
+                        .getCause() instanceof IOException) {
+                throw (IOException) e.getCause()
+                                     .getCause();
+            }
+            throw e;
+        }
+
+        return shardPaths;
+    }
+
+    private static long copy(final FileChannel fileChannel, final long start, final long end,
+                             final String pathToShard) throws IOException {
+        try (final FileChannel shardChannel = FileChannel.open(Paths.get(pathToShard), StandardOpenOption.CREATE,
+                                                               StandardOpenOption.WRITE,
+                                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = start;
+            long transferred;
+            // transferTo may transfer less than requested, and nothing at all at the end of the file
+            while (position
+                    < end) {
+                transferred = fileChannel.transferTo(position, end
+                        - position, shardChannel);
+                if (transferred
+                        <= 0) {
+                    throw new EOFException("Unexpected end of file at position "
+                                                   + position
+                                                   + ", the file might have been truncated while splitting");
+                }
+                position += transferred;
+            }
+        }
+
+        return end
+                - start;
+    }
+}
@@ -0,0 +1,93 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.Assignment;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BSON codec for {@link Assignment} with the field names of its JSON representation.
+ */
+public class AssignmentCodec
+        implements Codec<Assignment> {
+
+    @Override
+    public void encode(final BsonWriter writer, final Assignment assignment, final EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (assignment.getNuclei()
+                != null) {
+            writer.writeName("nuclei");
+            BsonValues.writeStringArray(writer, assignment.getNuclei());
+        }
+        if (assignment.getAssignments()
+                != null) {
+            writer.writeStartArray("assignments");
+            for (final int[][] indices : assignment.getAssignments()) {
+                writer.writeStartArray();
+                for (final int[] equivalences : indices) {
+                    BsonValues.writeIntArray(writer, equivalences);
+                }
+                writer.writeEndArray();
+            }
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Assignment decode(final BsonReader reader, final DecoderContext decoderContext) {
+        final Assignment assignment = new Assignment();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "nuclei":
+                    if (!BsonValues.readNullValue(reader)) {
+                        assignment.setNuclei(BsonValues.readStringArray(reader));
+                    }
+                    break;
+                case "assignments":
+                    if (!BsonValues.readNullValue(reader)) {
+                        assignment.setAssignments(readAssignments(reader));
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return assignment;
+    }
+
+    @Override
+    public Class<Assignment> getEncoderClass() {
+        return Assignment.class;
+    }
+
+    private static int[][][] readAssignments(final BsonReader reader) {
+        final List<int[][]> assignments = new ArrayList<>();
+        List<int[]> indices;
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            indices = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType()
+                    != BsonType.END_OF_DOCUMENT) {
+                indices.add(BsonValues.readIntArray(reader));
+            }
+            reader.readEndArray();
+            assignments.add(indices.toArray(new int[0][]));
+        }
+        reader.readEndArray();
+
+        return assignments.toArray(new int[0][][]);
+    }
+}
@@ -0,0 +1,149 @@
+package casekit.io.bson;
+
+import casekit.io.CloseableIterator;
+import casekit.io.compression.CompressedFiles;
+import casekit.nmr.model.DataSet;
+import org.bson.BsonBinaryReader;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the data sets of a stream of BSON documents as written by {@link BsonDataSetWriter}. <br>
+ * Each document is read into a reused buffer and decoded by {@link DataSetCodec}. A failed read is thrown as
+ * {@link UncheckedIOException}, a malformed document as {@link org.bson.BsonSerializationException}.
+ */
+public class BsonDataSetReader
+        implements CloseableIterator<DataSet> {
+
+    private final static int INPUT_BUFFER_SIZE = 1
+            << 16;
+    // documents are at least the length and the terminating zero
+    private final static int MIN_DOCUMENT_LENGTH = 5;
+
+    private final InputStream in;
+    private final Codec<DataSet> dataSetCodec;
+    private final DecoderContext decoderContext;
+    private byte[] buffer;
+    private DataSet next;
+
+    /**
+     * @param in input, closed by {@link #close()}
+     */
+    public BsonDataSetReader(final InputStream in) {
+        this.in = new BufferedInputStream(in, INPUT_BUFFER_SIZE);
+        this.dataSetCodec = DataSetCodecProvider.CODEC_REGISTRY.get(DataSet.class);
+        this.decoderContext = DecoderContext.builder()
+                                            .build();
+        this.buffer = new byte[1024];
+    }
+
+    /**
+     * @param pathToFile path of the file to read, decompressed transparently, see
+     *                   {@link CompressedFiles#newInputStream(String)}
+     *
+     * @throws IOException
+     */
+    public BsonDataSetReader(final String pathToFile) throws IOException {
+        this(CompressedFiles.newInputStream(pathToFile));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next
+                == null) {
+            try {
+                this.next = this.readNext();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return this.next
+                != null;
+    }
+
+    @Override
+    public DataSet next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final DataSet dataSet = this.next;
+        this.next = null;
+
+        return dataSet;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * @return null at the end of the stream
+     */
+    private DataSet readNext() throws IOException {
+        final int headerRead = this.readFully(0, Integer.BYTES);
+        if (headerRead
+                == 0) {
+            return null;
+        }
+        if (headerRead
+                < Integer.BYTES) {
+            throw new EOFException("Truncated BSON document length");
+        }
+        final int length = ByteBuffer.wrap(this.buffer, 0, Integer.BYTES)
+                                     .order(ByteOrder.LITTLE_ENDIAN)
+                                     .getInt();
+        if (length
+                < MIN_DOCUMENT_LENGTH) {
+            throw new IOException("Invalid BSON document length: "
+                                          + length);
+        }
+        if (length
+                > this.buffer.length) {
+            final byte[] grown = new byte[Math.max(length, this.buffer.length
+                    * 2)];
+            System.arraycopy(this.buffer, 0, grown, 0, Integer.BYTES);
+            this.buffer = grown;
+        }
+        if (this.readFully(Integer.BYTES, length
+                - Integer.BYTES)
+                < length
+                - Integer.BYTES) {
+            throw new EOFException("Truncated BSON document");
+        }
+        try (final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(this.buffer, 0, length))) {
+            return this.dataSetCodec.decode(reader, this.decoderContext);
+        }
+    }
+
+    /**
+     * @return number of bytes read, less than the length only at the end of the stream
+     */
+    private int readFully(final int offset, final int length) throws IOException {
+        int total = 0;
+        int count;
+        while (total
+                < length) {
+            count = this.in.read(this.buffer, offset
+                    + total, length
+                                         - total);
+            if (count
+                    < 0) {
+                break;
+            }
+            total += count;
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,100 @@
+package casekit.io.bson;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.nmr.model.DataSet;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Writes data sets as a stream of BSON documents. Each document starts with its length, so the stream can be read
+ * by {@link BsonDataSetReader} or by other BSON tools, e.g. like a dump of a MongoDB collection. <br>
+ * The documents are encoded by {@link DataSetCodec} into a reused buffer, without reflection.
+ */
+public class BsonDataSetWriter
+        implements Closeable {
+
+    private final static int OUTPUT_BUFFER_SIZE = 1
+            << 16;
+
+    private final OutputStream out;
+    private final Codec<DataSet> dataSetCodec;
+    private final BasicOutputBuffer buffer;
+    private final EncoderContext encoderContext;
+    private long dataSetCount;
+
+    /**
+     * @param out output, closed by {@link #close()}
+     */
+    public BsonDataSetWriter(final OutputStream out) {
+        this.out = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+        this.dataSetCodec = DataSetCodecProvider.CODEC_REGISTRY.get(DataSet.class);
+        this.buffer = new BasicOutputBuffer();
+        this.encoderContext = EncoderContext.builder()
+                                            .build();
+        this.dataSetCount = 0;
+    }
+
+    /**
+     * @param pathToFile path of the file to write, compressed by its file ending, see
+     *                   {@link CompressedFiles#newOutputStream(String)}
+     *
+     * @throws IOException
+     */
+    public BsonDataSetWriter(final String pathToFile) throws IOException {
+        this(CompressedFiles.newOutputStream(pathToFile));
+    }
+
+    /**
+     * Writes all data sets of an iterator into a file.
+     *
+     * @param dataSetIterator data sets to write
+     * @param pathToFile      path of the file to write
+     *
+     * @return number of written data sets
+     *
+     * @throws IOException
+     */
+    public static long write(final Iterator<DataSet> dataSetIterator, final String pathToFile) throws IOException {
+        try (final BsonDataSetWriter bsonDataSetWriter = new BsonDataSetWriter(pathToFile)) {
+            while (dataSetIterator.hasNext()) {
+                bsonDataSetWriter.write(dataSetIterator.next());
+            }
+
+            return bsonDataSetWriter.getDataSetCount();
+        }
+    }
+
+    /**
+     * Writes a data set as BSON document.
+     *
+     * @param dataSet data set
+     *
+     * @throws IOException
+     */
+    public void write(final DataSet dataSet) throws IOException {
+        this.buffer.truncateToPosition(0);
+        try (final BsonBinaryWriter writer = new BsonBinaryWriter(this.buffer)) {
+            this.dataSetCodec.encode(writer, dataSet, this.encoderContext);
+        }
+        this.out.write(this.buffer.getInternalBuffer(), 0, this.buffer.getPosition());
+        this.dataSetCount++;
+    }
+
+    public long getDataSetCount() {
+        return this.dataSetCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.buffer.close();
+        this.out.close();
+    }
+}
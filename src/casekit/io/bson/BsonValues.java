@@ -0,0 +1,219 @@
+package casekit.io.bson;
+
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reading and writing of the arrays and maps shared by the model codecs. <br>
+ * Numbers are read leniently, i.e. 32 bit and 64 bit integers and doubles are accepted for both integer and double
+ * values, so documents converted from JSON by other tools can be decoded as well. Doubles are only accepted for
+ * integer values if they are integral and within the int range.
+ */
+final class BsonValues {
+
+    private BsonValues() {
+    }
+
+    static void writeIntArray(final BsonWriter writer, final int[] values) {
+        writer.writeStartArray();
+        for (final int value : values) {
+            writer.writeInt32(value);
+        }
+        writer.writeEndArray();
+    }
+
+    static int[] readIntArray(final BsonReader reader) {
+        int[] values = new int[8];
+        int count = 0;
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            if (count
+                    == values.length) {
+                values = Arrays.copyOf(values, count
+                        * 2);
+            }
+            values[count++] = readInt(reader);
+        }
+        reader.readEndArray();
+
+        return Arrays.copyOf(values, count);
+    }
+
+    static void writeIntegerArray(final BsonWriter writer, final Integer[] values) {
+        writer.writeStartArray();
+        for (final Integer value : values) {
+            if (value
+                    == null) {
+                writer.writeNull();
+            } else {
+                writer.writeInt32(value);
+            }
+        }
+        writer.writeEndArray();
+    }
+
+    static Integer[] readIntegerArray(final BsonReader reader) {
+        final List<Integer> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType()
+                    == BsonType.NULL) {
+                reader.readNull();
+                values.add(null);
+            } else {
+                values.add(readInt(reader));
+            }
+        }
+        reader.readEndArray();
+
+        return values.toArray(new Integer[0]);
+    }
+
+    static void writeDoubleArray(final BsonWriter writer, final Double[] values) {
+        writer.writeStartArray();
+        for (final Double value : values) {
+            if (value
+                    == null) {
+                writer.writeNull();
+            } else {
+                writer.writeDouble(value);
+            }
+        }
+        writer.writeEndArray();
+    }
+
+    static Double[] readDoubleArray(final BsonReader reader) {
+        final List<Double> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType()
+                    == BsonType.NULL) {
+                reader.readNull();
+                values.add(null);
+            } else {
+                values.add(readDouble(reader));
+            }
+        }
+        reader.readEndArray();
+
+        return values.toArray(new Double[0]);
+    }
+
+    static void writeStringArray(final BsonWriter writer, final String[] values) {
+        writer.writeStartArray();
+        for (final String value : values) {
+            if (value
+                    == null) {
+                writer.writeNull();
+            } else {
+                writer.writeString(value);
+            }
+        }
+        writer.writeEndArray();
+    }
+
+    static String[] readStringArray(final BsonReader reader) {
+        final List<String> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            values.add(readString(reader));
+        }
+        reader.readEndArray();
+
+        return values.toArray(new String[0]);
+    }
+
+    static void writeStringMap(final BsonWriter writer, final Map<String, String> map) {
+        writer.writeStartDocument();
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            writer.writeName(entry.getKey());
+            if (entry.getValue()
+                    == null) {
+                writer.writeNull();
+            } else {
+                writer.writeString(entry.getValue());
+            }
+        }
+        writer.writeEndDocument();
+    }
+
+    static Map<String, String> readStringMap(final BsonReader reader) {
+        final Map<String, String> map = new HashMap<>();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            map.put(reader.readName(), readString(reader));
+        }
+        reader.readEndDocument();
+
+        return map;
+    }
+
+    /**
+     * @return whether the current value is null, which is consumed in that case
+     */
+    static boolean readNullValue(final BsonReader reader) {
+        if (reader.getCurrentBsonType()
+                == BsonType.NULL) {
+            reader.readNull();
+            return true;
+        }
+
+        return false;
+    }
+
+    private static String readString(final BsonReader reader) {
+        if (readNullValue(reader)) {
+            return null;
+        }
+
+        return reader.readString();
+    }
+
+    private static int readInt(final BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return Math.toIntExact(reader.readInt64());
+            case DOUBLE:
+                final double value = reader.readDouble();
+                // no silent truncation, e.g. of 1.5 or values out of the int range
+                if (value
+                        != (int) value) {
+                    throw new BsonInvalidOperationException("Expected an integer but found "
+                                                                    + value);
+                }
+                return (int) value;
+            default:
+                throw new BsonInvalidOperationException("Expected a number but found "
+                                                                + reader.getCurrentBsonType());
+        }
+    }
+
+    private static double readDouble(final BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DOUBLE:
+                return reader.readDouble();
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            default:
+                throw new BsonInvalidOperationException("Expected a number but found "
+                                                                + reader.getCurrentBsonType());
+        }
+    }
+}
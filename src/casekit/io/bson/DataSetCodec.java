@@ -0,0 +1,226 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.SpectrumCompact;
+import casekit.nmr.model.StructureCompact;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BSON codec for {@link DataSet} with the field names of its JSON representation. <br>
+ * Maps within attachment values are written as documents with their keys converted to strings, arrays and other
+ * iterables as BSON arrays. Any other attachment value is encoded by the codec registry, so it has to be of a type
+ * known to it, e.g. numbers, strings or the model classes of {@link DataSetCodecProvider}. Attachment values are
+ * decoded as plain BSON values, i.e. embedded documents become {@link Document}s and arrays become lists, except
+ * for the prediction meta information, which is restored as map of signal indices to value arrays like written by
+ * the predictions.
+ */
+public class DataSetCodec
+        implements Codec<DataSet> {
+
+    private final static String PREDICTION_META_KEY = "predictionMeta";
+
+    private final CodecRegistry codecRegistry;
+    private final Codec<StructureCompact> structureCompactCodec;
+    private final Codec<SpectrumCompact> spectrumCompactCodec;
+    private final Codec<Assignment> assignmentCodec;
+    private final Codec<Document> documentCodec;
+
+    /**
+     * @param codecRegistry registry to get the codecs of the parts and of the attachment values from
+     */
+    public DataSetCodec(final CodecRegistry codecRegistry) {
+        this.codecRegistry = codecRegistry;
+        this.structureCompactCodec = codecRegistry.get(StructureCompact.class);
+        this.spectrumCompactCodec = codecRegistry.get(SpectrumCompact.class);
+        this.assignmentCodec = codecRegistry.get(Assignment.class);
+        this.documentCodec = codecRegistry.get(Document.class);
+    }
+
+    @Override
+    public void encode(final BsonWriter writer, final DataSet dataSet, final EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (dataSet.getStructure()
+                != null) {
+            writer.writeName("structure");
+            encoderContext.encodeWithChildContext(this.structureCompactCodec, writer, dataSet.getStructure());
+        }
+        if (dataSet.getSpectrum()
+                != null) {
+            writer.writeName("spectrum");
+            encoderContext.encodeWithChildContext(this.spectrumCompactCodec, writer, dataSet.getSpectrum());
+        }
+        if (dataSet.getAssignment()
+                != null) {
+            writer.writeName("assignment");
+            encoderContext.encodeWithChildContext(this.assignmentCodec, writer, dataSet.getAssignment());
+        }
+        if (dataSet.getMeta()
+                != null) {
+            writer.writeName("meta");
+            BsonValues.writeStringMap(writer, dataSet.getMeta());
+        }
+        if (dataSet.getAttachment()
+                != null) {
+            writer.writeStartDocument("attachment");
+            for (final Map.Entry<String, Object> entry : dataSet.getAttachment()
+                                                                .entrySet()) {
+                writer.writeName(entry.getKey());
+                this.encodeValue(writer, entry.getValue(), encoderContext);
+            }
+            writer.writeEndDocument();
+        }
+        writer.writeEndDocument();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void encodeValue(final BsonWriter writer, final T value, final EncoderContext encoderContext) {
+        if (value
+                == null) {
+            writer.writeNull();
+            return;
+        }
+        // the default codecs of maps expect string keys and there is no default codec for arrays,
+        // e.g. for the prediction meta information of type Map<Integer, Double[]>
+        if (value instanceof Map) {
+            writer.writeStartDocument();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeName(String.valueOf(entry.getKey()));
+                this.encodeValue(writer, entry.getValue(), encoderContext);
+            }
+            writer.writeEndDocument();
+            return;
+        }
+        if (value instanceof Object[]) {
+            this.encodeValues(writer, Arrays.asList((Object[]) value), encoderContext);
+            return;
+        }
+        if (value instanceof int[]) {
+            BsonValues.writeIntArray(writer, (int[]) value);
+            return;
+        }
+        if (value instanceof double[]) {
+            writer.writeStartArray();
+            for (final double element : (double[]) value) {
+                writer.writeDouble(element);
+            }
+            writer.writeEndArray();
+            return;
+        }
+        if (value instanceof Iterable) {
+            this.encodeValues(writer, (Iterable<?>) value, encoderContext);
+            return;
+        }
+        final Codec<T> codec = (Codec<T>) this.codecRegistry.get(value.getClass());
+        encoderContext.encodeWithChildContext(codec, writer, value);
+    }
+
+    private void encodeValues(final BsonWriter writer, final Iterable<?> values, final EncoderContext encoderContext) {
+        writer.writeStartArray();
+        for (final Object element : values) {
+            this.encodeValue(writer, element, encoderContext);
+        }
+        writer.writeEndArray();
+    }
+
+    @Override
+    public DataSet decode(final BsonReader reader, final DecoderContext decoderContext) {
+        final DataSet dataSet = new DataSet();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "structure":
+                    if (!BsonValues.readNullValue(reader)) {
+                        dataSet.setStructure(decoderContext.decodeWithChildContext(this.structureCompactCodec, reader));
+                    }
+                    break;
+                case "spectrum":
+                    if (!BsonValues.readNullValue(reader)) {
+                        dataSet.setSpectrum(decoderContext.decodeWithChildContext(this.spectrumCompactCodec, reader));
+                    }
+                    break;
+                case "assignment":
+                    if (!BsonValues.readNullValue(reader)) {
+                        dataSet.setAssignment(decoderContext.decodeWithChildContext(this.assignmentCodec, reader));
+                    }
+                    break;
+                case "meta":
+                    if (!BsonValues.readNullValue(reader)) {
+                        dataSet.setMeta(BsonValues.readStringMap(reader));
+                    }
+                    break;
+                case "attachment":
+                    if (!BsonValues.readNullValue(reader)) {
+                        dataSet.setAttachment(
+                                new HashMap<>(decoderContext.decodeWithChildContext(this.documentCodec, reader)));
+                        restorePredictionMeta(dataSet.getAttachment());
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return dataSet;
+    }
+
+    /**
+     * Restores the prediction meta information from its document of signal indices and value lists.
+     *
+     * @param attachment decoded attachment
+     */
+    private static void restorePredictionMeta(final Map<String, Object> attachment) {
+        final Object predictionMetaDocument = attachment.get(PREDICTION_META_KEY);
+        if (!(predictionMetaDocument instanceof Document)) {
+            return;
+        }
+        final Map<Integer, Double[]> predictionMeta = new HashMap<>();
+        Double[] values;
+        List<?> valueList;
+        for (final Map.Entry<String, Object> entry : ((Document) predictionMetaDocument).entrySet()) {
+            if (!(entry.getValue() instanceof List)) {
+                // not written by a prediction, keep it as it is
+                return;
+            }
+            valueList = (List<?>) entry.getValue();
+            values = new Double[valueList.size()];
+            for (int i = 0; i
+                    < values.length; i++) {
+                if (valueList.get(i)
+                        != null
+                        && !(valueList.get(i) instanceof Number)) {
+                    return;
+                }
+                values[i] = valueList.get(i)
+                                    == null
+                            ? null
+                            : ((Number) valueList.get(i)).doubleValue();
+            }
+            try {
+                predictionMeta.put(Integer.parseInt(entry.getKey()), values);
+            } catch (final NumberFormatException e) {
+                return;
+            }
+        }
+        attachment.put(PREDICTION_META_KEY, predictionMeta);
+    }
+
+    @Override
+    public Class<DataSet> getEncoderClass() {
+        return DataSet.class;
+    }
+}
@@ -0,0 +1,60 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.SignalCompact;
+import casekit.nmr.model.SpectrumCompact;
+import casekit.nmr.model.StructureCompact;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.IterableCodecProvider;
+import org.bson.codecs.MapCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Provides the hand-written BSON codecs of the data set model classes, which avoid reflection.
+ */
+public class DataSetCodecProvider
+        implements CodecProvider {
+
+    /**
+     * Registry with the codecs of the data set model classes and the default codecs of the BSON library.
+     */
+    public final static CodecRegistry CODEC_REGISTRY = CodecRegistries.fromProviders(new DataSetCodecProvider(),
+                                                                                     new ValueCodecProvider(),
+                                                                                     new BsonValueCodecProvider(),
+                                                                                     new DocumentCodecProvider(),
+                                                                                     new IterableCodecProvider(),
+                                                                                     new MapCodecProvider());
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(final Class<T> clazz, final CodecRegistry registry) {
+        if (clazz
+                == DataSet.class) {
+            return (Codec<T>) new DataSetCodec(registry);
+        }
+        if (clazz
+                == StructureCompact.class) {
+            return (Codec<T>) new StructureCompactCodec();
+        }
+        if (clazz
+                == SpectrumCompact.class) {
+            return (Codec<T>) new SpectrumCompactCodec(registry.get(SignalCompact.class));
+        }
+        if (clazz
+                == SignalCompact.class) {
+            return (Codec<T>) new SignalCompactCodec();
+        }
+        if (clazz
+                == Assignment.class) {
+            return (Codec<T>) new AssignmentCodec();
+        }
+
+        return null;
+    }
+}
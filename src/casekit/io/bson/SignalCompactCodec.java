@@ -0,0 +1,74 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.SignalCompact;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * BSON codec for {@link SignalCompact} with the field names of its JSON representation.
+ */
+public class SignalCompactCodec
+        implements Codec<SignalCompact> {
+
+    @Override
+    public void encode(final BsonWriter writer, final SignalCompact signalCompact,
+                       final EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (signalCompact.getStrings()
+                != null) {
+            writer.writeName("strings");
+            BsonValues.writeStringArray(writer, signalCompact.getStrings());
+        }
+        if (signalCompact.getDoubles()
+                != null) {
+            writer.writeName("doubles");
+            BsonValues.writeDoubleArray(writer, signalCompact.getDoubles());
+        }
+        if (signalCompact.getIntegers()
+                != null) {
+            writer.writeName("integers");
+            BsonValues.writeIntegerArray(writer, signalCompact.getIntegers());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public SignalCompact decode(final BsonReader reader, final DecoderContext decoderContext) {
+        final SignalCompact signalCompact = new SignalCompact();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "strings":
+                    if (!BsonValues.readNullValue(reader)) {
+                        signalCompact.setStrings(BsonValues.readStringArray(reader));
+                    }
+                    break;
+                case "doubles":
+                    if (!BsonValues.readNullValue(reader)) {
+                        signalCompact.setDoubles(BsonValues.readDoubleArray(reader));
+                    }
+                    break;
+                case "integers":
+                    if (!BsonValues.readNullValue(reader)) {
+                        signalCompact.setIntegers(BsonValues.readIntegerArray(reader));
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return signalCompact;
+    }
+
+    @Override
+    public Class<SignalCompact> getEncoderClass() {
+        return SignalCompact.class;
+    }
+}
@@ -0,0 +1,110 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.SignalCompact;
+import casekit.nmr.model.SpectrumCompact;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BSON codec for {@link SpectrumCompact} with the field names of its JSON representation.
+ */
+public class SpectrumCompactCodec
+        implements Codec<SpectrumCompact> {
+
+    private final Codec<SignalCompact> signalCompactCodec;
+
+    public SpectrumCompactCodec() {
+        this(new SignalCompactCodec());
+    }
+
+    public SpectrumCompactCodec(final Codec<SignalCompact> signalCompactCodec) {
+        this.signalCompactCodec = signalCompactCodec;
+    }
+
+    @Override
+    public void encode(final BsonWriter writer, final SpectrumCompact spectrumCompact,
+                       final EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (spectrumCompact.getNuclei()
+                != null) {
+            writer.writeName("nuclei");
+            BsonValues.writeStringArray(writer, spectrumCompact.getNuclei());
+        }
+        if (spectrumCompact.getMeta()
+                != null) {
+            writer.writeName("meta");
+            BsonValues.writeStringMap(writer, spectrumCompact.getMeta());
+        }
+        if (spectrumCompact.getSignals()
+                != null) {
+            writer.writeStartArray("signals");
+            for (final SignalCompact signalCompact : spectrumCompact.getSignals()) {
+                if (signalCompact
+                        == null) {
+                    writer.writeNull();
+                } else {
+                    encoderContext.encodeWithChildContext(this.signalCompactCodec, writer, signalCompact);
+                }
+            }
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public SpectrumCompact decode(final BsonReader reader, final DecoderContext decoderContext) {
+        final SpectrumCompact spectrumCompact = new SpectrumCompact();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "nuclei":
+                    if (!BsonValues.readNullValue(reader)) {
+                        spectrumCompact.setNuclei(BsonValues.readStringArray(reader));
+                    }
+                    break;
+                case "meta":
+                    if (!BsonValues.readNullValue(reader)) {
+                        spectrumCompact.setMeta(BsonValues.readStringMap(reader));
+                    }
+                    break;
+                case "signals":
+                    if (!BsonValues.readNullValue(reader)) {
+                        spectrumCompact.setSignals(this.readSignals(reader, decoderContext));
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return spectrumCompact;
+    }
+
+    @Override
+    public Class<SpectrumCompact> getEncoderClass() {
+        return SpectrumCompact.class;
+    }
+
+    private SignalCompact[] readSignals(final BsonReader reader, final DecoderContext decoderContext) {
+        final List<SignalCompact> signals = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            signals.add(BsonValues.readNullValue(reader)
+                        ? null
+                        : decoderContext.decodeWithChildContext(this.signalCompactCodec, reader));
+        }
+        reader.readEndArray();
+
+        return signals.toArray(new SignalCompact[0]);
+    }
+}
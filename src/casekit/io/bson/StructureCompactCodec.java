@@ -0,0 +1,109 @@
+package casekit.io.bson;
+
+import casekit.nmr.model.StructureCompact;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BSON codec for {@link StructureCompact} with the field names of its JSON representation.
+ */
+public class StructureCompactCodec
+        implements Codec<StructureCompact> {
+
+    @Override
+    public void encode(final BsonWriter writer, final StructureCompact structureCompact,
+                       final EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (structureCompact.getBondProperties()
+                != null) {
+            writer.writeStartArray("bondProperties");
+            for (final int[][] bonds : structureCompact.getBondProperties()) {
+                writer.writeStartArray();
+                for (final int[] bond : bonds) {
+                    BsonValues.writeIntArray(writer, bond);
+                }
+                writer.writeEndArray();
+            }
+            writer.writeEndArray();
+        }
+        if (structureCompact.getAtomProperties()
+                != null) {
+            writer.writeStartArray("atomProperties");
+            for (final Integer[] atomProperties : structureCompact.getAtomProperties()) {
+                BsonValues.writeIntegerArray(writer, atomProperties);
+            }
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public StructureCompact decode(final BsonReader reader, final DecoderContext decoderContext) {
+        final StructureCompact structureCompact = new StructureCompact();
+        reader.readStartDocument();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "bondProperties":
+                    if (!BsonValues.readNullValue(reader)) {
+                        structureCompact.setBondProperties(readBondProperties(reader));
+                    }
+                    break;
+                case "atomProperties":
+                    if (!BsonValues.readNullValue(reader)) {
+                        structureCompact.setAtomProperties(readAtomProperties(reader));
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return structureCompact;
+    }
+
+    @Override
+    public Class<StructureCompact> getEncoderClass() {
+        return StructureCompact.class;
+    }
+
+    private static int[][][] readBondProperties(final BsonReader reader) {
+        final List<int[][]> bondProperties = new ArrayList<>();
+        List<int[]> bonds;
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            bonds = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType()
+                    != BsonType.END_OF_DOCUMENT) {
+                bonds.add(BsonValues.readIntArray(reader));
+            }
+            reader.readEndArray();
+            bondProperties.add(bonds.toArray(new int[0][]));
+        }
+        reader.readEndArray();
+
+        return bondProperties.toArray(new int[0][][]);
+    }
+
+    private static Integer[][] readAtomProperties(final BsonReader reader) {
+        final List<Integer[]> atomProperties = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType()
+                != BsonType.END_OF_DOCUMENT) {
+            atomProperties.add(BsonValues.readIntegerArray(reader));
+        }
+        reader.readEndArray();
+
+        return atomProperties.toArray(new Integer[0][]);
+    }
+}
@@ -0,0 +1,240 @@
+package casekit.io.compression;
+
+import casekit.threading.ManagedExecutor;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens files with transparent compression. <br>
+ * Input files are decompressed according to their magic bytes, regardless of their file ending: BGZF is
+ * decompressed block-parallel, other gzip and zstd files are decompressed in a background thread ahead of the
+ * reading thread. Output files ending with ".gz" or ".bgz" are compressed into BGZF in parallel, output files ending
+ * with ".zst" into zstd by the worker threads of the zstd library. <br>
+ * The number of threads used for (de)compression can be configured by {@link #setThreads(int)}, a value of 1
+ * (de)compresses in the calling thread only. The BGZF blocks are (de)compressed on a shared executor, by default
+ * {@link ManagedExecutor#getShared()}, see {@link #setExecutor(ExecutorService)}.
+ */
+public class CompressedFiles {
+
+    private final static int BUFFER_SIZE = 1
+            << 16;
+    private final static int PREFETCH_CHUNK_SIZE = 1
+            << 20;
+    private final static int PREFETCH_CHUNK_COUNT = 4;
+    private final static int ZSTD_COMPRESSION_LEVEL = 3;
+
+    private static volatile ExecutorService executor;
+    private static volatile int threads = Math.min(4, Runtime.getRuntime()
+                                                             .availableProcessors());
+
+    public static int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param nThreads number of threads used for (de)compression
+     */
+    public static void setThreads(final int nThreads) {
+        if (nThreads
+                < 1) {
+            throw new IllegalArgumentException("nThreads must be positive: "
+                                                       + nThreads);
+        }
+        threads = nThreads;
+    }
+
+    /**
+     * @param executorService executor to (de)compress BGZF blocks with, which is not shut down by the streams, or
+     *                        null to use {@link ManagedExecutor#getShared()}
+     */
+    public static void setExecutor(final ExecutorService executorService) {
+        executor = executorService;
+    }
+
+    private static ExecutorService getExecutor() {
+        final ExecutorService executorService = executor;
+
+        return executorService
+                       != null
+               ? executorService
+               : ManagedExecutor.getShared();
+    }
+
+    /**
+     * Detects the compression of a file by its magic bytes.
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public static Compression detectCompression(final String pathToFile) throws IOException {
+        final byte[] header = new byte[Compression.HEADER_LENGTH];
+        try (final InputStream inputStream = Files.newInputStream(Paths.get(pathToFile))) {
+            return Compression.detect(header,
+                                      ParallelBGZFInputStream.readFully(inputStream, header, 0, header.length));
+        }
+    }
+
+    /**
+     * @param pathToFile path to file
+     *
+     * @return whether the file is compressed and can therefore not be accessed at byte level, e.g. memory-mapped
+     *
+     * @throws IOException
+     */
+    public static boolean isCompressed(final String pathToFile) throws IOException {
+        return detectCompression(pathToFile)
+                != Compression.NONE;
+    }
+
+    /**
+     * Opens a buffered input stream of the decompressed file content.
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     *
+     * @throws IOException if the file could not be opened or its compression is not supported
+     */
+    public static InputStream newInputStream(final String pathToFile) throws IOException {
+        final Compression compression = detectCompression(pathToFile);
+        final InputStream inputStream = new BufferedInputStream(Files.newInputStream(Paths.get(pathToFile)),
+                                                                BUFFER_SIZE);
+        final int nThreads = threads;
+        try {
+            switch (compression) {
+                case BGZF:
+                    // BGZF is valid gzip, so with a single thread it is decompressed like gzip
+                    return nThreads
+                                   > 1
+                           ? new ParallelBGZFInputStream(inputStream, getExecutor(), nThreads)
+                           : decompressAhead(new GZIPInputStream(inputStream, BUFFER_SIZE), nThreads);
+                case GZIP:
+                    return decompressAhead(new GZIPInputStream(inputStream, BUFFER_SIZE), nThreads);
+                case ZSTD:
+                    return decompressAhead(new ZstdInputStream(inputStream), nThreads);
+                default:
+                    return inputStream;
+            }
+        } catch (final IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return stream which decompresses in a background thread ahead of the reading thread if more than one thread
+     * is to be used
+     */
+    private static InputStream decompressAhead(final InputStream decompressingInputStream, final int nThreads) {
+        return nThreads
+                       > 1
+               ? new PrefetchingInputStream(decompressingInputStream, PREFETCH_CHUNK_SIZE, PREFETCH_CHUNK_COUNT)
+               : new BufferedInputStream(decompressingInputStream, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a UTF-8 reader of the decompressed file content.
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     *
+     * @throws IOException if the file could not be opened or its compression is not supported
+     * @see #newInputStream(String)
+     */
+    public static BufferedReader newReader(final String pathToFile) throws IOException {
+        return new BufferedReader(new InputStreamReader(newInputStream(pathToFile), StandardCharsets.UTF_8),
+                                  BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a buffered output stream, which compresses into BGZF if the file ends with ".gz" or ".bgz" and into zstd
+     * if it ends with ".zst".
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     *
+     * @throws IOException if the file could not be opened or its compression is not supported
+     */
+    public static OutputStream newOutputStream(final String pathToFile) throws IOException {
+        final Path path = Paths.get(pathToFile);
+        final String fileName = pathToFile.toLowerCase(Locale.ROOT);
+        final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        final int nThreads = threads;
+        if (isCompressedFileName(fileName)) {
+            return new ParallelBGZFOutputStream(outputStream, nThreads
+                                                                      > 1
+                                                              ? getExecutor()
+                                                              : null, nThreads,
+                                                Deflater.DEFAULT_COMPRESSION);
+        }
+        if (fileName.endsWith(".zst")) {
+            try {
+                final ZstdOutputStream zstdOutputStream = new ZstdOutputStream(outputStream, ZSTD_COMPRESSION_LEVEL);
+                if (nThreads
+                        > 1) {
+                    zstdOutputStream.setWorkers(nThreads);
+                }
+                // the zstd stream compresses in frames itself, so the buffer avoids small writes into it
+                return new BufferedOutputStream(zstdOutputStream, BUFFER_SIZE);
+            } catch (final IOException e) {
+                outputStream.close();
+                throw e;
+            }
+        }
+
+        return outputStream;
+    }
+
+    /**
+     * Opens a UTF-8 writer, which compresses into BGZF if the file ends with ".gz" or ".bgz" and into zstd if it
+     * ends with ".zst".
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     *
+     * @throws IOException if the file could not be opened or its compression is not supported
+     * @see #newOutputStream(String)
+     */
+    public static BufferedWriter newWriter(final String pathToFile) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(pathToFile), StandardCharsets.UTF_8),
+                                  BUFFER_SIZE);
+    }
+
+    /**
+     * Removes a compression file ending like ".gz", e.g. to detect the file format by the remaining file ending.
+     *
+     * @param pathToFile path to file
+     *
+     * @return
+     */
+    public static String stripCompressionFileEnding(final String pathToFile) {
+        final String fileName = pathToFile.toLowerCase(Locale.ROOT);
+        if (isCompressedFileName(fileName)
+                || fileName.endsWith(".zst")) {
+            return pathToFile.substring(0, pathToFile.lastIndexOf('.'));
+        }
+
+        return pathToFile;
+    }
+
+    private static boolean isCompressedFileName(final String fileName) {
+        return fileName.endsWith(".gz")
+                || fileName.endsWith(".bgz");
+    }
+}
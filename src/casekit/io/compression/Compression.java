@@ -0,0 +1,83 @@
+package casekit.io.compression;
+
+/**
+ * Compression formats of input files, detected by their magic bytes.
+ */
+public enum Compression {
+    NONE,
+    /**
+     * gzip, possibly with multiple members
+     */
+    GZIP,
+    /**
+     * blocked gzip as written by bgzip or {@link ParallelBGZFOutputStream}, i.e. gzip members of at most 64 KB
+     * with their compressed size in the header, which can be decompressed in parallel
+     */
+    BGZF,
+    /**
+     * zstd, possibly with multiple frames
+     */
+    ZSTD;
+
+    /**
+     * Number of bytes needed to detect the compression.
+     */
+    public final static int HEADER_LENGTH = 18;
+
+    /**
+     * Detects the compression by the magic bytes at the beginning of a file.
+     *
+     * @param header first bytes of the file
+     * @param length number of valid bytes in the header
+     *
+     * @return
+     */
+    public static Compression detect(final byte[] header, final int length) {
+        if (length
+                >= 4
+                && (header[0]
+                & 0xff)
+                == 0x28
+                && (header[1]
+                & 0xff)
+                == 0xb5
+                && (header[2]
+                & 0xff)
+                == 0x2f
+                && (header[3]
+                & 0xff)
+                == 0xfd) {
+            return ZSTD;
+        }
+        if (length
+                < 3
+                || (header[0]
+                & 0xff)
+                != 0x1f
+                || (header[1]
+                & 0xff)
+                != 0x8b
+                || header[2]
+                != 8) {
+            return NONE;
+        }
+        // BGZF: extra field with the subfield "BC" of length 2 right at the beginning
+        if (length
+                >= HEADER_LENGTH
+                && (header[3]
+                & 0x04)
+                != 0
+                && header[12]
+                == 'B'
+                && header[13]
+                == 'C'
+                && header[14]
+                == 2
+                && header[15]
+                == 0) {
+            return BGZF;
+        }
+
+        return GZIP;
+    }
+}
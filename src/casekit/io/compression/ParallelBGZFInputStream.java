@@ -0,0 +1,334 @@
+package casekit.io.compression;
+
+import casekit.threading.ManagedExecutor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses BGZF input in parallel. <br>
+ * The compressed blocks are read sequentially by the reading thread, which is cheap since each block header
+ * contains the block size, and are inflated by an executor which is shared with other work, by default
+ * {@link ManagedExecutor#getShared()}. A bounded number of blocks is in flight and the decompressed blocks are
+ * returned in their original order. A block which no worker has started yet when it is needed is inflated by the
+ * reading thread, so the stream can also be read within a task of the same executor.
+ */
+public class ParallelBGZFInputStream
+        extends InputStream {
+
+    private final static int FIXED_HEADER_LENGTH = 12;
+    private final static int TRAILER_LENGTH = 8;
+    private final static int FLAG_EXTRA = 0x04;
+    // BGZF blocks hold at most 64 KiB of uncompressed data
+    private final static int MAX_INPUT_SIZE = 1
+            << 16;
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Deque<FutureTask<byte[]>> pendingBlocks;
+    private final byte[] header;
+    private byte[] currentBlock;
+    private int position;
+    private boolean endOfInput;
+    private boolean closed;
+
+    /**
+     * @param in       BGZF input, closed by {@link #close()}
+     * @param nThreads number of blocks to inflate at the same time on the shared executor
+     */
+    public ParallelBGZFInputStream(final InputStream in, final int nThreads) {
+        this(in, ManagedExecutor.getShared(), nThreads);
+    }
+
+    /**
+     * @param in       BGZF input, closed by {@link #close()}
+     * @param executor executor to inflate the blocks with, which stays alive after closing this stream
+     * @param nThreads number of blocks to inflate at the same time
+     */
+    public ParallelBGZFInputStream(final InputStream in, final ExecutorService executor, final int nThreads) {
+        this.in = in;
+        this.maxInFlight = Math.max(1, nThreads)
+                * 4;
+        this.executor = executor;
+        this.pendingBlocks = new ArrayDeque<>();
+        this.header = new byte[FIXED_HEADER_LENGTH];
+        this.currentBlock = new byte[0];
+        this.position = 0;
+        this.endOfInput = false;
+        this.closed = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+
+        return this.currentBlock[this.position++]
+                & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len
+                == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, this.currentBlock.length
+                - this.position);
+        System.arraycopy(this.currentBlock, this.position, b, off, count);
+        this.position += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.currentBlock.length
+                - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (final FutureTask<byte[]> task : this.pendingBlocks) {
+            task.cancel(true);
+        }
+        this.pendingBlocks.clear();
+        this.in.close();
+    }
+
+    /**
+     * Makes the next decompressed block current if the current one is consumed.
+     *
+     * @return false at the end of the input
+     *
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        // loop since blocks may be empty, e.g. the end-of-file marker block
+        while (this.position
+                >= this.currentBlock.length) {
+            while (!this.endOfInput
+                    && this.pendingBlocks.size()
+                    < this.maxInFlight) {
+                final byte[] compressedBlock = this.readCompressedBlock();
+                if (compressedBlock
+                        == null) {
+                    this.endOfInput = true;
+                } else {
+                    final FutureTask<byte[]> task = new FutureTask<>(() -> inflate(compressedBlock));
+                    this.pendingBlocks.add(task);
+                    this.executor.execute(task);
+                }
+            }
+            if (this.pendingBlocks.isEmpty()) {
+                return false;
+            }
+            final FutureTask<byte[]> task = this.pendingBlocks.poll();
+            // does nothing if a worker already started the task
+            task.run();
+            try {
+                this.currentBlock = task.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread()
+                      .interrupt();
+                throw new InterruptedIOException("Interrupted while inflating BGZF block");
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Could not inflate BGZF block", e.getCause());
+            }
+            this.position = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the next block and returns its compressed data followed by the trailer, i.e. CRC32 and input size.
+     *
+     * @return null at the end of the input
+     *
+     * @throws IOException if the input is no valid BGZF
+     */
+    private byte[] readCompressedBlock() throws IOException {
+        final int headerRead = readFully(this.in, this.header, 0, FIXED_HEADER_LENGTH);
+        if (headerRead
+                == 0) {
+            return null;
+        }
+        if (headerRead
+                < FIXED_HEADER_LENGTH
+                || (this.header[0]
+                & 0xff)
+                != 0x1f
+                || (this.header[1]
+                & 0xff)
+                != 0x8b
+                || this.header[2]
+                != 8
+                || (this.header[3]
+                & 0xff)
+                != FLAG_EXTRA) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        final int extraLength = readUnsignedShort(this.header, 10);
+        final byte[] extra = new byte[extraLength];
+        if (readFully(this.in, extra, 0, extraLength)
+                < extraLength) {
+            throw new EOFException("Truncated BGZF block header");
+        }
+        // find the block size in the subfield "BC"
+        int blockSize = -1;
+        int subfieldStart = 0;
+        int subfieldLength;
+        while (subfieldStart
+                + 4
+                <= extraLength) {
+            subfieldLength = readUnsignedShort(extra, subfieldStart
+                    + 2);
+            if (extra[subfieldStart]
+                    == 'B'
+                    && extra[subfieldStart
+                    + 1]
+                    == 'C'
+                    && subfieldLength
+                    == 2
+                    && subfieldStart
+                    + 6
+                    <= extraLength) {
+                blockSize = readUnsignedShort(extra, subfieldStart
+                        + 4)
+                        + 1;
+                break;
+            }
+            subfieldStart += 4
+                    + subfieldLength;
+        }
+        final int remainingLength = blockSize
+                - FIXED_HEADER_LENGTH
+                - extraLength;
+        if (blockSize
+                < 0
+                || remainingLength
+                < TRAILER_LENGTH) {
+            throw new IOException("Invalid BGZF block size");
+        }
+        final byte[] compressedBlock = new byte[remainingLength];
+        if (readFully(this.in, compressedBlock, 0, remainingLength)
+                < remainingLength) {
+            throw new EOFException("Truncated BGZF block");
+        }
+
+        return compressedBlock;
+    }
+
+    private static byte[] inflate(final byte[] compressedBlock) throws IOException {
+        final int compressedLength = compressedBlock.length
+                - TRAILER_LENGTH;
+        final long expectedCrc = readUnsignedInt(compressedBlock, compressedLength);
+        final long inputSizeField = readUnsignedInt(compressedBlock, compressedLength
+                + 4);
+        if (inputSizeField
+                > MAX_INPUT_SIZE) {
+            throw new IOException("Corrupt BGZF block: uncompressed size exceeds "
+                                          + MAX_INPUT_SIZE
+                                          + " bytes");
+        }
+        final int inputSize = (int) inputSizeField;
+        final byte[] block = new byte[inputSize];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressedBlock, 0, compressedLength);
+            int inflated = 0;
+            while (inflated
+                    < inputSize
+                    && !inflater.finished()) {
+                final int count = inflater.inflate(block, inflated, inputSize
+                        - inflated);
+                if (count
+                        == 0
+                        && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated
+                    != inputSize) {
+                throw new IOException("Corrupt BGZF block: size mismatch");
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("Corrupt BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        final CRC32 crc32 = new CRC32();
+        crc32.update(block, 0, inputSize);
+        if (crc32.getValue()
+                != expectedCrc) {
+            throw new IOException("Corrupt BGZF block: CRC mismatch");
+        }
+
+        return block;
+    }
+
+    /**
+     * @return number of bytes read, less than the length only at the end of the input
+     */
+    static int readFully(final InputStream in, final byte[] b, final int off, final int len) throws IOException {
+        int total = 0;
+        int count;
+        while (total
+                < len) {
+            count = in.read(b, off
+                    + total, len
+                                        - total);
+            if (count
+                    < 0) {
+                break;
+            }
+            total += count;
+        }
+
+        return total;
+    }
+
+    static int readUnsignedShort(final byte[] b, final int offset) {
+        return (b[offset]
+                & 0xff)
+                | ((b[offset
+                + 1]
+                & 0xff)
+                << 8);
+    }
+
+    static long readUnsignedInt(final byte[] b, final int offset) {
+        return (readUnsignedShort(b, offset)
+                | ((long) readUnsignedShort(b, offset
+                + 2)
+                << 16));
+    }
+}
@@ -0,0 +1,246 @@
+package casekit.io.compression;
+
+import casekit.threading.ManagedExecutor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses into BGZF in parallel. <br>
+ * The data is cut into blocks of at most {@link #MAX_BLOCK_DATA_SIZE} bytes, which are deflated independently by an
+ * executor shared with other work, by default {@link ManagedExecutor#getShared()}, and written in their original
+ * order. A block which no worker has started yet when it is due is deflated by the writing thread. The output is
+ * valid (multi-member) gzip, so it can be read by any gzip reader, and can be decompressed in parallel by
+ * {@link ParallelBGZFInputStream}.
+ */
+public class ParallelBGZFOutputStream
+        extends OutputStream {
+
+    /**
+     * Maximum uncompressed size of a block, which guarantees that even incompressible blocks fit into 64 KB.
+     */
+    public final static int MAX_BLOCK_DATA_SIZE = 0xff00;
+    private final static int BLOCK_HEADER_LENGTH = 18;
+    private final static int MAX_BLOCK_SIZE = 1
+            << 16;
+    // empty block marking the end of the file
+    private final static byte[] EOF_BLOCK = new byte[]{0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00,
+                                                       (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00, 0x1b, 0x00,
+                                                       0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+    private final OutputStream out;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Deque<FutureTask<byte[]>> pendingBlocks;
+    private final byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    /**
+     * @param out      output, closed by {@link #close()}
+     * @param nThreads number of blocks to deflate at the same time on the shared executor, the blocks are deflated
+     *                 by the writing thread for values below 2
+     */
+    public ParallelBGZFOutputStream(final OutputStream out, final int nThreads) {
+        this(out, nThreads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out              output, closed by {@link #close()}
+     * @param nThreads         number of blocks to deflate at the same time on the shared executor, the blocks are
+     *                         deflated by the writing thread for values below 2
+     * @param compressionLevel compression level, see {@link Deflater}
+     */
+    public ParallelBGZFOutputStream(final OutputStream out, final int nThreads, final int compressionLevel) {
+        this(out, nThreads
+                          > 1
+                  ? ManagedExecutor.getShared()
+                  : null, nThreads, compressionLevel);
+    }
+
+    /**
+     * @param out              output, closed by {@link #close()}
+     * @param executor         executor to deflate the blocks with, which stays alive after closing this stream, or
+     *                         null to deflate them by the writing thread
+     * @param nThreads         number of blocks to deflate at the same time
+     * @param compressionLevel compression level, see {@link Deflater}
+     */
+    public ParallelBGZFOutputStream(final OutputStream out, final ExecutorService executor, final int nThreads,
+                                    final int compressionLevel) {
+        this.out = out;
+        this.compressionLevel = compressionLevel;
+        this.maxInFlight = Math.max(1, nThreads)
+                * 4;
+        this.executor = executor;
+        this.pendingBlocks = new ArrayDeque<>();
+        this.buffer = new byte[MAX_BLOCK_DATA_SIZE];
+        this.count = 0;
+        this.closed = false;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (this.count
+                == this.buffer.length) {
+            this.submitBlock();
+        }
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int written = 0;
+        int length;
+        while (written
+                < len) {
+            if (this.count
+                    == this.buffer.length) {
+                this.submitBlock();
+            }
+            length = Math.min(len
+                                      - written, this.buffer.length
+                                      - this.count);
+            System.arraycopy(b, off
+                    + written, this.buffer, this.count, length);
+            this.count += length;
+            written += length;
+        }
+    }
+
+    /**
+     * Writes all buffered data as (possibly small) blocks and flushes the output.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.count
+                > 0) {
+            this.submitBlock();
+        }
+        while (!this.pendingBlocks.isEmpty()) {
+            this.writeNextBlock();
+        }
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.flush();
+            this.out.write(EOF_BLOCK);
+        } finally {
+            // only non-empty if writing failed
+            for (final FutureTask<byte[]> task : this.pendingBlocks) {
+                task.cancel(true);
+            }
+            this.pendingBlocks.clear();
+            this.out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = Arrays.copyOf(this.buffer, this.count);
+        this.count = 0;
+        if (this.executor
+                == null) {
+            this.out.write(deflate(data, this.compressionLevel));
+            return;
+        }
+        final FutureTask<byte[]> task = new FutureTask<>(() -> deflate(data, this.compressionLevel));
+        this.pendingBlocks.add(task);
+        this.executor.execute(task);
+        while (this.pendingBlocks.size()
+                >= this.maxInFlight) {
+            this.writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        final FutureTask<byte[]> task = this.pendingBlocks.poll();
+        // does nothing if a worker already started the task
+        task.run();
+        try {
+            this.out.write(task.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException("Interrupted while deflating BGZF block");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not deflate BGZF block", e.getCause());
+        }
+    }
+
+    private static byte[] deflate(final byte[] data, final int compressionLevel) throws IOException {
+        final byte[] block = new byte[MAX_BLOCK_SIZE];
+        final Deflater deflater = new Deflater(compressionLevel, true);
+        final int compressedLength;
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            compressedLength = deflater.deflate(block, BLOCK_HEADER_LENGTH, MAX_BLOCK_SIZE
+                    - BLOCK_HEADER_LENGTH
+                    - 8);
+            if (!deflater.finished()) {
+                throw new IOException("BGZF block does not fit into "
+                                              + MAX_BLOCK_SIZE
+                                              + " bytes");
+            }
+        } finally {
+            deflater.end();
+        }
+        final int blockSize = BLOCK_HEADER_LENGTH
+                + compressedLength
+                + 8;
+        // gzip header with the extra subfield "BC" containing the block size minus one
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 0x08;
+        block[3] = 0x04;
+        block[9] = (byte) 0xff;
+        block[10] = 0x06;
+        block[12] = 'B';
+        block[13] = 'C';
+        block[14] = 0x02;
+        writeUnsignedShort(block, 16, blockSize
+                - 1);
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        writeUnsignedShort(block, blockSize
+                - 8, (int) crc32.getValue());
+        writeUnsignedShort(block, blockSize
+                - 6, (int) (crc32.getValue()
+                >>> 16));
+        writeUnsignedShort(block, blockSize
+                - 4, data.length);
+        writeUnsignedShort(block, blockSize
+                - 2, data.length
+                >>> 16);
+
+        return Arrays.copyOf(block, blockSize);
+    }
+
+    private static void writeUnsignedShort(final byte[] b, final int offset, final int value) {
+        b[offset] = (byte) value;
+        b[offset
+                + 1] = (byte) (value
+                >>> 8);
+    }
+}
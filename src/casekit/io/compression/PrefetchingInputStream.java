@@ -0,0 +1,161 @@
+package casekit.io.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads an input stream ahead in a background thread, e.g. to decompress a gzip stream, which cannot be split into
+ * independent blocks, while the reading thread parses the previous chunks. At most a fixed number of chunks is
+ * buffered.
+ */
+public class PrefetchingInputStream
+        extends InputStream {
+
+    // marks the end of the input or a failure
+    private final static byte[] END = new byte[0];
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread thread;
+    private volatile IOException failure;
+    private byte[] currentChunk;
+    private int position;
+    private boolean endOfInput;
+    private volatile boolean closed;
+
+    /**
+     * @param in         input to read ahead, closed by {@link #close()}
+     * @param chunkSize  size of the chunks to read
+     * @param chunkCount maximum number of buffered chunks
+     */
+    public PrefetchingInputStream(final InputStream in, final int chunkSize, final int chunkCount) {
+        this.in = in;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, chunkCount));
+        this.currentChunk = END;
+        this.position = 0;
+        this.endOfInput = false;
+        this.closed = false;
+        this.thread = new Thread(() -> this.prefetch(Math.max(1, chunkSize)), "prefetch");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void prefetch(final int chunkSize) {
+        try {
+            byte[] chunk;
+            int count;
+            while (!this.closed) {
+                chunk = new byte[chunkSize];
+                count = ParallelBGZFInputStream.readFully(this.in, chunk, 0, chunkSize);
+                if (count
+                        > 0) {
+                    this.chunks.put(count
+                                            == chunkSize
+                                    ? chunk
+                                    : Arrays.copyOf(chunk, count));
+                }
+                if (count
+                        < chunkSize) {
+                    break;
+                }
+            }
+        } catch (final IOException e) {
+            this.failure = e;
+        } catch (final InterruptedException e) {
+            // closed, nobody waits for the end marker anymore
+            return;
+        } catch (final Throwable e) {
+            // e.g. a runtime exception of the underlying decompressor, which must not leave the reader waiting
+            this.failure = new IOException("Prefetching failed", e);
+        }
+        try {
+            this.chunks.put(END);
+        } catch (final InterruptedException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+
+        return this.currentChunk[this.position++]
+                & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len
+                == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, this.currentChunk.length
+                - this.position);
+        System.arraycopy(this.currentChunk, this.position, b, off, count);
+        this.position += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.currentChunk.length
+                - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.thread.interrupt();
+        try {
+            this.thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+        }
+        this.chunks.clear();
+        this.in.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        while (this.position
+                >= this.currentChunk.length) {
+            if (this.endOfInput) {
+                return false;
+            }
+            try {
+                this.currentChunk = this.chunks.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread()
+                      .interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            this.position = 0;
+            if (this.currentChunk
+                    == END) {
+                this.endOfInput = true;
+                if (this.failure
+                        != null) {
+                    throw this.failure;
+                }
+            }
+        }
+
+        return true;
+    }
+}
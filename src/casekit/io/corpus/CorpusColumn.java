@@ -0,0 +1,41 @@
+package casekit.io.corpus;
+
+/**
+ * Columns of a data set corpus, see {@link DataSetCorpus}. <br>
+ * Each column stores one record per data set. All numbers are little endian, missing objects are marked by
+ * negative counts and missing boxed values by {@link CorpusFormat#NULL_INT} and
+ * {@link CorpusFormat#NULL_DOUBLE_BITS}. Strings are stored as UTF-8 byte count followed by the bytes.
+ */
+public enum CorpusColumn {
+    /**
+     * structure atom properties: atom count (-1 without structure, -2 without atom properties), properties per
+     * atom, then the properties of all atoms in row-major order
+     */
+    ATOMS,
+    /**
+     * structure bond properties: atom count (-1 without structure, -2 without bond properties), then per atom the
+     * bond count and per bond the property count and the properties
+     */
+    BONDS,
+    /**
+     * spectrum signal numbers: signal count (-1 without spectrum, -2 without signals), then per signal the double
+     * count, the doubles as raw bits, i.e. the shifts and the intensity, the integer count and the integers
+     */
+    SHIFTS,
+    /**
+     * spectrum signal strings: signal count (-1 without spectrum, -2 without signals), then per signal the string
+     * count and the strings, i.e. the nuclei, the multiplicity, the signal kind and the signal id
+     */
+    MULTIPLICITIES,
+    /**
+     * assignment: nuclei count (-2 without assignment, -1 without nuclei) and nuclei, dimension count (-1 without
+     * assignments) and per dimension the index count and per index the equivalence count and the assigned atom
+     * indices
+     */
+    ASSIGNMENTS,
+    /**
+     * data set meta, spectrum nuclei and spectrum meta: entry count (-1 without meta) and the key and value strings,
+     * nuclei count and nuclei, entry count and the key and value strings
+     */
+    META
+}
@@ -0,0 +1,101 @@
+package casekit.io.corpus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * File layout of a data set corpus and decoding of the values shared by the columns. <br>
+ * A corpus file starts with a header: magic number, format version, column count and data set count, followed by
+ * the position of the offset index and of the data of each column. The offset index of a column contains the start
+ * offset of each record relative to the column data, plus the end offset of the last record.
+ */
+final class CorpusFormat {
+
+    final static long MAGIC = 0x5355_5052_4f43_4b43L; // "CKCORPUS" in little endian
+    final static int VERSION = 1;
+    final static int HEADER_LENGTH = 8
+            + 4
+            + 4
+            + 4;
+    final static int COLUMN_ENTRY_LENGTH = 8
+            + 8
+            + 8;
+    final static int NULL_INT = Integer.MIN_VALUE;
+    // quiet NaN with a payload which is never produced by arithmetic
+    final static long NULL_DOUBLE_BITS = 0x7ff8_dead_beef_0001L;
+    final static int NO_OBJECT = -1;
+    final static int NO_SIGNALS = -2;
+    // structure without atom or bond properties
+    final static int NO_PROPERTIES = -2;
+    // first value of the assignment column, which otherwise starts with the nuclei count, -1 for null nuclei
+    final static int NO_ASSIGNMENT = -2;
+
+    private CorpusFormat() {
+    }
+
+    static Integer readInteger(final ByteBuffer buffer) {
+        final int value = buffer.getInt();
+
+        return value
+                       == NULL_INT
+               ? null
+               : value;
+    }
+
+    static Double readDouble(final ByteBuffer buffer) {
+        final long bits = buffer.getLong();
+
+        return bits
+                       == NULL_DOUBLE_BITS
+               ? null
+               : Double.longBitsToDouble(bits);
+    }
+
+    static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length
+                == NO_OBJECT) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String[] readStrings(final ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count
+                == NO_OBJECT) {
+            return null;
+        }
+        final String[] values = new String[count];
+        for (int i = 0; i
+                < count; i++) {
+            values[i] = readString(buffer);
+        }
+
+        return values;
+    }
+
+    static Map<String, String> readMap(final ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count
+                == NO_OBJECT) {
+            return null;
+        }
+        final Map<String, String> map = new HashMap<>(Math.max(16, (int) (count
+                / 0.75f)
+                + 1));
+        String key;
+        for (int i = 0; i
+                < count; i++) {
+            key = readString(buffer);
+            map.put(key, readString(buffer));
+        }
+
+        return map;
+    }
+}
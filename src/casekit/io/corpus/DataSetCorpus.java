@@ -0,0 +1,360 @@
+package casekit.io.corpus;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.SignalCompact;
+import casekit.nmr.model.SpectrumCompact;
+import casekit.nmr.model.StructureCompact;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Memory-mapped columnar data set corpus as written by {@link DataSetCorpusWriter}. <br>
+ * Each part of a data set, i.e. atoms, bonds, signal shifts, signal multiplicities, assignment and meta, is stored in
+ * its own column, see {@link CorpusColumn}, so single parts can be read without decoding the others. The data sets
+ * are accessed by their id, i.e. their position in the corpus, and are decoded on each access. All reads are
+ * absolute, so a corpus can be read by multiple threads, e.g. by a parallel {@link #stream()}. <br>
+ * Opening a corpus only maps the file, the operating system loads the pages on demand.
+ */
+public class DataSetCorpus
+        implements Closeable {
+
+    private final FileChannel fileChannel;
+    private final int dataSetCount;
+    private final IntBuffer[] indices;
+    private final ByteBuffer[] columns;
+
+    /**
+     * @param pathToCorpus path to corpus file
+     *
+     * @throws IOException if the file could not be read or is no corpus file
+     */
+    public DataSetCorpus(final String pathToCorpus) throws IOException {
+        this.fileChannel = FileChannel.open(Paths.get(pathToCorpus), StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                                           Math.min(this.fileChannel.size(),
+                                                                    CorpusFormat.HEADER_LENGTH))
+                                                      .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.capacity()
+                    < CorpusFormat.HEADER_LENGTH
+                    || header.getLong()
+                    != CorpusFormat.MAGIC) {
+                throw new IOException("No data set corpus file: "
+                                              + pathToCorpus);
+            }
+            final int version = header.getInt();
+            if (version
+                    != CorpusFormat.VERSION) {
+                throw new IOException("Unsupported data set corpus version "
+                                              + version
+                                              + ": "
+                                              + pathToCorpus);
+            }
+            final int columnCount = header.getInt();
+            if (columnCount
+                    != CorpusColumn.values().length) {
+                throw new IOException("Unexpected column count "
+                                              + columnCount
+                                              + ": "
+                                              + pathToCorpus);
+            }
+            this.dataSetCount = header.getInt();
+            final ByteBuffer columnEntries = this.fileChannel.map(FileChannel.MapMode.READ_ONLY,
+                                                                  CorpusFormat.HEADER_LENGTH, columnCount
+                                                                          * CorpusFormat.COLUMN_ENTRY_LENGTH)
+                                                             .order(ByteOrder.LITTLE_ENDIAN);
+            this.indices = new IntBuffer[columnCount];
+            this.columns = new ByteBuffer[columnCount];
+            long indexPosition, dataPosition, dataLength;
+            for (int i = 0; i
+                    < columnCount; i++) {
+                indexPosition = columnEntries.getLong();
+                dataPosition = columnEntries.getLong();
+                dataLength = columnEntries.getLong();
+                if (dataPosition
+                        + dataLength
+                        > this.fileChannel.size()) {
+                    throw new IOException("Truncated data set corpus file: "
+                                                  + pathToCorpus);
+                }
+                this.indices[i] = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, indexPosition, dataPosition
+                                                               - indexPosition)
+                                                  .order(ByteOrder.LITTLE_ENDIAN)
+                                                  .asIntBuffer();
+                this.columns[i] = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, dataPosition, dataLength)
+                                                  .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (final IOException e) {
+            this.fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of data sets
+     */
+    public int size() {
+        return this.dataSetCount;
+    }
+
+    /**
+     * Returns the record of a data set in a column as little endian buffer, positioned at the start of the record.
+     *
+     * @param column    column
+     * @param dataSetId data set id
+     *
+     * @return read-only buffer limited to the record
+     */
+    public ByteBuffer getRecord(final CorpusColumn column, final int dataSetId) {
+        this.checkId(dataSetId);
+        final IntBuffer index = this.indices[column.ordinal()];
+        final ByteBuffer record = this.columns[column.ordinal()].duplicate();
+        record.limit(index.get(dataSetId
+                                       + 1));
+        record.position(index.get(dataSetId));
+
+        return record.slice()
+                     .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the start offset of a data set record within a column, see {@link #getColumn(CorpusColumn)}.
+     *
+     * @param column    column
+     * @param dataSetId data set id
+     *
+     * @return
+     */
+    public int getRecordOffset(final CorpusColumn column, final int dataSetId) {
+        this.checkId(dataSetId);
+
+        return this.indices[column.ordinal()].get(dataSetId);
+    }
+
+    /**
+     * Returns a whole column as little endian buffer, to be read with absolute reads at the record offsets, see
+     * {@link #getRecordOffset(CorpusColumn, int)}.
+     *
+     * @param column column
+     *
+     * @return read-only buffer shared by all callers
+     */
+    public ByteBuffer getColumn(final CorpusColumn column) {
+        return this.columns[column.ordinal()];
+    }
+
+    /**
+     * Decodes a data set. The attachment of the returned data set is empty.
+     *
+     * @param dataSetId data set id
+     *
+     * @return
+     */
+    public DataSet get(final int dataSetId) {
+        final ByteBuffer meta = this.getRecord(CorpusColumn.META, dataSetId);
+        final Map<String, String> dataSetMeta = CorpusFormat.readMap(meta);
+
+        return new DataSet(this.getStructure(dataSetId), this.getSpectrum(dataSetId, meta),
+                           this.getAssignment(dataSetId), dataSetMeta, new HashMap<>());
+    }
+
+    /**
+     * @param dataSetId data set id
+     *
+     * @return structure of a data set, or null if it has none
+     */
+    public StructureCompact getStructure(final int dataSetId) {
+        final ByteBuffer atoms = this.getRecord(CorpusColumn.ATOMS, dataSetId);
+        final int atomCount = atoms.getInt();
+        if (atomCount
+                == CorpusFormat.NO_OBJECT) {
+            return null;
+        }
+        Integer[][] atomProperties = null;
+        if (atomCount
+                != CorpusFormat.NO_PROPERTIES) {
+            final int propertyCount = atoms.getInt();
+            atomProperties = new Integer[atomCount][propertyCount];
+            for (int i = 0; i
+                    < atomCount; i++) {
+                for (int k = 0; k
+                        < propertyCount; k++) {
+                    atomProperties[i][k] = CorpusFormat.readInteger(atoms);
+                }
+            }
+        }
+        final ByteBuffer bonds = this.getRecord(CorpusColumn.BONDS, dataSetId);
+        final int bondAtomCount = bonds.getInt();
+        if (bondAtomCount
+                == CorpusFormat.NO_PROPERTIES) {
+            return new StructureCompact(null, atomProperties);
+        }
+        final int[][][] bondProperties = new int[bondAtomCount][][];
+        int[] bond;
+        for (int i = 0; i
+                < bondProperties.length; i++) {
+            bondProperties[i] = new int[bonds.getInt()][];
+            for (int k = 0; k
+                    < bondProperties[i].length; k++) {
+                bond = new int[bonds.getInt()];
+                for (int l = 0; l
+                        < bond.length; l++) {
+                    bond[l] = bonds.getInt();
+                }
+                bondProperties[i][k] = bond;
+            }
+        }
+
+        return new StructureCompact(bondProperties, atomProperties);
+    }
+
+    /**
+     * @param dataSetId data set id
+     *
+     * @return spectrum of a data set, or null if it has none
+     */
+    public SpectrumCompact getSpectrum(final int dataSetId) {
+        final ByteBuffer meta = this.getRecord(CorpusColumn.META, dataSetId);
+        // skip the data set meta
+        CorpusFormat.readMap(meta);
+
+        return this.getSpectrum(dataSetId, meta);
+    }
+
+    private SpectrumCompact getSpectrum(final int dataSetId, final ByteBuffer meta) {
+        final ByteBuffer shifts = this.getRecord(CorpusColumn.SHIFTS, dataSetId);
+        final int signalCount = shifts.getInt();
+        if (signalCount
+                == CorpusFormat.NO_OBJECT) {
+            return null;
+        }
+        final String[] nuclei = CorpusFormat.readStrings(meta);
+        final Map<String, String> spectrumMeta = CorpusFormat.readMap(meta);
+        if (signalCount
+                == CorpusFormat.NO_SIGNALS) {
+            return new SpectrumCompact(nuclei, spectrumMeta, null);
+        }
+        final ByteBuffer multiplicities = this.getRecord(CorpusColumn.MULTIPLICITIES, dataSetId);
+        // skip the signal count
+        multiplicities.getInt();
+        final SignalCompact[] signals = new SignalCompact[signalCount];
+        Double[] doubles;
+        Integer[] integers;
+        int count;
+        for (int i = 0; i
+                < signalCount; i++) {
+            count = shifts.getInt();
+            doubles = count
+                              == CorpusFormat.NO_OBJECT
+                      ? null
+                      : new Double[count];
+            for (int k = 0; k
+                    < count; k++) {
+                doubles[k] = CorpusFormat.readDouble(shifts);
+            }
+            count = shifts.getInt();
+            integers = count
+                               == CorpusFormat.NO_OBJECT
+                       ? null
+                       : new Integer[count];
+            for (int k = 0; k
+                    < count; k++) {
+                integers[k] = CorpusFormat.readInteger(shifts);
+            }
+            signals[i] = new SignalCompact(CorpusFormat.readStrings(multiplicities), doubles, integers);
+        }
+
+        return new SpectrumCompact(nuclei, spectrumMeta, signals);
+    }
+
+    /**
+     * @param dataSetId data set id
+     *
+     * @return assignment of a data set, or null if it has none
+     */
+    public Assignment getAssignment(final int dataSetId) {
+        final ByteBuffer record = this.getRecord(CorpusColumn.ASSIGNMENTS, dataSetId);
+        if (record.getInt(0)
+                == CorpusFormat.NO_ASSIGNMENT) {
+            return null;
+        }
+        final String[] nuclei = CorpusFormat.readStrings(record);
+        final int dimensionCount = record.getInt();
+        if (dimensionCount
+                == CorpusFormat.NO_OBJECT) {
+            return new Assignment(nuclei, null);
+        }
+        final int[][][] assignments = new int[dimensionCount][][];
+        int[] equivalences;
+        for (int dim = 0; dim
+                < dimensionCount; dim++) {
+            assignments[dim] = new int[record.getInt()][];
+            for (int i = 0; i
+                    < assignments[dim].length; i++) {
+                equivalences = new int[record.getInt()];
+                for (int k = 0; k
+                        < equivalences.length; k++) {
+                    equivalences[k] = record.getInt();
+                }
+                assignments[dim][i] = equivalences;
+            }
+        }
+
+        return new Assignment(nuclei, assignments);
+    }
+
+    /**
+     * @param dataSetId data set id
+     *
+     * @return meta of a data set, or null if it has none
+     */
+    public Map<String, String> getMeta(final int dataSetId) {
+        return CorpusFormat.readMap(this.getRecord(CorpusColumn.META, dataSetId));
+    }
+
+    /**
+     * Returns a stream decoding the data sets in id order, which can be made parallel.
+     *
+     * @return
+     */
+    public Stream<DataSet> stream() {
+        return IntStream.range(0, this.dataSetCount)
+                        .mapToObj(this::get);
+    }
+
+    /**
+     * Closes the file. The mapped columns are released by the garbage collector, buffers and views obtained from
+     * this corpus must not be used afterwards.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.fileChannel.close();
+    }
+
+    private void checkId(final int dataSetId) {
+        if (dataSetId
+                < 0
+                || dataSetId
+                >= this.dataSetCount) {
+            throw new IndexOutOfBoundsException("data set id "
+                                                        + dataSetId
+                                                        + " out of range [0, "
+                                                        + this.dataSetCount
+                                                        + ")");
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package casekit.io.corpus;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.SignalCompact;
+import casekit.nmr.model.SpectrumCompact;
+import casekit.nmr.model.StructureCompact;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes data sets into a corpus file, see {@link DataSetCorpus}. <br>
+ * The columns are written into temporary files next to the corpus file while the data sets are added, and are
+ * assembled into the corpus file by {@link #close()}, so the data sets do not need to be kept in memory. The
+ * attachments of the data sets are not stored.
+ */
+public class DataSetCorpusWriter
+        implements Closeable {
+
+    private final static int OUTPUT_BUFFER_SIZE = 1
+            << 20;
+
+    private final Path pathToCorpus;
+    private final ColumnWriter[] columnWriters;
+    private int dataSetCount;
+    private boolean closed;
+
+    /**
+     * @param pathToCorpus path of the corpus file to write
+     *
+     * @throws IOException if the temporary column files could not be created
+     */
+    public DataSetCorpusWriter(final String pathToCorpus) throws IOException {
+        this.pathToCorpus = Paths.get(pathToCorpus)
+                                 .toAbsolutePath();
+        this.columnWriters = new ColumnWriter[CorpusColumn.values().length];
+        try {
+            for (final CorpusColumn column : CorpusColumn.values()) {
+                this.columnWriters[column.ordinal()] = new ColumnWriter(
+                        Files.createTempFile(this.pathToCorpus.getParent(), column.name()
+                                                                                  .toLowerCase(), ".tmp"));
+            }
+        } catch (final IOException e) {
+            this.deleteColumnFiles();
+            throw e;
+        }
+        this.dataSetCount = 0;
+        this.closed = false;
+    }
+
+    /**
+     * Writes all data sets of an iterator into a corpus file.
+     *
+     * @param dataSetIterator data sets to write
+     * @param pathToCorpus    path of the corpus file to write
+     *
+     * @return number of written data sets
+     *
+     * @throws IOException
+     */
+    public static int write(final Iterator<DataSet> dataSetIterator, final String pathToCorpus) throws IOException {
+        try (final DataSetCorpusWriter dataSetCorpusWriter = new DataSetCorpusWriter(pathToCorpus)) {
+            while (dataSetIterator.hasNext()) {
+                dataSetCorpusWriter.add(dataSetIterator.next());
+            }
+
+            return dataSetCorpusWriter.getDataSetCount();
+        }
+    }
+
+    /**
+     * Adds a data set to the corpus.
+     *
+     * @param dataSet data set
+     *
+     * @return id of the data set in the corpus
+     *
+     * @throws IOException              if a column could not be written
+     * @throws IllegalArgumentException if the atom properties of the structure differ in length
+     */
+    public int add(final DataSet dataSet) throws IOException {
+        if (this.closed) {
+            throw new IOException("Corpus writer closed");
+        }
+        // discard partial records of a data set which could not be encoded
+        for (final ColumnWriter columnWriter : this.columnWriters) {
+            columnWriter.record.clear();
+        }
+        this.writeAtoms(dataSet.getStructure(), this.columnWriters[CorpusColumn.ATOMS.ordinal()]);
+        this.writeBonds(dataSet.getStructure(), this.columnWriters[CorpusColumn.BONDS.ordinal()]);
+        this.writeShifts(dataSet.getSpectrum(), this.columnWriters[CorpusColumn.SHIFTS.ordinal()]);
+        this.writeMultiplicities(dataSet.getSpectrum(), this.columnWriters[CorpusColumn.MULTIPLICITIES.ordinal()]);
+        this.writeAssignment(dataSet.getAssignment(), this.columnWriters[CorpusColumn.ASSIGNMENTS.ordinal()]);
+        this.writeMeta(dataSet, this.columnWriters[CorpusColumn.META.ordinal()]);
+        for (final ColumnWriter columnWriter : this.columnWriters) {
+            columnWriter.endRecord();
+        }
+
+        return this.dataSetCount++;
+    }
+
+    public int getDataSetCount() {
+        return this.dataSetCount;
+    }
+
+    /**
+     * Assembles the corpus file from the columns and deletes the temporary column files.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            for (final ColumnWriter columnWriter : this.columnWriters) {
+                columnWriter.out.close();
+            }
+            this.assemble();
+        } finally {
+            this.deleteColumnFiles();
+        }
+    }
+
+    private void assemble() throws IOException {
+        final int columnCount = this.columnWriters.length;
+        final ByteBuffer header = ByteBuffer.allocate(CorpusFormat.HEADER_LENGTH
+                                                              + columnCount
+                                                              * CorpusFormat.COLUMN_ENTRY_LENGTH)
+                                            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(CorpusFormat.MAGIC);
+        header.putInt(CorpusFormat.VERSION);
+        header.putInt(columnCount);
+        header.putInt(this.dataSetCount);
+        long position = header.capacity();
+        for (final ColumnWriter columnWriter : this.columnWriters) {
+            header.putLong(position);
+            position += (this.dataSetCount
+                    + 1L)
+                    * Integer.BYTES;
+            header.putLong(position);
+            header.putLong(columnWriter.size);
+            position += columnWriter.size;
+        }
+        header.flip();
+        try (final FileChannel fileChannel = FileChannel.open(this.pathToCorpus, StandardOpenOption.CREATE,
+                                                              StandardOpenOption.WRITE,
+                                                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(fileChannel, header);
+            ByteBuffer index;
+            for (final ColumnWriter columnWriter : this.columnWriters) {
+                index = ByteBuffer.allocate((this.dataSetCount
+                                                    + 1)
+                                                    * Integer.BYTES)
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+                index.asIntBuffer()
+                     .put(columnWriter.offsets, 0, this.dataSetCount
+                             + 1);
+                writeFully(fileChannel, index);
+                try (final FileChannel columnChannel = FileChannel.open(columnWriter.pathToColumn,
+                                                                        StandardOpenOption.READ)) {
+                    long transferred = 0;
+                    // transferTo may transfer less than requested
+                    while (transferred
+                            < columnWriter.size) {
+                        transferred += columnChannel.transferTo(transferred, columnWriter.size
+                                - transferred, fileChannel);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeFully(final FileChannel fileChannel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+    }
+
+    private void deleteColumnFiles() throws IOException {
+        for (final ColumnWriter columnWriter : this.columnWriters) {
+            if (columnWriter
+                    != null) {
+                columnWriter.out.close();
+                Files.deleteIfExists(columnWriter.pathToColumn);
+            }
+        }
+    }
+
+    private void writeAtoms(final StructureCompact structure, final ColumnWriter columnWriter) {
+        if (structure
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            return;
+        }
+        if (structure.getAtomProperties()
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_PROPERTIES);
+            return;
+        }
+        final Integer[][] atomProperties = structure.getAtomProperties();
+        final int propertyCount = atomProperties.length
+                                          > 0
+                                  ? atomProperties[0].length
+                                  : 0;
+        columnWriter.putInt(atomProperties.length);
+        columnWriter.putInt(propertyCount);
+        for (final Integer[] properties : atomProperties) {
+            if (properties.length
+                    != propertyCount) {
+                throw new IllegalArgumentException("atom properties differ in length: "
+                                                           + properties.length
+                                                           + " instead of "
+                                                           + propertyCount);
+            }
+            for (final Integer property : properties) {
+                columnWriter.putInteger(property);
+            }
+        }
+    }
+
+    private void writeBonds(final StructureCompact structure, final ColumnWriter columnWriter) {
+        if (structure
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            return;
+        }
+        if (structure.getBondProperties()
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_PROPERTIES);
+            return;
+        }
+        columnWriter.putInt(structure.getBondProperties().length);
+        for (final int[][] bonds : structure.getBondProperties()) {
+            columnWriter.putInt(bonds.length);
+            for (final int[] bond : bonds) {
+                columnWriter.putInt(bond.length);
+                for (final int property : bond) {
+                    columnWriter.putInt(property);
+                }
+            }
+        }
+    }
+
+    private void writeShifts(final SpectrumCompact spectrum, final ColumnWriter columnWriter) {
+        if (!writeSignalCount(spectrum, columnWriter)) {
+            return;
+        }
+        for (final SignalCompact signal : spectrum.getSignals()) {
+            if (signal.getDoubles()
+                    == null) {
+                columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            } else {
+                columnWriter.putInt(signal.getDoubles().length);
+                for (final Double value : signal.getDoubles()) {
+                    columnWriter.putDouble(value);
+                }
+            }
+            if (signal.getIntegers()
+                    == null) {
+                columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            } else {
+                columnWriter.putInt(signal.getIntegers().length);
+                for (final Integer value : signal.getIntegers()) {
+                    columnWriter.putInteger(value);
+                }
+            }
+        }
+    }
+
+    private void writeMultiplicities(final SpectrumCompact spectrum, final ColumnWriter columnWriter) {
+        if (!writeSignalCount(spectrum, columnWriter)) {
+            return;
+        }
+        for (final SignalCompact signal : spectrum.getSignals()) {
+            columnWriter.putStrings(signal.getStrings());
+        }
+    }
+
+    /**
+     * @return whether signals follow
+     */
+    private static boolean writeSignalCount(final SpectrumCompact spectrum, final ColumnWriter columnWriter) {
+        if (spectrum
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            return false;
+        }
+        if (spectrum.getSignals()
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_SIGNALS);
+            return false;
+        }
+        columnWriter.putInt(spectrum.getSignals().length);
+
+        return true;
+    }
+
+    private void writeAssignment(final Assignment assignment, final ColumnWriter columnWriter) {
+        if (assignment
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_ASSIGNMENT);
+            return;
+        }
+        columnWriter.putStrings(assignment.getNuclei());
+        if (assignment.getAssignments()
+                == null) {
+            columnWriter.putInt(CorpusFormat.NO_OBJECT);
+            return;
+        }
+        columnWriter.putInt(assignment.getAssignments().length);
+        for (final int[][] indices : assignment.getAssignments()) {
+            columnWriter.putInt(indices.length);
+            for (final int[] equivalences : indices) {
+                columnWriter.putInt(equivalences.length);
+                for (final int atomIndex : equivalences) {
+                    columnWriter.putInt(atomIndex);
+                }
+            }
+        }
+    }
+
+    private void writeMeta(final DataSet dataSet, final ColumnWriter columnWriter) {
+        columnWriter.putMap(dataSet.getMeta());
+        if (dataSet.getSpectrum()
+                == null) {
+            columnWriter.putStrings(null);
+            columnWriter.putMap(null);
+        } else {
+            columnWriter.putStrings(dataSet.getSpectrum()
+                                           .getNuclei());
+            columnWriter.putMap(dataSet.getSpectrum()
+                                       .getMeta());
+        }
+    }
+
+    /**
+     * Encodes the records of a column into a reusable buffer and appends them to a temporary file.
+     */
+    private static class ColumnWriter {
+
+        private final Path pathToColumn;
+        private final OutputStream out;
+        private ByteBuffer record;
+        private int[] offsets;
+        private long size;
+        private int recordCount;
+
+        private ColumnWriter(final Path pathToColumn) throws IOException {
+            this.pathToColumn = pathToColumn;
+            this.out = new BufferedOutputStream(Files.newOutputStream(pathToColumn), OUTPUT_BUFFER_SIZE);
+            this.record = ByteBuffer.allocate(1024)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+            this.offsets = new int[1024];
+            this.size = 0;
+            this.recordCount = 0;
+        }
+
+        private void endRecord() throws IOException {
+            this.out.write(this.record.array(), 0, this.record.position());
+            this.size += this.record.position();
+            this.record.clear();
+            if (this.size
+                    > Integer.MAX_VALUE) {
+                throw new IOException("Corpus column exceeds "
+                                              + Integer.MAX_VALUE
+                                              + " bytes, split the corpus: "
+                                              + this.pathToColumn);
+            }
+            // offsets[i] is the start of record i, the entry after the last record is its end
+            if (this.recordCount
+                    + 1
+                    >= this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.offsets.length
+                        * 2);
+            }
+            this.recordCount++;
+            this.offsets[this.recordCount] = (int) this.size;
+        }
+
+        private void ensureCapacity(final int length) {
+            if (this.record.remaining()
+                    < length) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(this.record.capacity()
+                                                                              * 2, this.record.position()
+                                                                              + length))
+                                                   .order(ByteOrder.LITTLE_ENDIAN);
+                this.record.flip();
+                grown.put(this.record);
+                this.record = grown;
+            }
+        }
+
+        private void putInt(final int value) {
+            this.ensureCapacity(Integer.BYTES);
+            this.record.putInt(value);
+        }
+
+        private void putInteger(final Integer value) {
+            this.putInt(value
+                                == null
+                        ? CorpusFormat.NULL_INT
+                        : value);
+        }
+
+        private void putDouble(final Double value) {
+            this.ensureCapacity(Long.BYTES);
+            this.record.putLong(value
+                                        == null
+                                ? CorpusFormat.NULL_DOUBLE_BITS
+                                : Double.doubleToRawLongBits(value));
+        }
+
+        private void putString(final String value) {
+            if (value
+                    == null) {
+                this.putInt(CorpusFormat.NO_OBJECT);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.putInt(bytes.length);
+            this.ensureCapacity(bytes.length);
+            this.record.put(bytes);
+        }
+
+        private void putStrings(final String[] values) {
+            if (values
+                    == null) {
+                this.putInt(CorpusFormat.NO_OBJECT);
+                return;
+            }
+            this.putInt(values.length);
+            for (final String value : values) {
+                this.putString(value);
+            }
+        }
+
+        private void putMap(final Map<String, String> map) {
+            if (map
+                    == null) {
+                this.putInt(CorpusFormat.NO_OBJECT);
+                return;
+            }
+            this.putInt(map.size());
+            for (final Map.Entry<String, String> entry : map.entrySet()) {
+                this.putString(entry.getKey());
+                this.putString(entry.getValue());
+            }
+        }
+    }
+}
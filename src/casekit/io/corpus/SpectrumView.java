@@ -0,0 +1,408 @@
+package casekit.io.corpus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only flyweight view of the spectrum and the assignment of a data set in a {@link DataSetCorpus}. <br>
+ * The values are read directly from the mapped columns, nothing is decoded into objects. A view is moved to a data
+ * set by {@link #moveTo(int)}, which only locates the signals in the columns, so a whole corpus can be scanned
+ * with a single view and without allocations. A view is not thread-safe, use one view per thread.
+ */
+public class SpectrumView {
+
+    private final DataSetCorpus dataSetCorpus;
+    private final ByteBuffer shifts;
+    private final ByteBuffer multiplicities;
+    private final ByteBuffer assignments;
+    private final ByteBuffer meta;
+    private int dataSetId;
+    private boolean hasSpectrum;
+    private int signalCount;
+    private int nDim;
+    // start of each signal in the shifts and multiplicities columns
+    private int[] shiftOffsets;
+    private int[] multiplicityOffsets;
+    // start of the equivalences of each signal in the first assignment dimension, built on demand
+    private int[] assignmentOffsets;
+    private int assignmentSize;
+    private boolean assignmentOffsetsBuilt;
+
+    public SpectrumView(final DataSetCorpus dataSetCorpus) {
+        this.dataSetCorpus = dataSetCorpus;
+        this.shifts = dataSetCorpus.getColumn(CorpusColumn.SHIFTS);
+        this.multiplicities = dataSetCorpus.getColumn(CorpusColumn.MULTIPLICITIES);
+        this.assignments = dataSetCorpus.getColumn(CorpusColumn.ASSIGNMENTS);
+        this.meta = dataSetCorpus.getColumn(CorpusColumn.META);
+        this.shiftOffsets = new int[64];
+        this.multiplicityOffsets = new int[64];
+        this.assignmentOffsets = new int[64];
+        this.dataSetId = -1;
+    }
+
+    /**
+     * Moves this view to the spectrum of a data set.
+     *
+     * @param dataSetId data set id
+     *
+     * @return this view
+     */
+    public SpectrumView moveTo(final int dataSetId) {
+        int position = this.dataSetCorpus.getRecordOffset(CorpusColumn.SHIFTS, dataSetId);
+        final int count = this.shifts.getInt(position);
+        this.dataSetId = dataSetId;
+        this.hasSpectrum = count
+                != CorpusFormat.NO_OBJECT;
+        this.signalCount = Math.max(0, count);
+        this.assignmentOffsetsBuilt = false;
+        if (this.signalCount
+                > this.shiftOffsets.length) {
+            this.shiftOffsets = new int[Math.max(this.signalCount, this.shiftOffsets.length
+                    * 2)];
+            this.multiplicityOffsets = new int[this.shiftOffsets.length];
+        }
+        position += Integer.BYTES;
+        for (int i = 0; i
+                < this.signalCount; i++) {
+            this.shiftOffsets[i] = position;
+            position += Integer.BYTES
+                    + Math.max(0, this.shifts.getInt(position))
+                    * Long.BYTES;
+            position += Integer.BYTES
+                    + Math.max(0, this.shifts.getInt(position))
+                    * Integer.BYTES;
+        }
+        position = this.dataSetCorpus.getRecordOffset(CorpusColumn.MULTIPLICITIES, dataSetId)
+                + Integer.BYTES;
+        for (int i = 0; i
+                < this.signalCount; i++) {
+            this.multiplicityOffsets[i] = position;
+            position = skipStrings(this.multiplicities, position);
+        }
+        // the spectrum nuclei follow the data set meta
+        position = this.dataSetCorpus.getRecordOffset(CorpusColumn.META, dataSetId);
+        final int entryCount = this.meta.getInt(position);
+        position += Integer.BYTES;
+        for (int i = 0; i
+                < 2
+                * Math.max(0, entryCount); i++) {
+            position = skipString(this.meta, position);
+        }
+        this.nDim = Math.max(0, this.meta.getInt(position));
+
+        return this;
+    }
+
+    public int getDataSetId() {
+        return this.dataSetId;
+    }
+
+    /**
+     * @return false if the data set has no spectrum
+     */
+    public boolean hasSpectrum() {
+        return this.hasSpectrum;
+    }
+
+    public int getSignalCount() {
+        return this.signalCount;
+    }
+
+    public int getNDim() {
+        return this.nDim;
+    }
+
+    public boolean containsDim(final int dim) {
+        return dim
+                >= 0
+                && dim
+                < this.nDim;
+    }
+
+    /**
+     * @param signalIndex signal index
+     *
+     * @return number of dimensions of a signal
+     */
+    public int getSignalDimensions(final int signalIndex) {
+        return this.getSignalInteger(signalIndex, 0);
+    }
+
+    /**
+     * @param signalIndex signal index
+     * @param dim         dimension
+     *
+     * @return shift of a signal, NaN if not given
+     */
+    public double getShift(final int signalIndex, final int dim) {
+        return this.getSignalDouble(signalIndex, dim);
+    }
+
+    /**
+     * @param signalIndex signal index
+     *
+     * @return intensity of a signal, NaN if not given
+     */
+    public double getIntensity(final int signalIndex) {
+        return this.getSignalDouble(signalIndex, this.getSignalDimensions(signalIndex));
+    }
+
+    public int getEquivalencesCount(final int signalIndex) {
+        final int equivalencesCount = this.getSignalInteger(signalIndex, 1);
+
+        return equivalencesCount
+                       == CorpusFormat.NULL_INT
+               ? 0
+               : equivalencesCount;
+    }
+
+    public boolean hasMultiplicity(final int signalIndex) {
+        final int position = this.getSignalStringPosition(signalIndex, this.getSignalDimensions(signalIndex));
+
+        return position
+                >= 0
+                && this.multiplicities.getInt(position)
+                != CorpusFormat.NO_OBJECT;
+    }
+
+    /**
+     * Compares the multiplicity of a signal like {@link String#equalsIgnoreCase(String)} without decoding it.
+     *
+     * @param signalIndex  signal index
+     * @param multiplicity multiplicity to compare with
+     *
+     * @return false if one of both multiplicities is not given
+     */
+    public boolean isMultiplicity(final int signalIndex, final String multiplicity) {
+        if (multiplicity
+                == null) {
+            return false;
+        }
+        int position = this.getSignalStringPosition(signalIndex, this.getSignalDimensions(signalIndex));
+        if (position
+                < 0) {
+            return false;
+        }
+        final int length = this.multiplicities.getInt(position);
+        if (length
+                == CorpusFormat.NO_OBJECT) {
+            return false;
+        }
+        position += Integer.BYTES;
+        char c1, c2;
+        for (int i = 0; i
+                < Math.min(length, multiplicity.length()); i++) {
+            c1 = (char) (this.multiplicities.get(position
+                                                         + i)
+                    & 0xff);
+            c2 = multiplicity.charAt(i);
+            if (c1
+                    >= 0x80
+                    || c2
+                    >= 0x80) {
+                // non-ASCII, compare the decoded string
+                return multiplicity.equalsIgnoreCase(this.getMultiplicity(signalIndex));
+            }
+            if (toLowerCase(c1)
+                    != toLowerCase(c2)) {
+                return false;
+            }
+        }
+
+        return length
+                == multiplicity.length();
+    }
+
+    /**
+     * @param signalIndex signal index
+     *
+     * @return decoded multiplicity of a signal, or null if not given
+     */
+    public String getMultiplicity(final int signalIndex) {
+        final int position = this.getSignalStringPosition(signalIndex, this.getSignalDimensions(signalIndex));
+        if (position
+                < 0) {
+            return null;
+        }
+        final int length = this.multiplicities.getInt(position);
+        if (length
+                == CorpusFormat.NO_OBJECT) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i
+                < length; i++) {
+            bytes[i] = this.multiplicities.get(position
+                                                       + Integer.BYTES
+                                                       + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param signalIndex signal index
+     *
+     * @return number of atoms assigned to a signal in the first assignment dimension, 0 without assignment
+     */
+    public int getAssignedAtomCount(final int signalIndex) {
+        this.buildAssignmentOffsets();
+        if (signalIndex
+                >= this.assignmentSize) {
+            return 0;
+        }
+
+        return this.assignments.getInt(this.assignmentOffsets[signalIndex]);
+    }
+
+    /**
+     * @param signalIndex      signal index
+     * @param equivalenceIndex equivalence index
+     *
+     * @return atom index assigned to a signal in the first assignment dimension
+     */
+    public int getAssignedAtom(final int signalIndex, final int equivalenceIndex) {
+        this.buildAssignmentOffsets();
+
+        return this.assignments.getInt(this.assignmentOffsets[signalIndex]
+                                               + Integer.BYTES
+                                               + equivalenceIndex
+                                               * Integer.BYTES);
+    }
+
+    private void buildAssignmentOffsets() {
+        if (this.assignmentOffsetsBuilt) {
+            return;
+        }
+        this.assignmentOffsetsBuilt = true;
+        this.assignmentSize = 0;
+        int position = this.dataSetCorpus.getRecordOffset(CorpusColumn.ASSIGNMENTS, this.dataSetId);
+        if (this.assignments.getInt(position)
+                == CorpusFormat.NO_ASSIGNMENT) {
+            return;
+        }
+        position = skipStrings(this.assignments, position);
+        final int dimensionCount = this.assignments.getInt(position);
+        position += Integer.BYTES;
+        if (dimensionCount
+                < 1) {
+            return;
+        }
+        this.assignmentSize = this.assignments.getInt(position);
+        position += Integer.BYTES;
+        if (this.assignmentSize
+                > this.assignmentOffsets.length) {
+            this.assignmentOffsets = Arrays.copyOf(this.assignmentOffsets, Math.max(this.assignmentSize,
+                                                                                    this.assignmentOffsets.length
+                                                                                            * 2));
+        }
+        for (int i = 0; i
+                < this.assignmentSize; i++) {
+            this.assignmentOffsets[i] = position;
+            position += Integer.BYTES
+                    + this.assignments.getInt(position)
+                    * Integer.BYTES;
+        }
+    }
+
+    private double getSignalDouble(final int signalIndex, final int index) {
+        final int position = this.shiftOffsets[this.checkSignalIndex(signalIndex)];
+        if (index
+                < 0
+                || index
+                >= this.shifts.getInt(position)) {
+            return Double.NaN;
+        }
+        final long bits = this.shifts.getLong(position
+                                                      + Integer.BYTES
+                                                      + index
+                                                      * Long.BYTES);
+
+        return bits
+                       == CorpusFormat.NULL_DOUBLE_BITS
+               ? Double.NaN
+               : Double.longBitsToDouble(bits);
+    }
+
+    private int getSignalInteger(final int signalIndex, final int index) {
+        int position = this.shiftOffsets[this.checkSignalIndex(signalIndex)];
+        position += Integer.BYTES
+                + Math.max(0, this.shifts.getInt(position))
+                * Long.BYTES;
+        if (index
+                >= this.shifts.getInt(position)) {
+            return CorpusFormat.NULL_INT;
+        }
+
+        return this.shifts.getInt(position
+                                          + Integer.BYTES
+                                          + index
+                                          * Integer.BYTES);
+    }
+
+    /**
+     * @return position of the string length, or -1 if the signal has no such string
+     */
+    private int getSignalStringPosition(final int signalIndex, final int index) {
+        int position = this.multiplicityOffsets[this.checkSignalIndex(signalIndex)];
+        final int count = this.multiplicities.getInt(position);
+        if (index
+                < 0
+                || index
+                >= count) {
+            return -1;
+        }
+        position += Integer.BYTES;
+        for (int i = 0; i
+                < index; i++) {
+            position = skipString(this.multiplicities, position);
+        }
+
+        return position;
+    }
+
+    private int checkSignalIndex(final int signalIndex) {
+        if (signalIndex
+                < 0
+                || signalIndex
+                >= this.signalCount) {
+            throw new IndexOutOfBoundsException("signal index "
+                                                        + signalIndex
+                                                        + " out of range [0, "
+                                                        + this.signalCount
+                                                        + ")");
+        }
+
+        return signalIndex;
+    }
+
+    private static int skipString(final ByteBuffer buffer, final int position) {
+        return position
+                + Integer.BYTES
+                + Math.max(0, buffer.getInt(position));
+    }
+
+    private static int skipStrings(final ByteBuffer buffer, final int position) {
+        final int count = buffer.getInt(position);
+        int skipped = position
+                + Integer.BYTES;
+        for (int i = 0; i
+                < count; i++) {
+            skipped = skipString(buffer, skipped);
+        }
+
+        return skipped;
+    }
+
+    private static char toLowerCase(final char c) {
+        return c
+                       >= 'A'
+                       && c
+                       <= 'Z'
+               ? (char) (c
+                + ('a'
+                - 'A'))
+               : c;
+    }
+}
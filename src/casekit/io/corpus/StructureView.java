@@ -0,0 +1,378 @@
+package casekit.io.corpus;
+
+import org.openscience.cdk.config.Elements;
+import org.openscience.cdk.interfaces.IAtomType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only flyweight view of the structure of a data set in a {@link DataSetCorpus}. <br>
+ * Atom and bond properties are read directly from the mapped columns in the order of
+ * {@link casekit.nmr.model.StructureCompact}. Like a structure compact, the bonds are stored at the atom with the
+ * lower index, the neighbours of an atom in both directions are indexed on demand. Atoms without bond properties
+ * have no bonds. A view is moved to a data set
+ * by {@link #moveTo(int)} and can be reused for a whole corpus without allocations. A view is not thread-safe, use
+ * one view per thread.
+ */
+public class StructureView {
+
+    /**
+     * Value of missing properties.
+     */
+    public final static int NO_VALUE = CorpusFormat.NULL_INT;
+    private final static IAtomType.Hybridization[] HYBRIDIZATIONS = IAtomType.Hybridization.values();
+
+    private final DataSetCorpus dataSetCorpus;
+    private final ByteBuffer atoms;
+    private final ByteBuffer bonds;
+    private int dataSetId;
+    private boolean hasStructure;
+    private int atomCount;
+    private int propertyCount;
+    private int atomPropertiesStart;
+    // start of the bonds of each atom in the bonds column, or -1 for atoms without bond properties
+    private int[] bondOffsets;
+    // neighbours of each atom in both directions, built on demand
+    private int[] neighborOffsets;
+    private int[] neighbors;
+    private boolean neighborsBuilt;
+
+    public StructureView(final DataSetCorpus dataSetCorpus) {
+        this.dataSetCorpus = dataSetCorpus;
+        this.atoms = dataSetCorpus.getColumn(CorpusColumn.ATOMS);
+        this.bonds = dataSetCorpus.getColumn(CorpusColumn.BONDS);
+        this.bondOffsets = new int[64];
+        this.neighborOffsets = new int[65];
+        this.neighbors = new int[128];
+        this.dataSetId = -1;
+    }
+
+    /**
+     * Moves this view to the structure of a data set.
+     *
+     * @param dataSetId data set id
+     *
+     * @return this view
+     */
+    public StructureView moveTo(final int dataSetId) {
+        int position = this.dataSetCorpus.getRecordOffset(CorpusColumn.ATOMS, dataSetId);
+        final int count = this.atoms.getInt(position);
+        this.dataSetId = dataSetId;
+        this.hasStructure = count
+                != CorpusFormat.NO_OBJECT;
+        this.atomCount = Math.max(0, count);
+        this.propertyCount = count
+                                     > 0
+                             ? this.atoms.getInt(position
+                                                         + Integer.BYTES)
+                             : 0;
+        this.atomPropertiesStart = position
+                + 2
+                * Integer.BYTES;
+        this.neighborsBuilt = false;
+        if (this.atomCount
+                > this.bondOffsets.length) {
+            this.bondOffsets = new int[Math.max(this.atomCount, this.bondOffsets.length
+                    * 2)];
+        }
+        position = this.dataSetCorpus.getRecordOffset(CorpusColumn.BONDS, dataSetId);
+        // the bond properties may be missing or given for a different number of atoms
+        final int bondAtomCount = Math.min(this.atomCount, Math.max(0, this.bonds.getInt(position)));
+        position += Integer.BYTES;
+        Arrays.fill(this.bondOffsets, bondAtomCount, this.atomCount, -1);
+        int bondCount;
+        for (int i = 0; i
+                < bondAtomCount; i++) {
+            this.bondOffsets[i] = position;
+            bondCount = this.bonds.getInt(position);
+            position += Integer.BYTES;
+            for (int k = 0; k
+                    < bondCount; k++) {
+                position += Integer.BYTES
+                        + this.bonds.getInt(position)
+                        * Integer.BYTES;
+            }
+        }
+
+        return this;
+    }
+
+    public int getDataSetId() {
+        return this.dataSetId;
+    }
+
+    /**
+     * @return false if the data set has no structure
+     */
+    public boolean hasStructure() {
+        return this.hasStructure;
+    }
+
+    public int getAtomCount() {
+        return this.atomCount;
+    }
+
+    /**
+     * @param atomIndex     atom index
+     * @param propertyIndex property index, see {@link casekit.nmr.model.StructureCompact}
+     *
+     * @return property value, or {@link #NO_VALUE} if not given
+     */
+    public int getAtomProperty(final int atomIndex, final int propertyIndex) {
+        this.checkAtomIndex(atomIndex);
+        if (propertyIndex
+                < 0
+                || propertyIndex
+                >= this.propertyCount) {
+            return NO_VALUE;
+        }
+
+        return this.atoms.getInt(this.atomPropertiesStart
+                                         + (atomIndex
+                * this.propertyCount
+                + propertyIndex)
+                                         * Integer.BYTES);
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return atomic number, -1 for pseudo atoms
+     */
+    public int getAtomicNumber(final int atomIndex) {
+        return this.getAtomProperty(atomIndex, 0);
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return element symbol as in the atom container of the structure, i.e. "R" for pseudo atoms
+     */
+    public String getSymbol(final int atomIndex) {
+        final int atomicNumber = this.getAtomicNumber(atomIndex);
+
+        return atomicNumber
+                       == -1
+               ? "R"
+               : Elements.ofNumber(atomicNumber)
+                         .symbol();
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return hybridization, or null if not given
+     */
+    public IAtomType.Hybridization getHybridization(final int atomIndex) {
+        final int hybridization = this.getAtomProperty(atomIndex, 1);
+
+        return hybridization
+                       < 0
+               ? null
+               : HYBRIDIZATIONS[hybridization];
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return implicit hydrogen count, or {@link #NO_VALUE} if not given
+     */
+    public int getImplicitHydrogenCount(final int atomIndex) {
+        return this.getAtomProperty(atomIndex, 2);
+    }
+
+    public boolean isInRing(final int atomIndex) {
+        return this.getAtomProperty(atomIndex, 5)
+                == 1;
+    }
+
+    public boolean isAromatic(final int atomIndex) {
+        return this.getAtomProperty(atomIndex, 6)
+                == 1;
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return number of bonds stored at an atom, i.e. to atoms with higher index
+     */
+    public int getBondCount(final int atomIndex) {
+        final int position = this.bondOffsets[this.checkAtomIndex(atomIndex)];
+
+        return position
+                       < 0
+               ? 0
+               : this.bonds.getInt(position);
+    }
+
+    /**
+     * @return number of bonds of the structure
+     */
+    public int getBondCount() {
+        int bondCount = 0;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            bondCount += this.getBondCount(i);
+        }
+
+        return bondCount;
+    }
+
+    /**
+     * @param atomIndex     atom index
+     * @param bondIndex     index of the bond stored at the atom
+     * @param propertyIndex property index, see {@link casekit.nmr.model.StructureCompact}
+     *
+     * @return property value, or {@link #NO_VALUE} if not given, e.g. the stereo configuration of old data sets
+     */
+    public int getBondProperty(final int atomIndex, final int bondIndex, final int propertyIndex) {
+        if (bondIndex
+                < 0
+                || bondIndex
+                >= this.getBondCount(atomIndex)) {
+            throw new IndexOutOfBoundsException("bond index "
+                                                        + bondIndex
+                                                        + " out of range for atom "
+                                                        + atomIndex);
+        }
+        int position = this.bondOffsets[atomIndex]
+                + Integer.BYTES;
+        for (int k = 0; k
+                < bondIndex; k++) {
+            position += Integer.BYTES
+                    + this.bonds.getInt(position)
+                    * Integer.BYTES;
+        }
+        if (propertyIndex
+                < 0
+                || propertyIndex
+                >= this.bonds.getInt(position)) {
+            return NO_VALUE;
+        }
+
+        return this.bonds.getInt(position
+                                         + Integer.BYTES
+                                         + propertyIndex
+                                         * Integer.BYTES);
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return number of atoms connected to an atom
+     */
+    public int getNeighborCount(final int atomIndex) {
+        this.checkAtomIndex(atomIndex);
+        this.buildNeighbors();
+
+        return this.neighborOffsets[atomIndex
+                + 1]
+                - this.neighborOffsets[atomIndex];
+    }
+
+    /**
+     * @param atomIndex     atom index
+     * @param neighborIndex neighbour index, see {@link #getNeighborCount(int)}
+     *
+     * @return index of a connected atom
+     */
+    public int getNeighbor(final int atomIndex, final int neighborIndex) {
+        if (neighborIndex
+                < 0
+                || neighborIndex
+                >= this.getNeighborCount(atomIndex)) {
+            throw new IndexOutOfBoundsException("neighbor index "
+                                                        + neighborIndex
+                                                        + " out of range for atom "
+                                                        + atomIndex);
+        }
+
+        return this.neighbors[this.neighborOffsets[atomIndex]
+                + neighborIndex];
+    }
+
+    private void buildNeighbors() {
+        if (this.neighborsBuilt) {
+            return;
+        }
+        this.neighborsBuilt = true;
+        if (this.atomCount
+                + 1
+                > this.neighborOffsets.length) {
+            this.neighborOffsets = new int[Math.max(this.atomCount
+                                                            + 1, this.neighborOffsets.length
+                                                            * 2)];
+        }
+        // count the neighbours of each atom, shifted by one to get the offsets by summing up
+        Arrays.fill(this.neighborOffsets, 0, this.atomCount
+                + 1, 0);
+        int position, bondCount, partner;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            position = this.bondOffsets[i];
+            bondCount = this.getBondCount(i);
+            position += Integer.BYTES;
+            for (int k = 0; k
+                    < bondCount; k++) {
+                partner = this.bonds.getInt(position
+                                                    + Integer.BYTES);
+                this.neighborOffsets[i
+                        + 1]++;
+                this.neighborOffsets[partner
+                        + 1]++;
+                position += Integer.BYTES
+                        + this.bonds.getInt(position)
+                        * Integer.BYTES;
+            }
+        }
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            this.neighborOffsets[i
+                    + 1] += this.neighborOffsets[i];
+        }
+        if (this.neighborOffsets[this.atomCount]
+                > this.neighbors.length) {
+            this.neighbors = new int[Math.max(this.neighborOffsets[this.atomCount], this.neighbors.length
+                    * 2)];
+        }
+        // fill in the neighbours in bond order, using the offsets as insert positions and shifting them back afterwards
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            position = this.bondOffsets[i];
+            bondCount = this.getBondCount(i);
+            position += Integer.BYTES;
+            for (int k = 0; k
+                    < bondCount; k++) {
+                partner = this.bonds.getInt(position
+                                                    + Integer.BYTES);
+                this.neighbors[this.neighborOffsets[i]++] = partner;
+                this.neighbors[this.neighborOffsets[partner]++] = i;
+                position += Integer.BYTES
+                        + this.bonds.getInt(position)
+                        * Integer.BYTES;
+            }
+        }
+        for (int i = this.atomCount; i
+                > 0; i--) {
+            this.neighborOffsets[i] = this.neighborOffsets[i
+                    - 1];
+        }
+        this.neighborOffsets[0] = 0;
+    }
+
+    private int checkAtomIndex(final int atomIndex) {
+        if (atomIndex
+                < 0
+                || atomIndex
+                >= this.atomCount) {
+            throw new IndexOutOfBoundsException("atom index "
+                                                        + atomIndex
+                                                        + " out of range [0, "
+                                                        + this.atomCount
+                                                        + ")");
+        }
+
+        return atomIndex;
+    }
+}
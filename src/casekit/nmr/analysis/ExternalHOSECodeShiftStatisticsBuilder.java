@@ -0,0 +1,318 @@
+package casekit.nmr.analysis;
+
+import casekit.nmr.model.DataSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Builds HOSE code shift statistics with bounded memory. <br>
+ * Collected (HOSE code, solvent, shift) tuples are kept in memory until the configured memory budget is exceeded.
+ * Then they are written as a run sorted by HOSE code and solvent into a temporary file. At the end, all runs are
+ * merged (k-way) and each HOSE code is finalized as soon as all its shifts are read, so that only the shifts of one
+ * HOSE code are held in memory at once.
+ *
+ * @see HOSECodeShiftStatistics#buildStatistics(List)
+ */
+public class ExternalHOSECodeShiftStatisticsBuilder
+        implements Closeable {
+
+    // rough heap usage estimates of the in-memory buffer
+    private final static long BYTES_PER_SHIFT = 24;
+    private final static long BYTES_PER_SOLVENT_ENTRY = 96;
+    private final static long BYTES_PER_HOSECODE_ENTRY = 128;
+
+    private final long memoryBudget;
+    private final Path tempDirectory;
+    private final List<Path> runs;
+    private Map<String, Map<String, List<Double>>> buffer;
+    private long bufferSize;
+
+    /**
+     * @param memoryBudget  approximate number of bytes the buffered shifts may occupy before a run is spilled
+     * @param tempDirectory directory to write the runs into, or null for the default temporary directory
+     */
+    public ExternalHOSECodeShiftStatisticsBuilder(final long memoryBudget, final String tempDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory
+                                     == null
+                             ? Paths.get(System.getProperty("java.io.tmpdir"))
+                             : Paths.get(tempDirectory);
+        this.runs = new ArrayList<>();
+        this.buffer = new HashMap<>();
+        this.bufferSize = 0;
+    }
+
+    /**
+     * Collects the HOSE code shifts of a dataset, see
+     * {@link HOSECodeShiftStatistics#insert(DataSet, Integer, boolean, boolean, Map)}.
+     *
+     * @param dataSet       dataset without explicit hydrogens
+     * @param maxSphere     maximum sphere to use, or null for all spheres
+     * @param use3D         whether to use HOSE codes with stereo information
+     * @param withExplicitH whether to convert to explicit hydrogens before
+     *
+     * @return false if the dataset was skipped
+     *
+     * @throws IOException if a run could not be spilled
+     */
+    public boolean insert(final DataSet dataSet, final Integer maxSphere, final boolean use3D,
+                          final boolean withExplicitH) throws IOException {
+        final Map<String, Map<String, List<Double>>> hoseCodeShifts = new HashMap<>();
+        if (!HOSECodeShiftStatistics.insert(dataSet, maxSphere, use3D, withExplicitH, hoseCodeShifts)) {
+            return false;
+        }
+        for (final Map.Entry<String, Map<String, List<Double>>> hoseCodeEntry : hoseCodeShifts.entrySet()) {
+            for (final Map.Entry<String, List<Double>> solventEntry : hoseCodeEntry.getValue()
+                                                                                   .entrySet()) {
+                for (final Double shift : solventEntry.getValue()) {
+                    this.add(hoseCodeEntry.getKey(), solventEntry.getKey(), shift);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds a single shift and spills the buffer as sorted run if the memory budget is exceeded.
+     *
+     * @param hoseCode HOSE code
+     * @param solvent  solvent
+     * @param shift    shift
+     *
+     * @throws IOException if a run could not be spilled
+     */
+    public void add(final String hoseCode, final String solvent, final double shift) throws IOException {
+        Map<String, List<Double>> solventShifts = this.buffer.get(hoseCode);
+        if (solventShifts
+                == null) {
+            solventShifts = new HashMap<>();
+            this.buffer.put(hoseCode, solventShifts);
+            this.bufferSize += BYTES_PER_HOSECODE_ENTRY
+                    + 2L
+                    * hoseCode.length();
+        }
+        List<Double> shifts = solventShifts.get(solvent);
+        if (shifts
+                == null) {
+            shifts = new ArrayList<>();
+            solventShifts.put(solvent, shifts);
+            this.bufferSize += BYTES_PER_SOLVENT_ENTRY
+                    + 2L
+                    * solvent.length();
+        }
+        shifts.add(shift);
+        this.bufferSize += BYTES_PER_SHIFT;
+
+        if (this.bufferSize
+                >= this.memoryBudget) {
+            this.spill();
+        }
+    }
+
+    /**
+     * Writes the current buffer as run sorted by HOSE code and solvent. <br>
+     * Record layout: HOSE code, solvent, number of shifts, shifts.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        if (this.buffer.isEmpty()) {
+            return;
+        }
+        final Path run = Files.createTempFile(this.tempDirectory, "hosecodeshifts_", ".run");
+        this.runs.add(run);
+        final List<String> hoseCodes = new ArrayList<>(this.buffer.keySet());
+        Collections.sort(hoseCodes);
+        List<String> solvents;
+        List<Double> shifts;
+        try (final DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), 1
+                        << 16))) {
+            for (final String hoseCode : hoseCodes) {
+                solvents = new ArrayList<>(this.buffer.get(hoseCode)
+                                                      .keySet());
+                Collections.sort(solvents);
+                for (final String solvent : solvents) {
+                    shifts = this.buffer.get(hoseCode)
+                                        .get(solvent);
+                    dataOutputStream.writeUTF(hoseCode);
+                    dataOutputStream.writeUTF(solvent);
+                    dataOutputStream.writeInt(shifts.size());
+                    for (final Double shift : shifts) {
+                        dataOutputStream.writeDouble(shift);
+                    }
+                }
+            }
+        }
+        this.buffer = new HashMap<>();
+        this.bufferSize = 0;
+    }
+
+    /**
+     * Merges all runs and finalizes the statistics of each HOSE code, see
+     * {@link HOSECodeShiftStatistics#buildStatistics(List)}.
+     * The HOSE codes are passed to the consumer in sorted order.
+     *
+     * @param consumer consumer of HOSE code and its statistics per solvent
+     *
+     * @throws IOException
+     */
+    public void build(final BiConsumer<String, Map<String, Double[]>> consumer) throws IOException {
+        this.spill();
+
+        final PriorityQueue<RunReader> runReaders = new PriorityQueue<>();
+        try {
+            RunReader runReader;
+            for (final Path run : this.runs) {
+                runReader = new RunReader(run);
+                if (runReader.next()) {
+                    runReaders.add(runReader);
+                } else {
+                    runReader.close();
+                }
+            }
+
+            String currentHoseCode = null;
+            Map<String, Double[]> currentStatistics = new HashMap<>();
+            String hoseCode, solvent;
+            final List<Double> shifts = new ArrayList<>();
+            while (!runReaders.isEmpty()) {
+                runReader = runReaders.peek();
+                hoseCode = runReader.hoseCode;
+                solvent = runReader.solvent;
+                // collect the shifts of the same HOSE code and solvent from all runs
+                shifts.clear();
+                while (!runReaders.isEmpty()
+                        && runReaders.peek()
+                                     .hasKey(hoseCode, solvent)) {
+                    runReader = runReaders.poll();
+                    runReader.addShifts(shifts);
+                    if (runReader.next()) {
+                        runReaders.add(runReader);
+                    } else {
+                        runReader.close();
+                    }
+                }
+                if (currentHoseCode
+                        != null
+                        && !currentHoseCode.equals(hoseCode)) {
+                    consumer.accept(currentHoseCode, currentStatistics);
+                    currentStatistics = new HashMap<>();
+                }
+                currentHoseCode = hoseCode;
+                currentStatistics.put(solvent, HOSECodeShiftStatistics.buildStatistics(shifts));
+            }
+            if (currentHoseCode
+                    != null) {
+                consumer.accept(currentHoseCode, currentStatistics);
+            }
+        } finally {
+            for (final RunReader runReader : runReaders) {
+                runReader.close();
+            }
+        }
+    }
+
+    /**
+     * Merges all runs and returns the final HOSE code shift statistics.
+     *
+     * @return
+     *
+     * @throws IOException
+     * @see #build(BiConsumer)
+     */
+    public Map<String, Map<String, Double[]>> build() throws IOException {
+        final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics = new HashMap<>();
+        this.build(hoseCodeShiftStatistics::put);
+
+        return hoseCodeShiftStatistics;
+    }
+
+    public int getRunCount() {
+        return this.runs.size();
+    }
+
+    /**
+     * Deletes all written runs.
+     */
+    @Override
+    public void close() {
+        for (final Path run : this.runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.runs.clear();
+        this.buffer = new HashMap<>();
+        this.bufferSize = 0;
+    }
+
+    private static class RunReader
+            implements Comparable<RunReader>, Closeable {
+
+        private final DataInputStream dataInputStream;
+        private String hoseCode;
+        private String solvent;
+        private int shiftsCount;
+
+        RunReader(final Path run) throws IOException {
+            this.dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1
+                    << 16));
+        }
+
+        /**
+         * Reads the header of the next record.
+         *
+         * @return false if the end of the run is reached
+         *
+         * @throws IOException
+         */
+        boolean next() throws IOException {
+            try {
+                this.hoseCode = this.dataInputStream.readUTF();
+            } catch (final EOFException e) {
+                return false;
+            }
+            this.solvent = this.dataInputStream.readUTF();
+            this.shiftsCount = this.dataInputStream.readInt();
+
+            return true;
+        }
+
+        void addShifts(final List<Double> shifts) throws IOException {
+            for (int i = 0; i
+                    < this.shiftsCount; i++) {
+                shifts.add(this.dataInputStream.readDouble());
+            }
+        }
+
+        boolean hasKey(final String hoseCode, final String solvent) {
+            return this.hoseCode.equals(hoseCode)
+                    && this.solvent.equals(solvent);
+        }
+
+        @Override
+        public int compareTo(final RunReader runReader) {
+            final int hoseCodeComparison = this.hoseCode.compareTo(runReader.hoseCode);
+            if (hoseCodeComparison
+                    != 0) {
+                return hoseCodeComparison;
+            }
+
+            return this.solvent.compareTo(runReader.solvent);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.dataInputStream.close();
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package casekit.nmr.analysis;
 
+import casekit.io.CloseableIterator;
+import casekit.io.compression.CompressedFiles;
 import casekit.nmr.dbservice.COCONUT;
 import casekit.nmr.dbservice.NMRShiftDB;
 import casekit.nmr.fragments.model.ConnectionTree;
 import casekit.nmr.hose.HOSECodeBuilder;
 import casekit.nmr.model.DataSet;
+import casekit.nmr.model.HOSECodeShiftStatisticsTable;
 import casekit.nmr.model.Signal;
 import casekit.nmr.model.Spectrum;
 import casekit.nmr.utils.Statistics;
@@ -49,8 +52,26 @@ public class HOSECodeShiftStatistics {
                                                                                final boolean use3D,
                                                                                final boolean withExplicitH,
                                                                                final Map<String, Map<String, List<Double>>> hoseCodeShifts) {
-        for (final DataSet dataSet : dataSetList) {
-            insert(dataSet, maxSphere, use3D, withExplicitH, hoseCodeShifts);
+        return collectHOSECodeShifts(dataSetList.iterator(), maxSphere, use3D, withExplicitH, hoseCodeShifts);
+    }
+
+    /**
+     * Iterator version of {@link #collectHOSECodeShifts(List, Integer, boolean, boolean, Map)}, e.g. for lazily
+     * parsed databases which do not fit into memory.
+     *
+     * @param dataSetIterator
+     * @param maxSphere
+     * @param hoseCodeShifts
+     *
+     * @return
+     */
+    public static Map<String, Map<String, List<Double>>> collectHOSECodeShifts(final Iterator<DataSet> dataSetIterator,
+                                                                               final Integer maxSphere,
+                                                                               final boolean use3D,
+                                                                               final boolean withExplicitH,
+                                                                               final Map<String, Map<String, List<Double>>> hoseCodeShifts) {
+        while (dataSetIterator.hasNext()) {
+            insert(dataSetIterator.next(), maxSphere, use3D, withExplicitH, hoseCodeShifts);
         }
 
         return hoseCodeShifts;
@@ -187,24 +208,60 @@ public class HOSECodeShiftStatistics {
             final Map<String, Map<String, List<Double>>> hoseCodeShifts) {
 
         final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics = new HashMap<>();
-        List<Double> values;
         for (final Map.Entry<String, Map<String, List<Double>>> hoseCodes : hoseCodeShifts.entrySet()) {
             hoseCodeShiftStatistics.put(hoseCodes.getKey(), new HashMap<>());
             for (final Map.Entry<String, List<Double>> solvents : hoseCodes.getValue()
                                                                            .entrySet()) {
-                values = new ArrayList<>(solvents.getValue());
-                values = Statistics.removeOutliers(values, 1.5);
                 hoseCodeShiftStatistics.get(hoseCodes.getKey())
-                                       .put(solvents.getKey(),
-                                            new Double[]{(double) values.size(), Collections.min(values),
-                                                         Statistics.getMean(values), Statistics.getMedian(values),
-                                                         Collections.max(values)});
+                                       .put(solvents.getKey(), buildStatistics(solvents.getValue()));
             }
         }
 
         return hoseCodeShiftStatistics;
     }
 
+    /**
+     * Builds the statistics of the shifts collected for one HOSE code and solvent. Outliers are removed before
+     * and a single shift is kept as it is.
+     *
+     * @param shifts shifts to build the statistics from; the list itself is not modified
+     *
+     * @return array of count, minimum, mean, median and maximum
+     */
+    public static Double[] buildStatistics(final List<Double> shifts) {
+        final double[] values = new double[shifts.size()];
+        for (int i = 0; i
+                < values.length; i++) {
+            values[i] = shifts.get(i);
+        }
+
+        return buildStatistics(values, values.length);
+    }
+
+    /**
+     * Builds the statistics of the first {@code length} shifts, see {@link #buildStatistics(List)}. <br>
+     * The values are sorted in place once, so that the mean is summed up in the same order as before
+     * and the kept values stay sorted after the outlier removal.
+     *
+     * @param values shifts
+     * @param length number of shifts to consider
+     *
+     * @return array of count, minimum, mean, median and maximum
+     */
+    public static Double[] buildStatistics(final double[] values, final int length) {
+        Arrays.sort(values, 0, length);
+        final int count = length
+                                  > 1
+                          ? Statistics.removeOutliers(values, length, 1.5)
+                          : length;
+        final double min = values[0];
+        final double max = values[count
+                - 1];
+        final Double mean = Statistics.getMean(values, count);
+
+        return new Double[]{(double) count, min, mean, Statistics.getMedian(values, count), max};
+    }
+
     public static Map<String, Map<String, Double[]>> buildHOSECodeShiftStatistics(final String[] pathsToNMRShiftDBs,
                                                                                   final String[] pathsToCOCONUTs,
                                                                                   final String[] nuclei,
@@ -214,17 +271,74 @@ public class HOSECodeShiftStatistics {
         try {
             final Map<String, Map<String, List<Double>>> hoseCodeShifts = new HashMap<>();
             for (final String pathsToNMRShiftDB : pathsToNMRShiftDBs) {
-                HOSECodeShiftStatistics.collectHOSECodeShifts(
-                        NMRShiftDB.getDataSetsFromNMRShiftDB(pathsToNMRShiftDB, nuclei), maxSphere, use3D,
-                        withExplicitH, hoseCodeShifts);
+                try (final CloseableIterator<DataSet> iterator = NMRShiftDB.iterateDataSetsFromNMRShiftDB(
+                        pathsToNMRShiftDB, nuclei)) {
+                    HOSECodeShiftStatistics.collectHOSECodeShifts(iterator, maxSphere, use3D, withExplicitH,
+                                                                  hoseCodeShifts);
+                }
             }
             for (final String pathsToCOCONUT : pathsToCOCONUTs) {
-                HOSECodeShiftStatistics.collectHOSECodeShifts(
-                        COCONUT.getDataSetsWithShiftPredictionFromCOCONUT(pathsToCOCONUT, nuclei), maxSphere, use3D,
-                        withExplicitH, hoseCodeShifts);
+                try (final CloseableIterator<DataSet> iterator = COCONUT.iterateDataSetsWithShiftPredictionFromCOCONUT(
+                        pathsToCOCONUT, nuclei)) {
+                    HOSECodeShiftStatistics.collectHOSECodeShifts(iterator, maxSphere, use3D, withExplicitH,
+                                                                  hoseCodeShifts);
+                }
             }
             return HOSECodeShiftStatistics.buildHOSECodeShiftStatistics(hoseCodeShifts);
-        } catch (final FileNotFoundException | CDKException e) {
+        } catch (final IOException | IllegalStateException e) {
+            // a failed record conversion is wrapped into an IllegalStateException, see SDFRecordIterator
+            e.printStackTrace();
+        }
+
+        return new HashMap<>();
+    }
+
+    /**
+     * Builds the HOSE code shift statistics like {@link #buildHOSECodeShiftStatistics(String[], String[], String[], Integer, boolean, boolean)}
+     * but with bounded memory. Collected shifts are spilled as sorted runs into a temporary directory
+     * whenever the given memory budget is exceeded and are finalized during a k-way merge of these runs.
+     *
+     * @param pathsToNMRShiftDBs paths to NMRShiftDB files
+     * @param pathsToCOCONUTs    paths to COCONUT files
+     * @param nuclei             nuclei to collect the shifts for
+     * @param maxSphere          maximum sphere to use, or null for all spheres
+     * @param use3D              whether to use HOSE codes with stereo information
+     * @param withExplicitH      whether to convert to explicit hydrogens before
+     * @param memoryBudget       approximate number of bytes the collected shifts may occupy before a run is spilled
+     * @param tempDirectory      directory to write the runs into, or null for the default temporary directory
+     *
+     * @return
+     *
+     * @see ExternalHOSECodeShiftStatisticsBuilder
+     */
+    public static Map<String, Map<String, Double[]>> buildHOSECodeShiftStatistics(final String[] pathsToNMRShiftDBs,
+                                                                                  final String[] pathsToCOCONUTs,
+                                                                                  final String[] nuclei,
+                                                                                  final Integer maxSphere,
+                                                                                  final boolean use3D,
+                                                                                  final boolean withExplicitH,
+                                                                                  final long memoryBudget,
+                                                                                  final String tempDirectory) {
+        try (final ExternalHOSECodeShiftStatisticsBuilder externalBuilder = new ExternalHOSECodeShiftStatisticsBuilder(
+                memoryBudget, tempDirectory)) {
+            for (final String pathsToNMRShiftDB : pathsToNMRShiftDBs) {
+                try (final CloseableIterator<DataSet> iterator = NMRShiftDB.iterateDataSetsFromNMRShiftDB(
+                        pathsToNMRShiftDB, nuclei)) {
+                    while (iterator.hasNext()) {
+                        externalBuilder.insert(iterator.next(), maxSphere, use3D, withExplicitH);
+                    }
+                }
+            }
+            for (final String pathsToCOCONUT : pathsToCOCONUTs) {
+                try (final CloseableIterator<DataSet> iterator = COCONUT.iterateDataSetsWithShiftPredictionFromCOCONUT(
+                        pathsToCOCONUT, nuclei)) {
+                    while (iterator.hasNext()) {
+                        externalBuilder.insert(iterator.next(), maxSphere, use3D, withExplicitH);
+                    }
+                }
+            }
+            return externalBuilder.build();
+        } catch (final IOException | IllegalStateException e) {
             e.printStackTrace();
         }
 
@@ -241,11 +355,9 @@ public class HOSECodeShiftStatistics {
 
     public static boolean writeHOSECodeShiftStatistics(final Map<String, Map<String, Double[]>> hoseCodeShifts,
                                                        final String pathToJsonFile) {
-        try {
-            final BufferedWriter bw = new BufferedWriter(new FileWriter(pathToJsonFile));
+        try (final BufferedWriter bw = CompressedFiles.newWriter(pathToJsonFile)) {
             bw.append("{");
             bw.newLine();
-            bw.flush();
 
             Document subDocument;
             String json;
@@ -263,14 +375,11 @@ public class HOSECodeShiftStatistics {
                     bw.append(",");
                 }
                 bw.newLine();
-                bw.flush();
 
                 counter++;
             }
 
             bw.append("}");
-            bw.flush();
-            bw.close();
 
             return true;
         } catch (final IOException e) {
@@ -281,38 +390,77 @@ public class HOSECodeShiftStatistics {
     }
 
     public static Map<String, Map<String, Double[]>> readHOSECodeShiftStatistics(
-            final String pathToJsonFile) throws FileNotFoundException {
-        final BufferedReader br = new BufferedReader(new FileReader(pathToJsonFile));
+            final String pathToJsonFile) throws IOException {
         final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics = new HashMap<>();
-        // add all task to do
-        br.lines()
-          .forEach(line -> {
-              if ((line.trim()
-                       .length()
-                      > 1)
-                      || (!line.trim()
-                               .startsWith("{")
-                      && !line.trim()
-                              .endsWith("}"))) {
-                  final StringBuilder hoseCodeShiftsStatisticInJSON = new StringBuilder();
-                  if (line.endsWith(",")) {
-                      hoseCodeShiftsStatisticInJSON.append(line, 0, line.length()
-                              - 1);
-                  } else {
-                      hoseCodeShiftsStatisticInJSON.append(line);
+        try (final BufferedReader br = CompressedFiles.newReader(pathToJsonFile)) {
+            // add all task to do
+            br.lines()
+              .forEach(line -> {
+                  if ((line.trim()
+                           .length()
+                          > 1)
+                          || (!line.trim()
+                                   .startsWith("{")
+                          && !line.trim()
+                                  .endsWith("}"))) {
+                      final StringBuilder hoseCodeShiftsStatisticInJSON = new StringBuilder();
+                      if (line.endsWith(",")) {
+                          hoseCodeShiftsStatisticInJSON.append(line, 0, line.length()
+                                  - 1);
+                      } else {
+                          hoseCodeShiftsStatisticInJSON.append(line);
+                      }
+                      final JsonObject jsonObject = JsonParser.parseString(hoseCodeShiftsStatisticInJSON.substring(
+                                                                      hoseCodeShiftsStatisticInJSON.toString()
+                                                                                                   .indexOf("{")))
+                                                              .getAsJsonObject();
+                      hoseCodeShiftStatistics.put(jsonObject.get("HOSECode")
+                                                            .getAsString(), GSON.fromJson(jsonObject.get("values")
+                                                                                                    .getAsString(),
+                                                                                          new TypeToken<Map<String, Double[]>>() {
+                                                                                          }.getType()));
                   }
-                  final JsonObject jsonObject = JsonParser.parseString(hoseCodeShiftsStatisticInJSON.substring(
-                                                                  hoseCodeShiftsStatisticInJSON.toString()
-                                                                                               .indexOf("{")))
-                                                          .getAsJsonObject();
-                  hoseCodeShiftStatistics.put(jsonObject.get("HOSECode")
-                                                        .getAsString(), GSON.fromJson(jsonObject.get("values")
-                                                                                                .getAsString(),
-                                                                                      new TypeToken<Map<String, Double[]>>() {
-                                                                                      }.getType()));
-              }
-          });
+              });
+        }
 
         return hoseCodeShiftStatistics;
     }
+
+    /**
+     * Reads the HOSE code shift statistics file in parallel.
+     *
+     * @param pathToJsonFile path to HOSE code shift statistics file
+     * @param nThreads       number of threads to use
+     *
+     * @return
+     *
+     * @throws IOException
+     * @see HOSECodeShiftStatisticsReader#read(String, int)
+     */
+    public static Map<String, Map<String, Double[]>> readHOSECodeShiftStatistics(final String pathToJsonFile,
+                                                                                 final int nThreads) throws IOException {
+        return HOSECodeShiftStatisticsReader.read(pathToJsonFile, nThreads);
+    }
+
+    /**
+     * Reads the HOSE code shift statistics and precomputes the solvent-merged statistics per HOSE code.
+     * The statistics identifier of the table is derived from the file name, size and modification time.
+     *
+     * @param pathToJsonFile path to HOSE code shift statistics file
+     *
+     * @return
+     *
+     * @throws IOException
+     * @see #readHOSECodeShiftStatistics(String)
+     * @see HOSECodeShiftStatisticsTable
+     */
+    public static HOSECodeShiftStatisticsTable readHOSECodeShiftStatisticsTable(
+            final String pathToJsonFile) throws IOException {
+        final File file = new File(pathToJsonFile);
+        return new HOSECodeShiftStatisticsTable(readHOSECodeShiftStatistics(pathToJsonFile), file.getName()
+                + ":"
+                + file.length()
+                + ":"
+                + file.lastModified());
+    }
 }
@@ -0,0 +1,577 @@
+package casekit.nmr.analysis;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.nmr.analysis.model.CompactionReport;
+import casekit.nmr.hose.HOSECodeUtilities;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.HOSECodeShiftStatisticsTable;
+import casekit.nmr.model.Spectrum;
+import casekit.nmr.prediction.Prediction;
+import casekit.nmr.utils.Utils;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Size reduction of built HOSE code shift statistics for memory-constrained workers. <br>
+ * Entries with a low count rarely beat the fallback to a lower sphere during prediction but make up most of the
+ * table. Such entries are either dropped or pooled over all solvents of a HOSE code, depending on a count threshold
+ * per sphere. Additionally, the stored values can be quantized and written in a compact binary format.
+ */
+public class HOSECodeShiftStatisticsCompaction {
+
+    /**
+     * Solvent key of the pooled entries, which is the same as used for datasets without solvent information.
+     */
+    public final static String POOLED_SOLVENT = "Unknown";
+    private final static int MAGIC = 0x484f5345; // "HOSE"
+    private final static byte FORMAT_VERSION = 1;
+    // centi-ppm value reserved for missing values
+    private final static short MISSING_CENTI_PPM = Short.MIN_VALUE;
+
+    /**
+     * Quantization of the stored minimum, mean, median and maximum values. The counts are always kept as they are.
+     */
+    public enum Quantization {
+        /**
+         * 8 byte per value, lossless
+         */
+        NONE(8),
+        /**
+         * 4 byte per value, single precision
+         */
+        FLOAT(4),
+        /**
+         * 2 byte per value, rounded to 0.01 ppm; values have to be within -327.67 and 327.67 ppm
+         */
+        CENTI_PPM(2);
+
+        private final int bytesPerValue;
+
+        Quantization(final int bytesPerValue) {
+            this.bytesPerValue = bytesPerValue;
+        }
+
+        public int getBytesPerValue() {
+            return this.bytesPerValue;
+        }
+
+        public double quantize(final double value) {
+            switch (this) {
+                case FLOAT:
+                    return (float) value;
+                case CENTI_PPM:
+                    return toCentiPPM(value)
+                            / 100.0;
+                default:
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Compacts HOSE code shift statistics. <br>
+     * For each HOSE code, all solvent entries with a count below the threshold of its sphere are either
+     * dropped or pooled into one entry with solvent {@link #POOLED_SOLVENT} (together with an existing entry of that
+     * solvent). The pooled entry is only kept if its count reaches the threshold. HOSE codes without any
+     * remaining entry are removed. <br>
+     * The median of a pooled entry is the count-weighted mean of the pooled medians since the single shifts
+     * are not available anymore.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     * @param minCountPerSphere       minimum count per sphere; spheres without a threshold are not pruned
+     * @param poolSolvents            whether to pool entries below the threshold instead of dropping them
+     * @param quantization            quantization of the stored values
+     *
+     * @return new compacted HOSE code shift statistics
+     */
+    public static Map<String, Map<String, Double[]>> compact(
+            final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+            final Map<Integer, Integer> minCountPerSphere, final boolean poolSolvents,
+            final Quantization quantization) {
+        final Map<String, Map<String, Double[]>> compacted = new HashMap<>();
+        Map<String, Double[]> statisticsPerSolvent;
+        List<Double[]> pool;
+        Double[] pooled;
+        int minCount;
+        for (final Map.Entry<String, Map<String, Double[]>> hoseCodeEntry : hoseCodeShiftStatistics.entrySet()) {
+            // the center sphere does not count
+            minCount = minCountPerSphere.getOrDefault(HOSECodeUtilities.getSpheresCount(hoseCodeEntry.getKey())
+                                                              - 1, 0);
+            statisticsPerSolvent = new HashMap<>();
+            pool = new ArrayList<>();
+            for (final Map.Entry<String, Double[]> solventEntry : hoseCodeEntry.getValue()
+                                                                               .entrySet()) {
+                if (solventEntry.getValue()[0]
+                        >= minCount
+                        && !(poolSolvents
+                        && solventEntry.getKey()
+                                       .equals(POOLED_SOLVENT))) {
+                    statisticsPerSolvent.put(solventEntry.getKey(), quantize(solventEntry.getValue(), quantization));
+                } else if (poolSolvents) {
+                    pool.add(solventEntry.getValue());
+                }
+            }
+            if (!pool.isEmpty()) {
+                pooled = pool(pool);
+                if (pooled[0]
+                        >= minCount) {
+                    statisticsPerSolvent.put(POOLED_SOLVENT, quantize(pooled, quantization));
+                }
+            }
+            if (!statisticsPerSolvent.isEmpty()) {
+                compacted.put(hoseCodeEntry.getKey(), statisticsPerSolvent);
+            }
+        }
+
+        return compacted;
+    }
+
+    private static Double[] pool(final List<Double[]> statisticsList) {
+        if (statisticsList.size()
+                == 1) {
+            return statisticsList.get(0);
+        }
+        double count = 0;
+        double weightedMeanSum = 0;
+        double weightedMedianSum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (final Double[] statistics : statisticsList) {
+            count += statistics[0];
+            weightedMeanSum += statistics[0]
+                    * statistics[2];
+            weightedMedianSum += statistics[0]
+                    * statistics[3];
+            min = Math.min(min, statistics[1]);
+            max = Math.max(max, statistics[4]);
+        }
+
+        return new Double[]{count, min, weightedMeanSum
+                / count, weightedMedianSum
+                / count, max};
+    }
+
+    private static Double[] quantize(final Double[] statistics, final Quantization quantization) {
+        final Double[] quantized = new Double[statistics.length];
+        quantized[0] = statistics[0];
+        for (int i = 1; i
+                < statistics.length; i++) {
+            quantized[i] = statistics[i]
+                                   == null
+                           ? null
+                           : quantization.quantize(statistics[i]);
+        }
+
+        return quantized;
+    }
+
+    private static short toCentiPPM(final double value) {
+        final long centiPPM = Math.round(value
+                                                 * 100);
+        if (centiPPM
+                <= MISSING_CENTI_PPM
+                || centiPPM
+                > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Shift "
+                                                       + value
+                                                       + " is out of range for centi-ppm quantization, use FLOAT instead.");
+        }
+
+        return (short) centiPPM;
+    }
+
+    /**
+     * Returns the number of solvent entries over all HOSE codes.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     *
+     * @return
+     */
+    public static int countEntries(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        int entryCount = 0;
+        for (final Map<String, Double[]> statisticsPerSolvent : hoseCodeShiftStatistics.values()) {
+            entryCount += statisticsPerSolvent.size();
+        }
+
+        return entryCount;
+    }
+
+    /**
+     * Returns the size in bytes the statistics would take in the binary format.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     * @param quantization            quantization to use
+     *
+     * @return
+     *
+     * @see #writeCompactHOSECodeShiftStatistics(Map, Quantization, String)
+     */
+    public static long computeSize(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+                                   final Quantization quantization) {
+        // magic, version, quantization, number of solvents, number of HOSE codes
+        long size = 4
+                + 1
+                + 1
+                + 4
+                + 4;
+        for (final String solvent : collectSolvents(hoseCodeShiftStatistics)) {
+            size += 2
+                    + solvent.getBytes(StandardCharsets.UTF_8).length;
+        }
+        for (final Map.Entry<String, Map<String, Double[]>> hoseCodeEntry : hoseCodeShiftStatistics.entrySet()) {
+            // HOSE code, number of entries and per entry: solvent index, count and four values
+            size += 2
+                    + hoseCodeEntry.getKey()
+                                   .getBytes(StandardCharsets.UTF_8).length
+                    + 2
+                    + (long) hoseCodeEntry.getValue()
+                                          .size()
+                    * (2
+                    + 4
+                    + 4
+                    * quantization.getBytesPerValue());
+        }
+
+        return size;
+    }
+
+    private static List<String> collectSolvents(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        final Set<String> solvents = new TreeSet<>();
+        for (final Map<String, Double[]> statisticsPerSolvent : hoseCodeShiftStatistics.values()) {
+            solvents.addAll(statisticsPerSolvent.keySet());
+        }
+
+        return new ArrayList<>(solvents);
+    }
+
+    /**
+     * Writes HOSE code shift statistics in a compact binary format. <br>
+     * Layout: magic, format version, quantization, solvent dictionary, number of HOSE codes and per HOSE code
+     * the code itself and its entries (solvent index, count, minimum, mean, median, maximum).
+     * Missing values are written as NaN, which is not supported by centi-ppm quantization.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     * @param quantization            quantization of the values
+     * @param pathToFile              path to output file
+     *
+     * @return
+     */
+    public static boolean writeCompactHOSECodeShiftStatistics(
+            final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics, final Quantization quantization,
+            final String pathToFile) {
+        final List<String> solvents = collectSolvents(hoseCodeShiftStatistics);
+        final Map<String, Integer> solventIndices = new HashMap<>();
+        try (final DataOutputStream dataOutputStream = new DataOutputStream(
+                CompressedFiles.newOutputStream(pathToFile))) {
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeByte(FORMAT_VERSION);
+            dataOutputStream.writeByte(quantization.ordinal());
+            dataOutputStream.writeInt(solvents.size());
+            for (int i = 0; i
+                    < solvents.size(); i++) {
+                dataOutputStream.writeUTF(solvents.get(i));
+                solventIndices.put(solvents.get(i), i);
+            }
+            dataOutputStream.writeInt(hoseCodeShiftStatistics.size());
+            for (final Map.Entry<String, Map<String, Double[]>> hoseCodeEntry : hoseCodeShiftStatistics.entrySet()) {
+                dataOutputStream.writeUTF(hoseCodeEntry.getKey());
+                dataOutputStream.writeShort(hoseCodeEntry.getValue()
+                                                         .size());
+                for (final Map.Entry<String, Double[]> solventEntry : hoseCodeEntry.getValue()
+                                                                                   .entrySet()) {
+                    dataOutputStream.writeShort(solventIndices.get(solventEntry.getKey()));
+                    dataOutputStream.writeInt(solventEntry.getValue()[0].intValue());
+                    for (int i = 1; i
+                            < 5; i++) {
+                        writeValue(dataOutputStream, solventEntry.getValue()[i], quantization);
+                    }
+                }
+            }
+
+            return true;
+        } catch (final IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    private static void writeValue(final DataOutputStream dataOutputStream, final Double value,
+                                   final Quantization quantization) throws IOException {
+        final double v = value
+                                 == null
+                         ? Double.NaN
+                         : value;
+        switch (quantization) {
+            case FLOAT:
+                dataOutputStream.writeFloat((float) v);
+                break;
+            case CENTI_PPM:
+                // rounding NaN would give 0
+                dataOutputStream.writeShort(Double.isNaN(v)
+                                            ? MISSING_CENTI_PPM
+                                            : toCentiPPM(v));
+                break;
+            default:
+                dataOutputStream.writeDouble(v);
+        }
+    }
+
+    /**
+     * Reads HOSE code shift statistics written by
+     * {@link #writeCompactHOSECodeShiftStatistics(Map, Quantization, String)}.
+     *
+     * @param pathToFile path to binary file
+     *
+     * @return
+     *
+     * @throws IOException if the file could not be read or is not in the expected format
+     */
+    public static Map<String, Map<String, Double[]>> readCompactHOSECodeShiftStatistics(
+            final String pathToFile) throws IOException {
+        try (final DataInputStream dataInputStream = new DataInputStream(
+                CompressedFiles.newInputStream(pathToFile))) {
+            if (dataInputStream.readInt()
+                    != MAGIC
+                    || dataInputStream.readByte()
+                    != FORMAT_VERSION) {
+                throw new IOException("Unknown file format: "
+                                              + pathToFile);
+            }
+            final Quantization quantization = Quantization.values()[dataInputStream.readByte()];
+            final String[] solvents = new String[dataInputStream.readInt()];
+            for (int i = 0; i
+                    < solvents.length; i++) {
+                solvents[i] = dataInputStream.readUTF();
+            }
+            final int hoseCodeCount = dataInputStream.readInt();
+            final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics = new HashMap<>((int) (hoseCodeCount
+                    / 0.75)
+                    + 1);
+            String hoseCode;
+            Map<String, Double[]> statisticsPerSolvent;
+            Double[] statistics;
+            int entryCount;
+            for (int i = 0; i
+                    < hoseCodeCount; i++) {
+                hoseCode = dataInputStream.readUTF();
+                entryCount = dataInputStream.readUnsignedShort();
+                statisticsPerSolvent = new HashMap<>();
+                for (int j = 0; j
+                        < entryCount; j++) {
+                    final String solvent = solvents[dataInputStream.readUnsignedShort()];
+                    statistics = new Double[5];
+                    statistics[0] = (double) dataInputStream.readInt();
+                    for (int k = 1; k
+                            < 5; k++) {
+                        statistics[k] = readValue(dataInputStream, quantization);
+                    }
+                    statisticsPerSolvent.put(solvent, statistics);
+                }
+                hoseCodeShiftStatistics.put(hoseCode, statisticsPerSolvent);
+            }
+
+            return hoseCodeShiftStatistics;
+        }
+    }
+
+    private static Double readValue(final DataInputStream dataInputStream,
+                                    final Quantization quantization) throws IOException {
+        final double value;
+        switch (quantization) {
+            case FLOAT:
+                value = dataInputStream.readFloat();
+                break;
+            case CENTI_PPM:
+                final short centiPPM = dataInputStream.readShort();
+                if (centiPPM
+                        == MISSING_CENTI_PPM) {
+                    return null;
+                }
+                value = centiPPM
+                        / 100.0;
+                break;
+            default:
+                value = dataInputStream.readDouble();
+        }
+
+        return Double.isNaN(value)
+               ? null
+               : value;
+    }
+
+    /**
+     * Compacts the HOSE code shift statistics and reports the size reduction as well as the change of the
+     * prediction accuracy on held-out datasets.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     * @param minCountPerSphere       minimum count per sphere
+     * @param poolSolvents            whether to pool entries below the threshold instead of dropping them
+     * @param quantization            quantization of the stored values
+     * @param heldOutDataSetList      datasets not used to build the statistics, or null to skip the evaluation
+     * @param maxSphere               maximum sphere to use for prediction
+     * @param report                  report to fill in, or null
+     *
+     * @return new compacted HOSE code shift statistics
+     *
+     * @see #compact(Map, Map, boolean, Quantization)
+     * @see #evaluate(List, HOSECodeShiftStatisticsTable, HOSECodeShiftStatisticsTable, int, CompactionReport)
+     */
+    public static Map<String, Map<String, Double[]>> compact(
+            final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+            final Map<Integer, Integer> minCountPerSphere, final boolean poolSolvents,
+            final Quantization quantization, final List<DataSet> heldOutDataSetList, final int maxSphere,
+            final CompactionReport report) {
+        final Map<String, Map<String, Double[]>> compacted = compact(hoseCodeShiftStatistics, minCountPerSphere,
+                                                                     poolSolvents, quantization);
+        if (report
+                == null) {
+            return compacted;
+        }
+        report.setHoseCodeCountBefore(hoseCodeShiftStatistics.size());
+        report.setHoseCodeCountAfter(compacted.size());
+        report.setEntryCountBefore(countEntries(hoseCodeShiftStatistics));
+        report.setEntryCountAfter(countEntries(compacted));
+        report.setBytesBefore(computeSize(hoseCodeShiftStatistics, Quantization.NONE));
+        report.setBytesAfter(computeSize(compacted, quantization));
+        if (heldOutDataSetList
+                != null) {
+            evaluate(heldOutDataSetList, new HOSECodeShiftStatisticsTable(hoseCodeShiftStatistics),
+                     new HOSECodeShiftStatisticsTable(compacted), maxSphere, report);
+        }
+
+        return compacted;
+    }
+
+    /**
+     * Predicts the spectra of the given datasets by stereo HOSE codes, once with the statistics before and once
+     * with the statistics after compaction, and compares the predicted shift of each assigned atom with its
+     * experimental shift. Only datasets of heavy atom nuclei, e.g. 13C, are used. <br>
+     * The number of evaluated and predicted atoms as well as the mean absolute errors are set in the given report.
+     * Both mean absolute errors are computed over the atoms predicted before and after compaction, so that they
+     * are comparable, whereas the predicted atom counts show the coverage of each table.
+     *
+     * @param dataSetList                        datasets with assigned experimental spectra
+     * @param hoseCodeShiftStatisticsTableBefore HOSE code shift statistics table before compaction
+     * @param hoseCodeShiftStatisticsTableAfter  HOSE code shift statistics table after compaction
+     * @param maxSphere                          maximum sphere to use for prediction
+     * @param report                             report to fill in
+     *
+     * @see Prediction#predict1DByStereoHOSECode(IAtomContainer, String, int, HOSECodeShiftStatisticsTable)
+     */
+    public static void evaluate(final List<DataSet> dataSetList,
+                                final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTableBefore,
+                                final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTableAfter,
+                                final int maxSphere, final CompactionReport report) {
+        int assignedAtomCount = 0;
+        int predictedAtomCountBefore = 0;
+        int predictedAtomCountAfter = 0;
+        int comparedAtomCount = 0;
+        double deviationSumBefore = 0;
+        double deviationSumAfter = 0;
+        IAtomContainer structure;
+        Spectrum experimentalSpectrum, predictedSpectrumBefore, predictedSpectrumAfter;
+        DataSet predictedDataSetBefore, predictedDataSetAfter;
+        String nucleus, atomType;
+        List<Integer> experimentalSignalIndices;
+        Double experimentalShift, predictedShiftBefore, predictedShiftAfter;
+        for (final DataSet dataSet : dataSetList) {
+            nucleus = dataSet.getSpectrum()
+                             .getNuclei()[0];
+            atomType = Utils.getAtomTypeFromNucleus(nucleus);
+            if (atomType.equals("H")) {
+                continue;
+            }
+            structure = dataSet.getStructure()
+                               .toAtomContainer();
+            experimentalSpectrum = dataSet.getSpectrum()
+                                          .toSpectrum();
+            predictedDataSetBefore = Prediction.predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                                                          hoseCodeShiftStatisticsTableBefore);
+            predictedDataSetAfter = Prediction.predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                                                         hoseCodeShiftStatisticsTableAfter);
+            predictedSpectrumBefore = predictedDataSetBefore
+                                              == null
+                                      ? null
+                                      : predictedDataSetBefore.getSpectrum()
+                                                              .toSpectrum();
+            predictedSpectrumAfter = predictedDataSetAfter
+                                             == null
+                                     ? null
+                                     : predictedDataSetAfter.getSpectrum()
+                                                            .toSpectrum();
+            for (int i = 0; i
+                    < structure.getAtomCount(); i++) {
+                if (!structure.getAtom(i)
+                              .getSymbol()
+                              .equals(atomType)) {
+                    continue;
+                }
+                experimentalSignalIndices = dataSet.getAssignment()
+                                                   .getIndices(0, i);
+                if (experimentalSignalIndices
+                        == null
+                        || experimentalSignalIndices.isEmpty()) {
+                    continue;
+                }
+                assignedAtomCount++;
+                experimentalShift = experimentalSpectrum.getShift(experimentalSignalIndices.get(0), 0);
+                predictedShiftBefore = getPredictedShift(predictedDataSetBefore, predictedSpectrumBefore, i);
+                predictedShiftAfter = getPredictedShift(predictedDataSetAfter, predictedSpectrumAfter, i);
+                if (predictedShiftBefore
+                        != null) {
+                    predictedAtomCountBefore++;
+                }
+                if (predictedShiftAfter
+                        != null) {
+                    predictedAtomCountAfter++;
+                }
+                if (predictedShiftBefore
+                        == null
+                        || predictedShiftAfter
+                        == null) {
+                    continue;
+                }
+                comparedAtomCount++;
+                deviationSumBefore += Math.abs(experimentalShift
+                                                       - predictedShiftBefore);
+                deviationSumAfter += Math.abs(experimentalShift
+                                                      - predictedShiftAfter);
+            }
+        }
+        report.setEvaluatedAtomCount(assignedAtomCount);
+        report.setPredictedAtomCountBefore(predictedAtomCountBefore);
+        report.setPredictedAtomCountAfter(predictedAtomCountAfter);
+        report.setComparedAtomCount(comparedAtomCount);
+        report.setMeanAbsoluteErrorBefore(comparedAtomCount
+                                                  > 0
+                                          ? deviationSumBefore
+                / comparedAtomCount
+                                          : null);
+        report.setMeanAbsoluteErrorAfter(comparedAtomCount
+                                                 > 0
+                                         ? deviationSumAfter
+                / comparedAtomCount
+                                         : null);
+    }
+
+    private static Double getPredictedShift(final DataSet predictedDataSet, final Spectrum predictedSpectrum,
+                                            final int atomIndex) {
+        if (predictedDataSet
+                == null) {
+            return null;
+        }
+        final List<Integer> predictedSignalIndices = predictedDataSet.getAssignment()
+                                                                     .getIndices(0, atomIndex);
+        if (predictedSignalIndices
+                == null
+                || predictedSignalIndices.isEmpty()) {
+            return null;
+        }
+
+        return predictedSpectrum.getShift(predictedSignalIndices.get(0), 0);
+    }
+}
@@ -0,0 +1,377 @@
+package casekit.nmr.analysis;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.threading.MultiThreading;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Parallel reader for the line-oriented JSON format written by
+ * {@link HOSECodeShiftStatistics#writeHOSECodeShiftStatistics(Map, String)}. <br>
+ * The file is split into byte ranges on line boundaries, which are memory-mapped and parsed in parallel. Each line
+ * is parsed in a single pass by a streaming JSON parser, only the nested "values" string requires a second (small)
+ * parser run. Compressed files cannot be mapped, so they are decompressed as a stream and cut into chunks instead.
+ */
+public class HOSECodeShiftStatisticsReader {
+
+    private final static JsonFactory JSON_FACTORY = new JsonFactory();
+    // ranges are mapped separately, so each of them has to stay below the maximum mapping size
+    private final static long MAX_RANGE_SIZE = 1L
+            << 30;
+    private final static int COMPRESSED_CHUNK_SIZE = 1
+            << 23;
+
+    /**
+     * Reads the HOSE code shift statistics file in parallel.
+     *
+     * @param pathToJsonFile path to HOSE code shift statistics file
+     * @param nThreads       number of threads to use
+     *
+     * @return
+     *
+     * @throws IOException
+     * @see #read(String, int, Map)
+     */
+    public static Map<String, Map<String, Double[]>> read(final String pathToJsonFile,
+                                                          final int nThreads) throws IOException {
+        return read(pathToJsonFile, nThreads, new HashMap<>());
+    }
+
+    /**
+     * Reads the HOSE code shift statistics file in parallel and puts all HOSE codes into the given map. <br>
+     * The ranges are parsed into separate maps by the worker threads and merged into the target map by the calling
+     * thread, so the target map does not need to be thread-safe.
+     *
+     * @param pathToJsonFile          path to HOSE code shift statistics file
+     * @param nThreads                number of threads to use
+     * @param hoseCodeShiftStatistics target map
+     *
+     * @return the target map
+     *
+     * @throws IOException
+     */
+    public static Map<String, Map<String, Double[]>> read(final String pathToJsonFile, final int nThreads,
+                                                          final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) throws IOException {
+        if (CompressedFiles.isCompressed(pathToJsonFile)) {
+            return readCompressed(pathToJsonFile, nThreads, hoseCodeShiftStatistics);
+        }
+        try (final FileChannel fileChannel = FileChannel.open(Paths.get(pathToJsonFile), StandardOpenOption.READ)) {
+            final List<long[]> ranges = splitIntoRanges(fileChannel, Math.max(1, nThreads)
+                    * 4);
+            final List<Callable<Map<String, Map<String, Double[]>>>> callables = new ArrayList<>();
+            for (final long[] range : ranges) {
+                callables.add(() -> parseRange(fileChannel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1]
+                        - range[0])));
+            }
+            MultiThreading.processTasks(callables, hoseCodeShiftStatistics::putAll, Math.max(1, nThreads), 5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException("Reading of "
+                                          + pathToJsonFile
+                                          + " was interrupted", e);
+        } catch (final IllegalStateException e) {
+            throw new IOException("Could not read "
+                                          + pathToJsonFile, e);
+        }
+
+        return hoseCodeShiftStatistics;
+    }
+
+    /**
+     * Splits the file into byte ranges which start at the beginning of a line and end after a line break
+     * or at the end of the file.
+     *
+     * @param fileChannel file channel
+     * @param rangeCount  approximate number of ranges
+     *
+     * @return list of start (inclusive) and end (exclusive) positions
+     *
+     * @throws IOException
+     */
+    static List<long[]> splitIntoRanges(final FileChannel fileChannel, final int rangeCount) throws IOException {
+        final long size = fileChannel.size();
+        final long rangeSize = Math.max(1, Math.min(MAX_RANGE_SIZE, size
+                / rangeCount
+                + 1));
+        final List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        long end;
+        while (start
+                < size) {
+            end = findLineEnd(fileChannel, Math.min(size, start
+                    + rangeSize), size);
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+
+        return ranges;
+    }
+
+    private static long findLineEnd(final FileChannel fileChannel, final long position,
+                                    final long size) throws IOException {
+        if (position
+                >= size) {
+            return size;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(1
+                << 12);
+        long offset = position
+                - 1;
+        int read;
+        while (offset
+                < size) {
+            buffer.clear();
+            read = fileChannel.read(buffer, offset);
+            if (read
+                    <= 0) {
+                break;
+            }
+            for (int i = 0; i
+                    < read; i++) {
+                if (buffer.get(i)
+                        == '\n') {
+                    return offset
+                            + i
+                            + 1;
+                }
+            }
+            offset += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * Reads a compressed HOSE code shift statistics file. The file is decompressed as a stream, see
+     * {@link CompressedFiles#newInputStream(String)}, and cut into chunks on line boundaries, which are parsed in
+     * parallel while the decompression goes on. A bounded number of chunks is in flight.
+     *
+     * @param pathToJsonFile          path to compressed HOSE code shift statistics file
+     * @param nThreads                number of threads to parse with
+     * @param hoseCodeShiftStatistics target map
+     *
+     * @return the target map
+     *
+     * @throws IOException
+     */
+    private static Map<String, Map<String, Double[]>> readCompressed(final String pathToJsonFile, final int nThreads,
+                                                                     final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) throws IOException {
+        try (final InputStream inputStream = CompressedFiles.newInputStream(pathToJsonFile)) {
+            final Iterator<Callable<Map<String, Map<String, Double[]>>>> callables = new Iterator<Callable<Map<String, Map<String, Double[]>>>>() {
+                private ByteBuffer nextChunk = readChunk(inputStream);
+
+                @Override
+                public boolean hasNext() {
+                    return this.nextChunk
+                            != null;
+                }
+
+                @Override
+                public Callable<Map<String, Map<String, Double[]>>> next() {
+                    final ByteBuffer chunk = this.nextChunk;
+                    this.nextChunk = readChunk(inputStream);
+                    return () -> parseRange(chunk);
+                }
+            };
+            MultiThreading.processTasks(callables, hoseCodeShiftStatistics::putAll, Math.max(1, nThreads),
+                                        Math.max(1, nThreads)
+                                                * 2, 5);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException("Reading of "
+                                          + pathToJsonFile
+                                          + " was interrupted", e);
+        } catch (final IllegalStateException e) {
+            throw new IOException("Could not read "
+                                          + pathToJsonFile, e);
+        }
+
+        return hoseCodeShiftStatistics;
+    }
+
+    /**
+     * Reads the next chunk of about {@link #COMPRESSED_CHUNK_SIZE} bytes which ends after a line break or at the
+     * end of the input.
+     *
+     * @param inputStream input stream
+     *
+     * @return null at the end of the input
+     */
+    private static ByteBuffer readChunk(final InputStream inputStream) {
+        try {
+            byte[] chunk = new byte[COMPRESSED_CHUNK_SIZE];
+            int length = 0;
+            int count;
+            while (length
+                    < COMPRESSED_CHUNK_SIZE
+                    && (count = inputStream.read(chunk, length, COMPRESSED_CHUNK_SIZE
+                    - length))
+                    >= 0) {
+                length += count;
+            }
+            // complete the last line
+            int b;
+            while (length
+                    > 0
+                    && chunk[length
+                    - 1]
+                    != '\n'
+                    && (b = inputStream.read())
+                    >= 0) {
+                if (length
+                        == chunk.length) {
+                    chunk = Arrays.copyOf(chunk, chunk.length
+                            + (1
+                            << 12));
+                }
+                chunk[length] = (byte) b;
+                length++;
+            }
+
+            return length
+                           == 0
+                   ? null
+                   : ByteBuffer.wrap(chunk, 0, length);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Map<String, Double[]>> parseRange(final ByteBuffer byteBuffer) throws IOException {
+        final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics = new HashMap<>();
+        byte[] line = new byte[1
+                << 12];
+        int lineLength = 0;
+        byte b;
+        while (byteBuffer.hasRemaining()) {
+            b = byteBuffer.get();
+            if (b
+                    == '\n') {
+                parseLine(line, lineLength, hoseCodeShiftStatistics);
+                lineLength = 0;
+                continue;
+            }
+            if (lineLength
+                    == line.length) {
+                line = Arrays.copyOf(line, line.length
+                        * 2);
+            }
+            line[lineLength] = b;
+            lineLength++;
+        }
+        parseLine(line, lineLength, hoseCodeShiftStatistics);
+
+        return hoseCodeShiftStatistics;
+    }
+
+    /**
+     * Parses one line of the form {@code "0": {"HOSECode": "...", "values": "{...}"},}. The opening and closing
+     * lines of the file as well as empty lines are skipped.
+     *
+     * @param line                    line buffer
+     * @param lineLength              length of the line in the buffer
+     * @param hoseCodeShiftStatistics map to put the parsed HOSE code into
+     *
+     * @throws IOException
+     */
+    private static void parseLine(final byte[] line, final int lineLength,
+                                  final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) throws IOException {
+        // skip the key of the outer document
+        int from = 0;
+        while (from
+                < lineLength
+                && line[from]
+                != '{') {
+            from++;
+        }
+        int to = lineLength;
+        while (to
+                > from
+                && line[to
+                - 1]
+                != '}') {
+            to--;
+        }
+        if (to
+                - from
+                < 2) {
+            return;
+        }
+        String hoseCode = null;
+        Map<String, Double[]> statisticsPerSolvent = null;
+        try (final JsonParser jsonParser = JSON_FACTORY.createParser(line, from, to
+                - from)) {
+            if (jsonParser.nextToken()
+                    != JsonToken.START_OBJECT) {
+                return;
+            }
+            String fieldName;
+            while (jsonParser.nextToken()
+                    == JsonToken.FIELD_NAME) {
+                fieldName = jsonParser.getCurrentName();
+                jsonParser.nextToken();
+                if (fieldName.equals("HOSECode")) {
+                    hoseCode = jsonParser.getText();
+                } else if (fieldName.equals("values")) {
+                    statisticsPerSolvent = parseValues(jsonParser.getText());
+                } else {
+                    jsonParser.skipChildren();
+                }
+            }
+        }
+        if (hoseCode
+                != null
+                && statisticsPerSolvent
+                != null) {
+            hoseCodeShiftStatistics.put(hoseCode, statisticsPerSolvent);
+        }
+    }
+
+    private static Map<String, Double[]> parseValues(final String values) throws IOException {
+        final Map<String, Double[]> statisticsPerSolvent = new HashMap<>();
+        try (final JsonParser jsonParser = JSON_FACTORY.createParser(values)) {
+            if (jsonParser.nextToken()
+                    != JsonToken.START_OBJECT) {
+                return statisticsPerSolvent;
+            }
+            String solvent;
+            final List<Double> statistics = new ArrayList<>(5);
+            JsonToken jsonToken;
+            while (jsonParser.nextToken()
+                    == JsonToken.FIELD_NAME) {
+                solvent = jsonParser.getCurrentName();
+                if (jsonParser.nextToken()
+                        != JsonToken.START_ARRAY) {
+                    jsonParser.skipChildren();
+                    continue;
+                }
+                statistics.clear();
+                while ((jsonToken = jsonParser.nextToken())
+                        != JsonToken.END_ARRAY) {
+                    statistics.add(jsonToken
+                                           == JsonToken.VALUE_NULL
+                                   ? null
+                                   : jsonParser.getDoubleValue());
+                }
+                statisticsPerSolvent.put(solvent, statistics.toArray(new Double[0]));
+            }
+        }
+
+        return statisticsPerSolvent;
+    }
+}
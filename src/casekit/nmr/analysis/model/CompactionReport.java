@@ -0,0 +1,44 @@
+package casekit.nmr.analysis.model;
+
+import lombok.*;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class CompactionReport {
+
+    private int hoseCodeCountBefore;
+    private int hoseCodeCountAfter;
+    private int entryCountBefore;
+    private int entryCountAfter;
+    private long bytesBefore;
+    private long bytesAfter;
+    // evaluation on held-out datasets
+    private int evaluatedAtomCount;
+    private int predictedAtomCountBefore;
+    private int predictedAtomCountAfter;
+    // atoms predicted before and after compaction, over which both mean absolute errors are computed
+    private int comparedAtomCount;
+    private Double meanAbsoluteErrorBefore;
+    private Double meanAbsoluteErrorAfter;
+
+    public double getCompressionRatio() {
+        return this.bytesAfter
+                       > 0
+               ? (double) this.bytesBefore
+                / this.bytesAfter
+               : 0;
+    }
+
+    public Double getMeanAbsoluteErrorDelta() {
+        return this.meanAbsoluteErrorBefore
+                       == null
+                       || this.meanAbsoluteErrorAfter
+                       == null
+               ? null
+               : this.meanAbsoluteErrorAfter
+                - this.meanAbsoluteErrorBefore;
+    }
+}
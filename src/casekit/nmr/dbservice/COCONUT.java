@@ -1,5 +1,9 @@
 package casekit.nmr.dbservice;
 
+import casekit.io.CloseableIterator;
+import casekit.io.ParallelSDFReader;
+import casekit.io.SDFRecordIterator;
+import casekit.io.compression.CompressedFiles;
 import casekit.nmr.model.*;
 import casekit.nmr.utils.Utils;
 import org.openscience.cdk.exception.CDKException;
@@ -7,20 +11,87 @@ import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class COCONUT {
 
     public static List<DataSet> getDataSetsWithShiftPredictionFromCOCONUT(final String pathToCOCONUT,
-                                                                          final String[] nuclei) throws CDKException, FileNotFoundException {
+                                                                          final String[] nuclei) throws CDKException, IOException {
+        final List<DataSet> dataSetList = new ArrayList<>();
+        try (final IteratingSDFReader iterator = new IteratingSDFReader(CompressedFiles.newReader(pathToCOCONUT),
+                                                                        SilentChemObjectBuilder.getInstance())) {
+            while (iterator.hasNext()) {
+                dataSetList.addAll(getDataSetsWithShiftPredictionFromStructure(iterator.next(), nuclei));
+            }
+        }
+
+        return dataSetList;
+    }
+
+    /**
+     * Lazy version of {@link #getDataSetsWithShiftPredictionFromCOCONUT(String, String[])}. The records are parsed
+     * on demand, so only the datasets of the current record are held in memory.
+     *
+     * @param pathToCOCONUT path to COCONUT file
+     * @param nuclei        nuclei to get the spectra for
+     *
+     * @return iterator which has to be closed after use
+     *
+     * @throws IOException
+     * @see SDFRecordIterator
+     */
+    public static CloseableIterator<DataSet> iterateDataSetsWithShiftPredictionFromCOCONUT(final String pathToCOCONUT,
+                                                                                           final String[] nuclei) throws IOException {
+        return new SDFRecordIterator<>(CompressedFiles.newReader(pathToCOCONUT),
+                                       structure -> getDataSetsWithShiftPredictionFromStructure(structure, nuclei));
+    }
+
+    /**
+     * Stream version of {@link #iterateDataSetsWithShiftPredictionFromCOCONUT(String, String[])}, which has to be
+     * closed after use.
+     *
+     * @param pathToCOCONUT path to COCONUT file
+     * @param nuclei        nuclei to get the spectra for
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public static Stream<DataSet> streamDataSetsWithShiftPredictionFromCOCONUT(final String pathToCOCONUT,
+                                                                               final String[] nuclei) throws IOException {
+        return iterateDataSetsWithShiftPredictionFromCOCONUT(pathToCOCONUT, nuclei).stream();
+    }
+
+    /**
+     * Parallel version of {@link #getDataSetsWithShiftPredictionFromCOCONUT(String, String[])}. The file is split
+     * at record boundaries and the records are parsed and converted by multiple threads.
+     *
+     * @param pathToCOCONUT path to COCONUT file
+     * @param nuclei        nuclei to get the spectra for
+     * @param nThreads      number of threads to use
+     * @param ordered       whether to keep the record order of the file
+     *
+     * @return
+     *
+     * @throws IOException
+     * @throws CDKException
+     * @throws InterruptedException
+     * @see ParallelSDFReader
+     */
+    public static List<DataSet> getDataSetsWithShiftPredictionFromCOCONUT(final String pathToCOCONUT,
+                                                                          final String[] nuclei, final int nThreads,
+                                                                          final boolean ordered) throws IOException, CDKException, InterruptedException {
+        return ParallelSDFReader.read(pathToCOCONUT,
+                                      structure -> getDataSetsWithShiftPredictionFromStructure(structure, nuclei),
+                                      nThreads, ordered);
+    }
+
+    public static List<DataSet> getDataSetsWithShiftPredictionFromStructure(final IAtomContainer structure,
+                                                                            final String[] nuclei) throws CDKException {
         final List<DataSet> dataSetList = new ArrayList<>();
-        final IteratingSDFReader iterator = new IteratingSDFReader(new FileReader(pathToCOCONUT),
-                                                                   SilentChemObjectBuilder.getInstance());
-        IAtomContainer structure;
-        DataSet dataSet;
         Spectrum spectrum;
         Assignment assignment;
         String[] split, split2;
@@ -29,71 +100,68 @@ public class COCONUT {
         List<Integer> closestSignalList;
         int atomIndex;
 
-        while (iterator.hasNext()) {
-            structure = iterator.next();
-            dataSet = Utils.atomContainerToDataSet(structure);
-
-            for (final String nucleus : nuclei) {
-                final String atomType = casekit.nmr.utils.Utils.getAtomTypeFromNucleus(nucleus);
-                final List<Integer> atomIndices = Utils.getAtomTypeIndicesByElement(structure, atomType);
-                spectrumPropertyString = structure.getProperty("Predicted "
+        final DataSet dataSet = Utils.atomContainerToDataSet(structure);
+        for (final String nucleus : nuclei) {
+            final String atomType = casekit.nmr.utils.Utils.getAtomTypeFromNucleus(nucleus);
+            final List<Integer> atomIndices = Utils.getAtomTypeIndicesByElement(structure, atomType);
+            spectrumPropertyString = structure.getProperty("Predicted "
+                                                                   + nucleus
+                                                                   + " shifts", String.class);
+            if (spectrumPropertyString
+                    == null) {
+                spectrumPropertyString = structure.getProperty("Predicted_"
                                                                        + nucleus
-                                                                       + " shifts", String.class);
-                if (spectrumPropertyString
-                        == null) {
-                    spectrumPropertyString = structure.getProperty("Predicted_"
-                                                                           + nucleus
-                                                                           + "_shifts", String.class);
-                }
-                if (spectrumPropertyString
-                        == null) {
-                    continue;
-                }
-
-                spectrumPropertyString = spectrumPropertyString.replaceAll("[\\n\\r]", ";");
-                split = spectrumPropertyString.split(";");
-                spectrum = new Spectrum();
-                spectrum.setNuclei(new String[]{nucleus});
-                spectrum.setSignals(new ArrayList<>());
-                assignment = new Assignment();
-                assignment.setNuclei(spectrum.getNuclei());
-                assignment.initAssignments(spectrum.getSignalCount());
-                for (int i = 0; i
-                        < split.length; i++) {
-                    split2 = split[i].split("\\s+");
-                    atomIndex = atomIndices.get(i);
-                    calcShift = Double.parseDouble(split2[1]);
-                    multiplicity = Utils.getMultiplicityFromProtonsCount(structure.getAtom(atomIndex)
-                                                                                  .getImplicitHydrogenCount())
-                                        .toLowerCase();
-                    // add assignment (at first here because of search for already existing equivalent signals)
-                    // just to be sure that we take the right signal if equivalences are present
-                    closestSignalList = spectrum.pickByClosestShift(calcShift, 0, 0.0);
-                    closestSignalList.retainAll(spectrum.pickByMultiplicity(multiplicity));
-                    if (closestSignalList.isEmpty()) {
-                        assignment.addAssignment(0, new int[]{atomIndex});
-                    } else {
-                        assignment.addAssignmentEquivalence(0, closestSignalList.get(0), atomIndex);
-                    }
-                    // add signal
-                    spectrum.addSignal(
-                            new Signal(new String[]{nucleus}, new Double[]{calcShift}, multiplicity, "signal", null, 1,
-                                       0, null, null));
-                }
+                                                                       + "_shifts", String.class);
+            }
+            if (spectrumPropertyString
+                    == null) {
+                continue;
+            }
 
-                // if no spectrum could be built or the number of signals in spectrum is different than the atom number in molecule
-                if (Utils.getDifferenceSpectrumSizeAndMolecularFormulaCount(spectrum,
-                                                                            Utils.getMolecularFormulaFromString(
-                                                                                    dataSet.getMeta()
-                                                                                           .get("mf")), 0)
-                        != 0) {
-                    continue;
+            spectrumPropertyString = spectrumPropertyString.replaceAll("[\\n\\r]", ";");
+            split = spectrumPropertyString.split(";");
+            spectrum = new Spectrum();
+            spectrum.setNuclei(new String[]{nucleus});
+            spectrum.setSignals(new ArrayList<>());
+            spectrum.enableShiftIndex();
+            assignment = new Assignment();
+            assignment.setNuclei(spectrum.getNuclei());
+            assignment.initAssignments(spectrum.getSignalCount());
+            for (int i = 0; i
+                    < split.length; i++) {
+                split2 = split[i].split("\\s+");
+                atomIndex = atomIndices.get(i);
+                calcShift = Double.parseDouble(split2[1]);
+                multiplicity = Utils.getMultiplicityFromProtonsCount(structure.getAtom(atomIndex)
+                                                                              .getImplicitHydrogenCount())
+                                    .toLowerCase();
+                // add assignment (at first here because of search for already existing equivalent signals)
+                // just to be sure that we take the right signal if equivalences are present
+                closestSignalList = spectrum.pickByClosestShift(calcShift, 0, 0.0);
+                closestSignalList.retainAll(spectrum.pickByMultiplicity(multiplicity));
+                if (closestSignalList.isEmpty()) {
+                    assignment.addAssignment(0, new int[]{atomIndex});
+                } else {
+                    assignment.addAssignmentEquivalence(0, closestSignalList.get(0), atomIndex);
                 }
-                dataSet.setSpectrum(new SpectrumCompact(spectrum));
-                dataSet.setAssignment(assignment);
+                // add signal
+                spectrum.addSignal(
+                        new Signal(new String[]{nucleus}, new Double[]{calcShift}, multiplicity, "signal", null, 1,
+                                   0, null, null));
+            }
 
-                dataSetList.add(dataSet.buildClone());
+            // if no spectrum could be built or the number of signals in spectrum is different than the atom number in molecule
+            if (Utils.getDifferenceSpectrumSizeAndMolecularFormulaCount(spectrum,
+                                                                        Utils.getMolecularFormulaFromString(
+                                                                                dataSet.getMeta()
+                                                                                       .get("mf")), 0)
+                    != 0) {
+                continue;
             }
+            dataSet.setSpectrum(new SpectrumCompact(spectrum));
+            dataSet.setAssignment(assignment);
+
+            dataSetList.add(dataSet.buildClone());
         }
 
         return dataSetList;
@@ -12,6 +12,10 @@
 
 package casekit.nmr.dbservice;
 
+import casekit.io.CloseableIterator;
+import casekit.io.ParallelSDFReader;
+import casekit.io.SDFRecordIterator;
+import casekit.io.compression.CompressedFiles;
 import casekit.nmr.model.*;
 import casekit.nmr.utils.Utils;
 import org.openscience.cdk.exception.CDKException;
@@ -20,44 +24,135 @@ import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class NMRShiftDB {
 
+    /**
+     * Returns the solvent of a spectrum from the solvent property of an NMRShiftDB record, e.g.
+     * {@code "0:Chloroform-D1 (CDCl3)1:Methanol-D4 (CD3OD)"}, without splitting the property string.
+     *
+     * @param solventPropertyString solvent property string
+     * @param spectrumIndexInRecord spectrum index in record
+     *
+     * @return null if no solvent is given for the spectrum
+     */
     public static String getSolvent(final String solventPropertyString, final String spectrumIndexInRecord) {
-        final String[] solventPropertyStringSplit = solventPropertyString.split(":");
-        String solvent;
-        for (int i = 0; i
-                < solventPropertyStringSplit.length; i++) {
-            if (solventPropertyStringSplit[i].endsWith(spectrumIndexInRecord)) {
-                solvent = solventPropertyStringSplit[i
-                        + 1];
-                if (solvent.substring(solvent.length()
-                                              - 1)
-                           .matches("\\d")) {
-                    solvent = solvent.substring(0, solvent.length()
-                            - 1);
-                }
-                if (solvent.substring(solvent.length()
-                                              - 1)
-                           .matches("\\d")) {
-                    solvent = solvent.substring(0, solvent.length()
-                            - 1);
+        final int length = solventPropertyString.length();
+        int partStart = 0;
+        int partEnd = indexOf(solventPropertyString, ':', partStart);
+        int solventEnd;
+        // the solvent follows the part which ends with the spectrum index
+        while (partEnd
+                < length) {
+            if (partEnd
+                    - partStart
+                    >= spectrumIndexInRecord.length()
+                    && solventPropertyString.startsWith(spectrumIndexInRecord, partEnd
+                    - spectrumIndexInRecord.length())) {
+                solventEnd = indexOf(solventPropertyString, ':', partEnd
+                        + 1);
+                // strip the index of the next spectrum
+                for (int i = 0; i
+                        < 2
+                        && solventEnd
+                        > partEnd
+                        + 1
+                        && isDigit(solventPropertyString.charAt(solventEnd
+                                                                        - 1)); i++) {
+                    solventEnd--;
                 }
-                //                solvent = solvent.substring(0, solvent.length() - 1);
-                solvent = solvent.trim();
 
-                return solvent;
+                return solventPropertyString.substring(partEnd
+                                                               + 1, solventEnd)
+                                            .trim();
             }
+            partStart = partEnd
+                    + 1;
+            partEnd = indexOf(solventPropertyString, ':', partStart);
         }
 
         return null;
     }
 
+    /**
+     * Returns the field strength of a spectrum from the field strength property of an NMRShiftDB record, e.g.
+     * {@code "0:100 1:400"}, without splitting the property string.
+     *
+     * @param fieldStrengthPropertyString field strength property string
+     * @param spectrumIndexInRecord       spectrum index in record
+     *
+     * @return null if no field strength is given for the spectrum
+     */
+    public static String getFieldStrength(final String fieldStrengthPropertyString,
+                                          final String spectrumIndexInRecord) {
+        final int length = fieldStrengthPropertyString.length();
+        final int prefixLength = spectrumIndexInRecord.length()
+                + 1;
+        int tokenStart = 0;
+        int tokenEnd;
+        while (tokenStart
+                < length) {
+            tokenEnd = tokenStart;
+            while (tokenEnd
+                    < length
+                    && !isWhitespace(fieldStrengthPropertyString.charAt(tokenEnd))) {
+                tokenEnd++;
+            }
+            if (tokenEnd
+                    - tokenStart
+                    > prefixLength
+                    && fieldStrengthPropertyString.startsWith(spectrumIndexInRecord, tokenStart)
+                    && fieldStrengthPropertyString.charAt(tokenStart
+                                                                  + prefixLength
+                                                                  - 1)
+                    == ':') {
+                return fieldStrengthPropertyString.substring(tokenStart
+                                                                     + prefixLength, tokenEnd);
+            }
+            tokenStart = tokenEnd
+                    + 1;
+        }
+
+        return null;
+    }
+
+    private static int indexOf(final String text, final char c, final int start) {
+        final int index = text.indexOf(c, start);
+
+        return index
+                       == -1
+               ? text.length()
+               : index;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c
+                >= '0'
+                && c
+                <= '9';
+    }
+
+    private static boolean isWhitespace(final char c) {
+        // same characters as the regex class \s
+        return c
+                == ' '
+                || c
+                == '\t'
+                || c
+                == '\n'
+                || c
+                == '\u000B'
+                || c
+                == '\f'
+                || c
+                == '\r';
+    }
+
     public static List<String> getSpectraProperties1D(final IAtomContainer ac, final String nucleus) {
         final List<String> spectraProperties1D = new ArrayList<>();
         for (final Object obj : ac.getProperties()
@@ -84,106 +179,178 @@ public class NMRShiftDB {
      *
      * @return
      *
-     * @throws FileNotFoundException
+     * @throws IOException
      * @throws CDKException
      * @see DataSet
+     * @see CompressedFiles#newReader(String)
      */
     public static List<DataSet> getDataSetsFromNMRShiftDB(final String pathToNMRShiftDB,
-                                                          final String[] nuclei) throws FileNotFoundException, CDKException {
+                                                          final String[] nuclei) throws IOException, CDKException {
+        final List<DataSet> dataSets = new ArrayList<>();
+        try (final IteratingSDFReader iterator = new IteratingSDFReader(CompressedFiles.newReader(pathToNMRShiftDB),
+                                                                        SilentChemObjectBuilder.getInstance())) {
+            while (iterator.hasNext()) {
+                dataSets.addAll(getDataSetsFromStructure(iterator.next(), nuclei));
+            }
+        }
+
+        return dataSets;
+    }
+
+    /**
+     * Lazy version of {@link #getDataSetsFromNMRShiftDB(String, String[])}. The records are parsed on demand, so
+     * only the datasets of the current record are held in memory.
+     *
+     * @param pathToNMRShiftDB path to NMRShiftDB file
+     * @param nuclei           nuclei to get the spectra for
+     *
+     * @return iterator which has to be closed after use
+     *
+     * @throws IOException
+     * @see SDFRecordIterator
+     */
+    public static CloseableIterator<DataSet> iterateDataSetsFromNMRShiftDB(final String pathToNMRShiftDB,
+                                                                           final String[] nuclei) throws IOException {
+        return new SDFRecordIterator<>(CompressedFiles.newReader(pathToNMRShiftDB),
+                                       structure -> getDataSetsFromStructure(structure, nuclei));
+    }
+
+    /**
+     * Stream version of {@link #iterateDataSetsFromNMRShiftDB(String, String[])}, which has to be closed after use.
+     *
+     * @param pathToNMRShiftDB path to NMRShiftDB file
+     * @param nuclei           nuclei to get the spectra for
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public static Stream<DataSet> streamDataSetsFromNMRShiftDB(final String pathToNMRShiftDB,
+                                                               final String[] nuclei) throws IOException {
+        return iterateDataSetsFromNMRShiftDB(pathToNMRShiftDB, nuclei).stream();
+    }
+
+    /**
+     * Parallel version of {@link #getDataSetsFromNMRShiftDB(String, String[])}. The file is split at record
+     * boundaries and the records are parsed and converted by multiple threads.
+     *
+     * @param pathToNMRShiftDB path to NMRShiftDB file
+     * @param nuclei           nuclei to get the spectra for
+     * @param nThreads         number of threads to use
+     * @param ordered          whether to keep the record order of the file
+     *
+     * @return
+     *
+     * @throws IOException
+     * @throws CDKException
+     * @throws InterruptedException
+     * @see ParallelSDFReader
+     */
+    public static List<DataSet> getDataSetsFromNMRShiftDB(final String pathToNMRShiftDB, final String[] nuclei,
+                                                          final int nThreads,
+                                                          final boolean ordered) throws IOException, CDKException, InterruptedException {
+        return ParallelSDFReader.read(pathToNMRShiftDB, structure -> getDataSetsFromStructure(structure, nuclei),
+                                      nThreads, ordered);
+    }
+
+    /**
+     * Returns a {@link DataSet} class object for each valid spectrum of the given nuclei in a single NMRShiftDB
+     * molecule record.
+     *
+     * @param structure molecule record
+     * @param nuclei    nuclei to get the spectra for
+     *
+     * @return
+     *
+     * @throws CDKException
+     * @see #getDataSetsFromNMRShiftDB(String, String[])
+     */
+    public static List<DataSet> getDataSetsFromStructure(final IAtomContainer structure,
+                                                         final String[] nuclei) throws CDKException {
         final List<DataSet> dataSets = new ArrayList<>();
-        final IteratingSDFReader iterator = new IteratingSDFReader(new FileReader(pathToNMRShiftDB),
-                                                                   SilentChemObjectBuilder.getInstance());
-        IAtomContainer structure;
         Spectrum spectrum;
         Assignment assignment;
-        DataSet dataSet;
         List<String> spectraProperties1D;
-        String[] split;
-        String spectrumIndexInRecord;
-        List<Integer> explicitHydrogenIndices;
+        NMRShiftDBSpectrumTokens spectrumTokens;
+        String spectrumIndexInRecord, fieldStrength;
         int[] temp;
 
-        while (iterator.hasNext()) {
-            structure = iterator.next();
-            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(structure);
-            explicitHydrogenIndices = casekit.nmr.utils.Utils.getExplicitHydrogenIndices(structure);
-            Collections.sort(explicitHydrogenIndices);
-            dataSet = Utils.atomContainerToDataSet(structure);
-
-            for (final String nucleus : nuclei) {
-                spectraProperties1D = getSpectraProperties1D(structure, nucleus);
-                for (final String spectrumProperty1D : spectraProperties1D) {
-                    split = spectrumProperty1D.split("\\s");
-                    spectrumIndexInRecord = split[split.length
-                            - 1];
-
-                    // skip molecules which do not contain any of requested spectrum information
-                    spectrum = NMRShiftDBSpectrumToSpectrum(structure.getProperty(spectrumProperty1D), nucleus);
-                    // if no spectrum could be built or the number of signals in spectrum is different than the atom number in molecule
-                    if ((spectrum
-                            == null)
-                            || casekit.nmr.utils.Utils.getDifferenceSpectrumSizeAndMolecularFormulaCount(spectrum,
-                                                                                                         Utils.getMolecularFormulaFromString(
-                                                                                                                 dataSet.getMeta()
-                                                                                                                        .get("mf")),
-                                                                                                         0)
-                            != 0) {
-                        continue;
-                    }
-                    if (structure.getProperty("Solvent")
-                            != null) {
-                        spectrum.addMetaInfo("solvent",
-                                             getSolvent(structure.getProperty("Solvent"), spectrumIndexInRecord));
-                    }
-                    if (structure.getProperty("Field Strength [MHz]")
+        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(structure);
+        final List<Integer> explicitHydrogenIndices = casekit.nmr.utils.Utils.getExplicitHydrogenIndices(structure);
+        Collections.sort(explicitHydrogenIndices);
+        final DataSet dataSet = Utils.atomContainerToDataSet(structure);
+
+        for (final String nucleus : nuclei) {
+            spectraProperties1D = getSpectraProperties1D(structure, nucleus);
+            for (final String spectrumProperty1D : spectraProperties1D) {
+                spectrumIndexInRecord = spectrumProperty1D.trim();
+                spectrumIndexInRecord = spectrumIndexInRecord.substring(spectrumIndexInRecord.lastIndexOf(' ')
+                                                                                + 1);
+
+                // skip molecules which do not contain any of requested spectrum information
+                spectrumTokens = structure.getProperty(spectrumProperty1D)
+                                         == null
+                                 ? null
+                                 : NMRShiftDBSpectrumTokens.tokenize(structure.getProperty(spectrumProperty1D));
+                spectrum = spectrumTokens
+                                   == null
+                           ? null
+                           : NMRShiftDBSpectrumToSpectrum(spectrumTokens, nucleus);
+                // if no spectrum could be built or the number of signals in spectrum is different than the atom number in molecule
+                if ((spectrum
+                        == null)
+                        || casekit.nmr.utils.Utils.getDifferenceSpectrumSizeAndMolecularFormulaCount(spectrum,
+                                                                                                     Utils.getMolecularFormulaFromString(
+                                                                                                             dataSet.getMeta()
+                                                                                                                    .get("mf")),
+                                                                                                     0)
+                        != 0) {
+                    continue;
+                }
+                if (structure.getProperty("Solvent")
+                        != null) {
+                    spectrum.addMetaInfo("solvent",
+                                         getSolvent(structure.getProperty("Solvent"), spectrumIndexInRecord));
+                }
+                if (structure.getProperty("Field Strength [MHz]")
+                        != null) {
+                    fieldStrength = getFieldStrength(structure.getProperty("Field Strength [MHz]")
+                                                              .toString(), spectrumIndexInRecord);
+                    if (fieldStrength
                             != null) {
-                        for (final String fieldStrength : structure.getProperty("Field Strength [MHz]")
-                                                                   .toString()
-                                                                   .split("\\s")) {
-                            if (fieldStrength.startsWith(spectrumIndexInRecord
-                                                                 + ":")) {
-                                try {
-                                    spectrum.addMetaInfo("spectrometerFrequency", fieldStrength.split(
-                                            spectrumIndexInRecord
-                                                    + ":")[1]);
-                                } catch (final NumberFormatException e) {
-                                    //                                    e.printStackTrace();
-                                }
-                                break;
-                            }
-                        }
+                        spectrum.addMetaInfo("spectrometerFrequency", fieldStrength);
                     }
+                }
 
-                    assignment = NMRShiftDBSpectrumToAssignment(structure.getProperty(spectrumProperty1D), nucleus);
-                    if (assignment
-                            != null
-                            && !explicitHydrogenIndices.isEmpty()) {
-                        int hCount;
-                        for (int i = 0; i
-                                < assignment.getSize(); i++) {
-                            for (int k = 0; k
-                                    < assignment.getAssignment(0, i).length; k++) {
-                                hCount = 0;
-                                for (int j = 0; j
-                                        < explicitHydrogenIndices.size(); j++) {
-                                    if (explicitHydrogenIndices.get(j)
-                                            >= assignment.getAssignment(0, i, k)) {
-                                        break;
-                                    }
-                                    hCount++;
+                assignment = NMRShiftDBSpectrumToAssignment(spectrumTokens, nucleus);
+                if (assignment
+                        != null
+                        && !explicitHydrogenIndices.isEmpty()) {
+                    int hCount;
+                    for (int i = 0; i
+                            < assignment.getSize(); i++) {
+                        for (int k = 0; k
+                                < assignment.getAssignment(0, i).length; k++) {
+                            hCount = 0;
+                            for (int j = 0; j
+                                    < explicitHydrogenIndices.size(); j++) {
+                                if (explicitHydrogenIndices.get(j)
+                                        >= assignment.getAssignment(0, i, k)) {
+                                    break;
                                 }
-                                temp = assignment.getAssignment(0, i);
-                                temp[k] = assignment.getAssignment(0, i, k)
-                                        - hCount;
-                                assignment.setAssignment(0, i, temp);
+                                hCount++;
                             }
+                            temp = assignment.getAssignment(0, i);
+                            temp[k] = assignment.getAssignment(0, i, k)
+                                    - hCount;
+                            assignment.setAssignment(0, i, temp);
                         }
                     }
-                    dataSet.setSpectrum(new SpectrumCompact(spectrum));
-                    dataSet.setAssignment(assignment);
-
-                    dataSets.add(dataSet.buildClone());
                 }
+                dataSet.setSpectrum(new SpectrumCompact(spectrum));
+                dataSet.setAssignment(assignment);
+
+                dataSets.add(dataSet.buildClone());
             }
         }
 
@@ -296,6 +463,7 @@ public class NMRShiftDB {
     /**
      * Creates a two dimensional array of a given NMRShiftDB casekit.nmr entry
      * with all signal shift values, intensities, multiplicities and atom indices.
+     * The values are formatted from the tokenized numbers, e.g. "17.60" becomes "17.6".
      *
      * @param NMRShiftDBSpectrum
      *
@@ -303,26 +471,29 @@ public class NMRShiftDB {
      * 1. dimension: signal index (row);
      * 2. dimension: signal shift value (column 1), signal intensity (column 2),
      * signal multiplicity (column 3), atom index in structure (column 4)
+     *
+     * @deprecated use {@link NMRShiftDBSpectrumTokens#tokenize(String)}, which avoids the string conversions
      */
+    @Deprecated
     public static String[][] parseNMRShiftDBSpectrum(final String NMRShiftDBSpectrum) {
-        if (NMRShiftDBSpectrum.trim()
-                              .isEmpty()) {
-            return new String[][]{};
+        final NMRShiftDBSpectrumTokens spectrumTokens = NMRShiftDBSpectrumTokens.tokenize(NMRShiftDBSpectrum);
+        if (spectrumTokens
+                == null) {
+            throw new IllegalArgumentException("Malformed NMRShiftDB spectrum: "
+                                                       + NMRShiftDBSpectrum);
         }
-        String[] signalSplit;
-        final String[] shiftsSplit = NMRShiftDBSpectrum.split("\\|");
-        final String[][] values = new String[shiftsSplit.length][4];
+        final String[][] values = new String[spectrumTokens.getSignalCount()][4];
+        String multiplicity;
         for (int i = 0; i
-                < shiftsSplit.length; i++) {
-            signalSplit = shiftsSplit[i].split(";");
-            values[i][0] = signalSplit[0]; // shift value
-            values[i][1] = signalSplit[1].toLowerCase()
-                                         .split("[a-z]")[0]; // intensity
-            values[i][2] = signalSplit[1].split("\\d+\\.\\d+").length
-                                   > 0
-                           ? signalSplit[1].split("\\d+\\.\\d+")[1].toLowerCase()
-                           : ""; // multiplicity
-            values[i][3] = signalSplit[2]; // atom index
+                < spectrumTokens.getSignalCount(); i++) {
+            multiplicity = spectrumTokens.getMultiplicity(i);
+            values[i][0] = String.valueOf(spectrumTokens.getShifts()[i]); // shift value
+            values[i][1] = String.valueOf(spectrumTokens.getIntensities()[i]); // intensity
+            values[i][2] = multiplicity
+                                   == null
+                           ? ""
+                           : multiplicity; // multiplicity
+            values[i][3] = String.valueOf(spectrumTokens.getAtomIndices()[i]); // atom index
         }
 
         return values;
@@ -335,28 +506,42 @@ public class NMRShiftDB {
                                      .isEmpty()) {
             return null;
         }
-        final String[][] spectrumStringArray = parseNMRShiftDBSpectrum(NMRShiftDBSpectrum);
+        final NMRShiftDBSpectrumTokens spectrumTokens = NMRShiftDBSpectrumTokens.tokenize(NMRShiftDBSpectrum);
+        if (spectrumTokens
+                == null) {
+            return null;
+        }
+
+        return NMRShiftDBSpectrumToSpectrum(spectrumTokens, nucleus);
+    }
+
+    /**
+     * @param spectrumTokens tokenized NMRShiftDB spectrum string
+     * @param nucleus        nucleus
+     *
+     * @return
+     *
+     * @see NMRShiftDBSpectrumTokens#tokenize(String)
+     */
+    public static Spectrum NMRShiftDBSpectrumToSpectrum(final NMRShiftDBSpectrumTokens spectrumTokens,
+                                                        final String nucleus) {
+        final Spectrum spectrum = buildSpectrum(spectrumTokens, nucleus);
+        // the returned spectrum may be changed by the caller
+        spectrum.disableShiftIndex();
+
+        return spectrum;
+    }
+
+    private static Spectrum buildSpectrum(final NMRShiftDBSpectrumTokens spectrumTokens, final String nucleus) {
         final Spectrum spectrum = new Spectrum();
         spectrum.setNuclei(new String[]{nucleus});
-        spectrum.setSignals(new ArrayList<>());
-        String multiplicity;
-        Double shift, intensity;
-        try {
-            for (int i = 0; i
-                    < spectrumStringArray.length; i++) {
-                shift = Double.parseDouble(spectrumStringArray[i][0]);
-                intensity = Double.parseDouble(spectrumStringArray[i][1]);
-                multiplicity = spectrumStringArray[i][2].trim()
-                                                        .isEmpty()
-                               ? null
-                               : spectrumStringArray[i][2].trim()
-                                                          .toLowerCase();
-                spectrum.addSignal(
-                        new Signal(new String[]{nucleus}, new Double[]{shift}, multiplicity, "signal", intensity, 1, 0,
-                                   null, null));
-            }
-        } catch (final Exception e) {
-            return null;
+        spectrum.setSignals(new ArrayList<>(spectrumTokens.getSignalCount()));
+        spectrum.enableShiftIndex();
+        for (int i = 0; i
+                < spectrumTokens.getSignalCount(); i++) {
+            spectrum.addSignal(new Signal(new String[]{nucleus}, new Double[]{spectrumTokens.getShifts()[i]},
+                                          spectrumTokens.getMultiplicity(i), "signal",
+                                          spectrumTokens.getIntensities()[i], 1, 0, null, null));
         }
 
         return spectrum;
@@ -369,28 +554,40 @@ public class NMRShiftDB {
                                      .isEmpty()) {
             return null;
         }
-        final String[][] NMRShiftDBSpectrumStringArray = parseNMRShiftDBSpectrum(NMRShiftDBSpectrum);
-        final Spectrum spectrum = NMRShiftDBSpectrumToSpectrum(NMRShiftDBSpectrum, nucleus);
+        final NMRShiftDBSpectrumTokens spectrumTokens = NMRShiftDBSpectrumTokens.tokenize(NMRShiftDBSpectrum);
+        if (spectrumTokens
+                == null) {
+            return null;
+        }
+
+        return NMRShiftDBSpectrumToAssignment(spectrumTokens, nucleus);
+    }
+
+    /**
+     * @param spectrumTokens tokenized NMRShiftDB spectrum string
+     * @param nucleus        nucleus
+     *
+     * @return
+     *
+     * @see NMRShiftDBSpectrumTokens#tokenize(String)
+     */
+    public static Assignment NMRShiftDBSpectrumToAssignment(final NMRShiftDBSpectrumTokens spectrumTokens,
+                                                            final String nucleus) {
+        // the spectrum is only used locally, so its shift index can stay enabled
+        final Spectrum spectrum = buildSpectrum(spectrumTokens, nucleus);
         final Assignment assignment = new Assignment();
         assignment.setNuclei(spectrum.getNuclei());
         assignment.initAssignments(spectrum.getSignalCount());
         int signalIndex;
-        String multiplicity;
         List<Integer> closestSignalList;
         for (int i = 0; i
-                < NMRShiftDBSpectrumStringArray.length; i++) {
+                < spectrumTokens.getSignalCount(); i++) {
             // just to be sure that we take the right signal if equivalences are present
-            closestSignalList = spectrum.pickByClosestShift(Double.parseDouble(NMRShiftDBSpectrumStringArray[i][0]), 0,
-                                                            0.0);
-            multiplicity = NMRShiftDBSpectrumStringArray[i][2].trim()
-                                                              .isEmpty()
-                           ? null
-                           : NMRShiftDBSpectrumStringArray[i][2].trim()
-                                                                .toLowerCase();
-            closestSignalList.retainAll(spectrum.pickByMultiplicity(multiplicity));
+            closestSignalList = spectrum.pickByClosestShift(spectrumTokens.getShifts()[i], 0, 0.0);
+            closestSignalList.retainAll(spectrum.pickByMultiplicity(spectrumTokens.getMultiplicity(i)));
             signalIndex = closestSignalList.get(0);
 
-            assignment.addAssignmentEquivalence(0, signalIndex, Integer.parseInt(NMRShiftDBSpectrumStringArray[i][3]));
+            assignment.addAssignmentEquivalence(0, signalIndex, spectrumTokens.getAtomIndices()[i]);
         }
 
         return assignment;
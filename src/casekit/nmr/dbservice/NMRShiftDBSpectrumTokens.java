@@ -0,0 +1,430 @@
+package casekit.nmr.dbservice;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Signals of an NMRShiftDB spectrum string like {@code "17.6;0.0Q;9|18.3;0.0T;10|"}, tokenized in a single pass
+ * into primitive arrays. <br>
+ * The common multiplicities s, d, t, q and m are stored as codes, where code 0 means that no multiplicity is given,
+ * any other multiplicity as string of its signal, see {@link #getMultiplicity(int)}. Numbers are parsed without
+ * intermediate strings where this is exact, otherwise by {@link Double#parseDouble(String)}, so the values are
+ * identical to the ones of the former regex-based parsing.
+ */
+@Getter
+public class NMRShiftDBSpectrumTokens {
+
+    private final static int NO_MULTIPLICITY = 0;
+    private final static String[] MULTIPLICITIES = new String[]{null, "s", "d", "t", "q", "m"};
+    // code of multiplicities not in the list above, which are kept per signal
+    private final static int OTHER_MULTIPLICITY = MULTIPLICITIES.length;
+    // powers of ten which are exactly representable as double
+    private final static double[] POWERS_OF_TEN = new double[23];
+    private final static long MAX_EXACT_MANTISSA = 1L
+            << 53;
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i
+                < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i
+                    - 1]
+                    * 10.0;
+        }
+    }
+
+    private final int signalCount;
+    private final double[] shifts;
+    private final double[] intensities;
+    private final int[] multiplicityCodes;
+    private final int[] atomIndices;
+    // multiplicities of the signals with code OTHER_MULTIPLICITY, null if there is none
+    private final String[] otherMultiplicities;
+
+    private NMRShiftDBSpectrumTokens(final int signalCount, final double[] shifts, final double[] intensities,
+                                     final int[] multiplicityCodes, final int[] atomIndices,
+                                     final String[] otherMultiplicities) {
+        this.signalCount = signalCount;
+        this.shifts = shifts;
+        this.intensities = intensities;
+        this.multiplicityCodes = multiplicityCodes;
+        this.atomIndices = atomIndices;
+        this.otherMultiplicities = otherMultiplicities;
+    }
+
+    /**
+     * Tokenizes an NMRShiftDB spectrum string. Signals are separated by {@code |} and consist of the shift, the
+     * intensity directly followed by the multiplicity and the atom index, separated by {@code ;}. Empty signals,
+     * e.g. after a trailing {@code |}, are skipped.
+     *
+     * @param NMRShiftDBSpectrum spectrum string
+     *
+     * @return null if the string is malformed
+     */
+    public static NMRShiftDBSpectrumTokens tokenize(final String NMRShiftDBSpectrum) {
+        final int length = NMRShiftDBSpectrum.length();
+        int capacity = 16;
+        double[] shifts = new double[capacity];
+        double[] intensities = new double[capacity];
+        int[] multiplicityCodes = new int[capacity];
+        int[] atomIndices = new int[capacity];
+        String[] otherMultiplicities = null;
+        int signalCount = 0;
+        int signalStart = 0;
+        int signalEnd, shiftEnd, intensityEnd, atomIndexEnd, multiplicityStart;
+        double shift, intensity;
+        int atomIndex;
+        while (signalStart
+                < length) {
+            signalEnd = indexOf(NMRShiftDBSpectrum, '|', signalStart, length);
+            if (isBlank(NMRShiftDBSpectrum, signalStart, signalEnd)) {
+                signalStart = signalEnd
+                        + 1;
+                continue;
+            }
+            shiftEnd = indexOf(NMRShiftDBSpectrum, ';', signalStart, signalEnd);
+            intensityEnd = indexOf(NMRShiftDBSpectrum, ';', shiftEnd
+                    + 1, signalEnd);
+            if (intensityEnd
+                    >= signalEnd) {
+                return null;
+            }
+            atomIndexEnd = indexOf(NMRShiftDBSpectrum, ';', intensityEnd
+                    + 1, signalEnd);
+            // the multiplicity starts at the first letter after the intensity
+            multiplicityStart = shiftEnd
+                    + 1;
+            while (multiplicityStart
+                    < intensityEnd
+                    && !isLetter(NMRShiftDBSpectrum.charAt(multiplicityStart))) {
+                multiplicityStart++;
+            }
+            shift = parseDouble(NMRShiftDBSpectrum, signalStart, shiftEnd, true);
+            intensity = parseDouble(NMRShiftDBSpectrum, shiftEnd
+                    + 1, multiplicityStart, false);
+            atomIndex = parseInt(NMRShiftDBSpectrum, intensityEnd
+                    + 1, atomIndexEnd);
+            if (Double.isNaN(shift)
+                    || Double.isNaN(intensity)
+                    || atomIndex
+                    < 0) {
+                return null;
+            }
+            if (signalCount
+                    == capacity) {
+                capacity *= 2;
+                shifts = Arrays.copyOf(shifts, capacity);
+                intensities = Arrays.copyOf(intensities, capacity);
+                multiplicityCodes = Arrays.copyOf(multiplicityCodes, capacity);
+                atomIndices = Arrays.copyOf(atomIndices, capacity);
+                if (otherMultiplicities
+                        != null) {
+                    otherMultiplicities = Arrays.copyOf(otherMultiplicities, capacity);
+                }
+            }
+            shifts[signalCount] = shift;
+            intensities[signalCount] = intensity;
+            multiplicityCodes[signalCount] = getMultiplicityCode(NMRShiftDBSpectrum, multiplicityStart, intensityEnd);
+            if (multiplicityCodes[signalCount]
+                    == OTHER_MULTIPLICITY) {
+                if (otherMultiplicities
+                        == null) {
+                    otherMultiplicities = new String[capacity];
+                }
+                otherMultiplicities[signalCount] = NMRShiftDBSpectrum.substring(multiplicityStart, intensityEnd)
+                                                                     .trim()
+                                                                     .toLowerCase();
+            }
+            atomIndices[signalCount] = atomIndex;
+            signalCount++;
+            signalStart = signalEnd
+                    + 1;
+        }
+
+        return new NMRShiftDBSpectrumTokens(signalCount, Arrays.copyOf(shifts, signalCount),
+                                            Arrays.copyOf(intensities, signalCount),
+                                            Arrays.copyOf(multiplicityCodes, signalCount),
+                                            Arrays.copyOf(atomIndices, signalCount),
+                                            otherMultiplicities
+                                                    == null
+                                            ? null
+                                            : Arrays.copyOf(otherMultiplicities, signalCount));
+    }
+
+    /**
+     * @param signalIndex signal index
+     *
+     * @return lower case multiplicity of the signal, or null if not given
+     */
+    public String getMultiplicity(final int signalIndex) {
+        return this.multiplicityCodes[signalIndex]
+                       == OTHER_MULTIPLICITY
+               ? this.otherMultiplicities[signalIndex]
+               : MULTIPLICITIES[this.multiplicityCodes[signalIndex]];
+    }
+
+    private static int getMultiplicityCode(final String text, final int start, final int end) {
+        int trimmedStart = start;
+        int trimmedEnd = end;
+        while (trimmedStart
+                < trimmedEnd
+                && text.charAt(trimmedStart)
+                <= ' ') {
+            trimmedStart++;
+        }
+        while (trimmedEnd
+                > trimmedStart
+                && text.charAt(trimmedEnd
+                                       - 1)
+                <= ' ') {
+            trimmedEnd--;
+        }
+        if (trimmedStart
+                == trimmedEnd) {
+            return NO_MULTIPLICITY;
+        }
+        // the common single letter multiplicities are stored as codes
+        if (trimmedEnd
+                - trimmedStart
+                == 1) {
+            switch (text.charAt(trimmedStart)) {
+                case 's':
+                case 'S':
+                    return 1;
+                case 'd':
+                case 'D':
+                    return 2;
+                case 't':
+                case 'T':
+                    return 3;
+                case 'q':
+                case 'Q':
+                    return 4;
+                case 'm':
+                case 'M':
+                    return 5;
+            }
+        }
+
+        return OTHER_MULTIPLICITY;
+    }
+
+    /**
+     * Parses a decimal number with optional surrounding whitespace and sign like {@link Double#parseDouble(String)}.
+     * The result is computed directly if the mantissa and the power of ten are exactly representable, which
+     * gives the correctly rounded value with a single operation, otherwise the parsing is delegated.
+     *
+     * @param text           text
+     * @param start          start index, inclusive
+     * @param end            end index, exclusive
+     * @param allowExponent  whether an exponent like {@code e-3} is allowed
+     *
+     * @return NaN if the text is no valid number
+     */
+    private static double parseDouble(final String text, final int start, final int end,
+                                      final boolean allowExponent) {
+        int i = start;
+        while (i
+                < end
+                && text.charAt(i)
+                <= ' ') {
+            i++;
+        }
+        final int numberStart = i;
+        boolean negative = false;
+        if (i
+                < end
+                && (text.charAt(i)
+                == '-'
+                || text.charAt(i)
+                == '+')) {
+            negative = text.charAt(i)
+                    == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digitCount = 0;
+        int significantDigitCount = 0;
+        int fractionDigitCount = 0;
+        boolean inFraction = false;
+        char c;
+        for (; i
+                < end; i++) {
+            c = text.charAt(i);
+            if (c
+                    >= '0'
+                    && c
+                    <= '9') {
+                digitCount++;
+                if (mantissa
+                        > 0
+                        || c
+                        != '0') {
+                    significantDigitCount++;
+                }
+                if (significantDigitCount
+                        <= 18) {
+                    mantissa = mantissa
+                            * 10
+                            + (c
+                            - '0');
+                }
+                if (inFraction) {
+                    fractionDigitCount++;
+                }
+            } else if (c
+                    == '.'
+                    && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digitCount
+                == 0) {
+            return Double.NaN;
+        }
+        boolean hasExponent = false;
+        if (i
+                < end
+                && allowExponent
+                && (text.charAt(i)
+                == 'e'
+                || text.charAt(i)
+                == 'E')) {
+            hasExponent = true;
+            i++;
+            if (i
+                    < end
+                    && (text.charAt(i)
+                    == '-'
+                    || text.charAt(i)
+                    == '+')) {
+                i++;
+            }
+            final int exponentStart = i;
+            while (i
+                    < end
+                    && text.charAt(i)
+                    >= '0'
+                    && text.charAt(i)
+                    <= '9') {
+                i++;
+            }
+            if (i
+                    == exponentStart) {
+                return Double.NaN;
+            }
+        }
+        final int numberEnd = i;
+        while (i
+                < end
+                && text.charAt(i)
+                <= ' ') {
+            i++;
+        }
+        if (i
+                != end) {
+            return Double.NaN;
+        }
+        if (hasExponent
+                || significantDigitCount
+                > 18
+                || mantissa
+                > MAX_EXACT_MANTISSA
+                || fractionDigitCount
+                >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text.substring(numberStart, numberEnd));
+        }
+        final double value = mantissa
+                / POWERS_OF_TEN[fractionDigitCount];
+
+        return negative
+               ? -value
+               : value;
+    }
+
+    /**
+     * @return -1 if the text is no valid non-negative integer
+     */
+    private static int parseInt(final String text, final int start, final int end) {
+        int i = start;
+        while (i
+                < end
+                && text.charAt(i)
+                <= ' ') {
+            i++;
+        }
+        long value = 0;
+        int digitCount = 0;
+        char c;
+        for (; i
+                < end; i++) {
+            c = text.charAt(i);
+            if (c
+                    < '0'
+                    || c
+                    > '9') {
+                break;
+            }
+            value = value
+                    * 10
+                    + (c
+                    - '0');
+            digitCount++;
+            if (value
+                    > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        while (i
+                < end
+                && text.charAt(i)
+                <= ' ') {
+            i++;
+        }
+
+        return digitCount
+                       == 0
+                       || i
+                       != end
+               ? -1
+               : (int) value;
+    }
+
+    private static int indexOf(final String text, final char c, final int start, final int end) {
+        for (int i = start; i
+                < end; i++) {
+            if (text.charAt(i)
+                    == c) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    private static boolean isBlank(final String text, final int start, final int end) {
+        for (int i = start; i
+                < end; i++) {
+            if (text.charAt(i)
+                    > ' ') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isLetter(final char c) {
+        return (c
+                >= 'a'
+                && c
+                <= 'z')
+                || (c
+                >= 'A'
+                && c
+                <= 'Z');
+    }
+}
@@ -1,53 +1,33 @@
 package casekit.nmr.dbservice;
 
+import casekit.io.SDFSplitter;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.io.SDFWriter;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
-import org.openscience.cdk.silent.SilentChemObjectBuilder;
 
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class Utils {
 
+    /**
+     * Splits an SD file into files of at most the given number of molecules, named like the input file with a
+     * running number. The raw records are copied without parsing them.
+     *
+     * @param pathToSDFile  path to SD file
+     * @param maxMolPerFile maximum number of molecules per file
+     *
+     * @return number of written files
+     *
+     * @throws IOException
+     * @throws CDKException
+     * @see SDFSplitter#splitByRecordCount(String, long, int)
+     */
     public static int splitSDFile(final String pathToSDFile, final int maxMolPerFile) throws IOException, CDKException {
-        final IteratingSDFReader iterator = new IteratingSDFReader(new FileReader(pathToSDFile),
-                                                                   SilentChemObjectBuilder.getInstance());
-        final String fileEnding = pathToSDFile.split("\\.")[1];
-        BufferedWriter bufferedWriter;
-        SDFWriter sdfWriter;
-        int counter = 0;
-        int part = 1;
-        bufferedWriter = new BufferedWriter(new FileWriter(pathToSDFile.split("\\.")[0]
-                                                                   + "_"
-                                                                   + part
-                                                                   + "."
-                                                                   + fileEnding));
-        sdfWriter = new SDFWriter(bufferedWriter);
-        while (iterator.hasNext()) {
-            if (counter
-                    >= maxMolPerFile) {
-                sdfWriter.close();
-
-                part++;
-                bufferedWriter = new BufferedWriter(new FileWriter(pathToSDFile.split("\\.")[0]
-                                                                           + "_"
-                                                                           + part
-                                                                           + "."
-                                                                           + fileEnding));
-                sdfWriter = new SDFWriter(bufferedWriter);
-                sdfWriter.write(iterator.next());
-                counter = 1;
-            } else {
-                sdfWriter.write(iterator.next());
-            }
-            counter++;
+        try {
+            return SDFSplitter.splitByRecordCount(pathToSDFile, maxMolPerFile, 1)
+                              .size();
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException(e);
         }
-        sdfWriter.close();
-
-        return part
-                - 1;
     }
 }
@@ -0,0 +1,109 @@
+package casekit.nmr.filterandrank;
+
+import casekit.nmr.model.Signal;
+import casekit.nmr.model.Spectrum;
+
+/**
+ * Incremental lower bound of the average deviation of a predicted spectrum while its signals are added one by one,
+ * used to reject a candidate before its prediction is finished. <br>
+ * This is only valid for complete spectral matches, where each predicted signal has to be matched to a query
+ * signal within the shift tolerance: then the deviation of a predicted signal is at least the distance to its
+ * nearest compatible query signal, and the final number of signals is at most the number of signals so far plus
+ * the number of remaining atoms. For incomplete matches, unmatched signals do not count, so no bound exists.
+ *
+ * @see FilterAndRank#checkDataSet(casekit.nmr.model.DataSet, Spectrum, Spectrum, double, double, boolean, boolean,
+ * boolean, casekit.nmr.analysis.MultiplicitySectionsBuilder, boolean, casekit.nmr.elucidation.model.Detections)
+ */
+public class DeviationLowerBound {
+
+    private final Spectrum querySpectrum;
+    private final double shiftTolerance;
+    private final double maxAverageDeviation;
+    private final boolean checkMultiplicity;
+    private int signalCount;
+    private double nearestDistanceSum;
+
+    public DeviationLowerBound(final Spectrum querySpectrum, final double shiftTolerance,
+                               final double maxAverageDeviation, final boolean checkMultiplicity) {
+        this.querySpectrum = querySpectrum;
+        this.shiftTolerance = shiftTolerance;
+        this.maxAverageDeviation = maxAverageDeviation;
+        this.checkMultiplicity = checkMultiplicity;
+        this.signalCount = 0;
+        this.nearestDistanceSum = 0;
+    }
+
+    /**
+     * Adds a new (not equivalent) predicted signal and checks whether the candidate can still pass.
+     *
+     * @param signal             new predicted signal
+     * @param remainingAtomCount number of atoms still to predict
+     *
+     * @return false if the candidate can not pass anymore
+     */
+    public boolean addSignal(final Signal signal, final int remainingAtomCount) {
+        this.signalCount++;
+        // each predicted signal needs its own query signal
+        if (this.signalCount
+                > this.querySpectrum.getSignalCount()) {
+            return false;
+        }
+        final Double nearestDistance = this.findNearestDistance(signal);
+        if (nearestDistance
+                == null) {
+            return false;
+        }
+        this.nearestDistanceSum += nearestDistance;
+
+        return this.nearestDistanceSum
+                / (this.signalCount
+                + remainingAtomCount)
+                <= this.maxAverageDeviation;
+    }
+
+    /**
+     * Returns the distance to the nearest query signal within the shift tolerance. Equivalences counts are not
+     * checked here since they change while atoms are added, which only weakens the bound.
+     *
+     * @param signal predicted signal
+     *
+     * @return null if there is no compatible query signal
+     */
+    private Double findNearestDistance(final Signal signal) {
+        final Double shift = signal.getShift(0);
+        if (shift
+                == null) {
+            return null;
+        }
+        Double nearestDistance = null;
+        Signal querySignal;
+        double distance;
+        for (int i = 0; i
+                < this.querySpectrum.getSignalCount(); i++) {
+            querySignal = this.querySpectrum.getSignal(i);
+            if (this.checkMultiplicity
+                    && !((signal.getMultiplicity()
+                    == null
+                    && querySignal.getMultiplicity()
+                    == null)
+                    || (signal.getMultiplicity()
+                    != null
+                    && signal.getMultiplicity()
+                             .equalsIgnoreCase(querySignal.getMultiplicity())))) {
+                continue;
+            }
+            distance = Math.abs(shift
+                                        - querySignal.getShift(0));
+            if (distance
+                    <= this.shiftTolerance
+                    && (nearestDistance
+                    == null
+                    || distance
+                    < nearestDistance)) {
+                nearestDistance = distance;
+            }
+        }
+
+        return nearestDistance;
+    }
+}
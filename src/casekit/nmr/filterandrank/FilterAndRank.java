@@ -1,17 +1,21 @@
 package casekit.nmr.filterandrank;
 
+import casekit.io.corpus.DataSetCorpus;
+import casekit.io.corpus.SpectrumView;
+import casekit.io.corpus.StructureView;
 import casekit.nmr.analysis.MultiplicitySectionsBuilder;
 import casekit.nmr.elucidation.model.Detections;
 import casekit.nmr.model.Assignment;
 import casekit.nmr.model.DataSet;
 import casekit.nmr.model.Spectrum;
+import casekit.nmr.similarity.SpectralMatch;
 import casekit.nmr.similarity.Similarity;
 import casekit.nmr.utils.Statistics;
 import org.openscience.cdk.fingerprint.BitSetFingerprint;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class FilterAndRank {
@@ -87,9 +91,26 @@ public class FilterAndRank {
                                        final boolean checkEquivalencesCount, final boolean allowLowerEquivalencesCount,
                                        final MultiplicitySectionsBuilder multiplicitySectionsBuilder,
                                        final boolean allowIncompleteMatch, final Detections detections) {
-        final Spectrum spectrum = dataSet.getSpectrum()
-                                         .toSpectrum();
+        return checkDataSet(dataSet, dataSet.getSpectrum()
+                                            .toSpectrum(), querySpectrum, shiftTolerance, maxAverageDeviation,
+                            checkMultiplicity, checkEquivalencesCount, allowLowerEquivalencesCount,
+                            multiplicitySectionsBuilder, allowIncompleteMatch, detections);
+    }
 
+    /**
+     * Same as {@link #checkDataSet(DataSet, Spectrum, double, double, boolean, boolean, boolean,
+     * MultiplicitySectionsBuilder, boolean, Detections)} but with the spectrum of the dataset already given,
+     * e.g. directly after its prediction, which avoids converting it back from its compact form.
+     *
+     * @param dataSet  dataset to check
+     * @param spectrum spectrum of the dataset
+     */
+    public static DataSet checkDataSet(final DataSet dataSet, final Spectrum spectrum, final Spectrum querySpectrum,
+                                       final double shiftTolerance, final double maxAverageDeviation,
+                                       final boolean checkMultiplicity, final boolean checkEquivalencesCount,
+                                       final boolean allowLowerEquivalencesCount,
+                                       final MultiplicitySectionsBuilder multiplicitySectionsBuilder,
+                                       final boolean allowIncompleteMatch, final Detections detections) {
 
         final Assignment spectralMatchAssignment = detections
                                                            != null
@@ -111,19 +132,28 @@ public class FilterAndRank {
         dataSet.addAttachment("isCompleteSpectralMatch", isCompleteSpectralMatch);
         dataSet.addAttachment("spectralMatchAssignment", spectralMatchAssignment);
 
-        Double[] deviations = Similarity.getDeviations(spectrum, querySpectrum, 0, 0, spectralMatchAssignment);
-        if (allowIncompleteMatch) {
-            deviations = Arrays.stream(deviations)
-                               .filter(Objects::nonNull)
-                               .toArray(Double[]::new);
+        final Double[] deviations = Similarity.getDeviations(spectrum, querySpectrum, 0, 0, spectralMatchAssignment);
+        // collect the deviations of matched signals only; unmatched ones are allowed in case of incomplete matches
+        final double[] matchedDeviations = new double[deviations.length];
+        int matchedDeviationsCount = 0;
+        for (final Double deviation : deviations) {
+            if (deviation
+                    != null) {
+                matchedDeviations[matchedDeviationsCount] = deviation;
+                matchedDeviationsCount++;
+            }
         }
-        final Double averageDeviation = Statistics.calculateAverageDeviation(deviations);
+        final Double averageDeviation = allowIncompleteMatch
+                                                || matchedDeviationsCount
+                                                == deviations.length
+                                        ? Statistics.getMean(matchedDeviations, matchedDeviationsCount)
+                                        : null;
         if (averageDeviation
                 != null
                 && averageDeviation
                 <= maxAverageDeviation) {
             dataSet.addAttachment("averageDeviation", averageDeviation);
-            final Double rmsd = Statistics.calculateRMSD(deviations);
+            final Double rmsd = Statistics.getRMSD(matchedDeviations, matchedDeviationsCount);
             dataSet.addAttachment("rmsd", rmsd);
 
             final BitSetFingerprint bitSetFingerprintQuerySpectrum = Similarity.getBitSetFingerprint(querySpectrum, 0,
@@ -140,18 +170,147 @@ public class FilterAndRank {
         return null;
     }
 
-    public static List<DataSet> rank(final List<DataSet> dataSetList) {
-        dataSetList.sort((dataSet1, dataSet2) -> {
-            final int setAssignmentsCountComparison = compareNumericDataSetAttachmentKey(dataSet1, dataSet2,
-                                                                                         "setAssignmentsCount");
-            if (setAssignmentsCountComparison
-                    != 0) {
-                return -1
-                        * setAssignmentsCountComparison;
+    public static List<DataSet> filterAndRank(final DataSetCorpus dataSetCorpus, final Spectrum querySpectrum,
+                                              final double shiftTolerance, final double maxAverageDeviation,
+                                              final boolean checkMultiplicity, final boolean checkEquivalencesCount,
+                                              final boolean allowLowerEquivalencesCount,
+                                              final MultiplicitySectionsBuilder multiplicitySectionsBuilder,
+                                              final boolean allowIncompleteMatch, final Detections detections) {
+        return rank(filter(dataSetCorpus, querySpectrum, shiftTolerance, maxAverageDeviation, checkMultiplicity,
+                           checkEquivalencesCount, allowLowerEquivalencesCount, multiplicitySectionsBuilder,
+                           allowIncompleteMatch, detections));
+    }
+
+    /**
+     * Same as {@link #filter(List, Spectrum, double, double, boolean, boolean, boolean, MultiplicitySectionsBuilder,
+     * boolean, Detections)} but for all datasets of a corpus. The datasets are scored on flyweight views of the
+     * corpus, only the datasets which pass are decoded.
+     *
+     * @param dataSetCorpus corpus to filter
+     * @param detections    detections to use as structural filter, or null
+     *
+     * @return
+     */
+    public static List<DataSet> filter(final DataSetCorpus dataSetCorpus, final Spectrum querySpectrum,
+                                       final double shiftTolerance, final double maxAverageDeviation,
+                                       final boolean checkMultiplicity, final boolean checkEquivalencesCount,
+                                       final boolean allowLowerEquivalencesCount,
+                                       final MultiplicitySectionsBuilder multiplicitySectionsBuilder,
+                                       final boolean allowIncompleteMatch, final Detections detections) {
+        if (querySpectrum.getNDim()
+                == 1
+                && querySpectrum.getNuclei()[0].equals("13C")) {
+            final List<DataSet> dataSetList = new ArrayList<>();
+            final SpectrumView spectrumView = new SpectrumView(dataSetCorpus);
+            final StructureView structureView = detections
+                                                        != null
+                                                ? new StructureView(dataSetCorpus)
+                                                : null;
+            final SpectralMatch spectralMatch = new SpectralMatch();
+            for (int dataSetId = 0; dataSetId
+                    < dataSetCorpus.size(); dataSetId++) {
+                spectrumView.moveTo(dataSetId);
+                if (structureView
+                        != null) {
+                    structureView.moveTo(dataSetId);
+                }
+                if (checkDataSet(spectrumView, structureView, querySpectrum, shiftTolerance, maxAverageDeviation,
+                                 checkMultiplicity, checkEquivalencesCount, allowLowerEquivalencesCount,
+                                 allowIncompleteMatch, detections, spectralMatch)) {
+                    dataSetList.add(buildDataSet(dataSetCorpus, dataSetId, querySpectrum, spectralMatch,
+                                                 multiplicitySectionsBuilder));
+                }
             }
 
-            return compareNumericDataSetAttachmentKey(dataSet1, dataSet2, "averageDeviation");
-        });
+            return dataSetList;
+        }
+
+        return dataSetCorpus.stream()
+                            .collect(Collectors.toList());
+    }
+
+    /**
+     * Same check as {@link #checkDataSet(DataSet, Spectrum, Spectrum, double, double, boolean, boolean, boolean,
+     * MultiplicitySectionsBuilder, boolean, Detections)} but on views of a dataset in a corpus, which allocates
+     * nothing. The matching and the deviations are left in the given spectral match. The Tanimoto coefficient is
+     * not needed for the check and therefore not calculated.
+     *
+     * @param spectrumView  spectrum view of the dataset
+     * @param structureView structure view of the dataset, needed for the detections only
+     * @param spectralMatch spectral match to reuse
+     *
+     * @return whether the dataset passes
+     */
+    public static boolean checkDataSet(final SpectrumView spectrumView, final StructureView structureView,
+                                       final Spectrum querySpectrum, final double shiftTolerance,
+                                       final double maxAverageDeviation, final boolean checkMultiplicity,
+                                       final boolean checkEquivalencesCount, final boolean allowLowerEquivalencesCount,
+                                       final boolean allowIncompleteMatch, final Detections detections,
+                                       final SpectralMatch spectralMatch) {
+        if (!spectrumView.hasSpectrum()
+                || Similarity.matchSpectra(spectrumView, querySpectrum, 0, 0, shiftTolerance, checkMultiplicity,
+                                           checkEquivalencesCount, allowLowerEquivalencesCount, structureView,
+                                           detections, spectralMatch)
+                == null) {
+            return false;
+        }
+        Similarity.calculateDeviations(spectrumView, querySpectrum, 0, 0, spectralMatch);
+        final Double averageDeviation = allowIncompleteMatch
+                                                || spectralMatch.getMatchedDeviationsCount()
+                                                == spectralMatch.getSignalCount()
+                                        ? Statistics.getMean(spectralMatch.getMatchedDeviations(),
+                                                             spectralMatch.getMatchedDeviationsCount())
+                                        : null;
+
+        return averageDeviation
+                != null
+                && averageDeviation
+                <= maxAverageDeviation;
+    }
+
+    private static DataSet buildDataSet(final DataSetCorpus dataSetCorpus, final int dataSetId,
+                                        final Spectrum querySpectrum, final SpectralMatch spectralMatch,
+                                        final MultiplicitySectionsBuilder multiplicitySectionsBuilder) {
+        final DataSet dataSet = dataSetCorpus.get(dataSetId);
+        final Spectrum spectrum = dataSet.getSpectrum()
+                                         .toSpectrum();
+        dataSet.addAttachment("querySpectrumSignalCount", querySpectrum.getSignalCount());
+        dataSet.addAttachment("setAssignmentsCount", spectralMatch.getSetAssignmentsCount());
+        dataSet.addAttachment("isCompleteSpectralMatch", spectrum.getSignalCount()
+                == spectralMatch.getSetAssignmentsCount());
+        dataSet.addAttachment("spectralMatchAssignment", spectralMatch.toAssignment(spectrum.getNuclei(),
+                                                                                    querySpectrum));
+        dataSet.addAttachment("averageDeviation", Statistics.getMean(spectralMatch.getMatchedDeviations(),
+                                                                     spectralMatch.getMatchedDeviationsCount()));
+        dataSet.addAttachment("rmsd", Statistics.getRMSD(spectralMatch.getMatchedDeviations(),
+                                                         spectralMatch.getMatchedDeviationsCount()));
+        final BitSetFingerprint bitSetFingerprintQuerySpectrum = Similarity.getBitSetFingerprint(querySpectrum, 0,
+                                                                                                 multiplicitySectionsBuilder);
+        final BitSetFingerprint bitSetFingerprintDataSet = Similarity.getBitSetFingerprint(spectrum, 0,
+                                                                                           multiplicitySectionsBuilder);
+        dataSet.addAttachment("tanimoto", Similarity.calculateTanimotoCoefficient(bitSetFingerprintQuerySpectrum,
+                                                                                  bitSetFingerprintDataSet));
+
+        return dataSet;
+    }
+
+    /**
+     * Orders datasets by descending number of set assignments first and ascending average deviation second.
+     */
+    public final static Comparator<DataSet> RANK_COMPARATOR = (dataSet1, dataSet2) -> {
+        final int setAssignmentsCountComparison = compareNumericDataSetAttachmentKey(dataSet1, dataSet2,
+                                                                                     "setAssignmentsCount");
+        if (setAssignmentsCountComparison
+                != 0) {
+            return -1
+                    * setAssignmentsCountComparison;
+        }
+
+        return compareNumericDataSetAttachmentKey(dataSet1, dataSet2, "averageDeviation");
+    };
+
+    public static List<DataSet> rank(final List<DataSet> dataSetList) {
+        dataSetList.sort(RANK_COMPARATOR);
 
         return dataSetList;
     }
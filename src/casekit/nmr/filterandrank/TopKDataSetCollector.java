@@ -0,0 +1,91 @@
+package casekit.nmr.filterandrank;
+
+import casekit.nmr.model.DataSet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the k best datasets according to a comparator, e.g. {@link FilterAndRank#RANK_COMPARATOR}, while datasets
+ * are streamed in. Only k datasets are held in memory at once. Datasets which compare equally are ordered by
+ * their arrival, like a stable sort of all datasets would do. Null datasets are ignored.
+ */
+public class TopKDataSetCollector
+        implements Consumer<DataSet> {
+
+    private final int k;
+    private final Comparator<RankedDataSet> comparator;
+    // worst dataset at the head
+    private final PriorityQueue<RankedDataSet> priorityQueue;
+    private long arrivalCounter;
+    private long acceptedCount;
+
+    public TopKDataSetCollector(final int k) {
+        this(k, FilterAndRank.RANK_COMPARATOR);
+    }
+
+    public TopKDataSetCollector(final int k, final Comparator<DataSet> comparator) {
+        this.k = k;
+        this.comparator = Comparator.<RankedDataSet, DataSet>comparing(rankedDataSet -> rankedDataSet.dataSet,
+                                                                       comparator)
+                                    .thenComparingLong(rankedDataSet -> rankedDataSet.arrival);
+        this.priorityQueue = new PriorityQueue<>(Math.max(1, k), this.comparator.reversed());
+        this.arrivalCounter = 0;
+        this.acceptedCount = 0;
+    }
+
+    @Override
+    public synchronized void accept(final DataSet dataSet) {
+        if (dataSet
+                == null
+                || this.k
+                <= 0) {
+            return;
+        }
+        this.acceptedCount++;
+        final RankedDataSet rankedDataSet = new RankedDataSet(dataSet, this.arrivalCounter++);
+        if (this.priorityQueue.size()
+                < this.k) {
+            this.priorityQueue.add(rankedDataSet);
+        } else if (this.comparator.compare(rankedDataSet, this.priorityQueue.peek())
+                < 0) {
+            this.priorityQueue.poll();
+            this.priorityQueue.add(rankedDataSet);
+        }
+    }
+
+    /**
+     * @return the collected datasets, best first
+     */
+    public synchronized List<DataSet> getDataSets() {
+        final List<RankedDataSet> rankedDataSets = new ArrayList<>(this.priorityQueue);
+        rankedDataSets.sort(this.comparator);
+        final List<DataSet> dataSetList = new ArrayList<>(rankedDataSets.size());
+        for (final RankedDataSet rankedDataSet : rankedDataSets) {
+            dataSetList.add(rankedDataSet.dataSet);
+        }
+
+        return dataSetList;
+    }
+
+    /**
+     * @return number of all non-null datasets passed to this collector
+     */
+    public synchronized long getAcceptedCount() {
+        return this.acceptedCount;
+    }
+
+    private static class RankedDataSet {
+
+        private final DataSet dataSet;
+        private final long arrival;
+
+        RankedDataSet(final DataSet dataSet, final long arrival) {
+            this.dataSet = dataSet;
+            this.arrival = arrival;
+        }
+    }
+}
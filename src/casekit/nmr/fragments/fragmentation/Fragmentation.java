@@ -63,6 +63,7 @@ public class Fragmentation {
             subspectrum.setNuclei(dataSet.getSpectrum()
                                          .getNuclei());
             subspectrum.setSignals(new ArrayList<>());
+            subspectrum.enableShiftIndex();
             subassignment = new Assignment();
             subassignment.setNuclei(subspectrum.getNuclei());
             subassignment.initAssignments(0);
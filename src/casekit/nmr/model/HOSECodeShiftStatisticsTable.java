@@ -0,0 +1,144 @@
+package casekit.nmr.model;
+
+import casekit.nmr.utils.Statistics;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HOSE code shift statistics per solvent together with solvent-merged statistics per HOSE code,
+ * which are precomputed once when the table is created. <br>
+ * Both use the same array layout: count, minimum, mean, median, maximum.
+ * For the solvent-merged statistics, the count is the sum of all counts, the mean is the count-weighted mean
+ * and the median is the mean of the solvent medians. <br>
+ * Each table gets a unique version number when it is created. Additionally, each table has a statistics
+ * identifier, which is stable across JVM runs if it was given, e.g. derived from the statistics file, or otherwise
+ * unique to the table and this JVM run.
+ */
+@Getter
+public class HOSECodeShiftStatisticsTable {
+
+    private final static AtomicLong VERSION_COUNTER = new AtomicLong();
+    private final static String RUN_ID = UUID.randomUUID()
+                                             .toString();
+
+    private final long version;
+    private final String statisticsId;
+    private final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics;
+    private final Map<String, Double[]> solventMergedStatistics;
+
+    /**
+     * @param hoseCodeShiftStatistics HOSE code shift statistics per solvent
+     */
+    public HOSECodeShiftStatisticsTable(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        this(hoseCodeShiftStatistics, null);
+    }
+
+    /**
+     * @param hoseCodeShiftStatistics HOSE code shift statistics per solvent
+     * @param statisticsId            stable identifier of the statistics content, or null
+     */
+    public HOSECodeShiftStatisticsTable(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+                                        final String statisticsId) {
+        this.version = VERSION_COUNTER.incrementAndGet();
+        this.statisticsId = statisticsId
+                                    == null
+                            ? "v"
+                + this.version
+                + "@"
+                + RUN_ID
+                            : statisticsId;
+        this.hoseCodeShiftStatistics = hoseCodeShiftStatistics;
+        this.solventMergedStatistics = new HashMap<>(hoseCodeShiftStatistics.size());
+        for (final Map.Entry<String, Map<String, Double[]>> entry : hoseCodeShiftStatistics.entrySet()) {
+            this.solventMergedStatistics.put(entry.getKey(), buildSolventMergedStatistics(entry.getValue()));
+        }
+    }
+
+    /**
+     * Merges the statistics of all solvents of a HOSE code.
+     *
+     * @param statisticsPerSolvent statistics per solvent
+     *
+     * @return merged statistics; null if no solvent entry is given
+     */
+    public static Double[] buildSolventMergedStatistics(final Map<String, Double[]> statisticsPerSolvent) {
+        if (statisticsPerSolvent
+                == null
+                || statisticsPerSolvent.isEmpty()) {
+            return null;
+        }
+        final List<Double> medians = new ArrayList<>(statisticsPerSolvent.size());
+        int count = 0;
+        double weightedSum = 0;
+        Double min = null;
+        Double max = null;
+        for (final Double[] statistics : statisticsPerSolvent.values()) {
+            medians.add(statistics[3]);
+            count += statistics[0].intValue();
+            weightedSum += statistics[0]
+                    * statistics[2];
+            min = min
+                          == null
+                  ? statistics[1]
+                  : Double.min(min, statistics[1]);
+            max = max
+                          == null
+                  ? statistics[4]
+                  : Double.max(max, statistics[4]);
+        }
+
+        final Double mean = count
+                                    > 0
+                            ? weightedSum
+                / count
+                            : null;
+
+        return new Double[]{(double) count, min, mean, Statistics.getMean(medians), max};
+    }
+
+    public boolean containsHOSECode(final String hoseCode) {
+        return this.hoseCodeShiftStatistics.containsKey(hoseCode);
+    }
+
+    /**
+     * @param hoseCode HOSE code
+     *
+     * @return statistics per solvent; null if the HOSE code is not contained
+     */
+    public Map<String, Double[]> getStatistics(final String hoseCode) {
+        return this.hoseCodeShiftStatistics.get(hoseCode);
+    }
+
+    /**
+     * @param hoseCode HOSE code
+     * @param solvent  solvent
+     *
+     * @return statistics for that solvent; null if the HOSE code or solvent is not contained
+     */
+    public Double[] getStatistics(final String hoseCode, final String solvent) {
+        final Map<String, Double[]> statisticsPerSolvent = this.hoseCodeShiftStatistics.get(hoseCode);
+        return statisticsPerSolvent
+                       == null
+               ? null
+               : statisticsPerSolvent.get(solvent);
+    }
+
+    /**
+     * @param hoseCode HOSE code
+     *
+     * @return precomputed solvent-merged statistics; null if the HOSE code is not contained
+     */
+    public Double[] getSolventMergedStatistics(final String hoseCode) {
+        return this.solventMergedStatistics.get(hoseCode);
+    }
+
+    public int size() {
+        return this.hoseCodeShiftStatistics.size();
+    }
+}
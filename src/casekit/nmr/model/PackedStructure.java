@@ -0,0 +1,410 @@
+package casekit.nmr.model;
+
+import casekit.nmr.utils.Utils;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IAtomType;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.silent.Atom;
+import org.openscience.cdk.silent.Bond;
+import org.openscience.cdk.silent.PseudoAtom;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Packed representation of a {@link StructureCompact} in a few primitive arrays, for keeping large numbers of
+ * structures in memory. <br>
+ * The atom properties are stored in byte columns, one column per property in the order of
+ * {@link StructureCompact#getAtomProperties()}, with {@link #NO_VALUE} for missing values. The bonds are stored in
+ * compressed sparse row layout: the bonds of an atom, i.e. to atoms with higher index as in a structure compact, are
+ * found between its offset and the offset of the next atom, with their partner atom, bond order, ring and aromatic
+ * flags and stereo configuration. <br>
+ * The conversion from and to a structure compact is lossless. Structures with property values out of the byte
+ * range, ragged atom properties or bond properties of unexpected length can not be packed.
+ */
+public class PackedStructure {
+
+    /**
+     * Value of missing properties.
+     */
+    public final static int NO_VALUE = Integer.MIN_VALUE;
+    private final static byte NULL_BYTE = Byte.MIN_VALUE;
+    private final static byte IN_RING = 1;
+    private final static byte AROMATIC = 1
+            << 1;
+    private final static byte HAS_STEREO = 1
+            << 2;
+    private final static IAtomType.Hybridization[] HYBRIDIZATIONS = IAtomType.Hybridization.values();
+    private final static IBond.Stereo[] STEREOS = IBond.Stereo.values();
+
+    private final int atomCount;
+    private final int propertyCount;
+    // property columns one after another, i.e. property p of atom i at p * atomCount + i
+    private final byte[] atomProperties;
+    // bonds of atom i from bondOffsets[i] to bondOffsets[i + 1]
+    private final int[] bondOffsets;
+    private final int[] bondPartners;
+    private final byte[] bondOrders;
+    private final byte[] bondFlags;
+    private final byte[] bondStereos;
+
+    /**
+     * @param structureCompact structure to pack
+     *
+     * @throws IllegalArgumentException if the structure can not be packed
+     */
+    public PackedStructure(final StructureCompact structureCompact) {
+        final Integer[][] atomPropertiesCompact = structureCompact.getAtomProperties();
+        final int[][][] bondPropertiesCompact = structureCompact.getBondProperties();
+        this.atomCount = atomPropertiesCompact.length;
+        if (bondPropertiesCompact.length
+                != this.atomCount) {
+            throw new IllegalArgumentException("Bond properties for "
+                                                       + bondPropertiesCompact.length
+                                                       + " atoms but "
+                                                       + this.atomCount
+                                                       + " atoms given");
+        }
+        this.propertyCount = this.atomCount
+                                     > 0
+                             ? atomPropertiesCompact[0].length
+                             : 0;
+        this.atomProperties = new byte[this.atomCount
+                * this.propertyCount];
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            if (atomPropertiesCompact[i].length
+                    != this.propertyCount) {
+                throw new IllegalArgumentException("Ragged atom properties at atom "
+                                                           + i);
+            }
+            for (int p = 0; p
+                    < this.propertyCount; p++) {
+                this.atomProperties[p
+                        * this.atomCount
+                        + i] = toByte(atomPropertiesCompact[i][p]);
+            }
+        }
+        this.bondOffsets = new int[this.atomCount
+                + 1];
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            this.bondOffsets[i
+                    + 1] = this.bondOffsets[i]
+                    + bondPropertiesCompact[i].length;
+        }
+        final int bondCount = this.bondOffsets[this.atomCount];
+        this.bondPartners = new int[bondCount];
+        this.bondOrders = new byte[bondCount];
+        this.bondFlags = new byte[bondCount];
+        this.bondStereos = new byte[bondCount];
+        int bondIndex = 0;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            for (final int[] bond : bondPropertiesCompact[i]) {
+                if (bond.length
+                        != 4
+                        && bond.length
+                        != 5) {
+                    throw new IllegalArgumentException("Unexpected bond properties at atom "
+                                                               + i
+                                                               + ": "
+                                                               + Arrays.toString(bond));
+                }
+                this.bondPartners[bondIndex] = bond[0];
+                this.bondOrders[bondIndex] = toByte(bond[1]);
+                this.bondFlags[bondIndex] = (byte) (toFlag(bond[2], IN_RING)
+                        | toFlag(bond[3], AROMATIC)
+                        | (bond.length
+                                   == 5
+                           ? HAS_STEREO
+                           : 0));
+                this.bondStereos[bondIndex] = bond.length
+                                                      == 5
+                                              ? toByte(bond[4])
+                                              : 0;
+                bondIndex++;
+            }
+        }
+    }
+
+    public int atomCount() {
+        return this.atomCount;
+    }
+
+    public int bondCount() {
+        return this.bondOffsets[this.atomCount];
+    }
+
+    /**
+     * @param atomIndex     atom index
+     * @param propertyIndex property index, see {@link StructureCompact#getAtomProperties()}
+     *
+     * @return property value, or {@link #NO_VALUE} if not given
+     */
+    public int getAtomProperty(final int atomIndex, final int propertyIndex) {
+        this.checkAtomIndex(atomIndex);
+        if (propertyIndex
+                < 0
+                || propertyIndex
+                >= this.propertyCount) {
+            return NO_VALUE;
+        }
+
+        return toInt(this.atomProperties[propertyIndex
+                * this.atomCount
+                + atomIndex]);
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return atomic number, -1 for pseudo atoms
+     */
+    public int getAtomicNumber(final int atomIndex) {
+        return this.getAtomProperty(atomIndex, 0);
+    }
+
+    /**
+     * @param atomIndex atom index
+     *
+     * @return number of bonds stored at an atom, i.e. to atoms with higher index
+     */
+    public int getBondCount(final int atomIndex) {
+        this.checkAtomIndex(atomIndex);
+
+        return this.bondOffsets[atomIndex
+                + 1]
+                - this.bondOffsets[atomIndex];
+    }
+
+    /**
+     * @param atomIndex atom index
+     * @param bondIndex index of the bond stored at the atom
+     *
+     * @return index of the connected atom
+     */
+    public int getBondPartner(final int atomIndex, final int bondIndex) {
+        return this.bondPartners[this.getBond(atomIndex, bondIndex)];
+    }
+
+    public int getBondOrder(final int atomIndex, final int bondIndex) {
+        return toInt(this.bondOrders[this.getBond(atomIndex, bondIndex)]);
+    }
+
+    public boolean isBondInRing(final int atomIndex, final int bondIndex) {
+        return (this.bondFlags[this.getBond(atomIndex, bondIndex)]
+                & IN_RING)
+                != 0;
+    }
+
+    public boolean isBondAromatic(final int atomIndex, final int bondIndex) {
+        return (this.bondFlags[this.getBond(atomIndex, bondIndex)]
+                & AROMATIC)
+                != 0;
+    }
+
+    /**
+     * @param atomIndex atom index
+     * @param bondIndex index of the bond stored at the atom
+     *
+     * @return stereo configuration, {@link IBond.Stereo#NONE} if not given
+     */
+    public IBond.Stereo getBondStereo(final int atomIndex, final int bondIndex) {
+        final int bond = this.getBond(atomIndex, bondIndex);
+
+        return (this.bondFlags[bond]
+                & HAS_STEREO)
+                       != 0
+               ? STEREOS[toInt(this.bondStereos[bond])]
+               : IBond.Stereo.NONE;
+    }
+
+    /**
+     * Unpacks this structure.
+     *
+     * @return structure compact equal to the packed one
+     */
+    public StructureCompact toStructureCompact() {
+        final Integer[][] atomPropertiesCompact = new Integer[this.atomCount][this.propertyCount];
+        int value;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            for (int p = 0; p
+                    < this.propertyCount; p++) {
+                value = this.getAtomProperty(i, p);
+                atomPropertiesCompact[i][p] = value
+                                                      == NO_VALUE
+                                              ? null
+                                              : value;
+            }
+        }
+        final int[][][] bondPropertiesCompact = new int[this.atomCount][][];
+        int bond;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            bondPropertiesCompact[i] = new int[this.bondOffsets[i
+                    + 1]
+                    - this.bondOffsets[i]][];
+            for (int k = 0; k
+                    < bondPropertiesCompact[i].length; k++) {
+                bond = this.bondOffsets[i]
+                        + k;
+                bondPropertiesCompact[i][k] = (this.bondFlags[bond]
+                        & HAS_STEREO)
+                                                      != 0
+                                              ? new int[]{this.bondPartners[bond], toInt(this.bondOrders[bond]),
+                                                          this.getFlag(bond, IN_RING), this.getFlag(bond, AROMATIC),
+                                                          toInt(this.bondStereos[bond])}
+                                              : new int[]{this.bondPartners[bond], toInt(this.bondOrders[bond]),
+                                                          this.getFlag(bond, IN_RING), this.getFlag(bond, AROMATIC)};
+            }
+        }
+
+        return new StructureCompact(bondPropertiesCompact, atomPropertiesCompact);
+    }
+
+    /**
+     * Builds the atom container like {@link StructureCompact#toAtomContainer()}, without unpacking this structure.
+     *
+     * @return
+     */
+    public IAtomContainer toAtomContainer() {
+        final IAtomContainer ac = SilentChemObjectBuilder.getInstance()
+                                                         .newAtomContainer();
+        IAtom atom;
+        int hybridization;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            atom = this.getAtomicNumber(i)
+                           == -1
+                   ? new PseudoAtom("R")
+                   : new Atom(this.getAtomicNumber(i));
+            hybridization = this.getAtomProperty(i, 1);
+            atom.setHybridization(hybridization
+                                          == -1
+                                          || hybridization
+                                          == NO_VALUE
+                                  ? null
+                                  : HYBRIDIZATIONS[hybridization]);
+            atom.setImplicitHydrogenCount(this.getIntegerAtomProperty(i, 2));
+            atom.setValency(this.getIntegerAtomProperty(i, 3));
+            atom.setFormalCharge(this.getIntegerAtomProperty(i, 4));
+            atom.setIsInRing(this.getAtomProperty(i, 5)
+                                     == 1);
+            atom.setIsAromatic(this.getAtomProperty(i, 6)
+                                       == 1);
+
+            ac.addAtom(atom);
+        }
+        IBond bond;
+        for (int i = 0; i
+                < this.atomCount; i++) {
+            for (int k = 0; k
+                    < this.getBondCount(i); k++) {
+                bond = new Bond(ac.getAtom(i), ac.getAtom(this.getBondPartner(i, k)),
+                                Utils.getBondOrder(this.getBondOrder(i, k)));
+                bond.setIsInRing(this.isBondInRing(i, k));
+                bond.setIsAromatic(this.isBondAromatic(i, k));
+                bond.setStereo(this.getBondStereo(i, k));
+                ac.addBond(bond);
+            }
+        }
+
+        return ac;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedStructure{"
+                + "atomCount="
+                + this.atomCount
+                + ", bondCount="
+                + this.bondCount()
+                + '}';
+    }
+
+    private Integer getIntegerAtomProperty(final int atomIndex, final int propertyIndex) {
+        final int value = this.getAtomProperty(atomIndex, propertyIndex);
+
+        return value
+                       == NO_VALUE
+               ? null
+               : value;
+    }
+
+    private int getFlag(final int bond, final byte flag) {
+        return (this.bondFlags[bond]
+                & flag)
+                       != 0
+               ? 1
+               : 0;
+    }
+
+    private int getBond(final int atomIndex, final int bondIndex) {
+        if (bondIndex
+                < 0
+                || bondIndex
+                >= this.getBondCount(atomIndex)) {
+            throw new IndexOutOfBoundsException("bond index "
+                                                        + bondIndex
+                                                        + " out of range for atom "
+                                                        + atomIndex);
+        }
+
+        return this.bondOffsets[atomIndex]
+                + bondIndex;
+    }
+
+    private void checkAtomIndex(final int atomIndex) {
+        if (atomIndex
+                < 0
+                || atomIndex
+                >= this.atomCount) {
+            throw new IndexOutOfBoundsException("atom index "
+                                                        + atomIndex
+                                                        + " out of range [0, "
+                                                        + this.atomCount
+                                                        + ")");
+        }
+    }
+
+    private static byte toByte(final Integer value) {
+        if (value
+                == null) {
+            return NULL_BYTE;
+        }
+        if (value
+                <= NULL_BYTE
+                || value
+                > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Property value out of byte range: "
+                                                       + value);
+        }
+
+        return (byte) value.intValue();
+    }
+
+    private static byte toFlag(final int value, final byte flag) {
+        if (value
+                != 0
+                && value
+                != 1) {
+            throw new IllegalArgumentException("Unexpected bond flag value: "
+                                                       + value);
+        }
+
+        return value
+                       == 1
+               ? flag
+               : 0;
+    }
+
+    private static int toInt(final byte value) {
+        return value
+                       == NULL_BYTE
+               ? NO_VALUE
+               : value;
+    }
+}
@@ -28,7 +28,7 @@
  */
 package casekit.nmr.model;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -37,10 +37,15 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 /**
+ * Optionally, a sorted shift index per dimension and a multiplicity index can be enabled via
+ * {@link #enableShiftIndex()}, which speeds up the equivalence search while adding signals and the picking of
+ * signals by shift from linear to logarithmic time. The index is updated when signals are added and rebuilt on
+ * demand after other changes of the signal list via this class. Shifts or multiplicities of signals which are
+ * already in the spectrum must not be changed while the index is enabled.
+ *
  * @author Michael Wenk [https://github.com/michaelwenk]
  */
 @NoArgsConstructor
-@AllArgsConstructor
 @Getter
 @Setter
 public class Spectrum {
@@ -49,6 +54,113 @@ public class Spectrum {
     private Map<String, String> meta;
     private List<Signal> signals;
     private int signalCount;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient boolean shiftIndexEnabled;
+    // signal indices in ascending order per shift, one map per dimension
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient List<TreeMap<Double, List<Integer>>> shiftIndex;
+    // signal indices in ascending order per multiplicity
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Map<String, List<Integer>> multiplicityIndex;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient int indexedSignalCount;
+
+    public Spectrum(final String[] nuclei, final Map<String, String> meta, final List<Signal> signals,
+                    final int signalCount) {
+        this.nuclei = nuclei;
+        this.meta = meta;
+        this.signals = signals;
+        this.signalCount = signalCount;
+    }
+
+    public void setNuclei(final String[] nuclei) {
+        this.nuclei = nuclei;
+        this.invalidateShiftIndex();
+    }
+
+    public void setSignals(final List<Signal> signals) {
+        this.signals = signals;
+        this.invalidateShiftIndex();
+    }
+
+    /**
+     * Enables the sorted shift and multiplicity index, which is built on first use.
+     */
+    public void enableShiftIndex() {
+        this.shiftIndexEnabled = true;
+    }
+
+    public void disableShiftIndex() {
+        this.shiftIndexEnabled = false;
+        this.invalidateShiftIndex();
+    }
+
+    public boolean hasShiftIndex() {
+        return this.shiftIndexEnabled;
+    }
+
+    private void invalidateShiftIndex() {
+        this.shiftIndex = null;
+        this.multiplicityIndex = null;
+        this.indexedSignalCount = 0;
+    }
+
+    /**
+     * Returns whether the index is enabled and up to date, and rebuilds it if needed. Changes of the signal list
+     * which do not go through this class are detected by its size only.
+     *
+     * @return
+     */
+    private boolean validateShiftIndex() {
+        if (!this.shiftIndexEnabled
+                || this.signals
+                == null
+                || this.nuclei
+                == null) {
+            return false;
+        }
+        if (this.shiftIndex
+                == null
+                || this.indexedSignalCount
+                != this.signals.size()) {
+            this.shiftIndex = new ArrayList<>(this.nuclei.length);
+            for (int dim = 0; dim
+                    < this.nuclei.length; dim++) {
+                this.shiftIndex.add(new TreeMap<>());
+            }
+            this.multiplicityIndex = new HashMap<>();
+            this.indexedSignalCount = 0;
+            for (int s = 0; s
+                    < this.signals.size(); s++) {
+                this.addToShiftIndex(s);
+            }
+        }
+
+        return true;
+    }
+
+    private void addToShiftIndex(final int signalIndex) {
+        final Signal signal = this.signals.get(signalIndex);
+        Double shift;
+        for (int dim = 0; dim
+                < this.shiftIndex.size(); dim++) {
+            shift = signal.getShift(dim);
+            // signals without shift can not be picked by shift
+            if (shift
+                    != null) {
+                this.shiftIndex.get(dim)
+                               .computeIfAbsent(shift, key -> new ArrayList<>(1))
+                               .add(signalIndex);
+            }
+        }
+        this.multiplicityIndex.computeIfAbsent(signal.getMultiplicity(), key -> new ArrayList<>(1))
+                              .add(signalIndex);
+        this.indexedSignalCount++;
+    }
 
     public void addMetaInfo(final String key, final String value) {
         if (this.meta
@@ -98,9 +210,17 @@ public class Spectrum {
                 || !this.compareNuclei(signal.getNuclei())) {
             return false;
         }
+        final boolean upToDate = this.shiftIndex
+                                         != null
+                && this.indexedSignalCount
+                == this.signals.size();
         // add signal at the end of signal list
         this.signals.add(signal);
         this.signalCount++;
+        if (upToDate) {
+            this.addToShiftIndex(this.signals.size()
+                                         - 1);
+        }
 
         return true;
     }
@@ -145,7 +265,10 @@ public class Spectrum {
             closestSignalIndexList.retainAll(this.pickByClosestShift(signal.getShift(dim), dim, pickPrecisions[dim]));
         }
         if (checkMultiplicity) {
-            closestSignalIndexList.retainAll(this.pickByMultiplicity(signal.getMultiplicity()));
+            // check the few candidates directly instead of picking all signals by multiplicity
+            closestSignalIndexList.removeIf(closestSignalIndex -> !Objects.equals(this.getSignal(closestSignalIndex)
+                                                                                      .getMultiplicity(),
+                                                                                  signal.getMultiplicity()));
         }
 
         return closestSignalIndexList;
@@ -198,6 +321,7 @@ public class Spectrum {
         if (this.signals.remove(signalIndex)
                 != null) {
             this.signalCount--;
+            this.invalidateShiftIndex();
 
             return true;
         }
@@ -244,6 +368,7 @@ public class Spectrum {
         }
 
         this.signals.set(signalIndex, signal);
+        this.invalidateShiftIndex();
 
         return true;
     }
@@ -324,6 +449,9 @@ public class Spectrum {
      * @return
      */
     public List<Integer> pickByMultiplicity(final String multiplicity) {
+        if (this.validateShiftIndex()) {
+            return new ArrayList<>(this.multiplicityIndex.getOrDefault(multiplicity, Collections.emptyList()));
+        }
         final List<Integer> matchIndices = new ArrayList<>();
         for (int s = 0; s
                 < this.getSignalCount(); s++) {
@@ -360,6 +488,9 @@ public class Spectrum {
         if (!this.containsDim(dim)) {
             return matchIndices;
         }
+        if (this.validateShiftIndex()) {
+            return this.pickByClosestShiftFromIndex(shift, dim, pickPrecision);
+        }
         double minDiff = pickPrecision;
         // detect the minimal difference between a signal shift to the given query shift
         for (int s = 0; s
@@ -383,6 +514,63 @@ public class Spectrum {
         return matchIndices;
     }
 
+    /**
+     * Same as the linear search in {@link #pickByClosestShift(double, int, double)}: the indices of all signals
+     * with the minimal distance to the query shift, in ascending order, if that distance is within the pick
+     * precision. Since the distance grows monotonically with the distance of the keys to the query shift, the
+     * keys next to the query shift are visited only.
+     */
+    private List<Integer> pickByClosestShiftFromIndex(final double shift, final int dim,
+                                                      final double pickPrecision) {
+        final TreeMap<Double, List<Integer>> index = this.shiftIndex.get(dim);
+        final Double lowerKey = index.floorKey(shift);
+        final Double higherKey = index.higherKey(shift);
+        double minDiff = Double.POSITIVE_INFINITY;
+        if (lowerKey
+                != null
+                && Math.abs(lowerKey
+                                    - shift)
+                < minDiff) {
+            minDiff = Math.abs(lowerKey
+                                       - shift);
+        }
+        if (higherKey
+                != null
+                && Math.abs(higherKey
+                                    - shift)
+                < minDiff) {
+            minDiff = Math.abs(higherKey
+                                       - shift);
+        }
+        final List<Integer> matchIndices = new ArrayList<>();
+        if (!(minDiff
+                <= pickPrecision)) {
+            return matchIndices;
+        }
+        for (final Map.Entry<Double, List<Integer>> entry : index.headMap(shift, true)
+                                                                 .descendingMap()
+                                                                 .entrySet()) {
+            if (Math.abs(entry.getKey()
+                                 - shift)
+                    != minDiff) {
+                break;
+            }
+            matchIndices.addAll(entry.getValue());
+        }
+        for (final Map.Entry<Double, List<Integer>> entry : index.tailMap(shift, false)
+                                                                 .entrySet()) {
+            if (Math.abs(entry.getKey()
+                                 - shift)
+                    != minDiff) {
+                break;
+            }
+            matchIndices.addAll(entry.getValue());
+        }
+        Collections.sort(matchIndices);
+
+        return matchIndices;
+    }
+
     /**
      * Returns a list of signal indices within the interval defined by
      * pickPrecision. That list is sorted by the distances to the query shift.
@@ -399,12 +587,38 @@ public class Spectrum {
         if (!this.containsDim(dim)) {
             return pickedSignals;
         }
-        for (int s = 0; s
-                < this.getSignalCount(); s++) {
-            if (Math.abs(this.getShift(s, dim)
-                                 - shift)
-                    <= pickPrecision) {
-                pickedSignals.add(s);
+        if (this.validateShiftIndex()) {
+            final TreeMap<Double, List<Integer>> index = this.shiftIndex.get(dim);
+            // visit the keys outwards from the query shift as long as they are within the pick precision
+            for (final Map.Entry<Double, List<Integer>> entry : index.headMap(shift, true)
+                                                                     .descendingMap()
+                                                                     .entrySet()) {
+                if (!(Math.abs(entry.getKey()
+                                       - shift)
+                        <= pickPrecision)) {
+                    break;
+                }
+                pickedSignals.addAll(entry.getValue());
+            }
+            for (final Map.Entry<Double, List<Integer>> entry : index.tailMap(shift, false)
+                                                                     .entrySet()) {
+                if (!(Math.abs(entry.getKey()
+                                       - shift)
+                        <= pickPrecision)) {
+                    break;
+                }
+                pickedSignals.addAll(entry.getValue());
+            }
+            // ascending signal indices as tie-breaker of the stable sort below
+            Collections.sort(pickedSignals);
+        } else {
+            for (int s = 0; s
+                    < this.getSignalCount(); s++) {
+                if (Math.abs(this.getShift(s, dim)
+                                     - shift)
+                        <= pickPrecision) {
+                    pickedSignals.add(s);
+                }
             }
         }
         // sort signal indices by distance to query shift
@@ -420,6 +634,9 @@ public class Spectrum {
         clone.setNuclei(this.getNuclei()
                             .clone());
         clone.setSignals(new ArrayList<>());
+        if (this.shiftIndexEnabled) {
+            clone.enableShiftIndex();
+        }
         for (int i = 0; i
                 < this.getSignalCount(); i++) {
             clone.addSignal(this.getSignal(i)
@@ -0,0 +1,499 @@
+package casekit.nmr.prediction;
+
+import casekit.io.compression.CompressedFiles;
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.HOSECodeShiftStatisticsTable;
+import casekit.nmr.model.SpectrumCompact;
+import casekit.nmr.prediction.model.BulkPredictionProgress;
+import casekit.nmr.utils.Utils;
+import casekit.threading.MultiThreading;
+import com.google.gson.Gson;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.MDLV2000Reader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Bulk prediction of 1D spectra for whole structure libraries, given as SDF or SMILES file (one SMILES per line,
+ * optionally followed by a whitespace and an identifier). <br>
+ * Records are streamed from the input file, parsed and predicted on a worker pool and written to the output file
+ * in input order as JSON lines, one line per record, including records which could not be predicted. Progress is
+ * checkpointed regularly next to the output file, so a crashed or interrupted job continues after the last
+ * checkpoint when run again with the same files. The throughput is reported to a progress listener while running.
+ */
+public class BulkPrediction {
+
+    private final static Gson GSON = new Gson();
+    private final static String CHECKPOINT_FILE_EXTENSION = ".checkpoint";
+    private final static String SDF_RECORD_DELIMITER = "$$$$";
+
+    private final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable;
+    private final String[] nuclei;
+    private final String solvent;
+    private final int nThreads;
+    private boolean overwrite;
+    private int checkpointInterval;
+    private long reportIntervalMillis;
+    private Consumer<BulkPredictionProgress> progressListener;
+
+    /**
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param nuclei                       nuclei to predict the spectra for
+     * @param solvent                      solvent
+     * @param nThreads                     number of threads to use
+     */
+    public BulkPrediction(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable, final String[] nuclei,
+                          final String solvent, final int nThreads) {
+        this.hoseCodeShiftStatisticsTable = hoseCodeShiftStatisticsTable;
+        this.nuclei = nuclei;
+        this.solvent = solvent;
+        this.nThreads = Math.max(1, nThreads);
+        this.overwrite = false;
+        this.checkpointInterval = 1000;
+        this.reportIntervalMillis = 10000;
+        this.progressListener = progress -> {
+        };
+    }
+
+    /**
+     * @param overwrite whether to replace an existing output file if there is no checkpoint to continue from
+     */
+    public void setOverwrite(final boolean overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * @param checkpointInterval number of written records between two checkpoints
+     */
+    public void setCheckpointInterval(final int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * @param reportIntervalMillis minimum time between two progress reports in milliseconds
+     */
+    public void setReportIntervalMillis(final long reportIntervalMillis) {
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    /**
+     * @param progressListener listener to report the progress to, called on the calling thread
+     */
+    public void setProgressListener(final Consumer<BulkPredictionProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Runs the bulk prediction. If a checkpoint of a previous run exists, the output file is truncated to the state
+     * of that checkpoint and the job continues with the next record. The checkpoint file is deleted after the job
+     * finished. Without a checkpoint, an existing output file, e.g. of a finished job, is only replaced if
+     * overwriting is enabled, see {@link #setOverwrite(boolean)}.
+     *
+     * @param pathToInputFile  path to SDF (.sdf, .sd or .mol) or SMILES file
+     * @param pathToOutputFile path to JSON lines output file
+     *
+     * @return final progress
+     *
+     * @throws IOException          if reading, writing or checkpointing fails, or if the output file exists without
+     *                              checkpoint and overwriting is disabled
+     * @throws InterruptedException if the calling thread was interrupted; the last checkpoint stays valid
+     */
+    public BulkPredictionProgress run(final String pathToInputFile,
+                                      final String pathToOutputFile) throws IOException, InterruptedException {
+        final Path outputPath = Paths.get(pathToOutputFile);
+        final Path checkpointPath = Paths.get(pathToOutputFile
+                                                      + CHECKPOINT_FILE_EXTENSION);
+        final Checkpoint checkpoint = readCheckpoint(checkpointPath);
+        if (checkpoint.recordCount
+                == 0
+                && Files.exists(outputPath)) {
+            if (!this.overwrite) {
+                throw new IOException("Output file "
+                                              + pathToOutputFile
+                                              + " already exists and there is no checkpoint to continue from");
+            }
+            Files.delete(outputPath);
+        }
+        final boolean sdf = isSDF(pathToInputFile);
+        final long startTime = System.currentTimeMillis();
+
+        try (final RecordReader recordReader = new RecordReader(
+                CompressedFiles.newReader(pathToInputFile), sdf);
+             final FileOutputStream fileOutputStream = new FileOutputStream(pathToOutputFile, true)) {
+            // discard everything written after the last checkpoint
+            final FileChannel outputChannel = fileOutputStream.getChannel();
+            outputChannel.truncate(checkpoint.outputLength);
+            outputChannel.position(checkpoint.outputLength);
+            for (long i = 0; i
+                    < checkpoint.recordCount; i++) {
+                if (!recordReader.hasNext()) {
+                    throw new IOException("Checkpoint does not match input file "
+                                                  + pathToInputFile);
+                }
+                recordReader.next();
+            }
+
+            final OutputStream outputStream = new BufferedOutputStream(fileOutputStream, 1
+                    << 16);
+            final OrderedWriter orderedWriter = new OrderedWriter(outputStream, outputChannel, checkpointPath,
+                                                                  checkpoint, startTime);
+            final Iterator<Callable<Result>> callables = new Iterator<Callable<Result>>() {
+                @Override
+                public boolean hasNext() {
+                    return recordReader.hasNext();
+                }
+
+                @Override
+                public Callable<Result> next() {
+                    final Record record = recordReader.next();
+                    return () -> BulkPrediction.this.predict(record);
+                }
+            };
+            try {
+                // in input order, so at most four results per thread wait for a slow record
+                MultiThreading.processTasks(callables, orderedWriter, this.nThreads, this.nThreads
+                        * 4, 5, true);
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+            orderedWriter.writeCheckpoint();
+            Files.deleteIfExists(checkpointPath);
+
+            final BulkPredictionProgress progress = orderedWriter.buildProgress();
+            progress.setFinished(true);
+            this.reportProgress(progress);
+
+            return progress;
+        }
+    }
+
+    private void reportProgress(final BulkPredictionProgress progress) {
+        if (this.progressListener
+                != null) {
+            this.progressListener.accept(progress);
+        }
+    }
+
+    private static boolean isSDF(final String pathToInputFile) {
+        final String fileName = CompressedFiles.stripCompressionFileEnding(pathToInputFile)
+                                               .toLowerCase(Locale.ROOT);
+        return fileName.endsWith(".sdf")
+                || fileName.endsWith(".sd")
+                || fileName.endsWith(".mol");
+    }
+
+    /**
+     * Parses and predicts one record. Runs on a worker thread.
+     *
+     * @param record input record
+     *
+     * @return result with the JSON line to write
+     */
+    private Result predict(final Record record) {
+        final OutputRecord outputRecord = new OutputRecord();
+        outputRecord.index = record.index;
+        try {
+            final IAtomContainer structure;
+            if (record.sdf) {
+                try (final MDLV2000Reader mdlv2000Reader = new MDLV2000Reader(new StringReader(record.text))) {
+                    structure = mdlv2000Reader.read(SilentChemObjectBuilder.getInstance()
+                                                                           .newAtomContainer());
+                }
+                outputRecord.id = structure.getTitle();
+                // before the prediction adds explicit hydrogens
+                outputRecord.smiles = Utils.getSmilesFromAtomContainer(structure);
+            } else {
+                final String[] split = record.text.trim()
+                                                  .split("\\s+", 2);
+                outputRecord.smiles = split[0];
+                outputRecord.id = split.length
+                                          > 1
+                                  ? split[1]
+                                  : null;
+                structure = new SmilesParser(SilentChemObjectBuilder.getInstance()).parseSmiles(split[0]);
+            }
+            final Map<String, DataSet> predictions = Prediction.predict1D(this.hoseCodeShiftStatisticsTable,
+                                                                          structure, this.nuclei, this.solvent);
+            if (predictions
+                    == null) {
+                outputRecord.error = "prediction failed";
+            } else {
+                outputRecord.predictions = new LinkedHashMap<>();
+                for (final Map.Entry<String, DataSet> entry : predictions.entrySet()) {
+                    outputRecord.predictions.put(entry.getKey(), new PredictedSpectrum(entry.getValue()
+                                                                                            .getSpectrum(),
+                                                                                       entry.getValue()
+                                                                                            .getAssignment()));
+                }
+            }
+        } catch (final CDKException | IOException | RuntimeException e) {
+            outputRecord.error = e.getClass()
+                                  .getSimpleName()
+                    + ": "
+                    + e.getMessage();
+        }
+
+        return new Result(record.index, (GSON.toJson(outputRecord)
+                + "\n").getBytes(StandardCharsets.UTF_8), outputRecord.error
+                                                                  != null);
+    }
+
+    private static Checkpoint readCheckpoint(final Path checkpointPath) throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return new Checkpoint(0, 0);
+        }
+        final Checkpoint checkpoint = GSON.fromJson(new String(Files.readAllBytes(checkpointPath),
+                                                               StandardCharsets.UTF_8), Checkpoint.class);
+        if (checkpoint
+                == null) {
+            throw new IOException("Invalid checkpoint file "
+                                          + checkpointPath);
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Writes the results, which come in input order, and checkpoints regularly. Runs on the calling thread.
+     */
+    private class OrderedWriter
+            implements Consumer<Result> {
+
+        private final OutputStream outputStream;
+        private final FileChannel outputChannel;
+        private final Path checkpointPath;
+        private final long resumedCount;
+        private final long startTime;
+        private long nextIndex;
+        private long outputLength;
+        private long writtenCount;
+        private long failedCount;
+        private long lastReportTime;
+
+        OrderedWriter(final OutputStream outputStream, final FileChannel outputChannel, final Path checkpointPath,
+                      final Checkpoint checkpoint, final long startTime) {
+            this.outputStream = outputStream;
+            this.outputChannel = outputChannel;
+            this.checkpointPath = checkpointPath;
+            this.resumedCount = checkpoint.recordCount;
+            this.startTime = startTime;
+            this.nextIndex = checkpoint.recordCount;
+            this.outputLength = checkpoint.outputLength;
+            this.writtenCount = 0;
+            this.failedCount = 0;
+            this.lastReportTime = startTime;
+        }
+
+        @Override
+        public void accept(final Result result) {
+            if (result.index
+                    != this.nextIndex) {
+                throw new IllegalStateException("Result of record "
+                                                        + result.index
+                                                        + " out of order, expected record "
+                                                        + this.nextIndex);
+            }
+            try {
+                this.outputStream.write(result.line);
+                this.outputLength += result.line.length;
+                this.nextIndex++;
+                this.writtenCount++;
+                if (result.failed) {
+                    this.failedCount++;
+                }
+                if (this.writtenCount
+                        % BulkPrediction.this.checkpointInterval
+                        == 0) {
+                    this.writeCheckpoint();
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final long now = System.currentTimeMillis();
+            if (now
+                    - this.lastReportTime
+                    >= BulkPrediction.this.reportIntervalMillis) {
+                this.lastReportTime = now;
+                BulkPrediction.this.reportProgress(this.buildProgress());
+            }
+        }
+
+        /**
+         * Flushes the output to disk and then replaces the checkpoint file atomically.
+         *
+         * @throws IOException
+         */
+        void writeCheckpoint() throws IOException {
+            this.outputStream.flush();
+            this.outputChannel.force(false);
+            final Path tempPath = Paths.get(this.checkpointPath
+                                                    + ".tmp");
+            Files.write(tempPath, GSON.toJson(new Checkpoint(this.nextIndex, this.outputLength))
+                                      .getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempPath, this.checkpointPath, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, this.checkpointPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        BulkPredictionProgress buildProgress() {
+            return new BulkPredictionProgress(this.resumedCount, this.writtenCount, this.failedCount,
+                                              System.currentTimeMillis()
+                                                      - this.startTime, false);
+        }
+    }
+
+    /**
+     * Splits the input into records without parsing them, i.e. lines of a SMILES file or molfile blocks of an SDF
+     * file. Empty lines of SMILES files are skipped.
+     */
+    private static class RecordReader
+            implements Iterator<Record>, Closeable {
+
+        private final BufferedReader bufferedReader;
+        private final boolean sdf;
+        private Record nextRecord;
+        private long index;
+
+        RecordReader(final BufferedReader bufferedReader, final boolean sdf) {
+            this.bufferedReader = bufferedReader;
+            this.sdf = sdf;
+            this.index = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.nextRecord
+                    == null) {
+                try {
+                    this.nextRecord = this.readRecord();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return this.nextRecord
+                    != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Record record = this.nextRecord;
+            this.nextRecord = null;
+
+            return record;
+        }
+
+        private Record readRecord() throws IOException {
+            String line;
+            if (!this.sdf) {
+                while ((line = this.bufferedReader.readLine())
+                        != null) {
+                    if (!line.trim()
+                             .isEmpty()) {
+                        return new Record(this.index++, line, false);
+                    }
+                }
+                return null;
+            }
+            final StringBuilder stringBuilder = new StringBuilder();
+            boolean hasContent = false;
+            while ((line = this.bufferedReader.readLine())
+                    != null) {
+                if (line.trim()
+                        .equals(SDF_RECORD_DELIMITER)) {
+                    return new Record(this.index++, stringBuilder.toString(), true);
+                }
+                stringBuilder.append(line)
+                             .append('\n');
+                if (!line.trim()
+                         .isEmpty()) {
+                    hasContent = true;
+                }
+            }
+            // last record without delimiter
+            return hasContent
+                   ? new Record(this.index++, stringBuilder.toString(), true)
+                   : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.bufferedReader.close();
+        }
+    }
+
+    private static class Record {
+
+        private final long index;
+        private final String text;
+        private final boolean sdf;
+
+        Record(final long index, final String text, final boolean sdf) {
+            this.index = index;
+            this.text = text;
+            this.sdf = sdf;
+        }
+    }
+
+    private static class Result {
+
+        private final long index;
+        private final byte[] line;
+        private final boolean failed;
+
+        Result(final long index, final byte[] line, final boolean failed) {
+            this.index = index;
+            this.line = line;
+            this.failed = failed;
+        }
+    }
+
+    private static class Checkpoint {
+
+        // number of records written to the output
+        private final long recordCount;
+        // length of the output file in bytes after these records
+        private final long outputLength;
+
+        Checkpoint(final long recordCount, final long outputLength) {
+            this.recordCount = recordCount;
+            this.outputLength = outputLength;
+        }
+    }
+
+    private static class OutputRecord {
+
+        private long index;
+        private String id;
+        private String smiles;
+        private Map<String, PredictedSpectrum> predictions;
+        private String error;
+    }
+
+    private static class PredictedSpectrum {
+
+        private final SpectrumCompact spectrum;
+        private final Assignment assignment;
+
+        PredictedSpectrum(final SpectrumCompact spectrum, final Assignment assignment) {
+            this.spectrum = spectrum;
+            this.assignment = assignment;
+        }
+    }
+}
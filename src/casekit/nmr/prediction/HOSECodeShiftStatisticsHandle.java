@@ -0,0 +1,152 @@
+package casekit.nmr.prediction;
+
+import casekit.nmr.analysis.HOSECodeShiftStatistics;
+import casekit.nmr.model.HOSECodeShiftStatisticsTable;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Versioned handle to a HOSE code shift statistics table for long-running prediction services. <br>
+ * New tables are loaded in a background thread and swapped in atomically afterwards (read-copy-update).
+ * Callers take the current table via {@link #acquire()} once per request and keep using it until the request
+ * is done, i.e. in-flight predictions finish on the table they started with, while new requests already get the
+ * new one. The previous table is released as soon as no request references it anymore.
+ */
+public class HOSECodeShiftStatisticsHandle
+        implements Closeable {
+
+    private final AtomicReference<HOSECodeShiftStatisticsTable> current;
+    private final ExecutorService loader;
+    private final List<Consumer<HOSECodeShiftStatisticsTable>> swapListeners;
+    private CompletableFuture<HOSECodeShiftStatisticsTable> pendingReload;
+    // path or source of the pending reload
+    private Object pendingReloadSource;
+
+    public HOSECodeShiftStatisticsHandle(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable) {
+        this.current = new AtomicReference<>(hoseCodeShiftStatisticsTable);
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "hosecode-statistics-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.swapListeners = new CopyOnWriteArrayList<>();
+    }
+
+    public HOSECodeShiftStatisticsHandle(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        this(new HOSECodeShiftStatisticsTable(hoseCodeShiftStatistics));
+    }
+
+    /**
+     * Returns the current table. Keep the returned reference for the whole request instead of calling this
+     * method repeatedly.
+     *
+     * @return current table
+     */
+    public HOSECodeShiftStatisticsTable acquire() {
+        return this.current.get();
+    }
+
+    /**
+     * @return version of the current table
+     */
+    public long getVersion() {
+        return this.current.get()
+                           .getVersion();
+    }
+
+    /**
+     * Replaces the current table by the given one.
+     *
+     * @param hoseCodeShiftStatisticsTable new table
+     *
+     * @return previous table
+     */
+    public HOSECodeShiftStatisticsTable swap(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable) {
+        final HOSECodeShiftStatisticsTable previous = this.current.getAndSet(hoseCodeShiftStatisticsTable);
+        for (final Consumer<HOSECodeShiftStatisticsTable> swapListener : this.swapListeners) {
+            swapListener.accept(hoseCodeShiftStatisticsTable);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Reads the HOSE code shift statistics file in the background and swaps the new table in afterwards.
+     * While a reload of the same file is still running, further calls return that pending reload instead of
+     * parsing twice. A reload of another file runs after the pending one, so the last requested file wins. <br>
+     * The new table gets the statistics ID derived from the file, so caches keyed by it stay valid across reloads
+     * of the same file.
+     *
+     * @param pathToJsonFile path to HOSE code shift statistics file
+     *
+     * @return future of the new table, completed after it was swapped in
+     *
+     * @see HOSECodeShiftStatistics#readHOSECodeShiftStatisticsTable(String)
+     */
+    public CompletableFuture<HOSECodeShiftStatisticsTable> reload(final String pathToJsonFile) {
+        return this.reload(pathToJsonFile,
+                           () -> HOSECodeShiftStatistics.readHOSECodeShiftStatisticsTable(pathToJsonFile));
+    }
+
+    /**
+     * Loads HOSE code shift statistics from given source in the background and swaps the new table in afterwards.
+     * While a reload of the same source is still running, further calls return that pending reload. A reload of
+     * another source runs after the pending one, so the last requested source wins.
+     *
+     * @param source source of the new HOSE code shift statistics
+     *
+     * @return future of the new table, completed after it was swapped in
+     */
+    public CompletableFuture<HOSECodeShiftStatisticsTable> reload(
+            final Callable<Map<String, Map<String, Double[]>>> source) {
+        return this.reload(source, () -> new HOSECodeShiftStatisticsTable(source.call()));
+    }
+
+    private synchronized CompletableFuture<HOSECodeShiftStatisticsTable> reload(
+            final Object sourceKey, final Callable<HOSECodeShiftStatisticsTable> source) {
+        if (this.pendingReload
+                != null
+                && !this.pendingReload.isDone()
+                && sourceKey.equals(this.pendingReloadSource)) {
+            return this.pendingReload;
+        }
+        // the loader runs one reload after the other in submission order
+        this.pendingReloadSource = sourceKey;
+        this.pendingReload = CompletableFuture.supplyAsync(() -> {
+            try {
+                final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable = source.call();
+                this.swap(hoseCodeShiftStatisticsTable);
+
+                return hoseCodeShiftStatisticsTable;
+            } catch (final CompletionException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, this.loader);
+
+        return this.pendingReload;
+    }
+
+    /**
+     * Adds a listener which is called with the new table after each swap, e.g. to invalidate caches.
+     *
+     * @param swapListener listener
+     */
+    public void addSwapListener(final Consumer<HOSECodeShiftStatisticsTable> swapListener) {
+        this.swapListeners.add(swapListener);
+    }
+
+    /**
+     * Stops the background loader. A running reload is cancelled.
+     */
+    @Override
+    public void close() {
+        this.loader.shutdownNow();
+    }
+}
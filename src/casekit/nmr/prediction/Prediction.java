@@ -26,14 +26,17 @@ package casekit.nmr.prediction;
 
 import casekit.nmr.analysis.MultiplicitySectionsBuilder;
 import casekit.nmr.elucidation.model.Detections;
+import casekit.nmr.filterandrank.DeviationLowerBound;
 import casekit.nmr.filterandrank.FilterAndRank;
+import casekit.nmr.filterandrank.TopKDataSetCollector;
 import casekit.nmr.fragments.model.ConnectionTree;
-import casekit.nmr.fragments.model.ConnectionTreeNode;
 import casekit.nmr.hose.HOSECodeBuilder;
 import casekit.nmr.model.*;
 import casekit.nmr.utils.Statistics;
 import casekit.nmr.utils.Utils;
+import casekit.threading.ManagedExecutor;
 import casekit.threading.MultiThreading;
+import casekit.threading.model.BatchReport;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
@@ -45,12 +48,18 @@ import org.openscience.nmrshiftdb.util.AtomUtils;
 import org.openscience.nmrshiftdb.util.ExtendedHOSECodeGenerator;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author Michael Wenk [https://github.com/michaelwenk]
@@ -58,6 +67,8 @@ import java.util.function.Consumer;
 public class Prediction {
 
     private final static ExtendedHOSECodeGenerator extendedHOSECodeGenerator = new ExtendedHOSECodeGenerator();
+    // bound of queued candidates per thread in streaming mode
+    private final static int STREAMING_TASKS_PER_THREAD = 4;
 
     /**
      * Diastereotopic distinctions are not provided yet.
@@ -71,19 +82,159 @@ public class Prediction {
      */
     public static DataSet predict1D(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
                                     final IAtomContainer structure, final String nucleus, final String solvent) {
+        return predict1D(hoseCode -> {
+            final Map<String, Double[]> statisticsPerSolvent = hoseCodeShiftStatistics.get(hoseCode);
+            return statisticsPerSolvent
+                           == null
+                   ? null
+                   : statisticsPerSolvent.get(solvent);
+        }, structure, nucleus, solvent);
+    }
+
+    /**
+     * Diastereotopic distinctions are not provided yet.
+     *
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param structure                    structure to use for prediction
+     * @param nucleus                      nucleus to predict the spectrum for
+     * @param solvent                      solvent
+     *
+     * @return
+     *
+     * @see #predict1D(Map, IAtomContainer, String, String)
+     */
+    public static DataSet predict1D(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                    final IAtomContainer structure, final String nucleus, final String solvent) {
+        return predict1D(hoseCode -> hoseCodeShiftStatisticsTable.getStatistics(hoseCode, solvent), structure,
+                         nucleus, solvent);
+    }
+
+    /**
+     * Same as {@link #predict1D(HOSECodeShiftStatisticsTable, IAtomContainer, String, String)}, but takes the
+     * dataset from the given cache if the structure was predicted before with the same statistics. Note that the
+     * structure is not changed in case of a cache hit.
+     *
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param structure                    structure to use for prediction
+     * @param nucleus                      nucleus to predict the spectrum for
+     * @param solvent                      solvent
+     * @param predictionCache              prediction cache
+     *
+     * @return
+     */
+    public static DataSet predict1D(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                    final IAtomContainer structure, final String nucleus, final String solvent,
+                                    final PredictionCache predictionCache) {
+        final PredictionCache.Key key = PredictionCache.buildKey(structure, false, nucleus, solvent, "predict1D",
+                                                                 hoseCodeShiftStatisticsTable.getStatisticsId());
+        return predictionCache.computeIfAbsent(key, () -> predict1D(hoseCodeShiftStatisticsTable, structure,
+                                                                    nucleus, solvent));
+    }
+
+    /**
+     * Predicts the 1D spectra of several nuclei in one pass over the structure, i.e. the structure is prepared
+     * only once and the connection trees of each atom are built only once. The results are identical to separate
+     * calls of {@link #predict1D(Map, IAtomContainer, String, String)} per nucleus. <br>
+     * Diastereotopic distinctions are not provided yet.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics
+     * @param structure               structure to use for prediction
+     * @param nuclei                  nuclei to predict the spectra for
+     * @param solvent                 solvent
+     *
+     * @return predictions per nucleus in the given order, or null if the prediction failed
+     */
+    public static Map<String, DataSet> predict1D(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+                                                 final IAtomContainer structure, final String[] nuclei,
+                                                 final String solvent) {
+        return predict1D(hoseCode -> {
+            final Map<String, Double[]> statisticsPerSolvent = hoseCodeShiftStatistics.get(hoseCode);
+            return statisticsPerSolvent
+                           == null
+                   ? null
+                   : statisticsPerSolvent.get(solvent);
+        }, structure, nuclei, solvent);
+    }
+
+    /**
+     * Predicts the 1D spectra of several nuclei in one pass over the structure.
+     *
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param structure                    structure to use for prediction
+     * @param nuclei                       nuclei to predict the spectra for
+     * @param solvent                      solvent
+     *
+     * @return predictions per nucleus in the given order, or null if the prediction failed
+     *
+     * @see #predict1D(Map, IAtomContainer, String[], String)
+     */
+    public static Map<String, DataSet> predict1D(final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                 final IAtomContainer structure, final String[] nuclei,
+                                                 final String solvent) {
+        return predict1D(hoseCode -> hoseCodeShiftStatisticsTable.getStatistics(hoseCode, solvent), structure,
+                         nuclei, solvent);
+    }
+
+    /**
+     * @param statisticsLookup returns the statistics of a HOSE code for the requested solvent, or null
+     * @param structure        structure to use for prediction
+     * @param nucleus          nucleus to predict the spectrum for
+     * @param solvent          solvent
+     *
+     * @return
+     */
+    private static DataSet predict1D(final Function<String, Double[]> statisticsLookup,
+                                     final IAtomContainer structure, final String nucleus, final String solvent) {
+        final Map<String, DataSet> predictions = predict1D(statisticsLookup, structure, new String[]{nucleus},
+                                                           solvent);
+        return predictions
+                       == null
+               ? null
+               : predictions.get(nucleus);
+    }
+
+    /**
+     * @param statisticsLookup returns the statistics of a HOSE code for the requested solvent, or null
+     * @param structure        structure to use for prediction
+     * @param nuclei           nuclei to predict the spectra for
+     * @param solvent          solvent
+     *
+     * @return predictions per nucleus in the given order, or null if the prediction failed
+     */
+    private static Map<String, DataSet> predict1D(final Function<String, Double[]> statisticsLookup,
+                                                  final IAtomContainer structure, final String[] nuclei,
+                                                  final String solvent) {
         final int minMatchingSphere = 1;
-        final Spectrum spectrum = new Spectrum();
-        spectrum.setNuclei(new String[]{nucleus});
-        spectrum.addMetaInfo("solvent", solvent);
-        spectrum.setSignals(new ArrayList<>());
-        final Assignment assignment = new Assignment();
-        assignment.setNuclei(spectrum.getNuclei());
-        assignment.initAssignments(0);
+        // spectrum and assignment per atom type, each atom belongs to at most one of them
+        final Map<String, String> nucleusPerAtomType = new LinkedHashMap<>();
+        final Map<String, Spectrum> spectrumPerAtomType = new HashMap<>();
+        final Map<String, Assignment> assignmentPerAtomType = new HashMap<>();
+        String atomTypeSpectrum;
+        Spectrum spectrum;
+        Assignment assignment;
+        for (final String nucleus : nuclei) {
+            atomTypeSpectrum = Utils.getAtomTypeFromNucleus(nucleus);
+            if (nucleusPerAtomType.containsKey(atomTypeSpectrum)) {
+                continue;
+            }
+            spectrum = new Spectrum();
+            spectrum.setNuclei(new String[]{nucleus});
+            spectrum.addMetaInfo("solvent", solvent);
+            spectrum.setSignals(new ArrayList<>());
+            spectrum.enableShiftIndex();
+            assignment = new Assignment();
+            assignment.setNuclei(spectrum.getNuclei());
+            assignment.initAssignments(0);
+            nucleusPerAtomType.put(atomTypeSpectrum, nucleus);
+            spectrumPerAtomType.put(atomTypeSpectrum, spectrum);
+            assignmentPerAtomType.put(atomTypeSpectrum, assignment);
+        }
 
         final CDKHydrogenAdder hydrogenAdder = CDKHydrogenAdder.getInstance(SilentChemObjectBuilder.getInstance());
-        String hoseCode, atomTypeSpectrum;
+        String hoseCode;
         Signal signal;
         Double shift;
+        Double[] statistics;
         Integer addedSignalIndex;
         ConnectionTree connectionTree;
 
@@ -96,42 +247,43 @@ public class Prediction {
 
             for (int i = 0; i
                     < structure.getAtomCount(); i++) {
-                atomTypeSpectrum = Utils.getAtomTypeFromNucleus(nucleus);
-                if (structure.getAtom(i)
-                             .getSymbol()
-                             .equals(atomTypeSpectrum)) {
-                    connectionTree = HOSECodeBuilder.buildConnectionTree(structure, i, null);
-                    shift = null;
-                    for (int s = connectionTree.getMaxSphere(true); s
-                            >= minMatchingSphere; s--) {
-                        hoseCode = HOSECodeBuilder.buildHOSECode(structure, i, s, false);
-                        if (hoseCodeShiftStatistics.containsKey(hoseCode)
-                                && hoseCodeShiftStatistics.get(hoseCode)
-                                                          .containsKey(solvent)) {
-                            shift = hoseCodeShiftStatistics.get(hoseCode)
-                                                           .get(solvent)[3]; // take median value
-                            break;
-                        }
-                    }
-                    signal = new Signal();
-                    signal.setNuclei(spectrum.getNuclei());
-                    signal.setEquivalencesCount(1);
-                    if (atomTypeSpectrum.equals("C")) {
-                        signal.setMultiplicity(Utils.getMultiplicityFromProtonsCount(
-                                AtomContainerManipulator.countHydrogens(structure, structure.getAtom(i))));
+                atomTypeSpectrum = structure.getAtom(i)
+                                            .getSymbol();
+                if (!nucleusPerAtomType.containsKey(atomTypeSpectrum)) {
+                    continue;
+                }
+                spectrum = spectrumPerAtomType.get(atomTypeSpectrum);
+                assignment = assignmentPerAtomType.get(atomTypeSpectrum);
+                connectionTree = HOSECodeBuilder.buildConnectionTree(structure, i, null);
+                shift = null;
+                for (int s = connectionTree.getMaxSphere(true); s
+                        >= minMatchingSphere; s--) {
+                    hoseCode = HOSECodeBuilder.buildHOSECode(structure, i, s, false);
+                    statistics = statisticsLookup.apply(hoseCode);
+                    if (statistics
+                            != null) {
+                        shift = statistics[3]; // take median value
+                        break;
                     }
+                }
+                signal = new Signal();
+                signal.setNuclei(spectrum.getNuclei());
+                signal.setEquivalencesCount(1);
+                if (atomTypeSpectrum.equals("C")) {
+                    signal.setMultiplicity(Utils.getMultiplicityFromProtonsCount(
+                            AtomContainerManipulator.countHydrogens(structure, structure.getAtom(i))));
+                }
 
-                    signal.setKind("signal");
-                    signal.setShifts(new Double[]{shift});
-                    addedSignalIndex = spectrum.addSignal(signal);
-                    if (addedSignalIndex
-                            == null
-                            || addedSignalIndex
-                            >= assignment.getSetAssignmentsCount(0)) {
-                        assignment.addAssignment(0, new int[]{i});
-                    } else {
-                        assignment.addAssignmentEquivalence(0, addedSignalIndex, i);
-                    }
+                signal.setKind("signal");
+                signal.setShifts(new Double[]{shift});
+                addedSignalIndex = spectrum.addSignal(signal);
+                if (addedSignalIndex
+                        == null
+                        || addedSignalIndex
+                        >= assignment.getSetAssignmentsCount(0)) {
+                    assignment.addAssignment(0, new int[]{i});
+                } else {
+                    assignment.addAssignmentEquivalence(0, addedSignalIndex, i);
                 }
             }
         } catch (final CDKException e) {
@@ -139,7 +291,19 @@ public class Prediction {
             return null;
         }
 
-        return new DataSet(structure, spectrum, assignment, new HashMap<>(), new HashMap<>());
+        final Map<String, DataSet> predictions = new LinkedHashMap<>();
+        for (final String nucleus : nuclei) {
+            atomTypeSpectrum = Utils.getAtomTypeFromNucleus(nucleus);
+            if (!nucleus.equals(nucleusPerAtomType.get(atomTypeSpectrum))) {
+                // another nucleus of the same element was requested before
+                continue;
+            }
+            predictions.put(nucleus, new DataSet(structure, spectrumPerAtomType.get(atomTypeSpectrum),
+                                                 assignmentPerAtomType.get(atomTypeSpectrum), new HashMap<>(),
+                                                 new HashMap<>()));
+        }
+
+        return predictions;
     }
 
     /**
@@ -161,8 +325,9 @@ public class Prediction {
     public static DataSet predict2D(final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
                                     final IAtomContainer structure, final String[] nuclei, final String solvent,
                                     final int minPathLength, final int maxPathLength) {
-        final DataSet predictionDim1 = predict1D(hoseCodeShiftStatistics, structure, nuclei[0], solvent);
-        final DataSet predictionDim2 = predict1D(hoseCodeShiftStatistics, structure, nuclei[1], solvent);
+        final Map<String, DataSet> predictions = predict1D(hoseCodeShiftStatistics, structure, nuclei, solvent);
+        final DataSet predictionDim1 = predictions.get(nuclei[0]);
+        final DataSet predictionDim2 = predictions.get(nuclei[1]);
         return Prediction.predict2D(structure, predictionDim1.getSpectrum()
                                                              .toSpectrum(), predictionDim2.getSpectrum()
                                                                                           .toSpectrum(),
@@ -173,7 +338,8 @@ public class Prediction {
     /**
      * Predicts a 2D spectrum from two 1D spectra. <br>
      * Each 1D spectra needs to contain the same solvent information. <br>
-     * Note: If 1H is used then it needs to be in first dimension, e.g. 1H, 13C.
+     * Note: If 1H is used then it needs to be in first dimension, e.g. 1H, 13C. <br>
+     * Atom pairs with missing 1D shifts are skipped.
      *
      * @param structure      structure to use for prediction
      * @param spectrumDim1   1D spectrum of first dimension
@@ -194,72 +360,13 @@ public class Prediction {
                                              .get("solvent"))) {
             return null;
         }
-        final String[] nuclei2D = new String[]{spectrumDim1.getNuclei()[0], spectrumDim2.getNuclei()[0]};
-        final String atomTypeDim1 = casekit.nmr.utils.Utils.getAtomTypeFromNucleus(spectrumDim1.getNuclei()[0]);
-        final String atomTypeDim2 = casekit.nmr.utils.Utils.getAtomTypeFromNucleus(spectrumDim2.getNuclei()[0]);
-
-        final Spectrum predictedSpectrum2D = new Spectrum();
-        predictedSpectrum2D.setNuclei(nuclei2D);
-        predictedSpectrum2D.setSignals(new ArrayList<>());
-        predictedSpectrum2D.addMetaInfo("solvent", spectrumDim1.getMeta()
-                                                               .get("solvent"));
-        final Assignment assignment2D = new Assignment();
-        assignment2D.setNuclei(predictedSpectrum2D.getNuclei());
-        assignment2D.initAssignments(0);
-
-        Signal signal2D;
-        IAtom atom;
-        Double shiftDim1, shiftDim2;
-        int addedSignalIndex;
-        ConnectionTree connectionTree;
-        List<ConnectionTreeNode> nodesInSphere;
-        List<Integer> signalIndicesDim1, signalIndicesDim2;
-        for (int i = 0; i
-                < structure.getAtomCount(); i++) {
-            atom = structure.getAtom(i);
-            if (atom.getSymbol()
-                    .equals(atomTypeDim1)) {
-                connectionTree = HOSECodeBuilder.buildConnectionTree(structure, i, maxPathLength);
-                for (int s = minPathLength; s
-                        <= connectionTree.getMaxSphere(false); s++) {
-                    nodesInSphere = connectionTree.getNodesInSphere(s, false);
-                    for (final ConnectionTreeNode nodeInSphere : nodesInSphere) {
-                        if (nodeInSphere.getAtom()
-                                        .getSymbol()
-                                        .equals(atomTypeDim2)) {
-                            signal2D = new Signal();
-                            signal2D.setNuclei(nuclei2D);
-                            signal2D.setKind("signal");
-                            signal2D.setEquivalencesCount(1);
-                            // on first axis go through all possible assignments, i.e. in case of 1H
-                            signalIndicesDim1 = assignmentDim1.getIndices(0, i);
-                            for (final int signalIndexDim1 : signalIndicesDim1) {
-                                shiftDim1 = spectrumDim1.getShift(signalIndexDim1, 0);
-                                // on second axis go through all possible assignments, i.e. in case of 1H
-                                signalIndicesDim2 = assignmentDim2.getIndices(0, nodeInSphere.getKey());
-                                for (final int signalIndexDim2 : signalIndicesDim2) {
-                                    shiftDim2 = spectrumDim2.getShift(signalIndexDim2, 0);
-                                    signal2D.setShifts(new Double[]{shiftDim1, shiftDim2});
-                                    // add 2D signal
-                                    addedSignalIndex = predictedSpectrum2D.addSignal(signal2D);
-                                    if (addedSignalIndex
-                                            >= assignment2D.getSetAssignmentsCount(0)) {
-                                        assignment2D.addAssignment(0, new int[]{i});
-                                        assignment2D.addAssignment(1, new int[]{nodeInSphere.getKey()});
-                                    } else {
-                                        assignment2D.addAssignmentEquivalence(0, addedSignalIndex, i);
-                                        assignment2D.addAssignmentEquivalence(1, addedSignalIndex,
-                                                                              nodeInSphere.getKey());
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
+        final Prediction2DEngine prediction2DEngine = new Prediction2DEngine(structure, maxPathLength);
+        final String name = "2D";
 
-        return new DataSet(structure, predictedSpectrum2D, assignment2D, new HashMap<>(), new HashMap<>());
+        return prediction2DEngine.predict2D(spectrumDim1, assignmentDim1, Collections.singletonList(
+                                                  new Prediction2DEngine.Experiment(name, spectrumDim2, assignmentDim2,
+                                                                                    minPathLength, maxPathLength)))
+                                 .get(name);
     }
 
     public static DataSet predictHSQC(final IAtomContainer structure, final Spectrum spectrumDim1,
@@ -333,10 +440,108 @@ public class Prediction {
                                                                    final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
                                                                    final Map<String, int[]> multiplicitySectionsSettings,
                                                                    final int nThreads) {
-        final MultiplicitySectionsBuilder multiplicitySectionsBuilder = new MultiplicitySectionsBuilder();
-        multiplicitySectionsBuilder.setMinLimit(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[0]);
-        multiplicitySectionsBuilder.setMaxLimit(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[1]);
-        multiplicitySectionsBuilder.setStepSize(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[2]);
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, true, detections, maxSphere, structureList,
+                                                  buildSolventMergedStatisticsLookup(hoseCodeShiftStatistics),
+                                                  multiplicitySectionsSettings, nThreads, null);
+    }
+
+    /**
+     * Predicts and filters all structures. If incomplete matches are not allowed, i.e. each predicted signal has to
+     * be matched, a candidate is rejected during its prediction as soon as it can not pass anymore.
+     *
+     * @see DeviationLowerBound
+     */
+    public static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                   final double shiftTolerance,
+                                                                   final double maximumAverageDeviation,
+                                                                   final boolean checkMultiplicity,
+                                                                   final boolean checkEquivalencesCount,
+                                                                   final boolean allowLowerEquivalencesCount,
+                                                                   final boolean allowIncompleteMatch,
+                                                                   final Detections detections, final int maxSphere,
+                                                                   final List<IAtomContainer> structureList,
+                                                                   final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                                   final Map<String, int[]> multiplicitySectionsSettings,
+                                                                   final int nThreads) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureList,
+                                                  hoseCodeShiftStatisticsTable::getSolventMergedStatistics,
+                                                  multiplicitySectionsSettings, nThreads, null);
+    }
+
+    /**
+     * Predicts and filters all structures on the given executor, e.g. a shared {@link ManagedExecutor}, which stays
+     * alive afterwards.
+     *
+     * @see #predict1DByStereoHOSECodeAndFilter(Spectrum, double, double, boolean, boolean, boolean, boolean,
+     * Detections, int, List, HOSECodeShiftStatisticsTable, Map, int)
+     */
+    public static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                   final double shiftTolerance,
+                                                                   final double maximumAverageDeviation,
+                                                                   final boolean checkMultiplicity,
+                                                                   final boolean checkEquivalencesCount,
+                                                                   final boolean allowLowerEquivalencesCount,
+                                                                   final boolean allowIncompleteMatch,
+                                                                   final Detections detections, final int maxSphere,
+                                                                   final List<IAtomContainer> structureList,
+                                                                   final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                                   final Map<String, int[]> multiplicitySectionsSettings,
+                                                                   final ExecutorService executor) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureList,
+                                                  hoseCodeShiftStatisticsTable::getSolventMergedStatistics,
+                                                  multiplicitySectionsSettings, 0, executor);
+    }
+
+    /**
+     * Predicts and filters all structures against the table which is current at the time of this call.
+     * A table swapped in meanwhile is used by subsequent calls only.
+     *
+     * @see HOSECodeShiftStatisticsHandle#acquire()
+     */
+    public static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                   final double shiftTolerance,
+                                                                   final double maximumAverageDeviation,
+                                                                   final boolean checkMultiplicity,
+                                                                   final boolean checkEquivalencesCount,
+                                                                   final boolean allowLowerEquivalencesCount,
+                                                                   final boolean allowIncompleteMatch,
+                                                                   final Detections detections, final int maxSphere,
+                                                                   final List<IAtomContainer> structureList,
+                                                                   final HOSECodeShiftStatisticsHandle hoseCodeShiftStatisticsHandle,
+                                                                   final Map<String, int[]> multiplicitySectionsSettings,
+                                                                   final int nThreads) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureList,
+                                                  hoseCodeShiftStatisticsHandle.acquire(),
+                                                  multiplicitySectionsSettings, nThreads);
+    }
+
+    private static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                    final double shiftTolerance,
+                                                                    final double maximumAverageDeviation,
+                                                                    final boolean checkMultiplicity,
+                                                                    final boolean checkEquivalencesCount,
+                                                                    final boolean allowLowerEquivalencesCount,
+                                                                    final boolean allowIncompleteMatch,
+                                                                    final Detections detections,
+                                                                    final int maxSphere,
+                                                                    final List<IAtomContainer> structureList,
+                                                                    final Function<String, Double[]> solventMergedStatisticsLookup,
+                                                                    final Map<String, int[]> multiplicitySectionsSettings,
+                                                                    final int nThreads,
+                                                                    final ExecutorService executor) {
+        final MultiplicitySectionsBuilder multiplicitySectionsBuilder = buildMultiplicitySectionsBuilder(
+                querySpectrum, multiplicitySectionsSettings);
 
         List<DataSet> dataSetList = new ArrayList<>();
         try {
@@ -347,7 +552,8 @@ public class Prediction {
                         () -> predict1DByStereoHOSECodeAndFilter(structure, querySpectrum, maxSphere, shiftTolerance,
                                                                  maximumAverageDeviation, checkMultiplicity,
                                                                  checkEquivalencesCount, allowLowerEquivalencesCount,
-                                                                 detections, hoseCodeShiftStatistics,
+                                                                 allowIncompleteMatch, detections,
+                                                                 solventMergedStatisticsLookup,
                                                                  multiplicitySectionsBuilder));
             }
             final Consumer<DataSet> consumer = (dataSet) -> {
@@ -356,7 +562,12 @@ public class Prediction {
                     dataSetConcurrentLinkedQueue.add(dataSet);
                 }
             };
-            MultiThreading.processTasks(callables, consumer, nThreads, 5);
+            if (executor
+                    == null) {
+                MultiThreading.processTasks(callables, consumer, nThreads, 5);
+            } else {
+                MultiThreading.processTasks(callables, consumer, executor);
+            }
             dataSetList = new ArrayList<>(dataSetConcurrentLinkedQueue);
         } catch (final Exception e) {
             e.printStackTrace();
@@ -365,6 +576,295 @@ public class Prediction {
         return dataSetList;
     }
 
+    /**
+     * Predicts and filters all structures with a time budget per structure and a deadline for the whole batch.
+     * Structures exceeding their budget are skipped, and at the batch deadline the datasets available so far are
+     * returned.
+     *
+     * @param querySpectrum                query spectrum
+     * @param shiftTolerance               shift tolerance
+     * @param maximumAverageDeviation      maximum average deviation
+     * @param checkMultiplicity            whether to check the multiplicities
+     * @param checkEquivalencesCount       whether to check the equivalences counts
+     * @param allowLowerEquivalencesCount  whether to allow lower equivalences counts
+     * @param allowIncompleteMatch         whether not all predicted signals have to be matched; if false, candidates
+     *                                     are rejected during their prediction as soon as they can not pass anymore
+     * @param detections                   detections to check, or null
+     * @param maxSphere                    maximum sphere to start the HOSE code lookups with
+     * @param structureList                candidate structures
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param multiplicitySectionsSettings multiplicity sections settings per nucleus
+     * @param nThreads                     number of threads to use
+     * @param taskTimeoutMillis            time budget per structure in milliseconds, or a value <= 0 for none
+     * @param batchTimeoutMillis           deadline of the whole batch in milliseconds, or a value <= 0 for none
+     * @param batchReport                  report of timed out and skipped structures to fill in, or null
+     *
+     * @return
+     *
+     * @see MultiThreading#processTasks(Collection, Consumer, int, long, long)
+     */
+    public static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                   final double shiftTolerance,
+                                                                   final double maximumAverageDeviation,
+                                                                   final boolean checkMultiplicity,
+                                                                   final boolean checkEquivalencesCount,
+                                                                   final boolean allowLowerEquivalencesCount,
+                                                                   final boolean allowIncompleteMatch,
+                                                                   final Detections detections, final int maxSphere,
+                                                                   final List<IAtomContainer> structureList,
+                                                                   final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                                   final Map<String, int[]> multiplicitySectionsSettings,
+                                                                   final int nThreads, final long taskTimeoutMillis,
+                                                                   final long batchTimeoutMillis,
+                                                                   final BatchReport batchReport) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureList,
+                                                  hoseCodeShiftStatisticsTable, multiplicitySectionsSettings, nThreads,
+                                                  null, taskTimeoutMillis, batchTimeoutMillis, batchReport);
+    }
+
+    /**
+     * Budgeted variant on the given executor, which stays alive afterwards.
+     *
+     * @see #predict1DByStereoHOSECodeAndFilter(Spectrum, double, double, boolean, boolean, boolean, boolean,
+     * Detections, int, List, HOSECodeShiftStatisticsTable, Map, int, long, long, BatchReport)
+     */
+    public static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                   final double shiftTolerance,
+                                                                   final double maximumAverageDeviation,
+                                                                   final boolean checkMultiplicity,
+                                                                   final boolean checkEquivalencesCount,
+                                                                   final boolean allowLowerEquivalencesCount,
+                                                                   final boolean allowIncompleteMatch,
+                                                                   final Detections detections, final int maxSphere,
+                                                                   final List<IAtomContainer> structureList,
+                                                                   final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                                   final Map<String, int[]> multiplicitySectionsSettings,
+                                                                   final ExecutorService executor,
+                                                                   final long taskTimeoutMillis,
+                                                                   final long batchTimeoutMillis,
+                                                                   final BatchReport batchReport) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureList,
+                                                  hoseCodeShiftStatisticsTable, multiplicitySectionsSettings, 0,
+                                                  executor, taskTimeoutMillis, batchTimeoutMillis, batchReport);
+    }
+
+    private static List<DataSet> predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                                    final double shiftTolerance,
+                                                                    final double maximumAverageDeviation,
+                                                                    final boolean checkMultiplicity,
+                                                                    final boolean checkEquivalencesCount,
+                                                                    final boolean allowLowerEquivalencesCount,
+                                                                    final boolean allowIncompleteMatch,
+                                                                    final Detections detections, final int maxSphere,
+                                                                    final List<IAtomContainer> structureList,
+                                                                    final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                                    final Map<String, int[]> multiplicitySectionsSettings,
+                                                                    final int nThreads,
+                                                                    final ExecutorService executor,
+                                                                    final long taskTimeoutMillis,
+                                                                    final long batchTimeoutMillis,
+                                                                    final BatchReport batchReport) {
+        final MultiplicitySectionsBuilder multiplicitySectionsBuilder = buildMultiplicitySectionsBuilder(
+                querySpectrum, multiplicitySectionsSettings);
+        final List<DataSet> dataSetList = new ArrayList<>();
+        try {
+            final List<Callable<DataSet>> callables = new ArrayList<>();
+            for (final IAtomContainer structure : structureList) {
+                callables.add(
+                        () -> predict1DByStereoHOSECodeAndFilter(structure, querySpectrum, maxSphere, shiftTolerance,
+                                                                 maximumAverageDeviation, checkMultiplicity,
+                                                                 checkEquivalencesCount, allowLowerEquivalencesCount,
+                                                                 allowIncompleteMatch, detections,
+                                                                 hoseCodeShiftStatisticsTable::getSolventMergedStatistics,
+                                                                 multiplicitySectionsBuilder));
+            }
+            final Consumer<DataSet> consumer = (dataSet) -> {
+                if (dataSet
+                        != null) {
+                    dataSetList.add(dataSet);
+                }
+            };
+            final BatchReport report = batchReport
+                                               == null
+                                       ? new BatchReport()
+                                       : batchReport;
+            if (executor
+                    == null) {
+                MultiThreading.processTasks(callables, consumer, nThreads, taskTimeoutMillis, batchTimeoutMillis,
+                                            report);
+            } else {
+                MultiThreading.processTasks(callables, consumer, executor, taskTimeoutMillis, batchTimeoutMillis,
+                                            report);
+            }
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+
+        return dataSetList;
+    }
+
+    public static long predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                          final double shiftTolerance,
+                                                          final double maximumAverageDeviation,
+                                                          final boolean checkMultiplicity,
+                                                          final boolean checkEquivalencesCount,
+                                                          final boolean allowLowerEquivalencesCount,
+                                                          final boolean allowIncompleteMatch,
+                                                          final Detections detections, final int maxSphere,
+                                                          final Iterator<IAtomContainer> structureIterator,
+                                                          final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+                                                          final Map<String, int[]> multiplicitySectionsSettings,
+                                                          final int nThreads, final Consumer<DataSet> consumer) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureIterator,
+                                                  buildSolventMergedStatisticsLookup(hoseCodeShiftStatistics),
+                                                  multiplicitySectionsSettings, nThreads, null, consumer);
+    }
+
+    /**
+     * Streaming variant for large candidate sets: the structures are pulled lazily from the iterator and only a
+     * bounded number of them is predicted at once. Each dataset which passes the filter is passed to the consumer
+     * as soon as it is ready (completion order), e.g. to a {@link TopKDataSetCollector}. The consumer is called by
+     * the calling thread only.
+     *
+     * @param querySpectrum                query spectrum
+     * @param shiftTolerance               shift tolerance
+     * @param maximumAverageDeviation      maximum average deviation
+     * @param checkMultiplicity            whether to check the multiplicities
+     * @param checkEquivalencesCount       whether to check the equivalences counts
+     * @param allowLowerEquivalencesCount  whether to allow lower equivalences counts
+     * @param allowIncompleteMatch         whether not all predicted signals have to be matched; if false, candidates
+     *                                     are rejected during their prediction as soon as they can not pass anymore
+     * @param detections                   detections to check, or null
+     * @param maxSphere                    maximum sphere to start the HOSE code lookups with
+     * @param structureIterator            candidate structures
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param multiplicitySectionsSettings multiplicity sections settings per nucleus
+     * @param nThreads                     number of threads to use
+     * @param consumer                     consumer of the datasets which passed the filter
+     *
+     * @return number of processed structures
+     */
+    public static long predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                          final double shiftTolerance,
+                                                          final double maximumAverageDeviation,
+                                                          final boolean checkMultiplicity,
+                                                          final boolean checkEquivalencesCount,
+                                                          final boolean allowLowerEquivalencesCount,
+                                                          final boolean allowIncompleteMatch,
+                                                          final Detections detections, final int maxSphere,
+                                                          final Iterator<IAtomContainer> structureIterator,
+                                                          final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                          final Map<String, int[]> multiplicitySectionsSettings,
+                                                          final int nThreads, final Consumer<DataSet> consumer) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureIterator,
+                                                  hoseCodeShiftStatisticsTable::getSolventMergedStatistics,
+                                                  multiplicitySectionsSettings, nThreads, null, consumer);
+    }
+
+    /**
+     * Streaming variant on the given executor, which stays alive afterwards. The number of structures in flight
+     * is bounded by the number of threads of the executor.
+     *
+     * @see #predict1DByStereoHOSECodeAndFilter(Spectrum, double, double, boolean, boolean, boolean, boolean,
+     * Detections, int, Iterator, HOSECodeShiftStatisticsTable, Map, int, Consumer)
+     */
+    public static long predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                          final double shiftTolerance,
+                                                          final double maximumAverageDeviation,
+                                                          final boolean checkMultiplicity,
+                                                          final boolean checkEquivalencesCount,
+                                                          final boolean allowLowerEquivalencesCount,
+                                                          final boolean allowIncompleteMatch,
+                                                          final Detections detections, final int maxSphere,
+                                                          final Iterator<IAtomContainer> structureIterator,
+                                                          final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                          final Map<String, int[]> multiplicitySectionsSettings,
+                                                          final ExecutorService executor,
+                                                          final Consumer<DataSet> consumer) {
+        return predict1DByStereoHOSECodeAndFilter(querySpectrum, shiftTolerance, maximumAverageDeviation,
+                                                  checkMultiplicity, checkEquivalencesCount,
+                                                  allowLowerEquivalencesCount, allowIncompleteMatch, detections,
+                                                  maxSphere, structureIterator,
+                                                  hoseCodeShiftStatisticsTable::getSolventMergedStatistics,
+                                                  multiplicitySectionsSettings, 0, executor, consumer);
+    }
+
+    private static long predict1DByStereoHOSECodeAndFilter(final Spectrum querySpectrum,
+                                                           final double shiftTolerance,
+                                                           final double maximumAverageDeviation,
+                                                           final boolean checkMultiplicity,
+                                                           final boolean checkEquivalencesCount,
+                                                           final boolean allowLowerEquivalencesCount,
+                                                           final boolean allowIncompleteMatch,
+                                                           final Detections detections, final int maxSphere,
+                                                           final Iterator<IAtomContainer> structureIterator,
+                                                           final Function<String, Double[]> solventMergedStatisticsLookup,
+                                                           final Map<String, int[]> multiplicitySectionsSettings,
+                                                           final int nThreads, final ExecutorService executor,
+                                                           final Consumer<DataSet> consumer) {
+        final MultiplicitySectionsBuilder multiplicitySectionsBuilder = buildMultiplicitySectionsBuilder(
+                querySpectrum, multiplicitySectionsSettings);
+        final Iterator<Callable<DataSet>> callables = new Iterator<Callable<DataSet>>() {
+            @Override
+            public boolean hasNext() {
+                return structureIterator.hasNext();
+            }
+
+            @Override
+            public Callable<DataSet> next() {
+                final IAtomContainer structure = structureIterator.next();
+                return () -> predict1DByStereoHOSECodeAndFilter(structure, querySpectrum, maxSphere, shiftTolerance,
+                                                                maximumAverageDeviation, checkMultiplicity,
+                                                                checkEquivalencesCount, allowLowerEquivalencesCount,
+                                                                allowIncompleteMatch, detections,
+                                                                solventMergedStatisticsLookup,
+                                                                multiplicitySectionsBuilder);
+            }
+        };
+        final Consumer<DataSet> filteredConsumer = dataSet -> {
+            if (dataSet
+                    != null) {
+                consumer.accept(dataSet);
+            }
+        };
+        try {
+            if (executor
+                    == null) {
+                return MultiThreading.processTasks(callables, filteredConsumer, nThreads, nThreads
+                        * STREAMING_TASKS_PER_THREAD, 5);
+            }
+            return MultiThreading.processTasks(callables, filteredConsumer, executor,
+                                               MultiThreading.getParallelism(executor)
+                                                       * STREAMING_TASKS_PER_THREAD);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+
+    private static MultiplicitySectionsBuilder buildMultiplicitySectionsBuilder(final Spectrum querySpectrum,
+                                                                                final Map<String, int[]> multiplicitySectionsSettings) {
+        final MultiplicitySectionsBuilder multiplicitySectionsBuilder = new MultiplicitySectionsBuilder();
+        multiplicitySectionsBuilder.setMinLimit(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[0]);
+        multiplicitySectionsBuilder.setMaxLimit(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[1]);
+        multiplicitySectionsBuilder.setStepSize(multiplicitySectionsSettings.get(querySpectrum.getNuclei()[0])[2]);
+
+        return multiplicitySectionsBuilder;
+    }
+
     private static DataSet predict1DByStereoHOSECodeAndFilter(final IAtomContainer structure,
                                                               final Spectrum querySpectrum, final int maxSphere,
                                                               final double shiftTolerance,
@@ -372,109 +872,215 @@ public class Prediction {
                                                               final boolean checkMultiplicity,
                                                               final boolean checkEquivalencesCount,
                                                               final boolean allowLowerEquivalencesCount,
+                                                              final boolean allowIncompleteMatch,
                                                               final Detections detections,
-                                                              final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics,
+                                                              final Function<String, Double[]> solventMergedStatisticsLookup,
                                                               final MultiplicitySectionsBuilder multiplicitySectionsBuilder) {
         final String nucleus = querySpectrum.getNuclei()[0];
-        final DataSet dataSet = predict1DByStereoHOSECode(structure, nucleus, maxSphere, hoseCodeShiftStatistics);
+        // the predicted spectrum is checked directly instead of converting it back from the dataset
+        final Spectrum predictedSpectrum = new Spectrum();
+        // rejecting a candidate during its prediction is only possible if all predicted signals have to match
+        final DeviationLowerBound deviationLowerBound = allowIncompleteMatch
+                                                        ? null
+                                                        : new DeviationLowerBound(querySpectrum, shiftTolerance,
+                                                                                  maxAverageDeviation,
+                                                                                  checkMultiplicity);
+        final DataSet dataSet = predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                                          solventMergedStatisticsLookup, predictedSpectrum,
+                                                          deviationLowerBound);
         if (dataSet
                 != null) {
-            return FilterAndRank.checkDataSet(dataSet, querySpectrum, shiftTolerance, maxAverageDeviation,
-                                              checkMultiplicity, checkEquivalencesCount, allowLowerEquivalencesCount,
-                                              multiplicitySectionsBuilder, true, detections);
+            return FilterAndRank.checkDataSet(dataSet, predictedSpectrum, querySpectrum, shiftTolerance,
+                                              maxAverageDeviation, checkMultiplicity, checkEquivalencesCount,
+                                              allowLowerEquivalencesCount, multiplicitySectionsBuilder,
+                                              allowIncompleteMatch, detections);
         }
 
         return null;
     }
 
+    /**
+     * Returns a lookup of solvent-merged statistics which merges the solvent entries on each lookup.
+     *
+     * @param hoseCodeShiftStatistics HOSE code shift statistics per solvent
+     *
+     * @return
+     *
+     * @see HOSECodeShiftStatisticsTable#buildSolventMergedStatistics(Map)
+     */
+    private static Function<String, Double[]> buildSolventMergedStatisticsLookup(
+            final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        return hoseCode -> HOSECodeShiftStatisticsTable.buildSolventMergedStatistics(
+                hoseCodeShiftStatistics.get(hoseCode));
+    }
+
     public static DataSet predict1DByStereoHOSECode(final IAtomContainer structure, final String nucleus,
                                                     final int maxSphere,
                                                     final Map<String, Map<String, Double[]>> hoseCodeShiftStatistics) {
+        return predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                         buildSolventMergedStatisticsLookup(hoseCodeShiftStatistics));
+    }
+
+    /**
+     * Predicts a 1D spectrum by stereo HOSE codes and the precomputed solvent-merged statistics of the given table,
+     * i.e. one lookup per HOSE code.
+     *
+     * @param structure                    structure to use for prediction
+     * @param nucleus                      nucleus to predict the spectrum for
+     * @param maxSphere                    maximum sphere to start the HOSE code lookups with
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     *
+     * @return
+     */
+    public static DataSet predict1DByStereoHOSECode(final IAtomContainer structure, final String nucleus,
+                                                    final int maxSphere,
+                                                    final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable) {
+        return predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                         hoseCodeShiftStatisticsTable::getSolventMergedStatistics);
+    }
+
+    /**
+     * Same as {@link #predict1DByStereoHOSECode(IAtomContainer, String, int, HOSECodeShiftStatisticsTable)}, but
+     * takes the dataset from the given cache if the structure was predicted before with the same statistics.
+     * Note that the structure is not changed in case of a cache hit.
+     *
+     * @param structure                    structure to use for prediction
+     * @param nucleus                      nucleus to predict the spectrum for
+     * @param maxSphere                    maximum sphere to start the HOSE code lookups with
+     * @param hoseCodeShiftStatisticsTable HOSE code shift statistics table
+     * @param predictionCache              prediction cache
+     *
+     * @return
+     */
+    public static DataSet predict1DByStereoHOSECode(final IAtomContainer structure, final String nucleus,
+                                                    final int maxSphere,
+                                                    final HOSECodeShiftStatisticsTable hoseCodeShiftStatisticsTable,
+                                                    final PredictionCache predictionCache) {
+        final PredictionCache.Key key = PredictionCache.buildKey(structure, true, nucleus, null,
+                                                                 "predict1DByStereoHOSECode:"
+                                                                         + maxSphere,
+                                                                 hoseCodeShiftStatisticsTable.getStatisticsId());
+        return predictionCache.computeIfAbsent(key, () -> predict1DByStereoHOSECode(structure, nucleus, maxSphere,
+                                                                                    hoseCodeShiftStatisticsTable));
+    }
+
+    private static DataSet predict1DByStereoHOSECode(final IAtomContainer structure, final String nucleus,
+                                                     final int maxSphere,
+                                                     final Function<String, Double[]> solventMergedStatisticsLookup) {
+        return predict1DByStereoHOSECode(structure, nucleus, maxSphere, solventMergedStatisticsLookup,
+                                         new Spectrum(), null);
+    }
+
+    /**
+     * @param structure                     structure to use for prediction
+     * @param nucleus                       nucleus to predict the spectrum for
+     * @param maxSphere                     maximum sphere to start the HOSE code lookups with
+     * @param solventMergedStatisticsLookup lookup of solvent-merged statistics
+     * @param predictedSpectrum             empty spectrum to fill with the predicted signals
+     * @param deviationLowerBound           bound to stop the prediction with as soon as the candidate can not pass
+     *                                      anymore, or null
+     *
+     * @return null if the prediction failed or was stopped
+     */
+    private static DataSet predict1DByStereoHOSECode(final IAtomContainer structure, final String nucleus,
+                                                     final int maxSphere,
+                                                     final Function<String, Double[]> solventMergedStatisticsLookup,
+                                                     final Spectrum predictedSpectrum,
+                                                     final DeviationLowerBound deviationLowerBound) {
 
         final String atomType = Utils.getAtomTypeFromNucleus(nucleus);
 
         final Assignment assignment;
         Signal signal;
-        Map<String, Double[]> hoseCodeObjectValues;
-        double predictedShift;
         String hoseCode;
         Double[] statistics;
-        int signalIndex, sphere, count;
-        Double min, max;
-        List<Double> medians;
+        int signalIndex, sphere, signalCount;
 
         try {
             Utils.placeExplicitHydrogens(structure);
             Utils.setAromaticityAndKekulize(structure);
 
-            final DataSet dataSet = Utils.atomContainerToDataSet(structure, false);
-
-            final Spectrum predictedSpectrum = new Spectrum();
             predictedSpectrum.setNuclei(new String[]{nucleus});
             predictedSpectrum.setSignals(new ArrayList<>());
+            predictedSpectrum.enableShiftIndex();
 
+            int remainingAtomCount = 0;
+            for (final IAtom atom : structure.atoms()) {
+                if (atom.getSymbol()
+                        .equals(atomType)) {
+                    remainingAtomCount++;
+                }
+            }
+            boolean stopped = false;
             final Map<Integer, List<Integer>> assignmentMap = new HashMap<>();
             final Map<Integer, Double[]> predictionMeta = new HashMap<>();
             for (int i = 0; i
                     < structure.getAtomCount(); i++) {
+                // cooperative cancellation, e.g. after exceeding a task time budget
+                if (Thread.currentThread()
+                          .isInterrupted()) {
+                    stopped = true;
+                    break;
+                }
                 if (!structure.getAtom(i)
                               .getSymbol()
                               .equals(atomType)) {
                     continue;
                 }
-                medians = new ArrayList<>();
+                remainingAtomCount--;
+                statistics = null;
                 sphere = maxSphere;
-                count = 0;
-                min = null;
-                max = null;
                 while (sphere
                         >= 1) {
                     try {
                         hoseCode = extendedHOSECodeGenerator.getHOSECode(structure, structure.getAtom(i), sphere);
-                        hoseCodeObjectValues = hoseCodeShiftStatistics.get(hoseCode);
-                        if (hoseCodeObjectValues
+                        statistics = solventMergedStatisticsLookup.apply(hoseCode);
+                        if (statistics
                                 != null) {
-                            for (final Map.Entry<String, Double[]> solventEntry : hoseCodeObjectValues.entrySet()) {
-                                statistics = hoseCodeObjectValues.get(solventEntry.getKey());
-                                medians.add(statistics[3]);
-                                count += statistics[0].intValue();
-                                min = min
-                                              == null
-                                      ? statistics[1]
-                                      : Double.min(min, statistics[1]);
-                                max = max
-                                              == null
-                                      ? statistics[4]
-                                      : Double.max(max, statistics[4]);
-                            }
                             break;
                         }
                     } catch (final Exception ignored) {
                     }
                     sphere--;
                 }
-                if (medians.isEmpty()) {
+                if (statistics
+                        == null) {
                     continue;
                 }
-                predictedShift = Statistics.getMean(medians);
                 signal = new Signal();
                 signal.setNuclei(new String[]{nucleus});
-                signal.setShifts(new Double[]{predictedShift});
+                signal.setShifts(new Double[]{statistics[3]});
                 signal.setMultiplicity(Utils.getMultiplicityFromProtonsCount(
                         AtomUtils.getHcount(structure, structure.getAtom(i)))); // counts explicit H
                 signal.setEquivalencesCount(1);
 
+                signalCount = predictedSpectrum.getSignalCount();
                 signalIndex = predictedSpectrum.addSignal(signal);
+                // check new signals only, equivalent ones do not change the bound
+                if (deviationLowerBound
+                        != null
+                        && predictedSpectrum.getSignalCount()
+                        > signalCount
+                        && !deviationLowerBound.addSignal(signal, remainingAtomCount)) {
+                    stopped = true;
+                    break;
+                }
 
                 assignmentMap.putIfAbsent(signalIndex, new ArrayList<>());
                 assignmentMap.get(signalIndex)
                              .add(i);
 
                 if (!predictionMeta.containsKey(signalIndex)) {
-                    predictionMeta.put(signalIndex, new Double[]{(double) sphere, (double) count, min, max});
+                    predictionMeta.put(signalIndex, new Double[]{(double) sphere, statistics[0], statistics[1],
+                                                                  statistics[4]});
                 }
             }
+            if (stopped) {
+                Utils.convertExplicitToImplicitHydrogens(structure);
+                return null;
+            }
 
+            final DataSet dataSet = Utils.atomContainerToDataSet(structure, false);
             Utils.convertExplicitToImplicitHydrogens(structure);
             dataSet.setStructure(new StructureCompact(structure));
             dataSet.addMetaInfo("smiles", SmilesGenerator.generic()
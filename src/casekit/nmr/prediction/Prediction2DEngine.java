@@ -0,0 +1,463 @@
+package casekit.nmr.prediction;
+
+import casekit.nmr.model.*;
+import casekit.nmr.utils.Utils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+import java.util.*;
+
+/**
+ * Indexed prediction of 2D spectra, e.g. HSQC, HMBC and COSY, from predicted 1D spectra. <br>
+ * The topological distances between all atoms up to a maximum path length are computed once per structure by a
+ * bounded breadth-first search per atom. The 2D signals of several experiments are then emitted in one pass over
+ * these atom pairs. Equivalent 2D signals, i.e. signals with equal shifts in both dimensions, are grouped by a hash
+ * lookup instead of searching the spectrum. <br>
+ * Atom pairs for which a 1D shift is missing (null) are skipped.
+ *
+ * @see Prediction#predict2D(IAtomContainer, Spectrum, Spectrum, Assignment, Assignment, int, int)
+ */
+public class Prediction2DEngine {
+
+    public final static String HSQC = "HSQC";
+    public final static String HMBC = "HMBC";
+    public final static String COSY = "COSY";
+
+    private final IAtomContainer structure;
+    private final int maxPathLength;
+    // atoms within the maximum path length per atom in breadth-first order, including the atom itself
+    private final int[][] neighborhoods;
+    private final byte[][] neighborhoodDistances;
+
+    /**
+     * A 2D experiment sharing the first dimension with all other experiments of a prediction run.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Experiment {
+
+        private final String name;
+        private final Spectrum spectrumDim2;
+        private final Assignment assignmentDim2;
+        private final int minPathLength;
+        private final int maxPathLength;
+    }
+
+    /**
+     * Computes the topological distances between all atoms up to the given maximum path length.
+     *
+     * @param structure     structure to use for prediction
+     * @param maxPathLength maximum path length of all experiments to predict
+     */
+    public Prediction2DEngine(final IAtomContainer structure, final int maxPathLength) {
+        if (maxPathLength
+                < 0
+                || maxPathLength
+                > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("maxPathLength must be between 0 and "
+                                                       + Byte.MAX_VALUE
+                                                       + ": "
+                                                       + maxPathLength);
+        }
+        this.structure = structure;
+        this.maxPathLength = maxPathLength;
+
+        final int atomCount = structure.getAtomCount();
+        final int[][] adjacencies = buildAdjacencies(structure);
+        this.neighborhoods = new int[atomCount][];
+        this.neighborhoodDistances = new byte[atomCount][];
+        final int[] distances = new int[atomCount];
+        Arrays.fill(distances, -1);
+        final int[] queue = new int[atomCount];
+        int head, tail, atomIndex;
+        for (int i = 0; i
+                < atomCount; i++) {
+            head = 0;
+            tail = 0;
+            queue[tail++] = i;
+            distances[i] = 0;
+            while (head
+                    < tail) {
+                atomIndex = queue[head++];
+                if (distances[atomIndex]
+                        == maxPathLength) {
+                    continue;
+                }
+                for (final int neighborIndex : adjacencies[atomIndex]) {
+                    if (distances[neighborIndex]
+                            == -1) {
+                        distances[neighborIndex] = distances[atomIndex]
+                                + 1;
+                        queue[tail++] = neighborIndex;
+                    }
+                }
+            }
+            this.neighborhoods[i] = Arrays.copyOf(queue, tail);
+            this.neighborhoodDistances[i] = new byte[tail];
+            for (int k = 0; k
+                    < tail; k++) {
+                this.neighborhoodDistances[i][k] = (byte) distances[queue[k]];
+                // reset for the next search
+                distances[queue[k]] = -1;
+            }
+        }
+    }
+
+    private static int[][] buildAdjacencies(final IAtomContainer structure) {
+        final Map<IAtom, Integer> atomIndices = new IdentityHashMap<>(structure.getAtomCount());
+        for (int i = 0; i
+                < structure.getAtomCount(); i++) {
+            atomIndices.put(structure.getAtom(i), i);
+        }
+        final List<List<Integer>> adjacencyLists = new ArrayList<>(structure.getAtomCount());
+        for (int i = 0; i
+                < structure.getAtomCount(); i++) {
+            adjacencyLists.add(new ArrayList<>());
+        }
+        Integer atomIndex1, atomIndex2;
+        for (final IBond bond : structure.bonds()) {
+            atomIndex1 = atomIndices.get(bond.getAtom(0));
+            atomIndex2 = atomIndices.get(bond.getAtom(1));
+            if (atomIndex1
+                    == null
+                    || atomIndex2
+                    == null) {
+                continue;
+            }
+            adjacencyLists.get(atomIndex1)
+                          .add(atomIndex2);
+            adjacencyLists.get(atomIndex2)
+                          .add(atomIndex1);
+        }
+        final int[][] adjacencies = new int[adjacencyLists.size()][];
+        for (int i = 0; i
+                < adjacencyLists.size(); i++) {
+            adjacencies[i] = adjacencyLists.get(i)
+                                           .stream()
+                                           .mapToInt(Integer::intValue)
+                                           .toArray();
+        }
+
+        return adjacencies;
+    }
+
+    /**
+     * @param atomIndex1 index of first atom
+     * @param atomIndex2 index of second atom
+     *
+     * @return topological distance, or -1 if it is larger than the maximum path length
+     */
+    public int getDistance(final int atomIndex1, final int atomIndex2) {
+        final int[] neighborhood = this.neighborhoods[atomIndex1];
+        for (int k = 0; k
+                < neighborhood.length; k++) {
+            if (neighborhood[k]
+                    == atomIndex2) {
+                return this.neighborhoodDistances[atomIndex1][k];
+            }
+        }
+
+        return -1;
+    }
+
+    public int getMaxPathLength() {
+        return this.maxPathLength;
+    }
+
+    /**
+     * Predicts HSQC, HMBC and COSY spectra in one pass.
+     *
+     * @param spectrum1H      predicted 1H spectrum
+     * @param assignment1H    assignment of predicted 1H spectrum
+     * @param spectrum13C     predicted 13C spectrum
+     * @param assignment13C   assignment of predicted 13C spectrum
+     * @param pathLengthHMBC  path length range of HMBC correlations
+     * @param pathLengthCOSY  path length range of COSY correlations
+     *
+     * @return predicted datasets by {@link #HSQC}, {@link #HMBC} and {@link #COSY}
+     */
+    public Map<String, DataSet> predictHSQCHMBCCOSY(final Spectrum spectrum1H, final Assignment assignment1H,
+                                                    final Spectrum spectrum13C, final Assignment assignment13C,
+                                                    final PathLength pathLengthHMBC,
+                                                    final PathLength pathLengthCOSY) {
+        final List<Experiment> experiments = new ArrayList<>();
+        experiments.add(new Experiment(HSQC, spectrum13C, assignment13C, 1, 1));
+        experiments.add(new Experiment(HMBC, spectrum13C, assignment13C, pathLengthHMBC.getFrom(),
+                                       pathLengthHMBC.getTo()));
+        experiments.add(new Experiment(COSY, spectrum1H, assignment1H, pathLengthCOSY.getFrom(),
+                                       pathLengthCOSY.getTo()));
+
+        return this.predict2D(spectrum1H, assignment1H, experiments);
+    }
+
+    /**
+     * Predicts the 2D spectra of several experiments sharing the first dimension in one pass over all atom pairs.
+     * <br>
+     * Note: If 1H is used then it needs to be in first dimension, e.g. 1H, 13C.
+     *
+     * @param spectrumDim1   1D spectrum of first dimension
+     * @param assignmentDim1 1D assignment of first dimension
+     * @param experiments    experiments to predict
+     *
+     * @return predicted datasets by experiment name, null for experiments with a different solvent
+     */
+    public Map<String, DataSet> predict2D(final Spectrum spectrumDim1, final Assignment assignmentDim1,
+                                         final List<Experiment> experiments) {
+        final String atomTypeDim1 = Utils.getAtomTypeFromNucleus(spectrumDim1.getNuclei()[0]);
+        final int[][] signalIndicesPerAtomDim1 = this.buildSignalIndicesPerAtom(assignmentDim1);
+        final String solvent = spectrumDim1.getMeta()
+                                   == null
+                               ? null
+                               : spectrumDim1.getMeta()
+                                             .get("solvent");
+        final List<ExperimentState> experimentStates = new ArrayList<>();
+        for (final Experiment experiment : experiments) {
+            if (experiment.getMaxPathLength()
+                    > this.maxPathLength) {
+                throw new IllegalArgumentException("Maximum path length of "
+                                                           + experiment.getName()
+                                                           + " exceeds the one of this engine: "
+                                                           + experiment.getMaxPathLength());
+            }
+            if (!Objects.equals(solvent, experiment.getSpectrumDim2()
+                                                   .getMeta()
+                                                   == null
+                                         ? null
+                                         : experiment.getSpectrumDim2()
+                                                     .getMeta()
+                                                     .get("solvent"))) {
+                continue;
+            }
+            experimentStates.add(new ExperimentState(experiment, new String[]{spectrumDim1.getNuclei()[0],
+                                                                              experiment.getSpectrumDim2()
+                                                                                        .getNuclei()[0]}, solvent,
+                                                     this.buildSignalIndicesPerAtom(
+                                                             experiment.getAssignmentDim2())));
+        }
+
+        int[] neighborhood;
+        int atomIndexDim2, distance;
+        String atomTypeDim2;
+        for (int i = 0; i
+                < this.structure.getAtomCount(); i++) {
+            if (signalIndicesPerAtomDim1[i].length
+                    == 0
+                    || !this.structure.getAtom(i)
+                                      .getSymbol()
+                                      .equals(atomTypeDim1)) {
+                continue;
+            }
+            neighborhood = this.neighborhoods[i];
+            for (int k = 0; k
+                    < neighborhood.length; k++) {
+                atomIndexDim2 = neighborhood[k];
+                distance = this.neighborhoodDistances[i][k];
+                atomTypeDim2 = this.structure.getAtom(atomIndexDim2)
+                                             .getSymbol();
+                for (final ExperimentState experimentState : experimentStates) {
+                    if (distance
+                            >= experimentState.experiment.getMinPathLength()
+                            && distance
+                            <= experimentState.experiment.getMaxPathLength()
+                            && atomTypeDim2.equals(experimentState.atomTypeDim2)) {
+                        experimentState.addCorrelation(spectrumDim1, signalIndicesPerAtomDim1[i], i,
+                                                       atomIndexDim2);
+                    }
+                }
+            }
+        }
+
+        final Map<String, DataSet> predictions = new LinkedHashMap<>();
+        for (final Experiment experiment : experiments) {
+            predictions.put(experiment.getName(), null);
+        }
+        for (final ExperimentState experimentState : experimentStates) {
+            predictions.put(experimentState.experiment.getName(), experimentState.buildDataSet(this.structure));
+        }
+
+        return predictions;
+    }
+
+    /**
+     * Inverts an 1D assignment, i.e. the signal indices in ascending order per atom index.
+     *
+     * @param assignment 1D assignment
+     *
+     * @return
+     */
+    private int[][] buildSignalIndicesPerAtom(final Assignment assignment) {
+        final int atomCount = this.structure.getAtomCount();
+        final List<List<Integer>> signalIndicesPerAtomList = new ArrayList<>(atomCount);
+        for (int i = 0; i
+                < atomCount; i++) {
+            signalIndicesPerAtomList.add(new ArrayList<>(1));
+        }
+        List<Integer> signalIndices;
+        for (int signalIndex = 0; signalIndex
+                < assignment.getSize(); signalIndex++) {
+            for (final int atomIndex : assignment.getAssignment(0, signalIndex)) {
+                if (atomIndex
+                        < 0
+                        || atomIndex
+                        >= atomCount) {
+                    continue;
+                }
+                signalIndices = signalIndicesPerAtomList.get(atomIndex);
+                // an atom can be listed more than once per signal
+                if (signalIndices.isEmpty()
+                        || signalIndices.get(signalIndices.size()
+                                                     - 1)
+                        != signalIndex) {
+                    signalIndices.add(signalIndex);
+                }
+            }
+        }
+        final int[][] signalIndicesPerAtom = new int[atomCount][];
+        for (int i = 0; i
+                < atomCount; i++) {
+            signalIndicesPerAtom[i] = signalIndicesPerAtomList.get(i)
+                                                              .stream()
+                                                              .mapToInt(Integer::intValue)
+                                                              .toArray();
+        }
+
+        return signalIndicesPerAtom;
+    }
+
+    private static class ExperimentState {
+
+        private final Experiment experiment;
+        private final String atomTypeDim2;
+        private final int[][] signalIndicesPerAtomDim2;
+        private final Spectrum predictedSpectrum2D;
+        private final Map<ShiftKey, Integer> signalIndices;
+        private final List<List<Integer>> assignmentsDim1;
+        private final List<List<Integer>> assignmentsDim2;
+
+        ExperimentState(final Experiment experiment, final String[] nuclei2D, final String solvent,
+                        final int[][] signalIndicesPerAtomDim2) {
+            this.experiment = experiment;
+            this.atomTypeDim2 = Utils.getAtomTypeFromNucleus(nuclei2D[1]);
+            this.signalIndicesPerAtomDim2 = signalIndicesPerAtomDim2;
+            this.predictedSpectrum2D = new Spectrum();
+            this.predictedSpectrum2D.setNuclei(nuclei2D);
+            this.predictedSpectrum2D.setSignals(new ArrayList<>());
+            this.predictedSpectrum2D.addMetaInfo("solvent", solvent);
+            this.signalIndices = new HashMap<>();
+            this.assignmentsDim1 = new ArrayList<>();
+            this.assignmentsDim2 = new ArrayList<>();
+        }
+
+        void addCorrelation(final Spectrum spectrumDim1, final int[] signalIndicesDim1, final int atomIndexDim1,
+                            final int atomIndexDim2) {
+            Double shiftDim1, shiftDim2;
+            ShiftKey shiftKey;
+            Integer signalIndex;
+            Signal signal2D;
+            // go through all possible assignments on both axes, i.e. in case of 1H
+            for (final int signalIndexDim1 : signalIndicesDim1) {
+                shiftDim1 = spectrumDim1.getShift(signalIndexDim1, 0);
+                if (shiftDim1
+                        == null) {
+                    continue;
+                }
+                for (final int signalIndexDim2 : this.signalIndicesPerAtomDim2[atomIndexDim2]) {
+                    shiftDim2 = this.experiment.getSpectrumDim2()
+                                               .getShift(signalIndexDim2, 0);
+                    if (shiftDim2
+                            == null) {
+                        continue;
+                    }
+                    shiftKey = new ShiftKey(shiftDim1, shiftDim2);
+                    signalIndex = this.signalIndices.get(shiftKey);
+                    if (signalIndex
+                            == null) {
+                        signal2D = new Signal();
+                        signal2D.setNuclei(this.predictedSpectrum2D.getNuclei());
+                        signal2D.setKind("signal");
+                        signal2D.setEquivalencesCount(1);
+                        signal2D.setShifts(new Double[]{shiftDim1, shiftDim2});
+                        this.predictedSpectrum2D.addSignalWithoutEquivalenceSearch(signal2D);
+                        this.signalIndices.put(shiftKey, this.assignmentsDim1.size());
+                        this.assignmentsDim1.add(new ArrayList<>(1));
+                        this.assignmentsDim2.add(new ArrayList<>(1));
+                        signalIndex = this.assignmentsDim1.size()
+                                - 1;
+                    } else {
+                        signal2D = this.predictedSpectrum2D.getSignal(signalIndex);
+                        signal2D.setEquivalencesCount(signal2D.getEquivalencesCount()
+                                                              + 1);
+                    }
+                    this.assignmentsDim1.get(signalIndex)
+                                        .add(atomIndexDim1);
+                    this.assignmentsDim2.get(signalIndex)
+                                        .add(atomIndexDim2);
+                }
+            }
+        }
+
+        DataSet buildDataSet(final IAtomContainer structure) {
+            final int[][][] assignments = new int[2][this.assignmentsDim1.size()][];
+            for (int signalIndex = 0; signalIndex
+                    < this.assignmentsDim1.size(); signalIndex++) {
+                assignments[0][signalIndex] = this.assignmentsDim1.get(signalIndex)
+                                                                  .stream()
+                                                                  .mapToInt(Integer::intValue)
+                                                                  .toArray();
+                assignments[1][signalIndex] = this.assignmentsDim2.get(signalIndex)
+                                                                  .stream()
+                                                                  .mapToInt(Integer::intValue)
+                                                                  .toArray();
+            }
+            final Assignment assignment2D = new Assignment();
+            assignment2D.setNuclei(this.predictedSpectrum2D.getNuclei());
+            assignment2D.setAssignments(assignments);
+
+            return new DataSet(structure, this.predictedSpectrum2D, assignment2D, new HashMap<>(), new HashMap<>());
+        }
+    }
+
+    /**
+     * Shifts of a 2D signal as hash key. Equal shifts are equivalent, which is the same as an equivalence search
+     * with a pick precision of 0.
+     */
+    private static class ShiftKey {
+
+        private final long shiftBitsDim1;
+        private final long shiftBitsDim2;
+
+        ShiftKey(final double shiftDim1, final double shiftDim2) {
+            // adding 0.0 maps -0.0 to 0.0, which are equal shifts
+            this.shiftBitsDim1 = Double.doubleToLongBits(shiftDim1
+                                                                 + 0.0);
+            this.shiftBitsDim2 = Double.doubleToLongBits(shiftDim2
+                                                                 + 0.0);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this
+                    == o) {
+                return true;
+            }
+            if (!(o instanceof ShiftKey)) {
+                return false;
+            }
+            final ShiftKey shiftKey = (ShiftKey) o;
+            return this.shiftBitsDim1
+                    == shiftKey.shiftBitsDim1
+                    && this.shiftBitsDim2
+                    == shiftKey.shiftBitsDim2;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.shiftBitsDim1)
+                    * 31
+                    + Long.hashCode(this.shiftBitsDim2);
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package casekit.nmr.prediction;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.DataSet;
+import casekit.nmr.model.StructureCompact;
+import com.google.gson.Gson;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of predicted datasets for repeated predictions of the same structures, e.g. by services or while
+ * re-ranking. <br>
+ * Entries are keyed by the canonical SMILES of the structure, the nucleus, the solvent, the prediction method and
+ * the statistics identifier of the used table ({@link casekit.nmr.model.HOSECodeShiftStatisticsTable#getStatisticsId()}),
+ * so entries of other statistics are never returned. Hydrogens are normalized before, i.e. the same structure with
+ * explicit or implicit hydrogens gets the same key. Along with each entry, the canonical ranks of its heavy atoms
+ * are stored, so the structure and the assignment of a cached dataset are renumbered to the atom order of the
+ * requesting structure. The memory tier is bounded and evicts the least recently used
+ * entries. Optionally, entries are also stored as JSON files in a directory, which survives JVM restarts as long as
+ * the statistics identifier is stable, e.g. for tables read from file. <br>
+ * Datasets are cloned when put into and taken from the cache, attachment values are shared however and must not be
+ * modified.
+ */
+public class PredictionCache {
+
+    private final static Gson GSON = new Gson();
+    private final static String PREDICTION_META_KEY = "predictionMeta";
+
+    private final int maxSize;
+    private final Path directory;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hitCount;
+    private final AtomicLong diskHitCount;
+    private final AtomicLong missCount;
+
+    /**
+     * @param maxSize maximum number of entries in memory
+     */
+    public PredictionCache(final int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize         maximum number of entries in memory
+     * @param pathToDirectory directory of the on-disk tier, or null to keep entries in memory only
+     */
+    public PredictionCache(final int maxSize, final String pathToDirectory) {
+        if (maxSize
+                < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: "
+                                                       + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.directory = pathToDirectory
+                                 == null
+                         ? null
+                         : Paths.get(pathToDirectory);
+        // access order for LRU eviction
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return this.size()
+                        > PredictionCache.this.maxSize;
+            }
+        };
+        this.hitCount = new AtomicLong();
+        this.diskHitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        if (this.directory
+                != null) {
+            try {
+                Files.createDirectories(this.directory);
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Could not create cache directory "
+                                                           + pathToDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key of a prediction. Has to be called before the prediction since it may change the
+     * structure, e.g. by adding explicit hydrogens. The given structure itself is not changed.
+     *
+     * @param structure    structure to predict
+     * @param stereo       whether the prediction distinguishes stereo configurations
+     * @param nucleus      nucleus
+     * @param solvent      solvent, or null for solvent-merged statistics
+     * @param method       prediction method and its parameters, e.g. the maximum sphere
+     * @param statisticsId statistics identifier of the used table
+     *
+     * @return null if no canonical SMILES could be created
+     */
+    public static Key buildKey(final IAtomContainer structure, final boolean stereo, final String nucleus,
+                               final String solvent, final String method, final String statisticsId) {
+        final IAtomContainer normalizedStructure;
+        final int[] canonicalRanks;
+        final String smiles;
+        try {
+            normalizedStructure = normalizeHydrogens(structure);
+            if (normalizedStructure
+                    == null) {
+                return null;
+            }
+            canonicalRanks = new int[normalizedStructure.getAtomCount()];
+            smiles = new SmilesGenerator(stereo
+                                         ? SmiFlavor.Absolute
+                                         : SmiFlavor.Unique).create(normalizedStructure, canonicalRanks);
+        } catch (final CDKException | CloneNotSupportedException e) {
+            e.printStackTrace();
+            return null;
+        }
+        final int[] hydrogenCounts = new int[normalizedStructure.getAtomCount()];
+        for (int i = 0; i
+                < hydrogenCounts.length; i++) {
+            hydrogenCounts[i] = normalizedStructure.getAtom(i)
+                                                   .getImplicitHydrogenCount();
+        }
+
+        return new Key(String.join("|", smiles, nucleus, String.valueOf(solvent), method, statisticsId),
+                       canonicalRanks, hydrogenCounts);
+    }
+
+    /**
+     * Prepares a copy of the structure like the predictions do, but with all hydrogens implicit. The heavy atoms
+     * keep their order.
+     *
+     * @param structure structure
+     *
+     * @return null if not all hydrogens could be made implicit, e.g. for molecular hydrogen
+     *
+     * @throws CDKException
+     * @throws CloneNotSupportedException
+     */
+    private static IAtomContainer normalizeHydrogens(
+            final IAtomContainer structure) throws CDKException, CloneNotSupportedException {
+        final IAtomContainer normalizedStructure = structure.clone();
+        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(normalizedStructure);
+        CDKHydrogenAdder.getInstance(SilentChemObjectBuilder.getInstance())
+                        .addImplicitHydrogens(normalizedStructure);
+        AtomContainerManipulator.suppressHydrogens(normalizedStructure);
+        for (final IAtom atom : normalizedStructure.atoms()) {
+            if (atom.getSymbol()
+                    .equals("H")) {
+                return null;
+            }
+        }
+
+        return normalizedStructure;
+    }
+
+    /**
+     * Returns the cached dataset of the given key or computes and caches it. Concurrent calls for the same key may
+     * compute it more than once. Null results are not cached.
+     *
+     * @param key      cache key, or null to compute without caching
+     * @param supplier computes the dataset
+     *
+     * @return
+     *
+     * @see #buildKey(IAtomContainer, boolean, String, String, String, String)
+     */
+    public DataSet computeIfAbsent(final Key key, final Supplier<DataSet> supplier) {
+        if (key
+                == null) {
+            return supplier.get();
+        }
+        final DataSet cachedDataSet = this.get(key);
+        if (cachedDataSet
+                != null) {
+            return cachedDataSet;
+        }
+        final DataSet dataSet = supplier.get();
+        this.put(key, dataSet);
+
+        return dataSet;
+    }
+
+    /**
+     * @param key cache key
+     *
+     * @return clone of the cached dataset in the atom order of the structure of the key, or null
+     */
+    public DataSet get(final Key key) {
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key.getValue());
+        }
+        boolean fromDisk = false;
+        if (entry
+                == null) {
+            entry = this.readFromDisk(key.getValue());
+            if (entry
+                    != null) {
+                fromDisk = true;
+                synchronized (this.entries) {
+                    this.entries.put(key.getValue(), entry);
+                }
+            }
+        }
+        final DataSet dataSet = entry
+                                        == null
+                                ? null
+                                : renumber(entry, key);
+        if (dataSet
+                == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        if (fromDisk) {
+            this.diskHitCount.incrementAndGet();
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+
+        return dataSet;
+    }
+
+    /**
+     * @param key     cache key, built for the structure the dataset was predicted for
+     * @param dataSet dataset to cache, null is ignored
+     */
+    public void put(final Key key, final DataSet dataSet) {
+        if (dataSet
+                == null) {
+            return;
+        }
+        final Entry entry = new Entry(buildClone(dataSet), key.canonicalRanks);
+        synchronized (this.entries) {
+            this.entries.put(key.getValue(), entry);
+        }
+        this.writeToDisk(key.getValue(), entry);
+    }
+
+    private static DataSet buildClone(final DataSet dataSet) {
+        if (dataSet.getAttachment()
+                == null) {
+            dataSet.setAttachment(new HashMap<>());
+        }
+        return dataSet.buildClone();
+    }
+
+    /**
+     * Renumbers a clone of a cached dataset from the atom order of the structure it was predicted for to the atom
+     * order of the structure of the key. In both, the heavy atoms come first in the order of the original structure
+     * and the hydrogens follow grouped by their heavy atoms, as created by the predictions.
+     *
+     * @param entry cache entry
+     * @param key   cache key of the requesting structure
+     *
+     * @return null if the atom indices of the entry do not fit
+     */
+    private static DataSet renumber(final Entry entry, final Key key) {
+        final int heavyAtomCount = key.canonicalRanks.length;
+        if (entry.canonicalRanks
+                == null
+                || entry.canonicalRanks.length
+                != heavyAtomCount) {
+            return null;
+        }
+        final int[] atomIndexPerRank = new int[heavyAtomCount];
+        for (int i = 0; i
+                < heavyAtomCount; i++) {
+            atomIndexPerRank[key.canonicalRanks[i]] = i;
+        }
+        final int[] firstHydrogenIndices = new int[heavyAtomCount];
+        int atomCount = heavyAtomCount;
+        for (int i = 0; i
+                < heavyAtomCount; i++) {
+            firstHydrogenIndices[i] = atomCount;
+            atomCount += key.hydrogenCounts[i];
+        }
+        final int[] atomIndexMap = new int[atomCount];
+        int hydrogenIndex = heavyAtomCount;
+        int atomIndex;
+        for (int i = 0; i
+                < heavyAtomCount; i++) {
+            if (entry.canonicalRanks[i]
+                    < 0
+                    || entry.canonicalRanks[i]
+                    >= heavyAtomCount) {
+                return null;
+            }
+            atomIndex = atomIndexPerRank[entry.canonicalRanks[i]];
+            atomIndexMap[i] = atomIndex;
+            for (int h = 0; h
+                    < key.hydrogenCounts[atomIndex]; h++) {
+                atomIndexMap[hydrogenIndex] = firstHydrogenIndices[atomIndex]
+                        + h;
+                hydrogenIndex++;
+            }
+        }
+
+        final DataSet dataSet = entry.dataSet.buildClone();
+        // structures are stored with or without their explicit hydrogens
+        final int structureAtomCount = dataSet.getStructure()
+                                              .atomCount();
+        if (structureAtomCount
+                != heavyAtomCount
+                && structureAtomCount
+                != atomCount) {
+            return null;
+        }
+        final Assignment assignment = dataSet.getAssignment();
+        int[][] assignments;
+        for (int dim = 0; dim
+                < assignment.getNDim(); dim++) {
+            assignments = assignment.getAssignments(dim);
+            for (final int[] equivalences : assignments) {
+                for (int k = 0; k
+                        < equivalences.length; k++) {
+                    if (equivalences[k]
+                            >= atomCount) {
+                        return null;
+                    }
+                    if (equivalences[k]
+                            >= 0) {
+                        equivalences[k] = atomIndexMap[equivalences[k]];
+                    }
+                }
+                Arrays.sort(equivalences);
+            }
+        }
+        dataSet.setStructure(renumber(dataSet.getStructure(), atomIndexMap));
+
+        return dataSet;
+    }
+
+    private static StructureCompact renumber(final StructureCompact structure, final int[] atomIndexMap) {
+        final int atomCount = structure.atomCount();
+        final Integer[][] atomProperties = new Integer[atomCount][];
+        final List<List<int[]>> bondPropertiesLists = new ArrayList<>(atomCount);
+        for (int i = 0; i
+                < atomCount; i++) {
+            bondPropertiesLists.add(new ArrayList<>());
+        }
+        int[] bondProperties;
+        int atomIndex, connectedAtomIndex;
+        for (int i = 0; i
+                < atomCount; i++) {
+            atomIndex = atomIndexMap[i];
+            atomProperties[atomIndex] = structure.getAtomProperties()[i];
+            for (final int[] cachedBondProperties : structure.getBondProperties()[i]) {
+                bondProperties = cachedBondProperties.clone();
+                connectedAtomIndex = atomIndexMap[cachedBondProperties[0]];
+                // bonds are stored at their atom with the lower index
+                if (atomIndex
+                        < connectedAtomIndex) {
+                    bondProperties[0] = connectedAtomIndex;
+                    bondPropertiesLists.get(atomIndex)
+                                       .add(bondProperties);
+                } else {
+                    bondProperties[0] = atomIndex;
+                    if (bondProperties.length
+                            == 5) {
+                        bondProperties[4] = invertStereo(bondProperties[4]);
+                    }
+                    bondPropertiesLists.get(connectedAtomIndex)
+                                       .add(bondProperties);
+                }
+            }
+        }
+        final int[][][] bondPropertiesArray = new int[atomCount][][];
+        for (int i = 0; i
+                < atomCount; i++) {
+            bondPropertiesLists.get(i)
+                               .sort((bondProperties1, bondProperties2) -> Integer.compare(bondProperties1[0],
+                                                                                           bondProperties2[0]));
+            bondPropertiesArray[i] = bondPropertiesLists.get(i)
+                                                        .toArray(new int[0][]);
+        }
+
+        return new StructureCompact(bondPropertiesArray, atomProperties);
+    }
+
+    /**
+     * @param ordinal ordinal of the stereo configuration of a bond
+     *
+     * @return ordinal of the stereo configuration of the same bond with swapped atoms
+     */
+    private static int invertStereo(final int ordinal) {
+        switch (IBond.Stereo.values()[ordinal]) {
+            case UP:
+                return IBond.Stereo.UP_INVERTED.ordinal();
+            case UP_INVERTED:
+                return IBond.Stereo.UP.ordinal();
+            case DOWN:
+                return IBond.Stereo.DOWN_INVERTED.ordinal();
+            case DOWN_INVERTED:
+                return IBond.Stereo.DOWN.ordinal();
+            case UP_OR_DOWN:
+                return IBond.Stereo.UP_OR_DOWN_INVERTED.ordinal();
+            case UP_OR_DOWN_INVERTED:
+                return IBond.Stereo.UP_OR_DOWN.ordinal();
+            default:
+                return ordinal;
+        }
+    }
+
+    /**
+     * Removes all entries from memory, e.g. after the statistics were swapped. The on-disk entries are kept since
+     * they are bound to their statistics identifier anyway.
+     *
+     * @see HOSECodeShiftStatisticsHandle#addSwapListener(java.util.function.Consumer)
+     */
+    public void invalidateAll() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return this.diskHitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    private Entry readFromDisk(final String key) {
+        if (this.directory
+                == null) {
+            return null;
+        }
+        final Path path = this.directory.resolve(buildFileName(key));
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            final DiskEntry diskEntry = GSON.fromJson(new String(Files.readAllBytes(path), StandardCharsets.UTF_8),
+                                                      DiskEntry.class);
+            // guard against hash collisions
+            if (diskEntry
+                    == null
+                    || !key.equals(diskEntry.key)) {
+                return null;
+            }
+            final DataSet dataSet = diskEntry.dataSet;
+            dataSet.setAttachment(new HashMap<>());
+            if (diskEntry.predictionMeta
+                    != null) {
+                dataSet.addAttachment(PREDICTION_META_KEY, diskEntry.predictionMeta);
+            }
+
+            return new Entry(dataSet, diskEntry.canonicalRanks);
+        } catch (final IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeToDisk(final String key, final Entry entry) {
+        if (this.directory
+                == null) {
+            return;
+        }
+        // attachments are arbitrary objects, only the prediction meta information is written with its type
+        final DataSet dataSet = entry.dataSet;
+        final DataSet dataSetToWrite = new DataSet(dataSet.getStructure(), dataSet.getSpectrum(),
+                                                   dataSet.getAssignment(), dataSet.getMeta(), null);
+        final Object predictionMeta = dataSet.getAttachment()
+                                             .get(PREDICTION_META_KEY);
+        final DiskEntry diskEntry = new DiskEntry(key, dataSetToWrite, entry.canonicalRanks,
+                                                  predictionMeta instanceof Map
+                                                  ? (Map<Integer, Double[]>) predictionMeta
+                                                  : null);
+        final Path path = this.directory.resolve(buildFileName(key));
+        try {
+            // write to a temporary file first, so concurrent readers never see partial files
+            final Path tempPath = Files.createTempFile(this.directory, "entry", ".tmp");
+            Files.write(tempPath, GSON.toJson(diskEntry)
+                                      .getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String buildFileName(final String key) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256")
+                                             .digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder stringBuilder = new StringBuilder(hash.length
+                                                                          * 2
+                                                                          + 5);
+            for (final byte b : hash) {
+                stringBuilder.append(String.format("%02x", b));
+            }
+
+            return stringBuilder.append(".json")
+                                .toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // SHA-256 is available in every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Key of a cache entry.
+     *
+     * @see #buildKey(IAtomContainer, boolean, String, String, String, String)
+     */
+    public static class Key {
+
+        private final String value;
+        // canonical rank and hydrogen count per heavy atom, in the order of the structure of the key
+        private final int[] canonicalRanks;
+        private final int[] hydrogenCounts;
+
+        private Key(final String value, final int[] canonicalRanks, final int[] hydrogenCounts) {
+            this.value = value;
+            this.canonicalRanks = canonicalRanks;
+            this.hydrogenCounts = hydrogenCounts;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        @Override
+        public String toString() {
+            return this.value;
+        }
+    }
+
+    private static class Entry {
+
+        private final DataSet dataSet;
+        // canonical rank per heavy atom of the structure the dataset was predicted for
+        private final int[] canonicalRanks;
+
+        Entry(final DataSet dataSet, final int[] canonicalRanks) {
+            this.dataSet = dataSet;
+            this.canonicalRanks = canonicalRanks;
+        }
+    }
+
+    private static class DiskEntry {
+
+        private final String key;
+        private final DataSet dataSet;
+        private final int[] canonicalRanks;
+        private final Map<Integer, Double[]> predictionMeta;
+
+        DiskEntry(final String key, final DataSet dataSet, final int[] canonicalRanks,
+                  final Map<Integer, Double[]> predictionMeta) {
+            this.key = key;
+            this.dataSet = dataSet;
+            this.canonicalRanks = canonicalRanks;
+            this.predictionMeta = predictionMeta;
+        }
+    }
+}
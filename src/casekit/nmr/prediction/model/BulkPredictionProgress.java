@@ -0,0 +1,36 @@
+package casekit.nmr.prediction.model;
+
+import lombok.*;
+
+/**
+ * Progress of a bulk prediction job. Record counts refer to the records written to the output, records which were
+ * already written by a previous (resumed) run are counted separately.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class BulkPredictionProgress {
+
+    // written by previous runs and skipped on resume
+    private long resumedCount;
+    // written by this run, including failed records
+    private long writtenCount;
+    // records for which no prediction could be made
+    private long failedCount;
+    private long elapsedMillis;
+    private boolean finished;
+
+    /**
+     * @return records written by this run per second
+     */
+    public double getMoleculesPerSecond() {
+        return this.elapsedMillis
+                       > 0
+               ? this.writtenCount
+                       * 1000.0
+                       / this.elapsedMillis
+               : 0;
+    }
+}
@@ -12,6 +12,8 @@
 
 package casekit.nmr.similarity;
 
+import casekit.io.corpus.SpectrumView;
+import casekit.io.corpus.StructureView;
 import casekit.nmr.analysis.MultiplicitySectionsBuilder;
 import casekit.nmr.elucidation.model.Detections;
 import casekit.nmr.model.Assignment;
@@ -389,4 +391,89 @@ public class Similarity {
 
         return matchAssignment;
     }
+
+    /**
+     * Same as {@link #matchSpectra(Spectrum, Spectrum, int, int, double, boolean, boolean, boolean, IAtomContainer,
+     * Assignment, Detections)} but for a spectrum view as first spectrum, e.g. while scanning a data set corpus.
+     * The matching is done on primitive arrays of the given spectral match, which is reused, so nothing is decoded
+     * or allocated per spectrum.
+     *
+     * @param spectrumView1               first spectrum (possible subspectrum) with its assignment
+     * @param spectrum2                   second spectrum
+     * @param dim1                        dimension in first spectrum to take the shifts from
+     * @param dim2                        dimension in second spectrum to take the shifts from
+     * @param shiftTolerance              Tolerance value [ppm] used during spectra shift
+     *                                    comparison
+     * @param checkMultiplicity           indicates whether to compare the multiplicity of matched signals
+     * @param checkEquivalencesCount      indicates whether to compare the equivalences counts of matched signals
+     * @param allowLowerEquivalencesCount indicates to allow a lower equivalences counts spectrum 2
+     * @param structureView               structure view belonging to first spectrum, or null
+     * @param detections                  detections object which contains structural constraints, or null
+     * @param spectralMatch               spectral match to fill
+     *
+     * @return the given spectral match; null if one of the spectra does not contain the selected dimension
+     */
+    public static SpectralMatch matchSpectra(final SpectrumView spectrumView1, final Spectrum spectrum2,
+                                             final int dim1, final int dim2, final double shiftTolerance,
+                                             final boolean checkMultiplicity, final boolean checkEquivalencesCount,
+                                             final boolean allowLowerEquivalencesCount,
+                                             final StructureView structureView, final Detections detections,
+                                             final SpectralMatch spectralMatch) {
+        if (!spectrumView1.containsDim(dim1)
+                || !spectrum2.containsDim(dim2)) {
+            return null;
+        }
+        final boolean checkStructure = structureView
+                != null
+                && detections
+                != null;
+        spectralMatch.reset(spectrumView1.getSignalCount(), spectrum2.getSignalCount());
+        double distanceValue;
+        for (int i = 0; i
+                < spectrumView1.getSignalCount(); i++) {
+            for (int j = 0; j
+                    < spectrum2.getSignalCount(); j++) {
+                distanceValue = Utilities.getDistanceValue(spectrumView1, i, spectrum2.getSignal(j), dim1, dim2,
+                                                           checkMultiplicity, checkEquivalencesCount,
+                                                           allowLowerEquivalencesCount, shiftTolerance);
+                if (Double.isNaN(distanceValue)
+                        || (checkStructure
+                        && !Utilities.checkStructuralConstraints(spectrumView1, i, j, structureView, detections))) {
+                    continue;
+                }
+                spectralMatch.addCandidate(i, j, distanceValue);
+            }
+        }
+        spectralMatch.assignCandidates(spectrum2);
+
+        return spectralMatch;
+    }
+
+    /**
+     * Calculates the deviations between a spectrum view and a spectrum after their matching and stores them in
+     * the spectral match.
+     *
+     * @param spectrumView1 first spectrum
+     * @param spectrum2     second spectrum
+     * @param dim1          dimension in first spectrum to take the shifts from
+     * @param dim2          dimension in second spectrum to take the shifts from
+     * @param spectralMatch spectral match from previous matching
+     *
+     * @see #getDeviations(Spectrum, Spectrum, int, int, Assignment)
+     */
+    public static void calculateDeviations(final SpectrumView spectrumView1, final Spectrum spectrum2, final int dim1,
+                                           final int dim2, final SpectralMatch spectralMatch) {
+        spectralMatch.resetDeviations();
+        int match;
+        for (int i = 0; i
+                < spectralMatch.getSignalCount(); i++) {
+            match = spectralMatch.getMatch(i);
+            spectralMatch.setDeviation(i, match
+                                                  < 0
+                                          ? Double.NaN
+                                          : Math.abs(spectrumView1.getShift(i, dim1)
+                                                             - spectrum2.getSignal(match)
+                                                                        .getShift(dim2)));
+        }
+    }
 }
@@ -0,0 +1,239 @@
+package casekit.nmr.similarity;
+
+import casekit.nmr.model.Assignment;
+import casekit.nmr.model.Spectrum;
+
+import java.util.Arrays;
+
+/**
+ * Reusable result of matching a spectrum view against a spectrum, see
+ * {@link Similarity#matchSpectra(casekit.io.corpus.SpectrumView, Spectrum, int, int, double, boolean, boolean,
+ * boolean, casekit.io.corpus.StructureView, casekit.nmr.elucidation.model.Detections, SpectralMatch)}. <br>
+ * The matching candidates, the matches and the deviations are kept in primitive arrays which only grow, so one
+ * instance can be reused for the matching of a whole corpus without allocations. An instance is not thread-safe.
+ */
+public class SpectralMatch {
+
+    private final static int NO_MATCH = -1;
+
+    private int signalCount;
+    private int setAssignmentsCount;
+    // matched signal index in the second spectrum per signal of the first spectrum
+    private int[] matches;
+    private boolean[] assignedSpectrum1;
+    private boolean[] assignedSpectrum2;
+    private double[] deviations;
+    private double[] matchedDeviations;
+    private int matchedDeviationsCount;
+    // candidate pairs within the shift tolerance, in the order of their creation
+    private int candidateCount;
+    private int[] candidateSignalIndicesSpectrum1;
+    private int[] candidateSignalIndicesSpectrum2;
+    private double[] candidateDistances;
+    private int[] candidateOrder;
+    private int[] candidateOrderTemp;
+
+    public SpectralMatch() {
+        this.matches = new int[64];
+        this.assignedSpectrum1 = new boolean[64];
+        this.assignedSpectrum2 = new boolean[64];
+        this.deviations = new double[64];
+        this.matchedDeviations = new double[64];
+        this.candidateSignalIndicesSpectrum1 = new int[256];
+        this.candidateSignalIndicesSpectrum2 = new int[256];
+        this.candidateDistances = new double[256];
+        this.candidateOrder = new int[256];
+        this.candidateOrderTemp = new int[256];
+    }
+
+    void reset(final int signalCountSpectrum1, final int signalCountSpectrum2) {
+        this.signalCount = signalCountSpectrum1;
+        this.setAssignmentsCount = 0;
+        this.matchedDeviationsCount = 0;
+        this.candidateCount = 0;
+        if (signalCountSpectrum1
+                > this.matches.length) {
+            final int capacity = Math.max(signalCountSpectrum1, this.matches.length
+                    * 2);
+            this.matches = new int[capacity];
+            this.assignedSpectrum1 = new boolean[capacity];
+            this.deviations = new double[capacity];
+            this.matchedDeviations = new double[capacity];
+        }
+        if (signalCountSpectrum2
+                > this.assignedSpectrum2.length) {
+            this.assignedSpectrum2 = new boolean[Math.max(signalCountSpectrum2, this.assignedSpectrum2.length
+                    * 2)];
+        }
+        Arrays.fill(this.matches, 0, signalCountSpectrum1, NO_MATCH);
+        Arrays.fill(this.assignedSpectrum1, 0, signalCountSpectrum1, false);
+        Arrays.fill(this.assignedSpectrum2, 0, signalCountSpectrum2, false);
+    }
+
+    void addCandidate(final int signalIndexSpectrum1, final int signalIndexSpectrum2, final double distance) {
+        if (this.candidateCount
+                == this.candidateDistances.length) {
+            final int capacity = this.candidateCount
+                    * 2;
+            this.candidateSignalIndicesSpectrum1 = Arrays.copyOf(this.candidateSignalIndicesSpectrum1, capacity);
+            this.candidateSignalIndicesSpectrum2 = Arrays.copyOf(this.candidateSignalIndicesSpectrum2, capacity);
+            this.candidateDistances = Arrays.copyOf(this.candidateDistances, capacity);
+            this.candidateOrder = new int[capacity];
+            this.candidateOrderTemp = new int[capacity];
+        }
+        this.candidateSignalIndicesSpectrum1[this.candidateCount] = signalIndexSpectrum1;
+        this.candidateSignalIndicesSpectrum2[this.candidateCount] = signalIndexSpectrum2;
+        this.candidateDistances[this.candidateCount] = distance;
+        this.candidateCount++;
+    }
+
+    /**
+     * Assigns the candidates greedily by ascending distance, candidates with equal distances in the order of their
+     * creation, like the matching of two spectra does with its sorted distance list.
+     *
+     * @param spectrum2 second spectrum, for the equivalences counts of its signals
+     */
+    void assignCandidates(final Spectrum spectrum2) {
+        for (int c = 0; c
+                < this.candidateCount; c++) {
+            this.candidateOrder[c] = c;
+        }
+        this.sortCandidates(0, this.candidateCount);
+        int candidate, signalIndexSpectrum1, signalIndexSpectrum2;
+        for (int c = 0; c
+                < this.candidateCount; c++) {
+            candidate = this.candidateOrder[c];
+            signalIndexSpectrum1 = this.candidateSignalIndicesSpectrum1[candidate];
+            signalIndexSpectrum2 = this.candidateSignalIndicesSpectrum2[candidate];
+            if (!this.assignedSpectrum1[signalIndexSpectrum1]
+                    && !this.assignedSpectrum2[signalIndexSpectrum2]) {
+                // a signal without equivalences gets no assignment, but is still used up
+                if (spectrum2.getSignal(signalIndexSpectrum2)
+                             .getEquivalencesCount()
+                        > 0) {
+                    this.matches[signalIndexSpectrum1] = signalIndexSpectrum2;
+                    this.setAssignmentsCount++;
+                }
+                this.assignedSpectrum1[signalIndexSpectrum1] = true;
+                this.assignedSpectrum2[signalIndexSpectrum2] = true;
+            }
+        }
+    }
+
+    /**
+     * Stable merge sort of the candidate order by distance.
+     */
+    private void sortCandidates(final int from, final int to) {
+        if (to
+                - from
+                < 2) {
+            return;
+        }
+        final int middle = (from
+                + to)
+                >>> 1;
+        this.sortCandidates(from, middle);
+        this.sortCandidates(middle, to);
+        if (Double.compare(this.candidateDistances[this.candidateOrder[middle
+                - 1]], this.candidateDistances[this.candidateOrder[middle]])
+                <= 0) {
+            return;
+        }
+        System.arraycopy(this.candidateOrder, from, this.candidateOrderTemp, from, to
+                - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k
+                < to; k++) {
+            if (right
+                    >= to
+                    || (left
+                    < middle
+                    && Double.compare(this.candidateDistances[this.candidateOrderTemp[left]],
+                                      this.candidateDistances[this.candidateOrderTemp[right]])
+                    <= 0)) {
+                this.candidateOrder[k] = this.candidateOrderTemp[left++];
+            } else {
+                this.candidateOrder[k] = this.candidateOrderTemp[right++];
+            }
+        }
+    }
+
+    void setDeviation(final int signalIndexSpectrum1, final double deviation) {
+        this.deviations[signalIndexSpectrum1] = deviation;
+        if (!Double.isNaN(deviation)) {
+            this.matchedDeviations[this.matchedDeviationsCount++] = deviation;
+        }
+    }
+
+    void resetDeviations() {
+        this.matchedDeviationsCount = 0;
+    }
+
+    public int getSignalCount() {
+        return this.signalCount;
+    }
+
+    /**
+     * @return number of signals of the first spectrum with an assignment
+     */
+    public int getSetAssignmentsCount() {
+        return this.setAssignmentsCount;
+    }
+
+    /**
+     * @param signalIndexSpectrum1 signal index in the first spectrum
+     *
+     * @return matched signal index in the second spectrum, or -1 if not assigned
+     */
+    public int getMatch(final int signalIndexSpectrum1) {
+        return this.matches[signalIndexSpectrum1];
+    }
+
+    /**
+     * @param signalIndexSpectrum1 signal index in the first spectrum
+     *
+     * @return deviation to the matched signal, NaN if not assigned
+     */
+    public double getDeviation(final int signalIndexSpectrum1) {
+        return this.deviations[signalIndexSpectrum1];
+    }
+
+    /**
+     * @return deviations of the assigned signals in signal order, valid up to {@link #getMatchedDeviationsCount()}
+     */
+    public double[] getMatchedDeviations() {
+        return this.matchedDeviations;
+    }
+
+    public int getMatchedDeviationsCount() {
+        return this.matchedDeviationsCount;
+    }
+
+    /**
+     * Builds the assignment object as returned by the matching of two spectra.
+     *
+     * @param nuclei    nuclei of the first spectrum
+     * @param spectrum2 second spectrum
+     *
+     * @return
+     */
+    public Assignment toAssignment(final String[] nuclei, final Spectrum spectrum2) {
+        final Assignment matchAssignment = new Assignment();
+        matchAssignment.setNuclei(nuclei);
+        matchAssignment.initAssignments(this.signalCount);
+        for (int i = 0; i
+                < this.signalCount; i++) {
+            if (this.matches[i]
+                    != NO_MATCH) {
+                for (int equiv = 0; equiv
+                        < spectrum2.getSignal(this.matches[i])
+                                   .getEquivalencesCount(); equiv++) {
+                    matchAssignment.addAssignmentEquivalence(0, i, this.matches[i]);
+                }
+            }
+        }
+
+        return matchAssignment;
+    }
+}
@@ -1,5 +1,7 @@
 package casekit.nmr.similarity;
 
+import casekit.io.corpus.SpectrumView;
+import casekit.io.corpus.StructureView;
 import casekit.nmr.elucidation.Constants;
 import casekit.nmr.elucidation.model.Detections;
 import casekit.nmr.model.Assignment;
@@ -8,6 +10,7 @@ import casekit.nmr.model.Spectrum;
 import casekit.nmr.similarity.model.Distance;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IAtomType;
 
 import java.util.*;
 
@@ -178,4 +181,113 @@ public class Utilities {
 
         return distanceList;
     }
+
+    /**
+     * Same as {@link #getDistanceValue(Signal, Signal, int, int, boolean, boolean, boolean, double)} but for a
+     * signal of a spectrum view, without decoding the signal.
+     *
+     * @param spectrumView1 spectrum view of the first signal
+     * @param signalIndex1  signal index in the spectrum view
+     * @param signal2       second signal
+     *
+     * @return NaN if the signals do not match
+     */
+    public static double getDistanceValue(final SpectrumView spectrumView1, final int signalIndex1,
+                                          final Signal signal2, final int dim1, final int dim2,
+                                          final boolean checkMultiplicity, final boolean checkEquivalencesCount,
+                                          final boolean allowLowerEquivalencesCount, final double shiftTolerance) {
+        boolean passed = true;
+        if (checkMultiplicity) {
+            passed = spectrumView1.hasMultiplicity(signalIndex1)
+                     ? spectrumView1.isMultiplicity(signalIndex1, signal2.getMultiplicity())
+                     : signal2.getMultiplicity()
+                             == null;
+        }
+        if (passed
+                && checkEquivalencesCount) {
+            if (allowLowerEquivalencesCount) {
+                passed = spectrumView1.getEquivalencesCount(signalIndex1)
+                        <= signal2.getEquivalencesCount();
+            } else {
+                passed = spectrumView1.getEquivalencesCount(signalIndex1)
+                        == signal2.getEquivalencesCount();
+            }
+        }
+        if (!passed) {
+            return Double.NaN;
+        }
+        final double distanceValue = Math.abs(spectrumView1.getShift(signalIndex1, dim1)
+                                                      - signal2.getShift(dim2));
+
+        return distanceValue
+                       <= shiftTolerance
+               ? distanceValue
+               : Double.NaN;
+    }
+
+    /**
+     * Checks the structural constraints of the detections for the atoms assigned to a signal of a spectrum view,
+     * like {@link #buildDistanceList(Spectrum, Spectrum, int, int, double, boolean, boolean, boolean,
+     * IAtomContainer, Assignment, Detections)} does for a structure and its assignment.
+     *
+     * @param spectrumView1 spectrum view with assignment
+     * @param signalIndex1  signal index in the spectrum view
+     * @param signalIndex2  signal index in the second spectrum the detections belong to
+     * @param structureView structure view of the same data set
+     * @param detections    detections to use as structural filter
+     *
+     * @return false if one of the assigned atoms violates a constraint
+     */
+    public static boolean checkStructuralConstraints(final SpectrumView spectrumView1, final int signalIndex1,
+                                                     final int signalIndex2, final StructureView structureView,
+                                                     final Detections detections) {
+        final Set<String> forbiddenNeighbors = detections.getForbiddenNeighbors()
+                                                         .get(signalIndex2)
+                                                         .keySet();
+        final Set<String> setNeighbors = detections.getSetNeighbors()
+                                                   .get(signalIndex2)
+                                                   .keySet();
+        final List<Integer> hybridizations = detections.getDetectedHybridizations()
+                                                       .get(signalIndex2);
+        int atomIndex;
+        IAtomType.Hybridization hybridization;
+        for (int equiv = 0; equiv
+                < spectrumView1.getAssignedAtomCount(signalIndex1); equiv++) {
+            atomIndex = spectrumView1.getAssignedAtom(signalIndex1, equiv);
+            hybridization = structureView.getHybridization(atomIndex);
+            // if certain hybridizations are given and the atom's hybridization is known
+            if (!hybridizations.isEmpty()
+                    && hybridization
+                    != null
+                    && Constants.hybridizationConversionMap.containsKey(hybridization.name())
+                    && !hybridizations.contains(Constants.hybridizationConversionMap.get(hybridization.name()))) {
+                return false;
+            }
+            for (int k = 0; k
+                    < structureView.getNeighborCount(atomIndex); k++) {
+                if (forbiddenNeighbors.contains(structureView.getSymbol(structureView.getNeighbor(atomIndex, k)))) {
+                    return false;
+                }
+            }
+            for (final String setNeighbor : setNeighbors) {
+                if (!hasNeighbor(structureView, atomIndex, setNeighbor)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean hasNeighbor(final StructureView structureView, final int atomIndex, final String symbol) {
+        for (int k = 0; k
+                < structureView.getNeighborCount(atomIndex); k++) {
+            if (structureView.getSymbol(structureView.getNeighbor(atomIndex, k))
+                             .equals(symbol)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
@@ -1,5 +1,7 @@
 package casekit.nmr.utils;
 
+import casekit.io.ParallelSDFReader;
+import casekit.io.compression.CompressedFiles;
 import casekit.nmr.model.DataSet;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.io.iterator.IteratingSDFReader;
@@ -9,12 +11,35 @@ import org.openscience.cdk.smiles.SmilesParser;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Parser {
 
-    public static List<DataSet> parseSDFile(final String pathToFile) throws CDKException, FileNotFoundException {
-        return parseSDFile(new FileReader(pathToFile));
+    public static List<DataSet> parseSDFile(final String pathToFile) throws CDKException, IOException {
+        try (final Reader reader = CompressedFiles.newReader(pathToFile)) {
+            return parseSDFile(reader);
+        }
+    }
+
+    /**
+     * Parses the given SD file with multiple threads, keeping the record order.
+     *
+     * @param pathToFile path to SD file
+     * @param nThreads   number of threads to use
+     *
+     * @return
+     *
+     * @throws IOException
+     * @throws CDKException
+     * @throws InterruptedException
+     * @see ParallelSDFReader
+     */
+    public static List<DataSet> parseSDFile(final String pathToFile,
+                                            final int nThreads) throws IOException, CDKException, InterruptedException {
+        return ParallelSDFReader.read(pathToFile,
+                                      structure -> Collections.singletonList(Utils.atomContainerToDataSet(structure)),
+                                      nThreads, true);
     }
 
     public static List<DataSet> parseSDFileContent(final String fileContent) throws CDKException {
@@ -33,8 +58,10 @@ public class Parser {
         return dataSetList;
     }
 
-    public static List<DataSet> parseSmilesFile(final String pathToFile) throws FileNotFoundException {
-        return parseSmilesFile(new FileReader(pathToFile));
+    public static List<DataSet> parseSmilesFile(final String pathToFile) throws IOException {
+        try (final Reader reader = CompressedFiles.newReader(pathToFile)) {
+            return parseSmilesFile(reader);
+        }
     }
 
     public static List<DataSet> parseSmilesFileContent(final String fileContent) {
@@ -58,8 +85,10 @@ public class Parser {
         return dataSetList;
     }
 
-    public static List<String> smilesFileToList(final String pathToFile) throws FileNotFoundException {
-        return smilesFileToList(new FileReader(pathToFile));
+    public static List<String> smilesFileToList(final String pathToFile) throws IOException {
+        try (final Reader reader = CompressedFiles.newReader(pathToFile)) {
+            return smilesFileToList(reader);
+        }
     }
 
     public static List<String> smilesFileContentToList(final String fileContent) {
@@ -1,6 +1,7 @@
 package casekit.nmr.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -332,4 +333,256 @@ public class Statistics {
 
         return getRMSD(data);
     }
+
+    /*
+     * Primitive kernel: the following methods work on null-free double arrays and avoid boxing and repeated sorting.
+     * Median and quartiles are determined via quickselect, i.e. methods which are documented to do so reorder the
+     * given values in place.
+     */
+
+    /**
+     * Detects outliers in the first {@code length} values like {@link #removeOutliers(List, double)} and moves
+     * the kept values, in their given order, to the front of the array.
+     *
+     * @param values        values to process
+     * @param length        number of values to consider
+     * @param multiplierIQR multiplier for IQR to use for lower and upper bound creation
+     *
+     * @return number of kept values; 0 if not more than one value is given
+     */
+    public static int removeOutliers(final double[] values, final int length, final double multiplierIQR) {
+        if (length
+                <= 1) {
+            return 0;
+        }
+        final double[] boundaries = getLowerAndUpperBoundaries(Arrays.copyOf(values, length), length,
+                                                               multiplierIQR);
+        final double lowerBound = boundaries[0];
+        final double upperBound = boundaries[1];
+        int count = 0;
+        for (int i = 0; i
+                < length; i++) {
+            if (values[i]
+                    >= lowerBound
+                    && values[i]
+                    <= upperBound) {
+                values[count] = values[i];
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Calculates the lower and upper whisker boundaries like {@link #getLowerAndUpperBoundaries(List, double)}. <br>
+     * The values are reordered in place.
+     *
+     * @param values        values to process
+     * @param length        number of values to consider, has to be at least 2
+     * @param multiplierIQR multiplier for IQR to use for lower and upper bound creation
+     *
+     * @return
+     */
+    public static double[] getLowerAndUpperBoundaries(final double[] values, final int length,
+                                                      final double multiplierIQR) {
+        final int half = length
+                / 2;
+        // after selection, the lower half holds the smallest values and the upper half the largest ones
+        select(values, 0, length, half);
+        final double q1 = getMedian(values, 0, half);
+        final double q3 = getMedian(values, length
+                                            % 2
+                                            == 0
+                                    ? half
+                                    : half
+                                            + 1, length);
+        final double iqr = q3
+                - q1;
+
+        return new double[]{q1
+                                    - multiplierIQR
+                                    * iqr, q3
+                                    + multiplierIQR
+                                    * iqr};
+    }
+
+    /**
+     * Returns the median of the values in given range like {@link #getMedian(List)}. <br>
+     * The values in that range are reordered in place.
+     *
+     * @param values values
+     * @param from   first index (inclusive)
+     * @param to     last index (exclusive), has to be greater than from
+     *
+     * @return
+     */
+    public static double getMedian(final double[] values, final int from, final int to) {
+        final int length = to
+                - from;
+        final int middle = from
+                + length
+                / 2;
+        final double upperMedian = select(values, from, to, middle);
+        if (length
+                % 2
+                == 1) {
+            return upperMedian;
+        }
+        // the lower median is the largest value left to the selected one
+        double lowerMedian = values[from];
+        for (int i = from
+                + 1; i
+                     < middle; i++) {
+            if (values[i]
+                    > lowerMedian) {
+                lowerMedian = values[i];
+            }
+        }
+
+        return (lowerMedian
+                + upperMedian)
+                / 2.0;
+    }
+
+    /**
+     * Returns the median of the first {@code length} values. The values are reordered in place.
+     *
+     * @param values values
+     * @param length number of values to consider
+     *
+     * @return null if no value is given
+     *
+     * @see #getMedian(double[], int, int)
+     */
+    public static Double getMedian(final double[] values, final int length) {
+        if (length
+                == 0) {
+            return null;
+        }
+
+        return getMedian(values, 0, length);
+    }
+
+    /**
+     * Moves the k-th smallest value in given range to index k (quickselect), with all smaller or equal values
+     * left to it and all greater or equal values right to it.
+     *
+     * @param values values
+     * @param from   first index (inclusive)
+     * @param to     last index (exclusive)
+     * @param k      index of value to select
+     *
+     * @return the k-th smallest value
+     */
+    private static double select(final double[] values, final int from, final int to, final int k) {
+        int left = from;
+        int right = to
+                - 1;
+        int i, j;
+        double pivot, temp;
+        while (right
+                > left) {
+            pivot = medianOfThree(values[left], values[(left
+                    + right)
+                    >>> 1], values[right]);
+            i = left;
+            j = right;
+            while (i
+                    <= j) {
+                while (values[i]
+                        < pivot) {
+                    i++;
+                }
+                while (values[j]
+                        > pivot) {
+                    j--;
+                }
+                if (i
+                        <= j) {
+                    temp = values[i];
+                    values[i] = values[j];
+                    values[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k
+                    <= j) {
+                right = j;
+            } else if (k
+                    >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+
+        return values[k];
+    }
+
+    private static double medianOfThree(final double a, final double b, final double c) {
+        if (a
+                < b) {
+            return b
+                           < c
+                   ? b
+                   : Math.max(a, c);
+        }
+        return a
+                       < c
+               ? a
+               : Math.max(b, c);
+    }
+
+    /**
+     * Returns the mean of the first {@code length} values, summed up in given order.
+     *
+     * @param values values
+     * @param length number of values to consider
+     *
+     * @return null if no value is given
+     */
+    public static Double getMean(final double[] values, final int length) {
+        if (length
+                == 0) {
+            return null;
+        }
+        double sum = 0;
+        for (int i = 0; i
+                < length; i++) {
+            sum += values[i];
+        }
+
+        return sum
+                / length;
+    }
+
+    /**
+     * Returns the root mean square of the first {@code length} values like {@link #getRMSD(Double[])}.
+     *
+     * @param values values
+     * @param length number of values to consider
+     *
+     * @return null if no value is given
+     */
+    public static Double getRMSD(final double[] values, final int length) {
+        if (length
+                == 0) {
+            return null;
+        }
+        if (length
+                == 1) {
+            return values[0];
+        }
+        double qSum = 0;
+        for (int i = 0; i
+                < length; i++) {
+            qSum += values[i]
+                    * values[i];
+        }
+
+        return Math.sqrt(qSum
+                                 / length);
+    }
 }
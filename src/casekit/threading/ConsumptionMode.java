@@ -0,0 +1,19 @@
+package casekit.threading;
+
+/**
+ * When and where task results are passed to the consumer.
+ */
+public enum ConsumptionMode {
+    /**
+     * on the calling thread in submission order, after all tasks are finished
+     */
+    SUBMISSION_ORDER,
+    /**
+     * on the calling thread in completion order, as soon as each task is finished
+     */
+    COMPLETION_ORDER,
+    /**
+     * on the worker thread directly after each task; the consumer has to be thread-safe
+     */
+    PARALLEL
+}
@@ -0,0 +1,282 @@
+package casekit.threading;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived executor to be shared across calls, e.g. by a service processing many small batches, instead of
+ * creating and tearing down a thread pool per call. <br>
+ * Threads are named by a prefix and a number. Either a fixed pool with a bounded queue and a rejection policy or a
+ * work-stealing pool can be used. Lifecycle hooks are called before and after each task and on shutdown.
+ * Since the executor outlives single batches, callers must not shut it down after use.
+ *
+ * @see MultiThreading#processTasks(java.util.Collection, Consumer, ExecutorService)
+ */
+public class ManagedExecutor
+        extends AbstractExecutorService
+        implements Closeable {
+
+    private static ManagedExecutor shared;
+    private static boolean sharedShutdownHookAdded;
+
+    private final String name;
+    private final ExecutorService delegate;
+    private final List<Consumer<Runnable>> beforeExecuteHooks;
+    private final List<BiConsumer<Runnable, Throwable>> afterExecuteHooks;
+    private final List<Runnable> shutdownHooks;
+    private final AtomicBoolean shutdownHooksCalled;
+
+    /**
+     * What happens to a task submitted while the queue of a fixed pool is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * throw a {@link RejectedExecutionException}
+         */
+        ABORT,
+        /**
+         * run the task in the submitting thread
+         */
+        CALLER_RUNS,
+        /**
+         * block the submitting thread until the queue has space again
+         */
+        BLOCK
+    }
+
+    private ManagedExecutor(final String name, final ExecutorService delegate) {
+        this.name = name;
+        this.delegate = delegate;
+        this.beforeExecuteHooks = new CopyOnWriteArrayList<>();
+        this.afterExecuteHooks = new CopyOnWriteArrayList<>();
+        this.shutdownHooks = new CopyOnWriteArrayList<>();
+        this.shutdownHooksCalled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Creates a fixed thread pool with a bounded queue.
+     *
+     * @param name            prefix of the thread names
+     * @param nThreads        number of threads
+     * @param queueCapacity   maximum number of queued tasks
+     * @param rejectionPolicy what to do if the queue is full
+     *
+     * @return
+     */
+    public static ManagedExecutor newFixedThreadPool(final String name, final int nThreads, final int queueCapacity,
+                                                     final RejectionPolicy rejectionPolicy) {
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(nThreads, nThreads, 0L,
+                                                                             TimeUnit.MILLISECONDS,
+                                                                             new LinkedBlockingQueue<>(queueCapacity),
+                                                                             buildThreadFactory(name),
+                                                                             buildRejectedExecutionHandler(
+                                                                                     rejectionPolicy));
+
+        return new ManagedExecutor(name, threadPoolExecutor);
+    }
+
+    /**
+     * Creates a work-stealing pool, which suits many small tasks of uneven duration. Its queues are unbounded.
+     *
+     * @param name        prefix of the thread names
+     * @param parallelism number of threads
+     *
+     * @return
+     */
+    public static ManagedExecutor newWorkStealingPool(final String name, final int parallelism) {
+        final AtomicInteger threadCounter = new AtomicInteger();
+        final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name
+                                   + "-"
+                                   + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+
+        return new ManagedExecutor(name, forkJoinPool);
+    }
+
+    /**
+     * Returns the executor shared within this JVM: a fixed pool with one thread per available processor, which
+     * runs tasks in the submitting thread if its queue is full. It is shut down when the JVM exits.
+     *
+     * @return
+     */
+    public static synchronized ManagedExecutor getShared() {
+        if (shared
+                == null
+                || shared.isShutdown()) {
+            shared = newFixedThreadPool("casekit-shared", Runtime.getRuntime()
+                                                                 .availableProcessors(), 1
+                                                << 16, RejectionPolicy.CALLER_RUNS);
+            // only one hook for all recreated instances, it closes the current one
+            if (!sharedShutdownHookAdded) {
+                Runtime.getRuntime()
+                       .addShutdownHook(new Thread(ManagedExecutor::closeShared, "casekit-shared-shutdown"));
+                sharedShutdownHookAdded = true;
+            }
+        }
+
+        return shared;
+    }
+
+    private static void closeShared() {
+        final ManagedExecutor executor;
+        synchronized (ManagedExecutor.class) {
+            executor = shared;
+        }
+        if (executor
+                != null) {
+            executor.close();
+        }
+    }
+
+    private static ThreadFactory buildThreadFactory(final String name) {
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name
+                    + "-"
+                    + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static RejectedExecutionHandler buildRejectedExecutionHandler(final RejectionPolicy rejectionPolicy) {
+        switch (rejectionPolicy) {
+            case CALLER_RUNS:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case BLOCK:
+                return (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Executor is shut down");
+                    }
+                    try {
+                        executor.getQueue()
+                                .put(runnable);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread()
+                              .interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                };
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    /**
+     * Adds a hook which is called in the worker thread before each task.
+     *
+     * @param hook hook
+     */
+    public void addBeforeExecuteHook(final Consumer<Runnable> hook) {
+        this.beforeExecuteHooks.add(hook);
+    }
+
+    /**
+     * Adds a hook which is called in the worker thread after each task, with the exception thrown by the task or
+     * null. Note that exceptions of submitted callables are kept by their futures and are not passed here.
+     *
+     * @param hook hook
+     */
+    public void addAfterExecuteHook(final BiConsumer<Runnable, Throwable> hook) {
+        this.afterExecuteHooks.add(hook);
+    }
+
+    /**
+     * Adds a hook which is called once when the executor is shut down.
+     *
+     * @param hook hook
+     */
+    public void addShutdownHook(final Runnable hook) {
+        this.shutdownHooks.add(hook);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return MultiThreading.getParallelism(this.delegate);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (this.beforeExecuteHooks.isEmpty()
+                && this.afterExecuteHooks.isEmpty()) {
+            this.delegate.execute(command);
+            return;
+        }
+        this.delegate.execute(() -> {
+            for (final Consumer<Runnable> hook : this.beforeExecuteHooks) {
+                hook.accept(command);
+            }
+            Throwable throwable = null;
+            try {
+                command.run();
+            } catch (final RuntimeException | Error e) {
+                throwable = e;
+                throw e;
+            } finally {
+                for (final BiConsumer<Runnable, Throwable> hook : this.afterExecuteHooks) {
+                    hook.accept(command, throwable);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+        this.callShutdownHooks();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> notExecuted = this.delegate.shutdownNow();
+        this.callShutdownHooks();
+
+        return notExecuted;
+    }
+
+    private void callShutdownHooks() {
+        if (this.shutdownHooksCalled.compareAndSet(false, true)) {
+            for (final Runnable hook : this.shutdownHooks) {
+                hook.run();
+            }
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Shuts the executor down and waits up to five seconds for running tasks.
+     */
+    @Override
+    public void close() {
+        MultiThreading.stopExecuter(this, 5);
+    }
+}
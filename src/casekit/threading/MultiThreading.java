@@ -1,11 +1,24 @@
 package casekit.threading;
 
-import java.util.Collection;
+import casekit.threading.model.BatchReport;
+
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
 public class MultiThreading {
 
+    // cancels tasks exceeding their time budget
+    private final static ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+        final Thread thread = new Thread(runnable, "task-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
     public static ExecutorService initExecuter(final int nThreads) {
         return Executors.newFixedThreadPool(nThreads);
     }
@@ -23,10 +36,53 @@ public class MultiThreading {
         }
     }
 
+    /**
+     * Returns the number of threads of the given executor, e.g. to bound the number of tasks in flight.
+     *
+     * @param executor executor
+     *
+     * @return number of available processors if the executor does not tell
+     */
+    public static int getParallelism(final ExecutorService executor) {
+        if (executor instanceof ManagedExecutor) {
+            return ((ManagedExecutor) executor).getParallelism();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+
+        return Runtime.getRuntime()
+                      .availableProcessors();
+    }
+
     public static <T> void processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
                                         final int nThreads, final long seconds) throws InterruptedException {
         // initialize an executor for parallelization
         final ExecutorService executor = initExecuter(nThreads);
+        try {
+            processTasks(callables, consumer, executor);
+        } finally {
+            // shut down the executor service
+            stopExecuter(executor, seconds);
+        }
+    }
+
+    /**
+     * Executes all tasks on the given executor, which stays alive afterwards and can be reused, e.g. a
+     * {@link ManagedExecutor}.
+     *
+     * @param callables tasks to execute
+     * @param consumer  consumer of the task results
+     * @param executor  executor to use
+     * @param <T>       result type
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for results
+     */
+    public static <T> void processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                        final ExecutorService executor) throws InterruptedException {
         // execute all task in parallel
         executor.invokeAll(callables)
                 .stream()
@@ -38,7 +94,384 @@ public class MultiThreading {
                     }
                 })
                 .forEach(consumer);
-        // shut down the executor service
-        stopExecuter(executor, seconds);
+    }
+
+    /**
+     * @param consumptionMode how to pass the results to the consumer
+     *
+     * @see #processTasks(Collection, Consumer, ExecutorService, ConsumptionMode)
+     */
+    public static <T> void processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                        final int nThreads, final long seconds,
+                                        final ConsumptionMode consumptionMode) throws InterruptedException {
+        final ExecutorService executor = initExecuter(nThreads);
+        try {
+            processTasks(callables, consumer, executor, consumptionMode);
+        } finally {
+            stopExecuter(executor, seconds);
+        }
+    }
+
+    /**
+     * Executes all tasks on the given executor and passes the results to the consumer as given by the consumption
+     * mode. With {@link ConsumptionMode#COMPLETION_ORDER} and {@link ConsumptionMode#PARALLEL}, the consumer
+     * already runs while other tasks are still computing, e.g. to rank or write results in a pipelined way.
+     *
+     * @param callables       tasks to execute
+     * @param consumer        consumer of the task results
+     * @param executor        executor to use, which stays alive afterwards
+     * @param consumptionMode how to pass the results to the consumer
+     * @param <T>             result type
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for results
+     */
+    public static <T> void processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                        final ExecutorService executor,
+                                        final ConsumptionMode consumptionMode) throws InterruptedException {
+        switch (consumptionMode) {
+            case COMPLETION_ORDER:
+                final CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+                final List<Future<T>> futures = new ArrayList<>(callables.size());
+                try {
+                    for (final Callable<T> callable : callables) {
+                        futures.add(completionService.submit(callable));
+                    }
+                    for (int i = 0; i
+                            < futures.size(); i++) {
+                        try {
+                            consumer.accept(completionService.take()
+                                                             .get());
+                        } catch (final ExecutionException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                } finally {
+                    // only effective if aborted, e.g. by a failed task or an interrupt
+                    for (final Future<T> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+                break;
+            case PARALLEL:
+                final List<Callable<Void>> consumingCallables = new ArrayList<>(callables.size());
+                for (final Callable<T> callable : callables) {
+                    consumingCallables.add(() -> {
+                        consumer.accept(callable.call());
+                        return null;
+                    });
+                }
+                processTasks(consumingCallables, result -> {
+                }, executor);
+                break;
+            default:
+                processTasks(callables, consumer, executor);
+        }
+    }
+
+    /**
+     * Executes the tasks pulled lazily from the given iterator with a bounded number of tasks in flight, i.e.
+     * submitted but not yet consumed. The results are passed to the consumer in completion order on the calling
+     * thread, so the consumer does not need to be thread-safe.
+     *
+     * @param callables   iterator of tasks to execute; it is only accessed by the calling thread
+     * @param consumer    consumer of the task results
+     * @param nThreads    number of threads to use
+     * @param maxInFlight maximum number of submitted but not yet consumed tasks
+     * @param seconds     seconds to wait for the executor to shut down
+     * @param <T>         result type
+     *
+     * @return number of executed tasks
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for results
+     */
+    public static <T> long processTasks(final Iterator<Callable<T>> callables, final Consumer<T> consumer,
+                                        final int nThreads, final int maxInFlight,
+                                        final long seconds) throws InterruptedException {
+        return processTasks(callables, consumer, nThreads, maxInFlight, seconds, false);
+    }
+
+    /**
+     * @param ordered whether to pass the results in submission order instead of completion order, see
+     *                {@link #processTasks(Iterator, Consumer, ExecutorService, int, boolean)}
+     *
+     * @see #processTasks(Iterator, Consumer, int, int, long)
+     */
+    public static <T> long processTasks(final Iterator<Callable<T>> callables, final Consumer<T> consumer,
+                                        final int nThreads, final int maxInFlight, final long seconds,
+                                        final boolean ordered) throws InterruptedException {
+        final ExecutorService executor = initExecuter(nThreads);
+        try {
+            return processTasks(callables, consumer, executor, maxInFlight, ordered);
+        } finally {
+            stopExecuter(executor, seconds);
+        }
+    }
+
+    /**
+     * @param executor executor to use, which stays alive afterwards
+     *
+     * @see #processTasks(Iterator, Consumer, int, int, long)
+     */
+    public static <T> long processTasks(final Iterator<Callable<T>> callables, final Consumer<T> consumer,
+                                        final ExecutorService executor,
+                                        final int maxInFlight) throws InterruptedException {
+        return processTasks(callables, consumer, executor, maxInFlight, false);
+    }
+
+    /**
+     * Executes the tasks pulled lazily from the given iterator with a bounded number of tasks in flight. <br>
+     * In submission order, the results are passed to the consumer in the order of the iterator, and finished
+     * tasks waiting for an earlier one still count as in flight. So a slow task holds back the submission of
+     * further tasks instead of letting their results pile up, and at most maxInFlight results are kept at any time.
+     *
+     * @param callables   iterator of tasks to execute; it is only accessed by the calling thread
+     * @param consumer    consumer of the task results, called on the calling thread
+     * @param executor    executor to use, which stays alive afterwards
+     * @param maxInFlight maximum number of submitted but not yet consumed tasks
+     * @param ordered     whether to pass the results in submission order instead of completion order
+     * @param <T>         result type
+     *
+     * @return number of executed tasks
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for results
+     */
+    public static <T> long processTasks(final Iterator<Callable<T>> callables, final Consumer<T> consumer,
+                                        final ExecutorService executor, final int maxInFlight,
+                                        final boolean ordered) throws InterruptedException {
+        if (ordered) {
+            return processTasksInOrder(callables, consumer, executor, maxInFlight);
+        }
+        final CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        final Set<Future<T>> inFlight = new HashSet<>();
+        long taskCount = 0;
+        try {
+            while (inFlight.size()
+                    < Math.max(1, maxInFlight)
+                    && callables.hasNext()) {
+                inFlight.add(completionService.submit(callables.next()));
+            }
+            while (!inFlight.isEmpty()) {
+                final Future<T> future = completionService.take();
+                inFlight.remove(future);
+                taskCount++;
+                // refill before consuming to keep the workers busy
+                if (callables.hasNext()) {
+                    inFlight.add(completionService.submit(callables.next()));
+                }
+                try {
+                    consumer.accept(future.get());
+                } catch (final ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } finally {
+            // only non-empty if aborted, e.g. by a failed task or an interrupt
+            for (final Future<T> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+
+        return taskCount;
+    }
+
+    private static <T> long processTasksInOrder(final Iterator<Callable<T>> callables, final Consumer<T> consumer,
+                                                final ExecutorService executor,
+                                                final int maxInFlight) throws InterruptedException {
+        final Deque<Future<T>> inFlight = new ArrayDeque<>();
+        long taskCount = 0;
+        try {
+            while (inFlight.size()
+                    < Math.max(1, maxInFlight)
+                    && callables.hasNext()) {
+                inFlight.add(executor.submit(callables.next()));
+            }
+            Future<T> future;
+            T result;
+            while (!inFlight.isEmpty()) {
+                future = inFlight.peek();
+                try {
+                    result = future.get();
+                } catch (final ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+                inFlight.poll();
+                taskCount++;
+                // refill before consuming to keep the workers busy
+                if (callables.hasNext()) {
+                    inFlight.add(executor.submit(callables.next()));
+                }
+                consumer.accept(result);
+            }
+        } finally {
+            // only non-empty if aborted, e.g. by a failed task or an interrupt
+            for (final Future<T> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+
+        return taskCount;
+    }
+
+    /**
+     * Executes all tasks with a time budget per task and a deadline for the whole batch. <br>
+     * The budget of a task starts when a thread picks it up. A task exceeding its budget is cancelled by interrupting
+     * its thread, so long-running tasks should check {@link Thread#isInterrupted()} regularly (cooperative
+     * cancellation). When the batch deadline is reached, all unfinished tasks are cancelled and the results
+     * available so far are returned. The consumer is called on the calling thread in submission order, for
+     * completed tasks only.
+     *
+     * @param callables          tasks to execute
+     * @param consumer           consumer of the task results
+     * @param nThreads           number of threads to use
+     * @param taskTimeoutMillis  time budget per task in milliseconds, or a value <= 0 for no budget
+     * @param batchTimeoutMillis deadline of the whole batch in milliseconds, or a value <= 0 for no deadline
+     * @param <T>                result type
+     *
+     * @return report of completed, timed out, skipped and failed tasks
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for results
+     */
+    public static <T> BatchReport processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                               final int nThreads, final long taskTimeoutMillis,
+                                               final long batchTimeoutMillis) throws InterruptedException {
+        return processTasks(callables, consumer, nThreads, taskTimeoutMillis, batchTimeoutMillis, new BatchReport());
+    }
+
+    /**
+     * @param batchReport report to fill in
+     *
+     * @see #processTasks(Collection, Consumer, int, long, long)
+     */
+    public static <T> BatchReport processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                               final int nThreads, final long taskTimeoutMillis,
+                                               final long batchTimeoutMillis,
+                                               final BatchReport batchReport) throws InterruptedException {
+        final ExecutorService executor = initExecuter(nThreads);
+        try {
+            return processTasks(callables, consumer, executor, taskTimeoutMillis, batchTimeoutMillis, batchReport);
+        } finally {
+            if (batchReport.isDeadlineReached()) {
+                executor.shutdownNow();
+            } else {
+                stopExecuter(executor, 5);
+            }
+        }
+    }
+
+    /**
+     * Executes all tasks with time budgets on the given executor, which stays alive afterwards. Tasks which
+     * ignore the interrupt keep occupying their thread until they finish.
+     *
+     * @param executor    executor to use
+     * @param batchReport report to fill in
+     *
+     * @see #processTasks(Collection, Consumer, int, long, long)
+     */
+    public static <T> BatchReport processTasks(final Collection<Callable<T>> callables, final Consumer<T> consumer,
+                                               final ExecutorService executor, final long taskTimeoutMillis,
+                                               final long batchTimeoutMillis,
+                                               final BatchReport batchReport) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long deadline = batchTimeoutMillis
+                                      > 0
+                              ? start
+                + batchTimeoutMillis
+                              : Long.MAX_VALUE;
+        batchReport.setTaskCount(callables.size());
+
+        final List<BudgetedTask<T>> tasks = new ArrayList<>(callables.size());
+        try {
+            for (final Callable<T> callable : callables) {
+                final BudgetedTask<T> task = new BudgetedTask<>(callable, taskTimeoutMillis);
+                tasks.add(task);
+                executor.execute(task);
+            }
+            long remaining;
+            BudgetedTask<T> task;
+            for (int i = 0; i
+                    < tasks.size(); i++) {
+                task = tasks.get(i);
+                remaining = deadline
+                        - System.currentTimeMillis();
+                try {
+                    if (remaining
+                            <= 0
+                            && !task.isDone()) {
+                        throw new TimeoutException();
+                    }
+                    consumer.accept(deadline
+                                            == Long.MAX_VALUE
+                                    ? task.get()
+                                    : task.get(remaining, TimeUnit.MILLISECONDS));
+                    batchReport.setCompletedCount(batchReport.getCompletedCount()
+                                                          + 1);
+                } catch (final TimeoutException e) {
+                    batchReport.setDeadlineReached(true);
+                    task.cancel(true);
+                    if (task.isStarted()) {
+                        batchReport.getTimedOutTaskIndices()
+                                   .add(i);
+                    } else {
+                        batchReport.getSkippedTaskIndices()
+                                   .add(i);
+                    }
+                } catch (final CancellationException e) {
+                    batchReport.getTimedOutTaskIndices()
+                               .add(i);
+                } catch (final ExecutionException e) {
+                    batchReport.getFailedTaskIndices()
+                               .add(i);
+                }
+            }
+        } finally {
+            // e.g. after an interrupt of the calling thread
+            for (final BudgetedTask<T> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        batchReport.setElapsedMillis(System.currentTimeMillis()
+                                             - start);
+
+        return batchReport;
+    }
+
+    /**
+     * Task which cancels itself (by interrupting its thread) if it runs longer than its time budget.
+     */
+    private static class BudgetedTask<T>
+            extends FutureTask<T> {
+
+        private final long timeoutMillis;
+        private volatile boolean started;
+
+        BudgetedTask(final Callable<T> callable, final long timeoutMillis) {
+            super(callable);
+            this.timeoutMillis = timeoutMillis;
+            this.started = false;
+        }
+
+        @Override
+        public void run() {
+            if (this.isDone()) {
+                return;
+            }
+            this.started = true;
+            if (this.timeoutMillis
+                    <= 0) {
+                super.run();
+                return;
+            }
+            final ScheduledFuture<?> timeout = WATCHDOG.schedule(() -> this.cancel(true), this.timeoutMillis,
+                                                                      TimeUnit.MILLISECONDS);
+            try {
+                super.run();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        boolean isStarted() {
+            return this.started;
+        }
     }
 }
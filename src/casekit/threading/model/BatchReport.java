@@ -0,0 +1,33 @@
+package casekit.threading.model;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a batch of tasks with time budgets. Task indices refer to the iteration order of the given tasks.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class BatchReport {
+
+    private int taskCount;
+    private int completedCount;
+    // cancelled while running, either after exceeding their own budget or at the batch deadline
+    private List<Integer> timedOutTaskIndices = new ArrayList<>();
+    // not started before the batch deadline
+    private List<Integer> skippedTaskIndices = new ArrayList<>();
+    // finished with an exception
+    private List<Integer> failedTaskIndices = new ArrayList<>();
+    private boolean deadlineReached;
+    private long elapsedMillis;
+
+    public boolean isComplete() {
+        return this.completedCount
+                == this.taskCount;
+    }
+}